@@ -61,6 +61,10 @@ abstract public class AbstractComponentRuntime implements IComponentRuntime {
     protected final Logger log = LoggerFactory.getLogger(getClass());
 
     public final static String INBOUND_QUEUE_CAPACITY = ComponentSettingsConstants.INBOUND_QUEUE_CAPACITY;   
+
+    public final static String COPY_OUTBOUND_PAYLOAD = ComponentSettingsConstants.COPY_OUTBOUND_PAYLOAD;
+
+    public final static String RUN_ON_SOURCE_THREAD = ComponentSettingsConstants.RUN_ON_SOURCE_THREAD;
     
     public final static String ENABLED = ComponentSettingsConstants.ENABLED;
 
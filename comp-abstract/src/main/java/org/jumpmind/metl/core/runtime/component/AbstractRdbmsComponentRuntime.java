@@ -29,6 +29,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -57,12 +58,14 @@ abstract public class AbstractRdbmsComponentRuntime extends AbstractComponentRun
     
     public final static String QUERY_TIMEOUT = "query.timeout.seconds";
 
-    protected List<Result> results = new ArrayList<Result>();
+    protected Map<String, Result> results = new LinkedHashMap<String, Result>();
 
     protected DataSource dataSource;
     
     protected int queryTimeout = -1;
 
+    protected int fetchSize = -1;
+
     protected NamedParameterJdbcTemplate getJdbcTemplate() {
         if (dataSource == null && getResourceRuntime() == null) {
             throw new RuntimeException("The data source resource has not been configured.  Please configure it.");
@@ -73,6 +76,7 @@ abstract public class AbstractRdbmsComponentRuntime extends AbstractComponentRun
         }
         JdbcTemplate template = new JdbcTemplate(dataSource);
         template.setQueryTimeout(queryTimeout);
+        template.setFetchSize(fetchSize);
         return new NamedParameterJdbcTemplate(template);
     }
 
@@ -177,14 +181,35 @@ abstract public class AbstractRdbmsComponentRuntime extends AbstractComponentRun
         this.dataSource = dataSource;
     }
 
+    /**
+     * Adds to the totals kept for a statement and operation so that the
+     * number of results stays the same no matter how many rows are written
+     */
+    protected void addResult(String operation, String sql, int numberRowsAffected, long durationInMs, int errorCount) {
+        String key = operation + ":" + sql;
+        Result result = results.get(key);
+        if (result == null) {
+            result = new Result(operation, sql);
+            results.put(key, result);
+        }
+        result.numberOfExecutions++;
+        result.numberRowsAffected += numberRowsAffected;
+        result.durationInMs += durationInMs;
+        result.errorCount += errorCount;
+    }
+
     @SuppressWarnings("unchecked")
-    protected ArrayList<String> convertResultsToTextPayload(List<Result> results) {
+    protected ArrayList<String> convertResultsToTextPayload(Map<String, Result> results) {
         ArrayList<String> payload = new ArrayList<String>();
         JSONArray jsonResults = new JSONArray();
-        for (Result result : results) {
+        for (Result result : results.values()) {
             JSONObject jsonResult = new JSONObject();
             jsonResult.put("Sql", result.sql);
+            jsonResult.put("Operation", result.operation);
             jsonResult.put("Rows Affected", result.numberRowsAffected);
+            jsonResult.put("Executions", result.numberOfExecutions);
+            jsonResult.put("Duration Ms", result.durationInMs);
+            jsonResult.put("Errors", result.errorCount);
             jsonResults.add(jsonResult);
         }
         payload.add(jsonResults.toJSONString());
@@ -192,12 +217,16 @@ abstract public class AbstractRdbmsComponentRuntime extends AbstractComponentRun
     }
 
     class Result {
+        String operation;
         String sql;
-        int numberRowsAffected;
+        long numberRowsAffected;
+        long numberOfExecutions;
+        long durationInMs;
+        long errorCount;
 
-        Result(String sql, int numberRowsAffected) {
+        Result(String operation, String sql) {
+            this.operation = operation;
             this.sql = sql;
-            this.numberRowsAffected = numberRowsAffected;
         }
     }
 
@@ -32,13 +32,10 @@ import java.util.Date;
 import java.util.List;
 import java.util.Map;
 
-import javax.script.ScriptEngine;
-import javax.script.ScriptException;
-
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.time.DateUtils;
 import org.apache.commons.lang.time.FastDateFormat;
-import org.codehaus.groovy.jsr223.GroovyScriptEngineImpl;
+import org.codehaus.groovy.control.CompilationFailedException;
 import org.jumpmind.metl.core.model.Model;
 import org.jumpmind.metl.core.model.ModelAttribute;
 import org.jumpmind.metl.core.model.ModelEntity;
@@ -46,6 +43,7 @@ import org.jumpmind.metl.core.runtime.EntityData;
 import org.jumpmind.metl.core.runtime.EntityData.ChangeType;
 import org.jumpmind.metl.core.runtime.EntityDataMessage;
 import org.jumpmind.metl.core.runtime.Message;
+import org.jumpmind.metl.core.util.GroovyClassCache;
 import org.jumpmind.util.FormatUtils;
 import org.springframework.core.LocalVariableTableParameterNameDiscoverer;
 
@@ -67,8 +65,6 @@ public class ModelAttributeScriptHelper {
 
     public static final RemoveAttribute REMOVE_ATTRIBUTE = new RemoveAttribute();
 
-    static private ThreadLocal<ScriptEngine> scriptEngine = new ThreadLocal<ScriptEngine>();
-
     public ModelAttributeScriptHelper(Message message, ComponentContext context, ModelAttribute attribute, ModelEntity entity, Model model,
             EntityData data, Object value) {
         this(context, attribute, entity, model);
@@ -426,33 +422,70 @@ public class ModelAttributeScriptHelper {
         return signatures.toArray(new String[signatures.size()]);
     }
 
-    public static Object eval(Message message, ComponentContext context, ModelAttribute attribute, Object value, Model model, ModelEntity entity,
-            EntityData data, String expression) {
-        ScriptEngine engine = scriptEngine.get();
-        if (engine == null) {
-            engine = new GroovyScriptEngineImpl();
-            scriptEngine.set(engine);
+    /**
+     * Compile an expression once into a helper that can be evaluated for
+     * many values with {@link #eval(Message, EntityData, Object)}. The
+     * returned helper keeps per row state so it must not be shared between
+     * threads.
+     */
+    public static ModelAttributeScriptHelper create(ComponentContext context, ModelAttribute attribute, ModelEntity entity, Model model,
+            String expression) {
+        return create(context, attribute, entity, model, "return " + expression, false);
+    }
+
+    /**
+     * Create a helper whose {@link #eval()} method runs the script. The
+     * compiled class comes from the {@link GroovyClassCache} so a script is
+     * only compiled once no matter how many times a flow runs. When
+     * compileStatic is set the script is type checked and statically
+     * compiled.
+     */
+    public static ModelAttributeScriptHelper create(ComponentContext context, ModelAttribute attribute, ModelEntity entity, Model model,
+            String script, boolean compileStatic) {
+        Class<?> clazz = null;
+        try {
+            String code = String.format("import %s;\n%sclass CompiledModelAttributeScriptHelper extends %s {\n"
+                    + " CompiledModelAttributeScriptHelper(%s context, %s attribute, %s entity, %s model) { super(context, attribute, entity, model) }\n"
+                    + " public Object eval() { %s \n }\n}\n", ModelAttributeScriptHelper.class.getName(),
+                    compileStatic ? GroovyClassCache.COMPILE_STATIC : "", ModelAttributeScriptHelper.class.getSimpleName(),
+                    ComponentContext.class.getName(), ModelAttribute.class.getName(), ModelEntity.class.getName(), Model.class.getName(),
+                    script);
+            clazz = GroovyClassCache.getClass(code);
+        } catch (CompilationFailedException e) {
+            throw new RuntimeException("Unable to compile groovy script.  Attribute ==> " + attribute.getName() + ".  Script ==> "
+                    + script + "." + e.getMessage(), e);
+        }
+
+        try {
+            return (ModelAttributeScriptHelper) clazz.getConstructor(ComponentContext.class, ModelAttribute.class, ModelEntity.class, Model.class)
+                    .newInstance(context, attribute, entity, model);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
         }
-        engine.put("value", value);
-        engine.put("data", data);
-        engine.put("entity", entity);
-        engine.put("model", model);
-        engine.put("attribute", attribute);
-        engine.put("message", message);
-        engine.put("context", context);
+    }
 
+    /**
+     * Evaluate a helper returned by
+     * {@link #create(ComponentContext, ModelAttribute, ModelEntity, Model, String)}
+     * for one value
+     */
+    public Object eval(Message message, EntityData data, Object value) {
+        this.message = message;
+        this.data = data;
+        this.value = value;
         try {
-            String importString = "import org.jumpmind.metl.core.runtime.component.ModelAttributeScriptHelper;\n";
-            String code = String.format(
-                    "return new ModelAttributeScriptHelper(message, context, attribute, entity, model, data, value) { public Object eval() { return %s } }.eval()",
-                    expression);
-            return engine.eval(importString + code);
-        } catch (ScriptException e) {
+            return eval();
+        } catch (RuntimeException e) {
             throw new RuntimeException("Unable to evaluate groovy script.  Attribute ==> " + attribute.getName() + ".  Value ==> "
-                    + value.toString() + "." + e.getCause().getMessage(), e);
+                    + (value == null ? "null" : value.toString()) + "." + e.getMessage(), e);
         }
     }
 
+    public static Object eval(Message message, ComponentContext context, ModelAttribute attribute, Object value, Model model, ModelEntity entity,
+            EntityData data, String expression) {
+        return create(context, attribute, entity, model, expression).eval(message, data, value);
+    }
+
     static class RemoveAttribute {
 
     }
@@ -0,0 +1,424 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.jumpmind.metl.core.runtime.EntityData;
+import org.jumpmind.metl.core.runtime.EntityData.ChangeType;
+import org.jumpmind.metl.core.runtime.EntityDataCodec;
+import org.jumpmind.metl.core.runtime.EntityDataSchema;
+import org.jumpmind.metl.core.runtime.flow.ISendMessageCallback;
+
+/**
+ * Base class for the diff strategies that compare rows without loading them
+ * into a database. Rows from the original source are added before or while
+ * rows from the new source are added. The changes are sent when
+ * {@link #diff(ISendMessageCallback)} is called at the end of the unit of
+ * work: ADD and CHG rows in entity order followed by DEL rows in reverse
+ * entity order.
+ */
+public abstract class AbstractDataDiffEngine {
+
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    final DataDiff component;
+
+    final List<DiffEntity> entities;
+
+    final int rowsPerMessage;
+
+    final boolean compareDigests;
+
+    final int rowsInMemory;
+
+    List<RowFile> rowFiles = new ArrayList<>();
+
+    public AbstractDataDiffEngine(DataDiff component, List<DiffEntity> entities, int rowsPerMessage, boolean compareDigests,
+            int rowsInMemory) {
+        this.component = component;
+        this.entities = entities;
+        this.rowsPerMessage = rowsPerMessage;
+        this.compareDigests = compareDigests;
+        this.rowsInMemory = rowsInMemory;
+    }
+
+    public abstract void addOriginal(EntityData row);
+
+    public abstract void addCurrent(EntityData row);
+
+    /**
+     * Called when the original source has sent all of its rows
+     */
+    public void originalComplete() {
+    }
+
+    public abstract void diff(ISendMessageCallback callback);
+
+    /**
+     * Release memory and temporary files so the engine can be used for the
+     * next unit of work
+     */
+    public void clear() {
+        for (RowFile rowFile : rowFiles) {
+            rowFile.delete();
+        }
+        rowFiles.clear();
+    }
+
+    protected RowFile createRowFile(String prefix, EntityDataSchema schema) {
+        RowFile rowFile = new RowFile(prefix, schema);
+        rowFiles.add(rowFile);
+        return rowFile;
+    }
+
+    /**
+     * Collects changed rows into messages of rowsPerMessage rows
+     */
+    class RowSender {
+
+        ISendMessageCallback callback;
+
+        ChangeType changeType;
+
+        DiffEntity entity;
+
+        ArrayList<EntityData> payload = new ArrayList<EntityData>();
+
+        int count;
+
+        RowSender(ISendMessageCallback callback, DiffEntity entity, ChangeType changeType) {
+            this.callback = callback;
+            this.entity = entity;
+            this.changeType = changeType;
+        }
+
+        void send(Object[] values) {
+            payload.add(entity.toOutput(values, changeType));
+            count++;
+            if (payload.size() >= rowsPerMessage) {
+                callback.sendEntityDataMessage(null, payload);
+                payload = new ArrayList<EntityData>();
+            }
+        }
+
+        void finish() {
+            if (payload.size() > 0) {
+                callback.sendEntityDataMessage(null, payload);
+                payload = new ArrayList<EntityData>();
+            }
+            component.logSent(count, changeType, entity);
+        }
+    }
+
+    /**
+     * A temporary file of rows that is written once and then read back in
+     * the order the rows were written
+     */
+    class RowFile {
+
+        File file;
+
+        EntityDataCodec codec;
+
+        DataOutputStream out;
+
+        long count;
+
+        RowFile(String prefix, EntityDataSchema schema) {
+            this.codec = new EntityDataCodec(schema);
+            try {
+                this.file = File.createTempFile(prefix, ".rows");
+                this.file.deleteOnExit();
+                this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to create a temporary file for the data diff", e);
+            }
+        }
+
+        void append(EntityData row) {
+            try {
+                codec.write(out, row);
+                count++;
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to write to " + file, e);
+            }
+        }
+
+        RowReader read() {
+            try {
+                if (out != null) {
+                    codec.writeEnd(out);
+                    out.close();
+                    out = null;
+                }
+                return new RowReader(this);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to read " + file, e);
+            }
+        }
+
+        void delete() {
+            try {
+                if (out != null) {
+                    out.close();
+                    out = null;
+                }
+            } catch (IOException e) {
+            }
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+
+    class RowReader implements AutoCloseable {
+
+        RowFile rowFile;
+
+        DataInputStream in;
+
+        RowReader(RowFile rowFile) throws IOException {
+            this.rowFile = rowFile;
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(rowFile.file), BUFFER_SIZE));
+        }
+
+        /**
+         * @return the next row or null when all rows have been read
+         */
+        EntityData next() {
+            try {
+                return rowFile.codec.read(in);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to read " + rowFile.file, e);
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    /**
+     * The rows of one source for one entity. Rows are buffered until there
+     * are rowsInMemory of them and are then sorted and written to a run
+     * file. The sort is stable and runs are merged in the order they were
+     * written so rows with the same key come back in the order they arrived.
+     */
+    class Runs {
+
+        DiffEntity entity;
+
+        List<Object[]> buffer = new ArrayList<>();
+
+        List<RowFile> files = new ArrayList<>();
+
+        Comparator<Object[]> comparator;
+
+        Runs(DiffEntity entity) {
+            this.entity = entity;
+            this.comparator = (values1, values2) -> entity.compareKeys(values1, values2);
+        }
+
+        void add(Object[] values) {
+            buffer.add(values);
+            if (rowsInMemory > 0 && buffer.size() >= rowsInMemory) {
+                spill();
+            }
+        }
+
+        void spill() {
+            Collections.sort(buffer, comparator);
+            RowFile file = createRowFile("metl-diff-run-", entity.getSchema());
+            for (Object[] values : buffer) {
+                file.append(entity.toEntityData(values));
+            }
+            files.add(file);
+            buffer = new ArrayList<>();
+        }
+
+        UniqueKeyIterator iterator() {
+            if (files.size() == 0) {
+                Collections.sort(buffer, comparator);
+                List<Object[]> rows = buffer;
+                buffer = new ArrayList<>();
+                return new UniqueKeyIterator(entity, new ListCursor(rows));
+            } else {
+                if (buffer.size() > 0) {
+                    spill();
+                }
+                return new UniqueKeyIterator(entity, new MergeCursor(entity, files, comparator));
+            }
+        }
+    }
+
+    interface Cursor extends AutoCloseable {
+
+        /**
+         * @return the next row or null when there are no more rows
+         */
+        Object[] next();
+
+        @Override
+        void close();
+
+    }
+
+    static class ListCursor implements Cursor {
+
+        List<Object[]> rows;
+
+        int index;
+
+        ListCursor(List<Object[]> rows) {
+            this.rows = rows;
+        }
+
+        @Override
+        public Object[] next() {
+            return index < rows.size() ? rows.get(index++) : null;
+        }
+
+        @Override
+        public void close() {
+            rows = null;
+        }
+    }
+
+    class MergeCursor implements Cursor {
+
+        DiffEntity entity;
+
+        List<RunCursor> cursors = new ArrayList<>();
+
+        PriorityQueue<RunCursor> queue;
+
+        MergeCursor(DiffEntity entity, List<RowFile> files, Comparator<Object[]> comparator) {
+            this.entity = entity;
+            this.queue = new PriorityQueue<>(files.size(), (c1, c2) -> {
+                int result = comparator.compare(c1.current, c2.current);
+                return result != 0 ? result : Integer.compare(c1.runNumber, c2.runNumber);
+            });
+            for (int i = 0; i < files.size(); i++) {
+                RunCursor cursor = new RunCursor(i, files.get(i).read());
+                cursors.add(cursor);
+                if (cursor.advance()) {
+                    queue.add(cursor);
+                }
+            }
+        }
+
+        @Override
+        public Object[] next() {
+            RunCursor cursor = queue.poll();
+            if (cursor == null) {
+                return null;
+            }
+            Object[] values = cursor.current;
+            if (cursor.advance()) {
+                queue.add(cursor);
+            }
+            return values;
+        }
+
+        @Override
+        public void close() {
+            for (RunCursor cursor : cursors) {
+                cursor.reader.close();
+            }
+        }
+
+        class RunCursor {
+
+            int runNumber;
+
+            RowReader reader;
+
+            Object[] current;
+
+            RunCursor(int runNumber, RowReader reader) {
+                this.runNumber = runNumber;
+                this.reader = reader;
+            }
+
+            boolean advance() {
+                EntityData row = reader.next();
+                current = row != null ? entity.toValues(row) : null;
+                return current != null;
+            }
+        }
+    }
+
+    /**
+     * Returns the last row of each group of rows with the same key. A key
+     * with a null value never matches another key, the same as in a join, so
+     * each of those rows is returned.
+     */
+    static class UniqueKeyIterator {
+
+        DiffEntity entity;
+
+        Cursor cursor;
+
+        Object[] next;
+
+        UniqueKeyIterator(DiffEntity entity, Cursor cursor) {
+            this.entity = entity;
+            this.cursor = cursor;
+            this.next = cursor.next();
+        }
+
+        Object[] peek() {
+            return next;
+        }
+
+        Object[] next() {
+            Object[] values = next;
+            next = cursor.next();
+            while (next != null && !entity.hasNullKey(values) && entity.compareKeys(values, next) == 0) {
+                values = next;
+                next = cursor.next();
+            }
+            return values;
+        }
+
+        void close() {
+            cursor.close();
+        }
+    }
+
+}
@@ -53,7 +53,9 @@ import org.jumpmind.metl.core.model.Model;
 import org.jumpmind.metl.core.model.ModelAttribute;
 import org.jumpmind.metl.core.model.ModelEntity;
 import org.jumpmind.metl.core.runtime.ControlMessage;
+import org.jumpmind.metl.core.runtime.EntityData;
 import org.jumpmind.metl.core.runtime.EntityData.ChangeType;
+import org.jumpmind.metl.core.runtime.EntityDataMessage;
 import org.jumpmind.metl.core.runtime.LogLevel;
 import org.jumpmind.metl.core.runtime.Message;
 import org.jumpmind.metl.core.runtime.MisconfiguredException;
@@ -65,6 +67,15 @@ public class DataDiff extends AbstractComponentRuntime {
     public static String SOURCE_1 = "source.1";
     public static String SOURCE_2 = "source.2";
     public static String IN_MEMORY_COMPARE = "in.memory.compare";
+    public static String DIFF_STRATEGY = "diff.strategy";
+    public static String SORT_MERGE_ROWS_IN_MEMORY = "sort.merge.rows.in.memory";
+    public static String COMPARE_ROW_HASH = "compare.row.hash";
+
+    public final static String STRATEGY_DATABASE = "DATABASE";
+
+    public final static String STRATEGY_HASH_JOIN = "HASH JOIN";
+
+    public final static String STRATEGY_SORT_MERGE = "SORT MERGE";
 
     public final static String ENTITY_ADD_ENABLED = "add.enabled";
 
@@ -94,6 +105,8 @@ public class DataDiff extends AbstractComponentRuntime {
 
     Throwable error;
 
+    AbstractDataDiffEngine engine;
+
     @Override
     public void start() {
         error = null;
@@ -133,11 +146,42 @@ public class DataDiff extends AbstractComponentRuntime {
                 return new Integer(orderValue1).compareTo(new Integer(orderValue2));
             }
         });
+
+        String strategy = properties.get(DIFF_STRATEGY, STRATEGY_DATABASE);
+        if (!STRATEGY_DATABASE.equals(strategy)) {
+            List<DiffEntity> diffEntities = new ArrayList<>(entities.size());
+            for (ModelEntity entity : entities) {
+                diffEntities.add(new DiffEntity(entity, comp));
+            }
+            boolean compareRowHash = properties.is(COMPARE_ROW_HASH, false);
+            int rowsInMemory = properties.getInt(SORT_MERGE_ROWS_IN_MEMORY, 100000);
+            if (STRATEGY_HASH_JOIN.equals(strategy)) {
+                engine = new HashJoinDataDiffEngine(this, diffEntities, rowsPerMessage, compareRowHash,
+                        rowsInMemory, inputModel.getEntityDataSchema());
+            } else if (STRATEGY_SORT_MERGE.equals(strategy)) {
+                engine = new SortMergeDataDiffEngine(this, diffEntities, rowsPerMessage, compareRowHash,
+                        rowsInMemory);
+            } else {
+                throw new MisconfiguredException("Unsupported diff strategy: %s", strategy);
+            }
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (engine != null) {
+            engine.clear();
+        }
+        super.stop();
     }
 
     @Override
     public void handle(Message message, ISendMessageCallback callback,
             boolean unitOfWorkBoundaryReached) {
+        if (engine != null) {
+            diffWithEngine(message, callback, unitOfWorkBoundaryReached);
+            return;
+        }
         createDatabase();
         loadIntoDatabase(message);
         if (unitOfWorkBoundaryReached && error == null) {
@@ -145,6 +189,37 @@ public class DataDiff extends AbstractComponentRuntime {
         }
     }
 
+    protected void diffWithEngine(Message message, ISendMessageCallback callback,
+            boolean unitOfWorkBoundaryReached) {
+        String originatingStepId = message.getHeader().getOriginatingStepId();
+        boolean original = sourceStep1Id.equals(originatingStepId);
+        if (message instanceof EntityDataMessage) {
+            boolean current = sourceStep2Id.equals(originatingStepId);
+            for (EntityData row : ((EntityDataMessage) message).getPayload()) {
+                if (original) {
+                    engine.addOriginal(row);
+                } else if (current) {
+                    engine.addCurrent(row);
+                }
+                getComponentStatistics().incrementNumberEntitiesProcessed(threadNumber);
+            }
+        } else if (message instanceof ControlMessage && original) {
+            engine.originalComplete();
+        }
+
+        if (unitOfWorkBoundaryReached) {
+            try {
+                engine.diff(callback);
+            } finally {
+                engine.clear();
+            }
+        }
+    }
+
+    void logSent(int count, ChangeType changeType, DiffEntity entity) {
+        info("Sent %d %s records for %s", count, changeType, entity.getName());
+    }
+
     protected void calculateDiff(ISendMessageCallback callback) {
         Map<ModelEntity, String> changeSqls = new HashMap<>();
         Map<ModelEntity, String> addSqls = new HashMap<>();
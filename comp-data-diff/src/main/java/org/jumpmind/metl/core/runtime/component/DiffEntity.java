@@ -0,0 +1,401 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.commons.lang.StringUtils;
+import org.jumpmind.metl.core.model.Component;
+import org.jumpmind.metl.core.model.ComponentAttributeSetting;
+import org.jumpmind.metl.core.model.ComponentEntitySetting;
+import org.jumpmind.metl.core.model.DataType;
+import org.jumpmind.metl.core.model.ModelAttribute;
+import org.jumpmind.metl.core.model.ModelEntity;
+import org.jumpmind.metl.core.runtime.EntityData;
+import org.jumpmind.metl.core.runtime.EntityData.ChangeType;
+import org.jumpmind.metl.core.runtime.EntityDataSchema;
+import org.jumpmind.metl.core.runtime.component.DigestKeySet.Digest;
+
+/**
+ * The settings of one entity for the native diff strategies. Rows are
+ * projected onto the attributes of the entity in model order and their values
+ * are normalized the same way the database strategy's column types would
+ * convert them, so that both strategies see the same changes.
+ */
+public class DiffEntity {
+
+    final ModelEntity entity;
+
+    final String[] attributeIds;
+
+    final DataType[] dataTypes;
+
+    final int[] pkIndexes;
+
+    final int[] compareIndexes;
+
+    final int[] outputIndexes;
+
+    final boolean addEnabled;
+
+    final boolean chgEnabled;
+
+    final boolean delEnabled;
+
+    final boolean compareChanges;
+
+    final EntityDataSchema schema;
+
+    MessageDigest messageDigest;
+
+    public DiffEntity(ModelEntity entity, Component component) {
+        this.entity = entity;
+        List<ModelAttribute> attributes = entity.getModelAttributes();
+        this.attributeIds = new String[attributes.size()];
+        this.dataTypes = new DataType[attributes.size()];
+        List<Integer> pks = new ArrayList<>();
+        List<Integer> compares = new ArrayList<>();
+        List<Integer> outputs = new ArrayList<>();
+        for (int i = 0; i < attributes.size(); i++) {
+            ModelAttribute attribute = attributes.get(i);
+            attributeIds[i] = attribute.getId();
+            dataTypes[i] = attribute.getDataType();
+            ComponentAttributeSetting compareSetting = component.getSingleAttributeSetting(attribute.getId(),
+                    DataDiff.ATTRIBUTE_COMPARE_ENABLED);
+            boolean compare = compareSetting != null ? Boolean.parseBoolean(compareSetting.getValue()) : true;
+            if (attribute.isPk()) {
+                pks.add(i);
+            } else if (compare) {
+                compares.add(i);
+            }
+            if (compare) {
+                outputs.add(i);
+            }
+        }
+        this.pkIndexes = toArray(pks);
+        this.compareIndexes = toArray(compares);
+        this.outputIndexes = toArray(outputs);
+        this.addEnabled = isEnabled(component, DataDiff.ENTITY_ADD_ENABLED);
+        this.chgEnabled = isEnabled(component, DataDiff.ENTITY_CHG_ENABLED);
+        this.delEnabled = isEnabled(component, DataDiff.ENTITY_DEL_ENABLED);
+        this.compareChanges = !entity.hasOnlyPrimaryKeys() && compareIndexes.length > 0;
+        this.schema = new EntityDataSchema(Arrays.asList(attributeIds));
+    }
+
+    private boolean isEnabled(Component component, String name) {
+        ComponentEntitySetting setting = component.getSingleEntitySetting(entity.getId(), name);
+        return setting != null ? Boolean.parseBoolean(setting.getValue()) : true;
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    public ModelEntity getEntity() {
+        return entity;
+    }
+
+    public String getName() {
+        return entity.getName();
+    }
+
+    public EntityDataSchema getSchema() {
+        return schema;
+    }
+
+    /**
+     * @return true if the row has a value for any attribute of this entity
+     */
+    public boolean shouldProcess(EntityData row) {
+        for (String attributeId : attributeIds) {
+            if (row.containsKey(attributeId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public Object[] project(EntityData row) {
+        Object[] values = new Object[attributeIds.length];
+        for (int i = 0; i < values.length; i++) {
+            Object value = row.get(attributeIds[i]);
+            try {
+                values[i] = normalize(dataTypes[i], value);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(String.format("Could not convert '%s' to %s for %s.%s", value, dataTypes[i],
+                        entity.getName(), entity.getModelAttributes().get(i).getName()), e);
+            }
+        }
+        return values;
+    }
+
+    public EntityData toEntityData(Object[] values) {
+        EntityData data = new EntityData(schema);
+        for (int i = 0; i < values.length; i++) {
+            data.put(attributeIds[i], values[i]);
+        }
+        return data;
+    }
+
+    public Object[] toValues(EntityData data) {
+        Object[] values = new Object[attributeIds.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = data.get(attributeIds[i]);
+        }
+        return values;
+    }
+
+    /**
+     * @return the attributes that are enabled for compare, which are the
+     *         attributes the database strategy selects
+     */
+    public EntityData toOutput(Object[] values, ChangeType changeType) {
+        EntityData data = new EntityData(schema);
+        for (int index : outputIndexes) {
+            data.put(attributeIds[index], values[index]);
+        }
+        data.setChangeType(changeType);
+        return data;
+    }
+
+    public Key key(Object[] values) {
+        Object[] keyValues = new Object[pkIndexes.length];
+        for (int i = 0; i < keyValues.length; i++) {
+            keyValues[i] = values[pkIndexes[i]];
+        }
+        return new Key(keyValues);
+    }
+
+    /**
+     * @return true if any primary key value is null. The database strategy
+     *         joins on the key columns so such a row never matches.
+     */
+    public boolean hasNullKey(Object[] values) {
+        for (int index : pkIndexes) {
+            if (values[index] == null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int compareKeys(Object[] values1, Object[] values2) {
+        for (int index : pkIndexes) {
+            int result = compareValues(values1[index], values2[index]);
+            if (result != 0) {
+                return result;
+            }
+        }
+        return 0;
+    }
+
+    public Object[] compareValues(Object[] values) {
+        Object[] compareValues = new Object[compareIndexes.length];
+        for (int i = 0; i < compareValues.length; i++) {
+            compareValues[i] = values[compareIndexes[i]];
+        }
+        return compareValues;
+    }
+
+    /**
+     * @param compareValues
+     *            the values returned by {@link #compareValues(Object[])}
+     */
+    public boolean isChanged(Object[] compareValues, Object[] values) {
+        for (int i = 0; i < compareIndexes.length; i++) {
+            if (!valuesEqual(compareValues[i], values[compareIndexes[i]])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean isChanged(Object[] original, Object[] current, boolean compareDigests) {
+        if (compareDigests) {
+            return !digest(original).equals(digest(current));
+        } else {
+            return isChanged(compareValues(original), current);
+        }
+    }
+
+    /**
+     * @return a digest of the attributes that are compared for changes
+     */
+    public Digest digest(Object[] values) {
+        if (messageDigest == null) {
+            try {
+                messageDigest = MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        for (int index : compareIndexes) {
+            Object value = values[index];
+            if (value == null) {
+                messageDigest.update((byte) 0);
+            } else {
+                byte[] bytes = value instanceof byte[] ? (byte[]) value
+                        : (value instanceof BigDecimal ? ((BigDecimal) value).stripTrailingZeros().toPlainString()
+                                : value.toString()).getBytes(StandardCharsets.UTF_8);
+                messageDigest.update((byte) 1);
+                messageDigest.update(ByteBuffer.allocate(4).putInt(bytes.length).array());
+                messageDigest.update(bytes);
+            }
+        }
+        ByteBuffer bytes = ByteBuffer.wrap(messageDigest.digest());
+        return new Digest(bytes.getLong(), bytes.getLong());
+    }
+
+    /**
+     * Convert a value to the type the database strategy stores for the
+     * column so that all values of an attribute have the same class: a
+     * BigDecimal, Boolean, Timestamp, byte array or String.
+     * 
+     * @throws IllegalArgumentException
+     *             if the value cannot be converted, like the database would
+     *             fail to insert it
+     */
+    protected static Object normalize(DataType dataType, Object value) {
+        if (value == null) {
+            return null;
+        } else if (dataType == null) {
+            return value.toString();
+        } else if (dataType.isNumeric()) {
+            if (value instanceof BigDecimal) {
+                return value;
+            }
+            String text = value.toString().trim();
+            if (StringUtils.isBlank(text)) {
+                return null;
+            }
+            return new BigDecimal(text);
+        } else if (dataType.isBoolean()) {
+            if (value instanceof Boolean) {
+                return value;
+            } else if (value instanceof Number) {
+                return ((Number) value).intValue() != 0;
+            }
+            String text = value.toString().trim();
+            return text.equals("1") || text.equalsIgnoreCase("true") || text.equalsIgnoreCase("y");
+        } else if (dataType.isTimestamp()) {
+            if (value instanceof Timestamp) {
+                return value;
+            } else if (value instanceof Date) {
+                return new Timestamp(((Date) value).getTime());
+            }
+            String text = value.toString().trim();
+            if (StringUtils.isBlank(text)) {
+                return null;
+            } else if (text.length() == 10) {
+                return new Timestamp(java.sql.Date.valueOf(text).getTime());
+            }
+            return Timestamp.valueOf(text);
+        } else if (dataType.isBinary()) {
+            return value instanceof byte[] ? value : value.toString().getBytes(StandardCharsets.UTF_8);
+        } else {
+            return value.toString();
+        }
+    }
+
+    protected static boolean valuesEqual(Object value1, Object value2) {
+        if (value1 == null || value2 == null) {
+            return value1 == value2;
+        } else {
+            return compareValues(value1, value2) == 0;
+        }
+    }
+
+    /**
+     * Compare two normalized values of the same attribute, which are always
+     * of the same class. Nulls sort first.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    protected static int compareValues(Object value1, Object value2) {
+        if (value1 == null) {
+            return value2 == null ? 0 : -1;
+        } else if (value2 == null) {
+            return 1;
+        } else if (value1 instanceof byte[]) {
+            return ByteBuffer.wrap((byte[]) value1).compareTo(ByteBuffer.wrap((byte[]) value2));
+        } else {
+            return ((Comparable) value1).compareTo(value2);
+        }
+    }
+
+    /**
+     * Primary key values of a row. Decimal keys are equal when they are
+     * numerically equal. A key with a null value is not equal to any other
+     * key, the same as in the join of the database strategy.
+     */
+    public static final class Key {
+
+        final Object[] values;
+
+        final int hashCode;
+
+        Key(Object[] values) {
+            this.values = values;
+            int hash = 1;
+            for (Object value : values) {
+                if (value instanceof BigDecimal) {
+                    value = ((BigDecimal) value).stripTrailingZeros();
+                } else if (value instanceof byte[]) {
+                    value = ByteBuffer.wrap((byte[]) value);
+                }
+                hash = 31 * hash + (value != null ? value.hashCode() : 0);
+            }
+            this.hashCode = hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj instanceof Key) {
+                Object[] other = ((Key) obj).values;
+                for (int i = 0; i < values.length; i++) {
+                    if (values[i] == null || other[i] == null || !valuesEqual(values[i], other[i])) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            return false;
+        }
+    }
+
+}
@@ -0,0 +1,256 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jumpmind.metl.core.runtime.EntityData;
+import org.jumpmind.metl.core.runtime.EntityData.ChangeType;
+import org.jumpmind.metl.core.runtime.EntityDataSchema;
+import org.jumpmind.metl.core.runtime.component.DiffEntity.Key;
+import org.jumpmind.metl.core.runtime.flow.ISendMessageCallback;
+
+/**
+ * Builds a hash table keyed by primary key from the original source and
+ * probes it with the rows from the new source. The table only holds the
+ * values that are compared for changes, or a digest of them, and the
+ * positions of the rows in temporary files that the original and changed
+ * rows are written to so that deleted and changed rows can be sent. Added
+ * rows are sorted by key in spilled runs like the sort merge strategy does.
+ * Rows from the new source that arrive before the original source is
+ * complete are held in a temporary file until they can be probed. When a
+ * source has more than one row with the same key the last row wins. Rows with
+ * a null key value never match, so they are sent as ADD or DEL rows.
+ */
+public class HashJoinDataDiffEngine extends AbstractDataDiffEngine {
+
+    final EntityDataSchema inputSchema;
+
+    Map<DiffEntity, EntityState> states = new LinkedHashMap<>();
+
+    RowFile pendingCurrent;
+
+    boolean originalComplete;
+
+    public HashJoinDataDiffEngine(DataDiff component, List<DiffEntity> entities, int rowsPerMessage, boolean compareDigests,
+            int rowsInMemory, EntityDataSchema inputSchema) {
+        super(component, entities, rowsPerMessage, compareDigests, rowsInMemory);
+        this.inputSchema = inputSchema;
+        createStates();
+    }
+
+    protected void createStates() {
+        for (DiffEntity entity : entities) {
+            states.put(entity, new EntityState(entity));
+        }
+    }
+
+    @Override
+    public void addOriginal(EntityData row) {
+        for (DiffEntity entity : entities) {
+            if (entity.shouldProcess(row)) {
+                EntityState state = states.get(entity);
+                Object[] values = entity.project(row);
+                if (state.originalRows == null) {
+                    state.originalRows = createRowFile("metl-diff-", entity.getSchema());
+                }
+                Original original = new Original();
+                original.rowNumber = state.originalRows.count;
+                if (entity.compareChanges) {
+                    original.compare = compareDigests ? entity.digest(values) : entity.compareValues(values);
+                }
+                state.originalRows.append(entity.toEntityData(values));
+                if (!entity.hasNullKey(values)) {
+                    state.originals.put(entity.key(values), original);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void addCurrent(EntityData row) {
+        if (originalComplete) {
+            probe(row);
+        } else {
+            if (pendingCurrent == null) {
+                pendingCurrent = createRowFile("metl-diff-", inputSchema);
+            }
+            pendingCurrent.append(row);
+        }
+    }
+
+    @Override
+    public void originalComplete() {
+        if (!originalComplete) {
+            originalComplete = true;
+            if (pendingCurrent != null) {
+                try (RowReader reader = pendingCurrent.read()) {
+                    EntityData row = null;
+                    while ((row = reader.next()) != null) {
+                        probe(row);
+                    }
+                }
+                pendingCurrent.delete();
+                rowFiles.remove(pendingCurrent);
+                pendingCurrent = null;
+            }
+        }
+    }
+
+    protected void probe(EntityData row) {
+        for (DiffEntity entity : entities) {
+            if (entity.shouldProcess(row)) {
+                EntityState state = states.get(entity);
+                Object[] values = entity.project(row);
+                Original original = entity.hasNullKey(values) ? null : state.originals.get(entity.key(values));
+                if (original == null) {
+                    state.added.add(values);
+                } else {
+                    original.matched = true;
+                    original.changedRowNumber = -1;
+                    if (entity.compareChanges && isChanged(entity, original, values)) {
+                        if (state.changedRows == null) {
+                            state.changedRows = createRowFile("metl-diff-", entity.getSchema());
+                        }
+                        original.changedRowNumber = state.changedRows.count;
+                        state.changedRows.append(entity.toEntityData(values));
+                    }
+                }
+            }
+        }
+    }
+
+    protected boolean isChanged(DiffEntity entity, Original original, Object[] values) {
+        if (compareDigests) {
+            return !original.compare.equals(entity.digest(values));
+        } else {
+            return entity.isChanged((Object[]) original.compare, values);
+        }
+    }
+
+    @Override
+    public void diff(ISendMessageCallback callback) {
+        originalComplete();
+
+        for (DiffEntity entity : entities) {
+            EntityState state = states.get(entity);
+            if (entity.addEnabled) {
+                RowSender sender = new RowSender(callback, entity, ChangeType.ADD);
+                UniqueKeyIterator added = state.added.iterator();
+                try {
+                    while (added.peek() != null) {
+                        sender.send(added.next());
+                    }
+                } finally {
+                    added.close();
+                }
+                sender.finish();
+            }
+            if (entity.chgEnabled && entity.compareChanges) {
+                RowSender sender = new RowSender(callback, entity, ChangeType.CHG);
+                if (state.changedRows != null) {
+                    try (RowReader reader = state.changedRows.read()) {
+                        long rowNumber = 0;
+                        EntityData row = null;
+                        while ((row = reader.next()) != null) {
+                            Object[] values = entity.toValues(row);
+                            Original original = state.originals.get(entity.key(values));
+                            if (original.changedRowNumber == rowNumber) {
+                                sender.send(values);
+                            }
+                            rowNumber++;
+                        }
+                    }
+                }
+                sender.finish();
+            }
+        }
+
+        for (int i = entities.size() - 1; i >= 0; i--) {
+            DiffEntity entity = entities.get(i);
+            EntityState state = states.get(entity);
+            if (entity.delEnabled) {
+                RowSender sender = new RowSender(callback, entity, ChangeType.DEL);
+                if (state.originalRows != null) {
+                    try (RowReader reader = state.originalRows.read()) {
+                        long rowNumber = 0;
+                        EntityData row = null;
+                        while ((row = reader.next()) != null) {
+                            Object[] values = entity.toValues(row);
+                            Original original = entity.hasNullKey(values) ? null : state.originals.get(entity.key(values));
+                            if (original == null || (original.rowNumber == rowNumber && !original.matched)) {
+                                sender.send(values);
+                            }
+                            rowNumber++;
+                        }
+                    }
+                }
+                sender.finish();
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        createStates();
+        pendingCurrent = null;
+        originalComplete = false;
+    }
+
+    class EntityState {
+
+        Map<Key, Original> originals = new LinkedHashMap<>();
+
+        Runs added;
+
+        RowFile originalRows;
+
+        RowFile changedRows;
+
+        EntityState(DiffEntity entity) {
+            this.added = new Runs(entity);
+        }
+
+    }
+
+    static class Original {
+
+        long rowNumber;
+
+        /*
+         * The values compared for changes or a digest of them
+         */
+        Object compare;
+
+        boolean matched;
+
+        /*
+         * The position of the last matching row in the changed rows file or
+         * -1 if that row did not change
+         */
+        long changedRowNumber = -1;
+
+    }
+
+}
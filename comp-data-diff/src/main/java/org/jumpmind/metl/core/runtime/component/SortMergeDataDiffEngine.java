@@ -0,0 +1,151 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jumpmind.metl.core.runtime.EntityData;
+import org.jumpmind.metl.core.runtime.EntityData.ChangeType;
+import org.jumpmind.metl.core.runtime.flow.ISendMessageCallback;
+
+/**
+ * Sorts the rows of both sources by primary key in bounded runs that are
+ * spilled to temporary files and then merge joins the two sorted streams.
+ * Memory use is bounded by the number of rows held per run. When a source
+ * has more than one row with the same key the last row wins. Rows with a null
+ * key value never match, so they are sent as ADD or DEL rows.
+ */
+public class SortMergeDataDiffEngine extends AbstractDataDiffEngine {
+
+    Map<DiffEntity, Runs> originals = new LinkedHashMap<>();
+
+    Map<DiffEntity, Runs> currents = new LinkedHashMap<>();
+
+    public SortMergeDataDiffEngine(DataDiff component, List<DiffEntity> entities, int rowsPerMessage, boolean compareDigests,
+            int rowsInMemory) {
+        super(component, entities, rowsPerMessage, compareDigests, rowsInMemory);
+        createRuns();
+    }
+
+    protected void createRuns() {
+        for (DiffEntity entity : entities) {
+            originals.put(entity, new Runs(entity));
+            currents.put(entity, new Runs(entity));
+        }
+    }
+
+    @Override
+    public void addOriginal(EntityData row) {
+        add(originals, row);
+    }
+
+    @Override
+    public void addCurrent(EntityData row) {
+        add(currents, row);
+    }
+
+    protected void add(Map<DiffEntity, Runs> runs, EntityData row) {
+        for (DiffEntity entity : entities) {
+            if (entity.shouldProcess(row)) {
+                runs.get(entity).add(entity.project(row));
+            }
+        }
+    }
+
+    @Override
+    public void diff(ISendMessageCallback callback) {
+        Map<DiffEntity, RowFile> deletes = new LinkedHashMap<>();
+        for (DiffEntity entity : entities) {
+            RowSender adds = new RowSender(callback, entity, ChangeType.ADD);
+            RowFile changes = createRowFile("metl-diff-", entity.getSchema());
+            RowFile deleted = createRowFile("metl-diff-", entity.getSchema());
+            deletes.put(entity, deleted);
+
+            UniqueKeyIterator original = originals.get(entity).iterator();
+            UniqueKeyIterator current = currents.get(entity).iterator();
+            try {
+                while (original.peek() != null || current.peek() != null) {
+                    int result;
+                    if (original.peek() == null) {
+                        result = 1;
+                    } else if (current.peek() == null || entity.hasNullKey(original.peek())) {
+                        result = -1;
+                    } else if (entity.hasNullKey(current.peek())) {
+                        result = 1;
+                    } else {
+                        result = entity.compareKeys(original.peek(), current.peek());
+                    }
+                    if (result < 0) {
+                        deleted.append(entity.toEntityData(original.next()));
+                    } else if (result > 0) {
+                        Object[] values = current.next();
+                        if (entity.addEnabled) {
+                            adds.send(values);
+                        }
+                    } else {
+                        Object[] originalValues = original.next();
+                        Object[] currentValues = current.next();
+                        if (entity.compareChanges && entity.isChanged(originalValues, currentValues, compareDigests)) {
+                            changes.append(entity.toEntityData(currentValues));
+                        }
+                    }
+                }
+            } finally {
+                original.close();
+                current.close();
+            }
+
+            if (entity.addEnabled) {
+                adds.finish();
+            }
+            if (entity.chgEnabled && entity.compareChanges) {
+                send(callback, entity, ChangeType.CHG, changes);
+            }
+        }
+
+        for (int i = entities.size() - 1; i >= 0; i--) {
+            DiffEntity entity = entities.get(i);
+            if (entity.delEnabled) {
+                send(callback, entity, ChangeType.DEL, deletes.get(entity));
+            }
+        }
+    }
+
+    protected void send(ISendMessageCallback callback, DiffEntity entity, ChangeType changeType, RowFile rowFile) {
+        RowSender sender = new RowSender(callback, entity, changeType);
+        try (RowReader reader = rowFile.read()) {
+            EntityData row = null;
+            while ((row = reader.next()) != null) {
+                sender.send(entity.toValues(row));
+            }
+        }
+        sender.finish();
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        createRuns();
+    }
+
+}
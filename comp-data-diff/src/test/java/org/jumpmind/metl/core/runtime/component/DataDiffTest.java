@@ -0,0 +1,231 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jumpmind.metl.core.model.Component;
+import org.jumpmind.metl.core.model.ComponentAttributeSetting;
+import org.jumpmind.metl.core.model.ComponentEntitySetting;
+import org.jumpmind.metl.core.model.DataType;
+import org.jumpmind.metl.core.model.FlowStep;
+import org.jumpmind.metl.core.model.Model;
+import org.jumpmind.metl.core.model.ModelAttribute;
+import org.jumpmind.metl.core.model.ModelEntity;
+import org.jumpmind.metl.core.model.Setting;
+import org.jumpmind.metl.core.runtime.ControlMessage;
+import org.jumpmind.metl.core.runtime.EntityData;
+import org.jumpmind.metl.core.runtime.EntityDataMessage;
+import org.jumpmind.metl.core.runtime.ExecutionTrackerNoOp;
+import org.jumpmind.metl.core.utils.TestUtils;
+import org.junit.Test;
+
+public class DataDiffTest {
+
+    static final String ORIGINAL = "original step";
+
+    static final String CURRENT = "current step";
+
+    /*
+     * The child entity is ordered first. Parent notes are not compared. A
+     * decimal that is only written differently is not a change and the last
+     * row with a key wins.
+     */
+    static final List<String> EXPECTED = Arrays.asList(
+            "CHILD ADD", "c_id=12 c_parent=4 c_amount=1",
+            "CHILD CHG", "c_id=11 c_parent=2 c_amount=8",
+            "PARENT ADD", "p_id=4 p_name=dd",
+            "PARENT CHG", "p_id=2 p_name=bb",
+            "PARENT DEL", "p_id=3 p_name=c",
+            "CHILD DEL", "c_id=13 c_parent=3 c_amount=1");
+
+    @Test
+    public void testDatabaseStrategy() throws Exception {
+        assertEquals(EXPECTED, diff(DataDiff.STRATEGY_DATABASE));
+    }
+
+    @Test
+    public void testHashJoinMatchesTheDatabaseStrategy() throws Exception {
+        assertEquals(EXPECTED, diff(DataDiff.STRATEGY_HASH_JOIN));
+        assertEquals(EXPECTED, diff(DataDiff.STRATEGY_HASH_JOIN, new Setting(DataDiff.COMPARE_ROW_HASH, "true"),
+                new Setting(DataDiff.SORT_MERGE_ROWS_IN_MEMORY, "1")));
+    }
+
+    @Test
+    public void testSortMergeMatchesTheDatabaseStrategy() throws Exception {
+        assertEquals(EXPECTED, diff(DataDiff.STRATEGY_SORT_MERGE));
+        assertEquals(EXPECTED, diff(DataDiff.STRATEGY_SORT_MERGE, new Setting(DataDiff.COMPARE_ROW_HASH, "true"),
+                new Setting(DataDiff.SORT_MERGE_ROWS_IN_MEMORY, "1")));
+    }
+
+    @Test
+    public void testNullKeysNeverMatch() throws Exception {
+        List<String> expected = Arrays.asList(
+                "PARENT ADD", "p_id=null p_name=x", "p_id=null p_name=y",
+                "PARENT DEL", "p_id=null p_name=x");
+        for (String strategy : new String[] { DataDiff.STRATEGY_HASH_JOIN, DataDiff.STRATEGY_SORT_MERGE }) {
+            DataDiff dataDiff = createDataDiff(strategy, new Setting(DataDiff.SORT_MERGE_ROWS_IN_MEMORY, "1"));
+            SendMessageCallback<ArrayList<EntityData>> callback = new SendMessageCallback<ArrayList<EntityData>>();
+            dataDiff.handle(message(ORIGINAL, parent(null, "x", "n")), callback, false);
+            dataDiff.handle(new ControlMessage(ORIGINAL), callback, false);
+            dataDiff.handle(message(CURRENT, parent(null, "x", "n"), parent(null, "y", "n")), callback, false);
+            dataDiff.handle(new ControlMessage(CURRENT), callback, true);
+            assertEquals(strategy, expected, describe(callback));
+        }
+    }
+
+    protected List<String> diff(String strategy, Setting... settings) throws Exception {
+        DataDiff dataDiff = createDataDiff(strategy, settings);
+        SendMessageCallback<ArrayList<EntityData>> callback = new SendMessageCallback<ArrayList<EntityData>>();
+        dataDiff.handle(message(ORIGINAL, parent("1", "a", "n1"), parent("2", "b", "n2"), parent("3", "c", "n3")), callback,
+                false);
+        dataDiff.handle(message(ORIGINAL, child("10", "1", "5.0"), child("11", "2", "7"), child("13", "3", "1")), callback,
+                false);
+        dataDiff.handle(new ControlMessage(ORIGINAL), callback, false);
+        dataDiff.handle(message(CURRENT, parent("1", "a", "changed"), parent("2", "bb", "n2"), parent("4", "d", "n4")), callback,
+                false);
+        dataDiff.handle(message(CURRENT, child("10", "1", "5"), child("11", "2", "8"), child("12", "4", "1"),
+                parent("4", "dd", "n4")), callback, false);
+        dataDiff.handle(new ControlMessage(CURRENT), callback, true);
+        dataDiff.stop();
+        return describe(callback);
+    }
+
+    /*
+     * One line for each run of rows of the same entity and change type
+     * followed by its rows in key order
+     */
+    protected static List<String> describe(SendMessageCallback<ArrayList<EntityData>> callback) {
+        List<String> lines = new ArrayList<String>();
+        String group = null;
+        List<String> rows = new ArrayList<String>();
+        for (ArrayList<EntityData> payload : callback.getPayloadList()) {
+            for (EntityData row : payload) {
+                String rowGroup = (row.containsKey("p_id") ? "PARENT " : "CHILD ") + row.getChangeType();
+                if (!rowGroup.equals(group)) {
+                    Collections.sort(rows);
+                    lines.addAll(rows);
+                    rows.clear();
+                    lines.add(rowGroup);
+                    group = rowGroup;
+                }
+                StringBuilder text = new StringBuilder();
+                for (String attributeId : new String[] { "p_id", "p_name", "p_note", "c_id", "c_parent", "c_amount" }) {
+                    if (row.containsKey(attributeId)) {
+                        Object value = row.get(attributeId);
+                        if (value instanceof BigDecimal) {
+                            value = ((BigDecimal) value).stripTrailingZeros().toPlainString();
+                        }
+                        text.append(text.length() > 0 ? " " : "").append(attributeId).append("=").append(value);
+                    }
+                }
+                rows.add(text.toString());
+            }
+        }
+        Collections.sort(rows);
+        lines.addAll(rows);
+        return lines;
+    }
+
+    protected static EntityData parent(String id, String name, String note) {
+        EntityData row = new EntityData();
+        row.put("p_id", id);
+        row.put("p_name", name);
+        row.put("p_note", note);
+        return row;
+    }
+
+    protected static EntityData child(String id, String parentId, String amount) {
+        EntityData row = new EntityData();
+        row.put("c_id", id);
+        row.put("c_parent", parentId);
+        row.put("c_amount", amount);
+        return row;
+    }
+
+    protected static EntityDataMessage message(String stepId, EntityData... rows) {
+        EntityDataMessage message = new EntityDataMessage(stepId);
+        message.setPayload(new ArrayList<EntityData>(Arrays.asList(rows)));
+        return message;
+    }
+
+    protected static DataDiff createDataDiff(String strategy, Setting... settings) {
+        List<Setting> settingList = new ArrayList<Setting>();
+        settingList.add(new Setting(DataDiff.SOURCE_1, ORIGINAL));
+        settingList.add(new Setting(DataDiff.SOURCE_2, CURRENT));
+        settingList.add(new Setting(DataDiff.IN_MEMORY_COMPARE, "true"));
+        settingList.add(new Setting(DataDiff.ROWS_PER_MESSAGE, "2"));
+        settingList.add(new Setting(DataDiff.DIFF_STRATEGY, strategy));
+        settingList.addAll(Arrays.asList(settings));
+
+        List<ComponentEntitySetting> entitySettings = new ArrayList<ComponentEntitySetting>();
+        entitySettings.add(new ComponentEntitySetting("parent", DataDiff.ENTITY_ORDER, "2"));
+        entitySettings.add(new ComponentEntitySetting("child", DataDiff.ENTITY_ORDER, "1"));
+        List<ComponentAttributeSetting> attributeSettings = new ArrayList<ComponentAttributeSetting>();
+        attributeSettings.add(new ComponentAttributeSetting("p_note", DataDiff.ATTRIBUTE_COMPARE_ENABLED, "false"));
+
+        Component component = TestUtils.createComponent("DataDiff", false, null, createInputModel(), null, entitySettings,
+                attributeSettings, settingList.toArray(new Setting[settingList.size()]));
+        FlowStep flowStep = new FlowStep();
+        flowStep.setComponentId(component.getId());
+        flowStep.setCreateTime(new Date());
+        flowStep.setComponent(component);
+
+        DataDiff dataDiff = new DataDiff();
+        dataDiff.setContext(new ComponentContext(null, flowStep, null, new ExecutionTrackerNoOp(), null,
+                new HashMap<String, String>(), new HashMap<String, String>()));
+        dataDiff.start();
+        return dataDiff;
+    }
+
+    protected static Model createInputModel() {
+        ModelEntity parent = new ModelEntity("parent", "PARENT");
+        parent.addModelAttribute(attribute(parent, "p_id", "ID", DataType.NUMERIC, true));
+        parent.addModelAttribute(attribute(parent, "p_name", "NAME", DataType.VARCHAR, false));
+        parent.addModelAttribute(attribute(parent, "p_note", "NOTE", DataType.VARCHAR, false));
+
+        ModelEntity child = new ModelEntity("child", "CHILD");
+        child.addModelAttribute(attribute(child, "c_id", "ID", DataType.NUMERIC, true));
+        child.addModelAttribute(attribute(child, "c_parent", "PARENT_ID", DataType.NUMERIC, false));
+        child.addModelAttribute(attribute(child, "c_amount", "AMOUNT", DataType.DECIMAL, false));
+
+        Model model = new Model();
+        model.getModelEntities().add(parent);
+        model.getModelEntities().add(child);
+        return model;
+    }
+
+    protected static ModelAttribute attribute(ModelEntity entity, String id, String name, DataType type, boolean pk) {
+        ModelAttribute attribute = new ModelAttribute(id, entity.getId(), name);
+        attribute.setDataType(type);
+        attribute.setPk(pk);
+        return attribute;
+    }
+}
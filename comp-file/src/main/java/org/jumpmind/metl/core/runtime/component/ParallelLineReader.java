@@ -0,0 +1,297 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+
+import org.jumpmind.metl.core.util.ThreadUtils;
+
+/**
+ * Reads the lines of a local file on several threads. The file is split into
+ * chunks at line feeds, and each chunk is read and decoded on its own thread.
+ * Lines come back in blocks. Within a chunk the blocks are always in file
+ * order. When ordered is set, the blocks of a chunk are only handed out
+ * after the chunk before it is done, so the whole file comes back in order.
+ * <p>
+ * Lines end the same way as with {@link java.io.BufferedReader#readLine()}.
+ * Only charsets that encode a line feed and a carriage return as the single
+ * bytes 0x0A and 0x0D and never use those bytes in any other character can be
+ * split this way. See
+ * {@link #supports(Charset)}.
+ */
+public class ParallelLineReader implements Closeable {
+
+    static final int WINDOW_SIZE = 1024 * 1024;
+
+    static final int BLOCKS_QUEUED_PER_CHUNK = 4;
+
+    static final Object END_OF_CHUNK = new Object();
+
+    final FileChannel channel;
+
+    final Charset charset;
+
+    final int linesPerBlock;
+
+    final int headerLinesToSkip;
+
+    final boolean ordered;
+
+    final ExecutorService executor;
+
+    final List<BlockingQueue<Object>> queues;
+
+    int chunkCount;
+
+    int chunksDone;
+
+    volatile boolean closed;
+
+    public ParallelLineReader(File file, Charset charset, int chunks, int linesPerBlock, int headerLinesToSkip, boolean ordered,
+            String threadNamePrefix) throws IOException {
+        this.charset = charset;
+        this.linesPerBlock = linesPerBlock > 0 ? linesPerBlock : 1000;
+        this.headerLinesToSkip = headerLinesToSkip;
+        this.ordered = ordered;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        long[] boundaries = findChunkBoundaries(Math.max(chunks, 1));
+        this.chunkCount = boundaries.length - 1;
+        this.queues = new ArrayList<BlockingQueue<Object>>(chunkCount);
+        if (ordered) {
+            for (int i = 0; i < chunkCount; i++) {
+                queues.add(new ArrayBlockingQueue<Object>(BLOCKS_QUEUED_PER_CHUNK));
+            }
+        } else {
+            queues.add(new ArrayBlockingQueue<Object>(BLOCKS_QUEUED_PER_CHUNK * Math.max(chunkCount, 1)));
+        }
+        this.executor = ThreadUtils.createFixedThreadPool(threadNamePrefix, chunkCount + 1, Math.max(chunkCount, 1));
+        for (int i = 0; i < chunkCount; i++) {
+            final long start = boundaries[i];
+            final long end = boundaries[i + 1];
+            final BlockingQueue<Object> queue = ordered ? queues.get(i) : queues.get(0);
+            executor.execute(() -> readChunk(start, end, queue));
+        }
+    }
+
+    public static boolean supports(Charset charset) {
+        String name = charset.name().toUpperCase();
+        return Arrays.equals("\n".getBytes(charset), new byte[] { '\n' }) && Arrays.equals("\r".getBytes(charset), new byte[] { '\r' })
+                && !name.startsWith("UTF-16") && !name.startsWith("UTF-32");
+    }
+
+    /**
+     * @return the next block of lines or null once the whole file has been
+     *         read
+     */
+    public List<String> nextBlock() throws IOException, InterruptedException {
+        while (chunksDone < chunkCount) {
+            Object next = queues.get(ordered ? chunksDone : 0).take();
+            if (next == END_OF_CHUNK) {
+                chunksDone++;
+            } else if (next instanceof IOException) {
+                throw (IOException) next;
+            } else if (next instanceof Throwable) {
+                throw new IOException((Throwable) next);
+            } else {
+                @SuppressWarnings("unchecked")
+                List<String> block = (List<String>) next;
+                return block;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        executor.shutdownNow();
+        try {
+            channel.close();
+        } catch (IOException e) {
+        }
+    }
+
+    /*
+     * Splits the file into roughly equal chunks, moving each split forward to
+     * just past the next line feed. The first chunk starts after the header
+     * lines, so they are never read. Chunks that end up empty are dropped.
+     */
+    protected long[] findChunkBoundaries(int chunks) throws IOException {
+        long size = channel.size();
+        List<Long> boundaries = new ArrayList<Long>(chunks + 1);
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        long headerEnd = 0;
+        for (int i = 0; i < headerLinesToSkip && headerEnd < size; i++) {
+            headerEnd = findLineEnd(buffer, headerEnd, size, true);
+        }
+        boundaries.add(headerEnd);
+        for (int i = 1; i < chunks; i++) {
+            long position = Math.max(size * i / chunks, boundaries.get(boundaries.size() - 1));
+            long boundary = findLineEnd(buffer, position, size, false);
+            if (boundary > boundaries.get(boundaries.size() - 1) && boundary < size) {
+                boundaries.add(boundary);
+            }
+        }
+        if (size > headerEnd) {
+            boundaries.add(size);
+        }
+        long[] array = new long[boundaries.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = boundaries.get(i);
+        }
+        return array;
+    }
+
+    /*
+     * Returns the position just past the next line feed at or after position,
+     * or size if there is none. When carriageReturns is set a line may also
+     * end with a carriage return, the same as the lines that readChunk
+     * returns, and a carriage return followed by a line feed is one line end.
+     */
+    protected long findLineEnd(ByteBuffer buffer, long position, long size, boolean carriageReturns) throws IOException {
+        boolean afterCarriageReturn = false;
+        while (position < size) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int j = 0; j < read; j++) {
+                byte b = buffer.get(j);
+                if (b == '\n') {
+                    return position + j + 1;
+                } else if (afterCarriageReturn) {
+                    return position + j;
+                } else if (b == '\r' && carriageReturns) {
+                    afterCarriageReturn = true;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    protected void readChunk(long start, long end, BlockingQueue<Object> queue) {
+        try {
+            CharsetDecoder decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            List<String> block = new ArrayList<String>(linesPerBlock);
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(WINDOW_SIZE, end - start));
+            CharBuffer chars = null;
+            long position = start;
+            while (position < end && !closed) {
+                int size = (int) Math.min(buffer.capacity(), end - position);
+                buffer.clear();
+                buffer.limit(size);
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, position + buffer.position()) < 0) {
+                        throw new IOException("The file was truncated while it was being read");
+                    }
+                }
+                int limit = size;
+                if (position + size < end) {
+                    limit = lastIndexOfLineFeed(buffer, limit) + 1;
+                    if (limit == 0) {
+                        /* a line longer than the buffer */
+                        buffer = ByteBuffer.allocate((int) Math.min(buffer.capacity() * 2l, Integer.MAX_VALUE - 8));
+                        continue;
+                    }
+                }
+                buffer.position(0);
+                buffer.limit(limit);
+                int capacity = (int) Math.min((long) (limit * (double) decoder.maxCharsPerByte()) + 1, Integer.MAX_VALUE - 8);
+                if (chars == null || chars.capacity() < capacity) {
+                    chars = CharBuffer.allocate(capacity);
+                }
+                chars.clear();
+                decoder.reset();
+                CoderResult result = decoder.decode(buffer, chars, true);
+                if (!result.isUnderflow()) {
+                    result.throwException();
+                }
+                decoder.flush(chars);
+                chars.flip();
+                char[] array = chars.array();
+                int offset = chars.arrayOffset();
+                int length = offset + chars.limit();
+                int lineStart = offset;
+                for (int i = offset; i < length; i++) {
+                    char c = array[i];
+                    if (c == '\n' || c == '\r') {
+                        block.add(new String(array, lineStart, i - lineStart));
+                        if (c == '\r' && i + 1 < length && array[i + 1] == '\n') {
+                            i++;
+                        }
+                        lineStart = i + 1;
+                        if (block.size() == linesPerBlock) {
+                            queue.put(block);
+                            block = new ArrayList<String>(linesPerBlock);
+                        }
+                    }
+                }
+                if (lineStart < length) {
+                    block.add(new String(array, lineStart, length - lineStart));
+                }
+                position += limit;
+            }
+            if (block.size() > 0) {
+                queue.put(block);
+            }
+            queue.put(END_OF_CHUNK);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable e) {
+            if (!closed) {
+                try {
+                    queue.put(e);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    protected static int lastIndexOfLineFeed(ByteBuffer buffer, int limit) {
+        for (int i = limit - 1; i >= 0; i--) {
+            if (buffer.get(i) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+}
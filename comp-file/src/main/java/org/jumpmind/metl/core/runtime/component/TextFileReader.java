@@ -23,20 +23,25 @@ package org.jumpmind.metl.core.runtime.component;
 import static org.apache.commons.lang.StringUtils.isNotBlank;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Serializable;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
 
 import org.apache.commons.io.IOUtils;
 import org.jumpmind.exception.IoException;
 import org.jumpmind.metl.core.runtime.ControlMessage;
 import org.jumpmind.metl.core.runtime.Message;
 import org.jumpmind.metl.core.runtime.flow.ISendMessageCallback;
+import org.jumpmind.metl.core.runtime.resource.LocalFile;
+import org.jumpmind.metl.core.runtime.resource.LocalFileDirectory;
 import org.jumpmind.properties.TypedProperties;
 
 public class TextFileReader extends AbstractFileReader {
@@ -53,6 +58,10 @@ public class TextFileReader extends AbstractFileReader {
 
     public static final String SETTING_SPLIT_ON_LINE_FEED = "split.on.line.feed";
 
+    public static final String SETTING_PARALLEL_READ_CHUNKS = "parallel.read.chunks";
+
+    public static final String SETTING_PARALLEL_READ_ORDERED = "parallel.read.ordered";
+
     int textRowsPerMessage = 1000;
 
     int numberOfTimesToReadFile = 1;
@@ -61,6 +70,10 @@ public class TextFileReader extends AbstractFileReader {
 
     String encoding = "UTF-8";
 
+    int parallelReadChunks = 0;
+
+    boolean parallelReadOrdered = true;
+
     @Override
     public void start() {
         init();
@@ -69,6 +82,8 @@ public class TextFileReader extends AbstractFileReader {
         textRowsPerMessage = properties.getInt(SETTING_ROWS_PER_MESSAGE, textRowsPerMessage);
         numberOfTimesToReadFile = properties.getInt(SETTING_NUMBER_OF_TIMES_TO_READ_FILE, numberOfTimesToReadFile);
         encoding = properties.get(SETTING_ENCODING, encoding);
+        parallelReadChunks = properties.getInt(SETTING_PARALLEL_READ_CHUNKS, parallelReadChunks);
+        parallelReadOrdered = properties.is(SETTING_PARALLEL_READ_ORDERED, parallelReadOrdered);
     }
 
     @Override
@@ -102,6 +117,11 @@ public class TextFileReader extends AbstractFileReader {
                         info("Reading file: %s", file);
                     }
                     String filePath = resolveParamsAndHeaders(file, inputMessage);
+                    File localFile = getLocalFileForParallelRead(filePath);
+                    if (localFile != null) {
+                        readContent = readInParallel(localFile, headers, callback);
+                        continue;
+                    }
                     BufferedReader reader = null;
                     try {
                         InputStream inStream = directory.getInputStream(filePath, mustExist, false);
@@ -151,4 +171,53 @@ public class TextFileReader extends AbstractFileReader {
             }
         }
     }
+
+    /*
+     * Returns the file when it should be read in parallel chunks. That is only
+     * possible for lines in a file on the local file system whose encoding can
+     * be split at line feed bytes.
+     */
+    private File getLocalFileForParallelRead(String filePath) {
+        if (parallelReadChunks > 1 && directory instanceof LocalFileDirectory && properties.is(SETTING_SPLIT_ON_LINE_FEED, true)
+                && ParallelLineReader.supports(Charset.forName(encoding))) {
+            String path = getResourceRuntime().getResourceRuntimeSettings().get(LocalFile.LOCALFILE_PATH);
+            File file = new File(path, filePath);
+            if (file.isFile()) {
+                return file;
+            }
+        }
+        return null;
+    }
+
+    private boolean readInParallel(File file, Map<String, Serializable> headers, ISendMessageCallback callback) throws IOException {
+        ArrayList<String> payload = new ArrayList<String>();
+        ParallelLineReader reader = new ParallelLineReader(file, Charset.forName(encoding), parallelReadChunks, textRowsPerMessage,
+                textHeaderLinesToSkip, parallelReadOrdered, getFlowStep().getName() + "-chunk");
+        try {
+            List<String> lines = null;
+            while ((lines = reader.nextBlock()) != null) {
+                checkForInterruption();
+                for (String line : lines) {
+                    if (payload.size() == textRowsPerMessage) {
+                        callback.sendTextMessage(headers, payload);
+                        payload = new ArrayList<String>();
+                    }
+                    getComponentStatistics().incrementNumberEntitiesProcessed(threadNumber);
+                    payload.add(line);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException();
+        } finally {
+            reader.close();
+        }
+
+        if (payload.size() > 0) {
+            callback.sendTextMessage(headers, payload);
+            return true;
+        } else {
+            return false;
+        }
+    }
 }
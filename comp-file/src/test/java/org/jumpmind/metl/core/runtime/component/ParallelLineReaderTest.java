@@ -0,0 +1,184 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ParallelLineReaderTest {
+
+    private static final String FILE_PATH = "build/files/";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Test
+    public void testChunkBoundariesFollowLineFeeds() throws Exception {
+        File file = write("boundaries.txt", lines(1000, "\r\n"), UTF8);
+        for (int chunks = 1; chunks <= 16; chunks++) {
+            try (ParallelLineReader reader = new ParallelLineReader(file, UTF8, chunks, 10, 0, true, "test")) {
+                long[] boundaries = reader.findChunkBoundaries(chunks);
+                assertEquals(0, boundaries[0]);
+                assertEquals(file.length(), boundaries[boundaries.length - 1]);
+                try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                    for (int i = 1; i < boundaries.length - 1; i++) {
+                        assertTrue(boundaries[i] > boundaries[i - 1]);
+                        raf.seek(boundaries[i] - 1);
+                        assertEquals('\n', raf.read());
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testOrderedReadMatchesReadLine() throws Exception {
+        File file = write("ordered.txt", lines(5000, "\n"), UTF8);
+        for (int chunks = 1; chunks <= 8; chunks++) {
+            assertEquals(readLines(file, UTF8, 0), read(file, UTF8, chunks, 0, true));
+        }
+    }
+
+    @Test
+    public void testUnorderedReadReturnsEveryLine() throws Exception {
+        File file = write("unordered.txt", lines(5000, "\n"), UTF8);
+        List<String> expected = readLines(file, UTF8, 0);
+        List<String> actual = read(file, UTF8, 4, 0, false);
+        Collections.sort(expected);
+        Collections.sort(actual);
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testCarriageReturns() throws Exception {
+        String text = "a\r\nb\rc\n\r\nd\r\n\re\r";
+        File file = write("crlf.txt", text, UTF8);
+        for (int chunks = 1; chunks <= 4; chunks++) {
+            assertEquals(readLines(file, UTF8, 0), read(file, UTF8, chunks, 0, true));
+        }
+    }
+
+    @Test
+    public void testHeaderLinesAreSkipped() throws Exception {
+        String text = "h1\rh2\r\nh3\n" + lines(100, "\r\n");
+        File file = write("header.txt", text, UTF8);
+        for (int headerLines = 0; headerLines <= 5; headerLines++) {
+            for (int chunks = 1; chunks <= 4; chunks++) {
+                assertEquals(readLines(file, UTF8, headerLines), read(file, UTF8, chunks, headerLines, true));
+            }
+        }
+    }
+
+    @Test
+    public void testOnlyHeaderLines() throws Exception {
+        File file = write("onlyheader.txt", "h1\r\nh2", UTF8);
+        assertEquals(0, read(file, UTF8, 4, 2, true).size());
+        assertEquals(0, read(file, UTF8, 4, 5, true).size());
+    }
+
+    @Test
+    public void testMultiByteEncodings() throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            text.append("línea ").append(i).append(" 日本語 €\r\n");
+        }
+        for (String name : new String[] { "UTF-8", "windows-1252", "Shift_JIS" }) {
+            Charset charset = Charset.forName(name);
+            assertTrue(ParallelLineReader.supports(charset));
+            File file = write("multibyte.txt", text.toString(), charset);
+            for (int chunks = 1; chunks <= 6; chunks++) {
+                assertEquals(name, readLines(file, charset, 1), read(file, charset, chunks, 1, true));
+            }
+        }
+    }
+
+    @Test
+    public void testLineLongerThanWindow() throws Exception {
+        StringBuilder text = new StringBuilder("short\n");
+        for (int i = 0; i < ParallelLineReader.WINDOW_SIZE + 100; i++) {
+            text.append(i % 2 == 0 ? 'x' : 'é');
+        }
+        text.append("\nlast\n");
+        File file = write("long.txt", text.toString(), UTF8);
+        assertEquals(readLines(file, UTF8, 0), read(file, UTF8, 1, 0, true));
+    }
+
+    @Test
+    public void testUnsupportedCharsets() throws Exception {
+        assertTrue(!ParallelLineReader.supports(Charset.forName("UTF-16")));
+        assertTrue(!ParallelLineReader.supports(Charset.forName("UTF-16LE")));
+    }
+
+    private static String lines(int count, String lineEnd) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            text.append("line ").append(i).append(lineEnd);
+        }
+        return text.toString();
+    }
+
+    private static File write(String name, String text, Charset charset) throws Exception {
+        File file = new File(FILE_PATH, name);
+        file.getParentFile().mkdirs();
+        try (OutputStream os = new FileOutputStream(file)) {
+            os.write(text.getBytes(charset));
+        }
+        return file;
+    }
+
+    private static List<String> readLines(File file, Charset charset, int headerLinesToSkip) throws Exception {
+        List<String> lines = new ArrayList<String>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), charset))) {
+            String line = null;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                if (lineNumber++ >= headerLinesToSkip) {
+                    lines.add(line);
+                }
+            }
+        }
+        return lines;
+    }
+
+    private static List<String> read(File file, Charset charset, int chunks, int headerLinesToSkip, boolean ordered) throws Exception {
+        List<String> lines = new ArrayList<String>();
+        try (ParallelLineReader reader = new ParallelLineReader(file, charset, chunks, 7, headerLinesToSkip, ordered, "test")) {
+            List<String> block = null;
+            while ((block = reader.nextBlock()) != null) {
+                lines.addAll(block);
+            }
+        }
+        return lines;
+    }
+}
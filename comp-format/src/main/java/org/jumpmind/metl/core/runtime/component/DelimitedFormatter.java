@@ -128,9 +128,8 @@ public class DelimitedFormatter extends AbstractComponentRuntime {
             if (attributes.size() > 0) {
                 for (AttributeFormat attribute : attributes) {
                     Object object = inputRow.get(attribute.getAttributeId());
-                    if (isNotBlank(attribute.getFormatFunction())) {
-                        object = ModelAttributeScriptHelper.eval(inputMessage, context, attribute.getAttribute(), object, getInputModel(),
-                                attribute.getEntity(), inputRow, attribute.getFormatFunction());
+                    if (attribute.getFormatHelper() != null) {
+                        object = attribute.getFormatHelper().eval(inputMessage, inputRow, object);
                     }
 
                     csvWriter.write(object != null ? object.toString() : null);
@@ -183,6 +182,13 @@ public class DelimitedFormatter extends AbstractComponentRuntime {
                 return ordinal1.getOrdinal() - ordinal2.getOrdinal();
             }
         });
+
+        for (AttributeFormat attribute : attributes) {
+            if (isNotBlank(attribute.getFormatFunction())) {
+                attribute.setFormatHelper(ModelAttributeScriptHelper.create(context, attribute.getAttribute(), attribute.getEntity(),
+                        getInputModel(), attribute.getFormatFunction()));
+            }
+        }
     }
 
     private class AttributeFormat {
@@ -193,6 +199,8 @@ public class DelimitedFormatter extends AbstractComponentRuntime {
         int ordinal;
         String formatFunction;
 
+        ModelAttributeScriptHelper formatHelper;
+
         public AttributeFormat(String attributeId, ModelEntity entity, ModelAttribute attribute) {
             this.attributeId = attributeId;
             this.entity = entity;
@@ -226,6 +234,14 @@ public class DelimitedFormatter extends AbstractComponentRuntime {
         public ModelEntity getEntity() {
             return entity;
         }
+
+        public ModelAttributeScriptHelper getFormatHelper() {
+            return formatHelper;
+        }
+
+        public void setFormatHelper(ModelAttributeScriptHelper formatHelper) {
+            this.formatHelper = formatHelper;
+        }
     }
 
 }
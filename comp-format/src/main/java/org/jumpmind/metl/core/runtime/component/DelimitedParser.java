@@ -22,9 +22,6 @@ package org.jumpmind.metl.core.runtime.component;
 
 import static org.apache.commons.lang.StringUtils.isNotBlank;
 
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
-import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -32,16 +29,15 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import org.jumpmind.exception.IoException;
 import org.jumpmind.metl.core.model.ComponentAttributeSetting;
 import org.jumpmind.metl.core.model.Model;
 import org.jumpmind.metl.core.model.ModelAttribute;
 import org.jumpmind.metl.core.model.ModelEntity;
 import org.jumpmind.metl.core.runtime.EntityData;
+import org.jumpmind.metl.core.runtime.EntityDataSchema;
 import org.jumpmind.metl.core.runtime.Message;
 import org.jumpmind.metl.core.runtime.TextMessage;
 import org.jumpmind.metl.core.runtime.flow.ISendMessageCallback;
-import org.jumpmind.symmetric.csv.CsvReader;
 
 import groovy.json.StringEscapeUtils;
 
@@ -57,8 +53,6 @@ public class DelimitedParser extends AbstractComponentRuntime {
 
     public final static String SETTING_FOOTER_LINES_TO_SKIP = "footer.lines.to.skip";
 
-    public final static String SETTING_ENCODING = "encoding";
-
     public final static String DELIMITED_FORMATTER_ATTRIBUTE_FORMAT_FUNCTION = DelimitedFormatter.DELIMITED_FORMATTER_ATTRIBUTE_FORMAT_FUNCTION;
 
     public final static String DELIMITED_FORMATTER_ATTRIBUTE_ORDINAL = DelimitedFormatter.DELIMITED_FORMATTER_ATTRIBUTE_ORDINAL;
@@ -67,25 +61,37 @@ public class DelimitedParser extends AbstractComponentRuntime {
 
     String quoteCharacter = "\"";
 
-    String encoding = "UTF-8";
-
     int numberOfFooterLinesToSkip = 0;
 
     int numberOfHeaderLinesToSkip = 0;
 
     List<AttributeFormat> attributes = new ArrayList<AttributeFormat>();
 
+    EntityDataSchema schema;
+
+    String[] attributeIds;
+
+    int[] fieldIndexes;
+
+    int[] slots;
+
+    ModelAttributeScriptHelper[] formatHelpers;
+
+    long charsParsed;
+
+    long nanosParsing;
+
     @Override
     public void start() {
         delimiter = StringEscapeUtils.unescapeJava(getComponent().get(SETTING_DELIMITER, delimiter));
         quoteCharacter = getComponent().get(SETTING_QUOTE_CHARACTER, quoteCharacter);
-        encoding = getComponent().get(SETTING_ENCODING, encoding);
         numberOfFooterLinesToSkip = getComponent().getInt(SETTING_FOOTER_LINES_TO_SKIP, 0);
         numberOfHeaderLinesToSkip = getComponent().getInt(SETTING_HEADER_LINES_TO_SKIP, 0);
-        convertAttributeSettingsToAttributeFormat();
         if (getComponent().getOutputModel() == null) {
             throw new IllegalStateException("This component requires an output model.  Please select one.");
         }
+        convertAttributeSettingsToAttributeFormat();
+        precomputeFieldMapping();
     }
 
     @Override
@@ -100,71 +106,87 @@ public class DelimitedParser extends AbstractComponentRuntime {
 
             ArrayList<EntityData> outputPayload = new ArrayList<EntityData>();
             int headerRowsToSkip = inputMessage.getHeader().getSequenceNumber() == 0 ? numberOfHeaderLinesToSkip : 0;
-            try {
-                int rowCount = 0;
-                if (inputRows != null) {
-                    StringBuilder combined = new StringBuilder();
-                    for (String inputRow : inputRows) {
-                        if (headerRowsToSkip == 0) {                            
-                            if (rowCount + numberOfFooterLinesToSkip < inputRows.size()) {
-                                combined.append(inputRow).append("\n");
-                            }
-                        } else {
-                            headerRowsToSkip--;
-                        }
-                        rowCount++;
+            if (inputRows != null) {
+                long ts = System.nanoTime();
+                DelimitedTokenizer tokenizer = new DelimitedTokenizer(delimiter, quoteCharacter);
+                int lastRow = inputRows.size() - numberOfFooterLinesToSkip;
+                for (int rowCount = headerRowsToSkip; rowCount < lastRow; rowCount++) {
+                    String inputRow = inputRows.get(rowCount);
+                    charsParsed += inputRow.length() + 1;
+                    if (tokenizer.parseLine(inputRow)) {
+                        outputPayload.add(toEntityData(inputMessage, tokenizer));
                     }
-                    
-                    processInputRows(inputMessage, combined, outputPayload);
-
                 }
-            } catch (IOException e) {
-                throw new IoException(e);
+                if (tokenizer.finish()) {
+                    outputPayload.add(toEntityData(inputMessage, tokenizer));
+                }
+                nanosParsing += System.nanoTime() - ts;
             }
 
             callback.sendEntityDataMessage(null, outputPayload);
         }
-    }
 
-    private void processInputRows(Message inputMessage, StringBuilder inputRow, List<EntityData> payload) throws IOException {
+        if (unitOfWorkBoundaryReached && charsParsed > 0 && log.isDebugEnabled()) {
+            double mb = charsParsed / (1024d * 1024d);
+            double seconds = nanosParsing / 1000000000d;
+            log.debug(String.format("Parsed %.2f MB of delimited text in %d ms (%.2f MB/s)", mb, nanosParsing / 1000000,
+                    seconds > 0 ? mb / seconds : 0d));
+            charsParsed = 0;
+            nanosParsing = 0;
+        }
+    }
 
-        CsvReader csvReader = new CsvReader(new ByteArrayInputStream(inputRow.toString().getBytes(Charset.forName(encoding))), Charset.forName(encoding));
-        csvReader.setDelimiter(delimiter.charAt(0));
-        if (isNotBlank(quoteCharacter)) {
-            csvReader.setTextQualifier(quoteCharacter.charAt(0));
-            csvReader.setUseTextQualifier(true);
-        } else {
-            csvReader.setUseTextQualifier(false);
-        }
-        while (csvReader.readRecord()) {
-            EntityData data = new EntityData();
-            if (attributes.size() > 0) {
-                for (AttributeFormat attribute : attributes) {
-                    Object value = csvReader.get(attribute.getOrdinal() - 1);
-                    if (isNotBlank(attribute.getFormatFunction())) {
-                        value = ModelAttributeScriptHelper.eval(inputMessage, context, attribute.getAttribute(), value, getOutputModel(), attribute.getEntity(),
-                                data, attribute.getFormatFunction());
-                    }
+    private EntityData toEntityData(Message inputMessage, DelimitedTokenizer tokenizer) {
+        EntityData data = new EntityData(schema);
+        for (int i = 0; i < fieldIndexes.length; i++) {
+            Object value = tokenizer.get(fieldIndexes[i]);
+            if (formatHelpers != null && formatHelpers[i] != null) {
+                value = formatHelpers[i].eval(inputMessage, data, value);
+            }
 
-                    data.put(attribute.getAttributeId(), value);
-                }
+            if (slots[i] >= 0) {
+                data.putOrdinal(slots[i], value);
             } else {
-                Model model = getComponent().getOutputModel();
-                List<ModelEntity> entities = model.getModelEntities();
-                int index = 0;
-                for (ModelEntity modelEntity : entities) {
-                    List<ModelAttribute> attributes = modelEntity.getModelAttributes();
-                    for (ModelAttribute modelAttribute : attributes) {
-                        data.put(modelAttribute.getId(), csvReader.get(index));
-                        index++;
-                    }
-                }
+                data.put(attributeIds[i], value);
             }
+        }
+        context.getComponentStatistics().incrementNumberEntitiesProcessed(getThreadNumber());
+        return data;
+    }
 
-            context.getComponentStatistics().incrementNumberEntitiesProcessed(getThreadNumber());
-            payload.add(data);
+    /*
+     * Works out once which field feeds which attribute and where that
+     * attribute lives in a row so that no lookups happen per field
+     */
+    private void precomputeFieldMapping() {
+        schema = getOutputModel().getEntityDataSchema();
+        List<String> ids = new ArrayList<String>();
+        List<Integer> indexes = new ArrayList<Integer>();
+        if (attributes.size() > 0) {
+            formatHelpers = new ModelAttributeScriptHelper[attributes.size()];
+            for (AttributeFormat attribute : attributes) {
+                formatHelpers[ids.size()] = attribute.getFormatHelper();
+                ids.add(attribute.getAttributeId());
+                indexes.add(attribute.getOrdinal() - 1);
+            }
+        } else {
+            formatHelpers = null;
+            Model model = getComponent().getOutputModel();
+            for (ModelEntity modelEntity : model.getModelEntities()) {
+                for (ModelAttribute modelAttribute : modelEntity.getModelAttributes()) {
+                    indexes.add(ids.size());
+                    ids.add(modelAttribute.getId());
+                }
+            }
         }
 
+        attributeIds = ids.toArray(new String[ids.size()]);
+        fieldIndexes = new int[ids.size()];
+        slots = new int[ids.size()];
+        for (int i = 0; i < fieldIndexes.length; i++) {
+            fieldIndexes[i] = indexes.get(i);
+            slots[i] = schema != null ? schema.getOrdinal(attributeIds[i]) : -1;
+        }
     }
 
     private void convertAttributeSettingsToAttributeFormat() {
@@ -199,6 +221,13 @@ public class DelimitedParser extends AbstractComponentRuntime {
             }
         });
 
+        for (AttributeFormat attribute : attributes) {
+            if (isNotBlank(attribute.getFormatFunction())) {
+                attribute.setFormatHelper(ModelAttributeScriptHelper.create(context, attribute.getAttribute(), attribute.getEntity(),
+                        getOutputModel(), attribute.getFormatFunction()));
+            }
+        }
+
     }
 
     protected class AttributeFormat {
@@ -219,6 +248,8 @@ public class DelimitedParser extends AbstractComponentRuntime {
 
         String formatFunction;
 
+        ModelAttributeScriptHelper formatHelper;
+
         public String getAttributeId() {
             return attributeId;
         }
@@ -246,6 +277,14 @@ public class DelimitedParser extends AbstractComponentRuntime {
         public ModelEntity getEntity() {
             return entity;
         }
+
+        public ModelAttributeScriptHelper getFormatHelper() {
+            return formatHelper;
+        }
+
+        public void setFormatHelper(ModelAttributeScriptHelper formatHelper) {
+            this.formatHelper = formatHelper;
+        }
     }
 
 }
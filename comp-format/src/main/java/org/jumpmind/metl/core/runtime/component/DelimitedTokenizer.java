@@ -0,0 +1,241 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import java.util.Arrays;
+
+/**
+ * Splits delimited text one line at a time without copying the input. Field
+ * boundaries are kept as offsets into the current line and a field is only
+ * turned into a string when it is asked for. The delimiter may be more than
+ * one character. A quoted field may run over several lines, in which case the
+ * lines are joined with a newline. A doubled quote inside a quoted field is
+ * read as one quote. Text between the closing quote and the next delimiter is
+ * kept as part of the field. Unquoted fields are trimmed of surrounding
+ * blanks, and empty lines between records are skipped.
+ */
+public class DelimitedTokenizer {
+
+    final String delimiter;
+
+    final char quote;
+
+    final boolean quoted;
+
+    String line;
+
+    int count;
+
+    int[] starts = new int[16];
+
+    int[] ends = new int[16];
+
+    String[] values = new String[16];
+
+    /*
+     * Non null while a quoted field is still open at the end of a line
+     */
+    StringBuilder openField;
+
+    boolean complete = true;
+
+    public DelimitedTokenizer(String delimiter, String quoteCharacter) {
+        if (delimiter == null || delimiter.length() == 0) {
+            throw new IllegalArgumentException("A delimiter is required");
+        }
+        this.delimiter = delimiter;
+        this.quoted = quoteCharacter != null && quoteCharacter.trim().length() > 0;
+        this.quote = quoted ? quoteCharacter.charAt(0) : 0;
+    }
+
+    /**
+     * @return true if the line completed a record, in which case the fields
+     *         may be read until the next call
+     */
+    public boolean parseLine(String line) {
+        int pos = 0;
+        if (complete) {
+            if (line.length() == 0) {
+                return false;
+            }
+            count = 0;
+        } else {
+            materialize();
+        }
+        this.line = line;
+        if (openField != null) {
+            pos = readQuoted(0);
+            if (pos < 0) {
+                return false;
+            }
+        }
+        while (pos >= 0) {
+            pos = readField(pos);
+        }
+        complete = pos == -1;
+        return complete;
+    }
+
+    /**
+     * Closes a record left open by a quoted field that was never terminated.
+     * 
+     * @return true if there was such a record
+     */
+    public boolean finish() {
+        if (!complete) {
+            materialize();
+            if (openField != null) {
+                String value = openField.substring(0, openField.length() - 1);
+                openField = null;
+                addValue(value);
+            }
+            complete = true;
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    public int getFieldCount() {
+        return count;
+    }
+
+    /**
+     * @return the field at the index or an empty string if the record is
+     *         shorter than that
+     */
+    public String get(int index) {
+        if (index < count) {
+            String value = values[index];
+            return value != null ? value : line.substring(starts[index], ends[index]);
+        } else {
+            return "";
+        }
+    }
+
+    /*
+     * Returns the position of the next field, -1 when the record is done or -2
+     * when a quoted field continues on the next line
+     */
+    protected int readField(int pos) {
+        int length = line.length();
+        while (pos < length && isBlank(line.charAt(pos)) && !line.startsWith(delimiter, pos)) {
+            pos++;
+        }
+
+        if (quoted && pos < length && line.charAt(pos) == quote) {
+            openField = new StringBuilder();
+            return readQuoted(pos + 1);
+        }
+
+        int next = line.indexOf(delimiter, pos);
+        int end = next < 0 ? length : next;
+        while (end > pos && isBlank(line.charAt(end - 1))) {
+            end--;
+        }
+        addOffsets(pos, end);
+        return afterField(next);
+    }
+
+    /*
+     * Reads the remainder of the open quoted field from pos. Returns the
+     * position of the next field, -1 when the record is done or -2 when the
+     * field continues on the next line.
+     */
+    protected int readQuoted(int pos) {
+        int length = line.length();
+        int from = pos;
+        while (pos < length) {
+            if (line.charAt(pos) == quote) {
+                openField.append(line, from, pos);
+                if (pos + 1 < length && line.charAt(pos + 1) == quote) {
+                    openField.append(quote);
+                    pos += 2;
+                    from = pos;
+                } else {
+                    int next = line.indexOf(delimiter, pos + 1);
+                    int end = next < 0 ? length : next;
+                    while (end > pos + 1 && isBlank(line.charAt(end - 1))) {
+                        end--;
+                    }
+                    openField.append(line, pos + 1, end);
+                    addValue(openField.toString());
+                    openField = null;
+                    return afterField(next);
+                }
+            } else {
+                pos++;
+            }
+        }
+        openField.append(line, from, length).append('\n');
+        return -2;
+    }
+
+    protected int afterField(int delimiterIndex) {
+        if (delimiterIndex < 0) {
+            return -1;
+        }
+        int next = delimiterIndex + delimiter.length();
+        if (next == line.length()) {
+            addOffsets(next, next);
+            return -1;
+        }
+        return next;
+    }
+
+    protected void addOffsets(int start, int end) {
+        ensureCapacity();
+        starts[count] = start;
+        ends[count] = end;
+        values[count++] = null;
+    }
+
+    protected void addValue(String value) {
+        ensureCapacity();
+        values[count++] = value;
+    }
+
+    protected void ensureCapacity() {
+        if (count == values.length) {
+            int size = count * 2;
+            starts = Arrays.copyOf(starts, size);
+            ends = Arrays.copyOf(ends, size);
+            values = Arrays.copyOf(values, size);
+        }
+    }
+
+    /*
+     * Fields that point into a line must be copied before the tokenizer moves
+     * on to the next line of the same record
+     */
+    protected void materialize() {
+        for (int i = 0; i < count; i++) {
+            if (values[i] == null) {
+                values[i] = line.substring(starts[i], ends[i]);
+            }
+        }
+    }
+
+    protected static boolean isBlank(char c) {
+        return c == ' ' || c == '\t';
+    }
+
+}
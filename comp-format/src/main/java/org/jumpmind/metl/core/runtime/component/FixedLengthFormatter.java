@@ -119,9 +119,8 @@ public class FixedLengthFormatter extends AbstractComponentRuntime {
         StringBuilder stringBuilder = new StringBuilder();
         for (AttributeFormat attribute : attributesList) {
             Object value = inputRow.get(attribute.getAttributeId());
-            if (isNotBlank(attribute.getFormatFunction())) {
-                value = ModelAttributeScriptHelper.eval(inputMessage, context, attribute.getAttribute(), value, getInputModel(), attribute.getEntity(),
-                        inputRow, attribute.getFormatFunction());
+            if (attribute.getFormatHelper() != null) {
+                value = attribute.getFormatHelper().eval(inputMessage, inputRow, value);
             }
             if (value != null) {
                 if (value.toString().length() > attribute.getLength()) {
@@ -165,6 +164,13 @@ public class FixedLengthFormatter extends AbstractComponentRuntime {
                 return format1.getOrdinal() - format2.getOrdinal();
             }
         });
+
+        for (AttributeFormat attribute : attributesList) {
+            if (isNotBlank(attribute.getFormatFunction())) {
+                attribute.setFormatHelper(ModelAttributeScriptHelper.create(context, attribute.getAttribute(), attribute.getEntity(),
+                        getInputModel(), attribute.getFormatFunction()));
+            }
+        }
     }
 
     private class AttributeFormat {
@@ -174,6 +180,7 @@ public class FixedLengthFormatter extends AbstractComponentRuntime {
         int ordinal;
         int length;
         String formatFunction;
+        ModelAttributeScriptHelper formatHelper;
 
         public AttributeFormat(ModelAttribute attribute, ModelEntity entity) {
             this.attribute = attribute;
@@ -215,6 +222,14 @@ public class FixedLengthFormatter extends AbstractComponentRuntime {
         public ModelEntity getEntity() {
             return entity;
         }
+
+        public ModelAttributeScriptHelper getFormatHelper() {
+            return formatHelper;
+        }
+
+        public void setFormatHelper(ModelAttributeScriptHelper formatHelper) {
+            this.formatHelper = formatHelper;
+        }
     }
 
 }
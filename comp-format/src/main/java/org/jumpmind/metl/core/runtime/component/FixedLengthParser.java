@@ -22,21 +22,25 @@ package org.jumpmind.metl.core.runtime.component;
 
 import static org.apache.commons.lang.StringUtils.isNotBlank;
 
-import java.io.IOException;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import org.jumpmind.exception.IoException;
 import org.jumpmind.metl.core.model.ComponentAttributeSetting;
 import org.jumpmind.metl.core.model.Model;
 import org.jumpmind.metl.core.model.ModelAttribute;
 import org.jumpmind.metl.core.model.ModelEntity;
+import org.jumpmind.metl.core.runtime.BinaryMessage;
+import org.jumpmind.metl.core.runtime.ControlMessage;
 import org.jumpmind.metl.core.runtime.EntityData;
+import org.jumpmind.metl.core.runtime.EntityDataSchema;
 import org.jumpmind.metl.core.runtime.Message;
+import org.jumpmind.metl.core.runtime.MisconfiguredException;
 import org.jumpmind.metl.core.runtime.TextMessage;
 import org.jumpmind.metl.core.runtime.flow.ISendMessageCallback;
 
@@ -48,12 +52,43 @@ public class FixedLengthParser extends AbstractComponentRuntime {
 
     public final static String SETTING_FOOTER_LINES_TO_SKIP = "footer.lines.to.skip";
 
+    public final static String SETTING_ENCODING = "encoding";
+
+    public final static String SETTING_RECORD_LENGTH = "record.length";
+
     int numberOfFooterLinesToSkip = 0;
 
     int numberOfHeaderLinesToSkip = 0;
 
+    String encoding = "ISO-8859-1";
+
+    int recordLength = 0;
+
     List<AttributeFormat> attributesList;
 
+    EntityDataSchema schema;
+
+    String[] attributeIds;
+
+    int[] starts;
+
+    int[] lengths;
+
+    int[] slots;
+
+    ModelAttributeScriptHelper[] formatHelpers;
+
+    Charset charset;
+
+    /*
+     * Maps each byte to its character when the encoding is a single byte
+     * charset. Null for multibyte charsets, whose records are decoded to a
+     * string first.
+     */
+    char[] byteToChar;
+
+    char[] fieldBuffer;
+
     @Override
     public void start() {
         if (getComponent().getOutputModel() == null) {
@@ -61,7 +96,11 @@ public class FixedLengthParser extends AbstractComponentRuntime {
         }
         numberOfFooterLinesToSkip = getComponent().getInt(SETTING_FOOTER_LINES_TO_SKIP, 0);
         numberOfHeaderLinesToSkip = getComponent().getInt(SETTING_HEADER_LINES_TO_SKIP, 0);
+        encoding = getComponent().get(SETTING_ENCODING, encoding);
+        recordLength = getComponent().getInt(SETTING_RECORD_LENGTH, 0);
         convertAttributeSettingsToAttributeFormat();
+        precomputeOffsets();
+        initCharset();
     }
     
     @Override
@@ -76,45 +115,88 @@ public class FixedLengthParser extends AbstractComponentRuntime {
 
             ArrayList<EntityData> outputPayload = new ArrayList<EntityData>();
             int headerRowsToSkip = inputMessage.getHeader().getSequenceNumber() == 0 ? numberOfHeaderLinesToSkip : 0;
-            try {
-                int rowCount = 0;
-                for (String inputRow : inputRows) {
-                    if (headerRowsToSkip == 0) {
-                        // TODO what if the file is split across messages? this
-                        // logic would not work
-                        if (rowCount + numberOfFooterLinesToSkip < inputRows.size()) {
-                            EntityData data = processInputRow(inputMessage, inputRow);
-                            if (data != null) {
-                                getComponentStatistics().incrementNumberEntitiesProcessed(threadNumber);
-                                outputPayload.add(data);
-                            }
-                        }
-                    } else {
-                        headerRowsToSkip--;
+            // TODO what if the file is split across messages? this
+            // logic would not work
+            int lastRow = inputRows.size() - numberOfFooterLinesToSkip;
+            for (int rowCount = headerRowsToSkip; rowCount < lastRow; rowCount++) {
+                EntityData data = processInputRow(inputMessage, inputRows.get(rowCount));
+                if (data != null) {
+                    getComponentStatistics().incrementNumberEntitiesProcessed(threadNumber);
+                    outputPayload.add(data);
+                }
+            }
+
+            callback.sendEntityDataMessage(null, outputPayload);
+        } else if (inputMessage instanceof BinaryMessage) {
+            byte[] bytes = ((BinaryMessage) inputMessage).getPayload();
+
+            ArrayList<EntityData> outputPayload = new ArrayList<EntityData>();
+            if (bytes != null) {
+                int[] records = findRecords(bytes);
+                int recordCount = records.length / 2;
+                /*
+                 * A binary message holds a whole file, so the header and the
+                 * footer are both skipped in every message
+                 */
+                int firstRecord = numberOfHeaderLinesToSkip;
+                int lastRecord = recordCount - numberOfFooterLinesToSkip;
+                for (int i = firstRecord; i < lastRecord; i++) {
+                    EntityData data = processInputRecord(inputMessage, bytes, records[i * 2], records[i * 2 + 1]);
+                    if (data != null) {
+                        getComponentStatistics().incrementNumberEntitiesProcessed(threadNumber);
+                        outputPayload.add(data);
                     }
-                    rowCount++;
                 }
-            } catch (IOException e) {
-                throw new IoException(e);
             }
 
             callback.sendEntityDataMessage(null, outputPayload);
+        } else if (!(inputMessage instanceof ControlMessage)) {
+            throw new MisconfiguredException("%s only parses text or binary messages.  It received a %s",
+                    getFlowStep().getName(), inputMessage.getClass().getSimpleName());
         }
     }
 
-    private EntityData processInputRow(Message inputMessage, String inputRow) throws IOException {
-        if (attributesList.size() > 0) {
-            EntityData data = new EntityData();
-            for (AttributeFormat attribute : attributesList) {
-                int length = attribute.getLength() > inputRow.length() ? inputRow.length() : attribute.getLength();
-                Object value = inputRow.substring(0, length).trim();
-                inputRow = inputRow.substring(length);
-                if (isNotBlank(attribute.getFormatFunction())) {
-                    value = ModelAttributeScriptHelper.eval(inputMessage, context, attribute.getAttribute(), value, getOutputModel(), attribute.getEntity(), data,
-                            attribute.getFormatFunction());
+    private EntityData processInputRow(Message inputMessage, String inputRow) {
+        if (attributeIds.length > 0) {
+            EntityData data = new EntityData(schema);
+            int rowLength = inputRow.length();
+            for (int i = 0; i < attributeIds.length; i++) {
+                int start = Math.min(starts[i], rowLength);
+                int end = Math.min(starts[i] + lengths[i], rowLength);
+                while (start < end && inputRow.charAt(start) <= ' ') {
+                    start++;
                 }
+                while (end > start && inputRow.charAt(end - 1) <= ' ') {
+                    end--;
+                }
+                put(inputMessage, data, i, inputRow.substring(start, end));
+            }
+            return data;
+        } else {
+            return null;
+        }
+    }
 
-                data.put(attribute.getAttributeId(), value);
+    private EntityData processInputRecord(Message inputMessage, byte[] bytes, int offset, int length) {
+        if (byteToChar == null) {
+            return processInputRow(inputMessage, new String(bytes, offset, length, charset));
+        } else if (attributeIds.length > 0) {
+            EntityData data = new EntityData(schema);
+            for (int i = 0; i < attributeIds.length; i++) {
+                int from = offset + Math.min(starts[i], length);
+                int to = offset + Math.min(starts[i] + lengths[i], length);
+                int end = 0;
+                for (int b = from; b < to; b++) {
+                    fieldBuffer[end++] = byteToChar[bytes[b] & 0xff];
+                }
+                int start = 0;
+                while (start < end && fieldBuffer[start] <= ' ') {
+                    start++;
+                }
+                while (end > start && fieldBuffer[end - 1] <= ' ') {
+                    end--;
+                }
+                put(inputMessage, data, i, new String(fieldBuffer, start, end - start));
             }
             return data;
         } else {
@@ -122,6 +204,117 @@ public class FixedLengthParser extends AbstractComponentRuntime {
         }
     }
 
+    private void put(Message inputMessage, EntityData data, int index, Object value) {
+        if (formatHelpers[index] != null) {
+            value = formatHelpers[index].eval(inputMessage, data, value);
+        }
+
+        if (slots[index] >= 0) {
+            data.putOrdinal(slots[index], value);
+        } else {
+            data.put(attributeIds[index], value);
+        }
+    }
+
+    /*
+     * Returns offset and length pairs for the records in the payload. Records
+     * are either a fixed number of bytes or end with a line feed, in which
+     * case a trailing carriage return is dropped and empty lines are skipped.
+     */
+    private int[] findRecords(byte[] bytes) {
+        int[] records = new int[64];
+        int count = 0;
+        if (recordLength > 0) {
+            records = new int[((bytes.length + recordLength - 1) / recordLength) * 2];
+            for (int offset = 0; offset < bytes.length; offset += recordLength) {
+                records[count++] = offset;
+                records[count++] = Math.min(recordLength, bytes.length - offset);
+            }
+        } else {
+            byte lineFeed = encodedByte('\n', (byte) '\n');
+            byte carriageReturn = encodedByte('\r', (byte) '\r');
+            int offset = 0;
+            while (offset < bytes.length) {
+                int end = offset;
+                while (end < bytes.length && bytes[end] != lineFeed) {
+                    end++;
+                }
+                int next = end + 1;
+                if (end > offset && bytes[end - 1] == carriageReturn) {
+                    end--;
+                }
+                if (end > offset) {
+                    if (count == records.length) {
+                        records = Arrays.copyOf(records, count * 2);
+                    }
+                    records[count++] = offset;
+                    records[count++] = end - offset;
+                }
+                offset = next;
+            }
+        }
+        return count == records.length ? records : Arrays.copyOf(records, count);
+    }
+
+    private byte encodedByte(char c, byte defaultValue) {
+        if (byteToChar != null) {
+            for (int i = 0; i < byteToChar.length; i++) {
+                if (byteToChar[i] == c) {
+                    return (byte) i;
+                }
+            }
+        }
+        return defaultValue;
+    }
+
+    /*
+     * Fields are laid out one after another in ordinal order, so the start of
+     * each field is the sum of the lengths before it
+     */
+    private void precomputeOffsets() {
+        schema = getOutputModel().getEntityDataSchema();
+        int size = attributesList.size();
+        attributeIds = new String[size];
+        starts = new int[size];
+        lengths = new int[size];
+        slots = new int[size];
+        formatHelpers = new ModelAttributeScriptHelper[size];
+        int start = 0;
+        int maxLength = 0;
+        for (int i = 0; i < size; i++) {
+            AttributeFormat attribute = attributesList.get(i);
+            attributeIds[i] = attribute.getAttributeId();
+            starts[i] = start;
+            lengths[i] = Math.max(attribute.getLength(), 0);
+            slots[i] = schema != null ? schema.getOrdinal(attributeIds[i]) : -1;
+            formatHelpers[i] = attribute.getFormatHelper();
+            start += lengths[i];
+            maxLength = Math.max(maxLength, lengths[i]);
+        }
+        fieldBuffer = new char[maxLength];
+    }
+
+    private void initCharset() {
+        charset = Charset.forName(encoding);
+        byteToChar = null;
+        boolean singleByte = false;
+        try {
+            singleByte = charset.newEncoder().maxBytesPerChar() == 1f;
+        } catch (UnsupportedOperationException e) {
+            debug("The %s charset does not support encoding.  Binary records will be decoded a record at a time", encoding);
+        }
+        if (singleByte) {
+            byte[] all = new byte[256];
+            for (int i = 0; i < all.length; i++) {
+                all[i] = (byte) i;
+            }
+            char[] chars = new String(all, charset).toCharArray();
+            if (chars.length == all.length) {
+                byteToChar = chars;
+            }
+        }
+    }
+
     private void convertAttributeSettingsToAttributeFormat() {
 
         Map<String, AttributeFormat> attributesMap = new HashMap<String, AttributeFormat>();
@@ -151,6 +344,13 @@ public class FixedLengthParser extends AbstractComponentRuntime {
                 return format1.getOrdinal() - format2.getOrdinal();
             }
         });
+
+        for (AttributeFormat attribute : attributesList) {
+            if (isNotBlank(attribute.getFormatFunction())) {
+                attribute.setFormatHelper(ModelAttributeScriptHelper.create(context, attribute.getAttribute(), attribute.getEntity(),
+                        getOutputModel(), attribute.getFormatFunction()));
+            }
+        }
     }
 
     private class AttributeFormat {
@@ -160,6 +360,7 @@ public class FixedLengthParser extends AbstractComponentRuntime {
         int ordinal;
         int length;
         String formatFunction;
+        ModelAttributeScriptHelper formatHelper;
 
         public AttributeFormat(ModelAttribute attribute, ModelEntity entity) {
             this.attribute = attribute;
@@ -201,6 +402,14 @@ public class FixedLengthParser extends AbstractComponentRuntime {
         public ModelEntity getEntity() {
             return entity;
         }
+
+        public ModelAttributeScriptHelper getFormatHelper() {
+            return formatHelper;
+        }
+
+        public void setFormatHelper(ModelAttributeScriptHelper formatHelper) {
+            this.formatHelper = formatHelper;
+        }
     }
 
 }
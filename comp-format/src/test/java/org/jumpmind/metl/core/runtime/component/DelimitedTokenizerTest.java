@@ -0,0 +1,103 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class DelimitedTokenizerTest {
+
+    @Test
+    public void testSimpleFields() {
+        DelimitedTokenizer tokenizer = new DelimitedTokenizer(",", "\"");
+        assertTrue(tokenizer.parseLine("a, b ,,d,"));
+        assertEquals(5, tokenizer.getFieldCount());
+        assertEquals("a", tokenizer.get(0));
+        assertEquals("b", tokenizer.get(1));
+        assertEquals("", tokenizer.get(2));
+        assertEquals("d", tokenizer.get(3));
+        assertEquals("", tokenizer.get(4));
+        assertEquals("", tokenizer.get(5));
+    }
+
+    @Test
+    public void testMultiCharDelimiter() {
+        DelimitedTokenizer tokenizer = new DelimitedTokenizer("||", null);
+        assertTrue(tokenizer.parseLine("one||two|three||\"four\""));
+        assertEquals(3, tokenizer.getFieldCount());
+        assertEquals("two|three", tokenizer.get(1));
+        assertEquals("\"four\"", tokenizer.get(2));
+    }
+
+    @Test
+    public void testQuotedFields() {
+        DelimitedTokenizer tokenizer = new DelimitedTokenizer(",", "\"");
+        assertTrue(tokenizer.parseLine("\"a,b\", \"say \"\"hi\"\"\" ,c"));
+        assertEquals(3, tokenizer.getFieldCount());
+        assertEquals("a,b", tokenizer.get(0));
+        assertEquals("say \"hi\"", tokenizer.get(1));
+        assertEquals("c", tokenizer.get(2));
+    }
+
+    @Test
+    public void testTextAfterClosingQuoteIsKept() {
+        DelimitedTokenizer tokenizer = new DelimitedTokenizer(",", "\"");
+        assertTrue(tokenizer.parseLine("\"a\"b,\"c,d\" e ,\"f\"  ,\"g\"h"));
+        assertEquals(4, tokenizer.getFieldCount());
+        assertEquals("ab", tokenizer.get(0));
+        assertEquals("c,d e", tokenizer.get(1));
+        assertEquals("f", tokenizer.get(2));
+        assertEquals("gh", tokenizer.get(3));
+
+        assertFalse(tokenizer.parseLine("1,\"two"));
+        assertTrue(tokenizer.parseLine("lines\"x,3"));
+        assertEquals("two\nlinesx", tokenizer.get(1));
+        assertEquals("3", tokenizer.get(2));
+    }
+
+    @Test
+    public void testQuotedFieldSpanningLines() {
+        DelimitedTokenizer tokenizer = new DelimitedTokenizer("\t", "'");
+        assertFalse(tokenizer.parseLine("1\t'first"));
+        assertFalse(tokenizer.parseLine(""));
+        assertTrue(tokenizer.parseLine("last'\t3"));
+        assertEquals(3, tokenizer.getFieldCount());
+        assertEquals("1", tokenizer.get(0));
+        assertEquals("first\n\nlast", tokenizer.get(1));
+        assertEquals("3", tokenizer.get(2));
+        assertFalse(tokenizer.finish());
+    }
+
+    @Test
+    public void testEmptyLinesAndUnterminatedQuote() {
+        DelimitedTokenizer tokenizer = new DelimitedTokenizer(",", "\"");
+        assertFalse(tokenizer.parseLine(""));
+        assertFalse(tokenizer.parseLine("x,\"open"));
+        assertTrue(tokenizer.finish());
+        assertEquals(2, tokenizer.getFieldCount());
+        assertEquals("x", tokenizer.get(0));
+        assertEquals("open", tokenizer.get(1));
+    }
+
+}
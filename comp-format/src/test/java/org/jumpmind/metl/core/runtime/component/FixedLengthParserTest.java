@@ -0,0 +1,167 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.jumpmind.metl.core.model.Component;
+import org.jumpmind.metl.core.model.ComponentAttributeSetting;
+import org.jumpmind.metl.core.model.FlowStep;
+import org.jumpmind.metl.core.model.Model;
+import org.jumpmind.metl.core.model.ModelAttribute;
+import org.jumpmind.metl.core.model.ModelEntity;
+import org.jumpmind.metl.core.model.Setting;
+import org.jumpmind.metl.core.runtime.BinaryMessage;
+import org.jumpmind.metl.core.runtime.ControlMessage;
+import org.jumpmind.metl.core.runtime.EntityData;
+import org.jumpmind.metl.core.runtime.EntityDataMessage;
+import org.jumpmind.metl.core.runtime.ExecutionTrackerNoOp;
+import org.jumpmind.metl.core.runtime.Message;
+import org.jumpmind.metl.core.runtime.MisconfiguredException;
+import org.jumpmind.metl.core.runtime.TextMessage;
+import org.jumpmind.metl.core.utils.TestUtils;
+import org.junit.Test;
+
+public class FixedLengthParserTest {
+
+    @Test
+    public void testParseText() throws Exception {
+        FixedLengthParser parser = createParser(new Setting(FixedLengthParser.SETTING_HEADER_LINES_TO_SKIP, "1"),
+                new Setting(FixedLengthParser.SETTING_FOOTER_LINES_TO_SKIP, "1"));
+        TextMessage message = new TextMessage("fake step id",
+                new ArrayList<String>(Arrays.asList("HDR", "abc def ", " x  y", "a", "FTR")));
+
+        List<ArrayList<EntityData>> payloads = handle(parser, message);
+
+        assertEquals(1, payloads.size());
+        List<EntityData> rows = payloads.get(0);
+        assertEquals(3, rows.size());
+        assertRow(rows.get(0), "abc", "def");
+        assertRow(rows.get(1), "x", "y");
+        assertRow(rows.get(2), "a", "");
+    }
+
+    @Test
+    public void testParseBinaryLines() throws Exception {
+        FixedLengthParser parser = createParser(new Setting(FixedLengthParser.SETTING_HEADER_LINES_TO_SKIP, "1"),
+                new Setting(FixedLengthParser.SETTING_FOOTER_LINES_TO_SKIP, "1"));
+
+        for (int sequence = 0; sequence < 2; sequence++) {
+            BinaryMessage message = new BinaryMessage("fake step id", "HDR\r\nabc def\r\n\r\n x  y\nFTR\n".getBytes("ISO-8859-1"));
+            message.getHeader().setSequenceNumber(sequence);
+
+            List<ArrayList<EntityData>> payloads = handle(parser, message);
+
+            assertEquals(1, payloads.size());
+            List<EntityData> rows = payloads.get(0);
+            assertEquals(2, rows.size());
+            assertRow(rows.get(0), "abc", "def");
+            assertRow(rows.get(1), "x", "y");
+        }
+    }
+
+    @Test
+    public void testParseBinaryRecordLength() throws Exception {
+        FixedLengthParser parser = createParser(new Setting(FixedLengthParser.SETTING_RECORD_LENGTH, "7"));
+        BinaryMessage message = new BinaryMessage("fake step id", "abc def x  y   z".getBytes("ISO-8859-1"));
+
+        List<ArrayList<EntityData>> payloads = handle(parser, message);
+
+        List<EntityData> rows = payloads.get(0);
+        assertEquals(3, rows.size());
+        assertRow(rows.get(0), "abc", "def");
+        assertRow(rows.get(1), "x", "y");
+        assertRow(rows.get(2), "z", "");
+    }
+
+    @Test
+    public void testParseBinaryMultiByteEncoding() throws Exception {
+        FixedLengthParser parser = createParser(new Setting(FixedLengthParser.SETTING_ENCODING, "UTF-8"));
+        BinaryMessage message = new BinaryMessage("fake step id", "äbç déf\n".getBytes("UTF-8"));
+
+        List<ArrayList<EntityData>> payloads = handle(parser, message);
+
+        List<EntityData> rows = payloads.get(0);
+        assertEquals(1, rows.size());
+        assertRow(rows.get(0), "äbç", "déf");
+    }
+
+    @Test
+    public void testControlMessageIsIgnored() throws Exception {
+        FixedLengthParser parser = createParser();
+
+        assertEquals(0, handle(parser, new ControlMessage("fake step id")).size());
+    }
+
+    @Test(expected = MisconfiguredException.class)
+    public void testEntityDataMessageIsRejected() throws Exception {
+        FixedLengthParser parser = createParser();
+        handle(parser, new EntityDataMessage("fake step id"));
+    }
+
+    private static void assertRow(EntityData row, String col1, String col2) {
+        assertEquals(col1, row.get("col1"));
+        assertEquals(col2, row.get("col2"));
+    }
+
+    private static List<ArrayList<EntityData>> handle(FixedLengthParser parser, Message message) {
+        SendMessageCallback<ArrayList<EntityData>> callback = new SendMessageCallback<ArrayList<EntityData>>();
+        parser.handle(message, callback, true);
+        return callback.getPayloadList();
+    }
+
+    private static FixedLengthParser createParser(Setting... settings) {
+        Component component = TestUtils.createComponent(FixedLengthParser.TYPE, false, null, null, createOutputModel(), null,
+                createAttributeSettings(), settings);
+        FlowStep flowStep = new FlowStep();
+        flowStep.setCreateTime(new Date());
+        flowStep.setComponent(component);
+
+        FixedLengthParser parser = new FixedLengthParser();
+        parser.setContext(new ComponentContext(null, flowStep, null, new ExecutionTrackerNoOp(), null, null, null));
+        parser.start();
+        return parser;
+    }
+
+    private static List<ComponentAttributeSetting> createAttributeSettings() {
+        List<ComponentAttributeSetting> attributeSettings = new ArrayList<ComponentAttributeSetting>();
+        attributeSettings.add(new ComponentAttributeSetting("col1", FixedLengthFormatter.FIXED_LENGTH_FORMATTER_ATTRIBUTE_ORDINAL, "1"));
+        attributeSettings.add(new ComponentAttributeSetting("col1", FixedLengthFormatter.FIXED_LENGTH_FORMATTER_ATTRIBUTE_LENGTH, "4"));
+        attributeSettings.add(new ComponentAttributeSetting("col2", FixedLengthFormatter.FIXED_LENGTH_FORMATTER_ATTRIBUTE_ORDINAL, "2"));
+        attributeSettings.add(new ComponentAttributeSetting("col2", FixedLengthFormatter.FIXED_LENGTH_FORMATTER_ATTRIBUTE_LENGTH, "3"));
+        return attributeSettings;
+    }
+
+    private static Model createOutputModel() {
+        ModelEntity entity = new ModelEntity("tt1", "TEST_TABLE_1");
+        entity.addModelAttribute(new ModelAttribute("col1", entity.getId(), "COL1"));
+        entity.addModelAttribute(new ModelAttribute("col2", entity.getId(), "COL2"));
+
+        Model model = new Model();
+        model.getModelEntities().add(entity);
+        return model;
+    }
+}
@@ -24,14 +24,9 @@ import static org.apache.commons.lang.StringUtils.isNotBlank;
 
 import java.io.File;
 
-import javax.script.Invocable;
-import javax.script.ScriptEngine;
-import javax.script.ScriptException;
-
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.exception.ExceptionUtils;
-import org.codehaus.groovy.jsr223.GroovyScriptEngineImpl;
 import org.jumpmind.metl.core.runtime.BinaryMessage;
 import org.jumpmind.metl.core.runtime.ControlMessage;
 import org.jumpmind.metl.core.runtime.EntityData;
@@ -42,6 +37,7 @@ import org.jumpmind.metl.core.runtime.Message;
 import org.jumpmind.metl.core.runtime.MisconfiguredException;
 import org.jumpmind.metl.core.runtime.TextMessage;
 import org.jumpmind.metl.core.runtime.flow.ISendMessageCallback;
+import org.jumpmind.metl.core.util.GroovyClassCache;
 
 public class Script extends AbstractComponentRuntime {
 
@@ -61,7 +57,9 @@ public class Script extends AbstractComponentRuntime {
 
     public static String TRANSFORM_EXPRESSION = "transform.expression";
 
-    ScriptEngine engine;
+    public final static String COMPILE_STATIC = "compile.static";
+
+    ScriptHelper helper;
 
     @Override
     public void start() {
@@ -73,8 +71,6 @@ public class Script extends AbstractComponentRuntime {
         String onSuccess = getComponent().get(ON_FLOW_SUCCESS);
         String onError = getComponent().get(ON_FLOW_ERROR);
 
-        engine = new GroovyScriptEngineImpl();
-        engine.put("component", this);        
         StringBuilder script = new StringBuilder();
         try {
             script.append(String.format("import %s;\n", ISendMessageCallback.class.getName()));
@@ -84,6 +80,7 @@ public class Script extends AbstractComponentRuntime {
             script.append(String.format("import static %s.*;\n", StringUtils.class.getName()));
             script.append(String.format("import %s.*;\n", Message.class.getPackage().getName()));
             script.append(String.format("import %s;\n", ScriptHelper.class.getName()));
+            script.append(String.format("import %s;\n", IComponentRuntime.class.getName()));
             script.append(String.format("import %s;\n", EntityDataMessage.class.getName()));
             script.append(String.format("import %s;\n", TextMessage.class.getName()));
             script.append(String.format("import %s;\n", ControlMessage.class.getName()));
@@ -96,8 +93,15 @@ public class Script extends AbstractComponentRuntime {
                 script.append(importStatements);
             }
             script.append("\n");
-            script.append(String.format("helper = new %1$s(component) { \n",
+            if (properties.is(COMPILE_STATIC, false)) {
+                script.append(GroovyClassCache.COMPILE_STATIC);
+            }
+            script.append(String.format("class ScriptComponentHelper extends %1$s { \n",
                     ScriptHelper.class.getSimpleName()));
+            script.append(String.format(" ScriptComponentHelper(%1$s component) { super(component) } \n",
+                    IComponentRuntime.class.getSimpleName()));
+            script.append(String.format(" protected %1$s getComponent() { componentRuntime } \n",
+                    IComponentRuntime.class.getSimpleName()));
             
             if (isNotBlank(methods)) {
                 script.append("\n");
@@ -125,22 +129,14 @@ public class Script extends AbstractComponentRuntime {
                         .format(" protected void onError(Throwable myError) { %s \n} \n",
                                 onError));
             }
-            script.append("\n};\n");
+            script.append("\n}\n");
 
             log(LogLevel.DEBUG, script.toString());
-            script.append("helper.onInit();");
-            engine.eval(script.toString());
-        } catch (ScriptException e) {
-            Throwable rootCause = ExceptionUtils.getRootCause(e);
-            if (rootCause != null) {
-                if (rootCause instanceof RuntimeException) {
-                    throw (RuntimeException) rootCause;
-                } else {
-                    throw new RuntimeException(rootCause);
-                }
-            } else {
-                throw new RuntimeException(e);
-            }
+            Class<?> helperClass = GroovyClassCache.getClass(script.toString());
+            helper = (ScriptHelper) helperClass.getConstructor(IComponentRuntime.class).newInstance(this);
+            helper.onInit();
+        } catch (Exception e) {
+            throw toRuntimeException(e);
         }
     }
     
@@ -151,43 +147,57 @@ public class Script extends AbstractComponentRuntime {
     
     @Override
     public void handle(Message inputMessage, ISendMessageCallback messageTarget, boolean unitOfWorkBoundaryReached) {
-        invoke("setInputMessage", inputMessage);
-        invoke("setSendMessageCallback", messageTarget);
-        invoke("setUnitOfWorkBoundaryReached", unitOfWorkBoundaryReached);
-        invoke("onHandle");
+        if (helper != null) {
+            try {
+                helper.setInputMessage(inputMessage);
+                helper.setSendMessageCallback(messageTarget);
+                helper.setUnitOfWorkBoundaryReached(unitOfWorkBoundaryReached);
+                helper.onHandle();
+            } catch (Exception e) {
+                throw toRuntimeException(e);
+            }
+        }
     }
 
     @Override
     public void flowCompletedWithErrors(Throwable myError) {
-        invoke("onError", myError);
+        if (helper != null) {
+            try {
+                helper.onError(myError);
+            } catch (Exception e) {
+                throw toRuntimeException(e);
+            }
+        }
     }
 
     @Override
     public void flowCompleted(boolean cancelled) {
-        invoke("onSuccess");
-    }
-
-    protected void invoke(String method, Object... args) {
-        if (engine != null) {
+        if (helper != null) {
             try {
-                Invocable invocable = (Invocable) engine;
-                Object helper = engine.get("helper");
-                invocable.invokeMethod(helper, method, args);
-            } catch (RuntimeException e) {
-                throw e;
+                helper.onSuccess();
             } catch (Exception e) {
-                Throwable rootCause = ExceptionUtils.getRootCause(e);
-                if (rootCause != null) {
-                    if (rootCause instanceof RuntimeException) {
-                        throw (RuntimeException) rootCause;
-                    } else {
-                        throw new RuntimeException(rootCause);
-                    }
-                } else {
-                    throw new RuntimeException(e);
-                }
+                throw toRuntimeException(e);
             }
         }
     }
 
+    /*
+     * Groovy can throw checked exceptions from methods that do not declare
+     * them, so those are unwrapped to their root cause
+     */
+    protected RuntimeException toRuntimeException(Exception e) {
+        if (e instanceof RuntimeException) {
+            return (RuntimeException) e;
+        }
+        Throwable rootCause = ExceptionUtils.getRootCause(e);
+        if (rootCause == null) {
+            rootCause = e;
+        }
+        if (rootCause instanceof RuntimeException) {
+            return (RuntimeException) rootCause;
+        } else {
+            return new RuntimeException(rootCause);
+        }
+    }
+
 }
@@ -138,7 +138,7 @@ public class Mapping extends AbstractComponentRuntime {
                             .getName();
                     EntityData outputRow = outputRows.get(entityName);
                     if (outputRow == null) {
-                        outputRow = new EntityData();
+                        outputRow = new EntityData(outputModel.getEntityDataSchema());
                         outputRow.setChangeType(inputRow.getChangeType());
                         outputRows.put(entityName, outputRow);
                         
@@ -156,7 +156,7 @@ public class Mapping extends AbstractComponentRuntime {
                             .getName();                    
                     EntityData outputRow = outputRows.get(entityName);
                     if (outputRow == null) {
-                        outputRow = new EntityData();
+                        outputRow = new EntityData(outputModel.getEntityDataSchema());
                         outputRows.put(entityName, outputRow);   
                     }
                     if (!outputRow.containsKey(attr.getId())) {
@@ -179,7 +179,7 @@ public class Mapping extends AbstractComponentRuntime {
     protected ArrayList<EntityData> mapInputToOutput(EntityData inputRow) {
         ArrayList<EntityData> outputPayload = new ArrayList<EntityData>();
 
-        EntityData outputRow = new EntityData();
+        EntityData outputRow = new EntityData(getOutputModel().getEntityDataSchema());
         outputRow.setChangeType(inputRow.getChangeType());
 
         for (Entry<String, Object> attrEntry : inputRow.entrySet()) {
@@ -23,19 +23,36 @@ package org.jumpmind.metl.core.runtime.component;
 import static org.apache.commons.lang.StringUtils.isBlank;
 import static org.apache.commons.lang.StringUtils.isNotBlank;
 
+import java.math.BigDecimal;
+import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
+import javax.sql.DataSource;
+
+import org.jumpmind.db.sql.Row;
 import org.jumpmind.db.sql.SqlException;
 import org.jumpmind.metl.core.model.Model;
 import org.jumpmind.metl.core.model.ModelAttribute;
@@ -44,14 +61,20 @@ import org.jumpmind.metl.core.runtime.ContentMessage;
 import org.jumpmind.metl.core.runtime.ControlMessage;
 import org.jumpmind.metl.core.runtime.EntityData;
 import org.jumpmind.metl.core.runtime.EntityData.ChangeType;
+import org.jumpmind.metl.core.runtime.EntityDataMessage;
+import org.jumpmind.metl.core.runtime.EntityDataSchema;
 import org.jumpmind.metl.core.runtime.LogLevel;
 import org.jumpmind.metl.core.runtime.Message;
 import org.jumpmind.metl.core.runtime.MisconfiguredException;
 import org.jumpmind.metl.core.runtime.flow.ISendMessageCallback;
+import org.jumpmind.metl.core.util.ThreadUtils;
 import org.jumpmind.properties.TypedProperties;
 import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.ResultSetExtractor;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
 import org.springframework.jdbc.support.JdbcUtils;
 import org.springframework.util.StringUtils;
 
@@ -75,6 +98,26 @@ public class RdbmsReader extends AbstractRdbmsComponentRuntime {
     
     public static final String SQL_STATEMENT = "SQL STATEMENT";    
 
+    public final static String PARTITION_COLUMN = "partition.column";
+
+    public final static String PARTITION_COUNT = "partition.count";
+
+    public final static String PARTITION_TYPE = "partition.type";
+
+    public static final String PARTITION_TYPE_RANGE = "RANGE";
+
+    public static final String PARTITION_TYPE_MODULO = "MODULO";
+
+    public static final String PARTITION_CONDITION_TOKEN = "$(PARTITION_CONDITION)";
+
+    public final static String STREAM_RESULTS = "stream.results";
+
+    public final static String FETCH_SIZE = "fetch.size";
+
+    public final static String LOOKUP_BATCH_SIZE = "lookup.batch.size";
+
+    static final Pattern PARAMETER_PATTERN = Pattern.compile("(?<![:\\w]):([a-zA-Z_][\\w.]*)");
+
     List<String> sqls;
 
     String runWhen = PER_UNIT_OF_WORK;
@@ -92,6 +135,20 @@ public class RdbmsReader extends AbstractRdbmsComponentRuntime {
     int rowReadDuringHandle;
     
     String unitOfWork = COMPONENT_LIFETIME;
+
+    String partitionColumn;
+
+    int partitionCount = 1;
+
+    String partitionType = PARTITION_TYPE_RANGE;
+
+    boolean streamResults = false;
+
+    int lookupBatchSize = 1;
+
+    Map<String, ArrayList<String>> attributeIdsBySql = new ConcurrentHashMap<String, ArrayList<String>>();
+
+    Map<String, String[]> lookupColumnsBySql = new ConcurrentHashMap<String, String[]>();
     
     @Override
     public void start() {
@@ -104,6 +161,17 @@ public class RdbmsReader extends AbstractRdbmsComponentRuntime {
         runWhen = properties.get(RUN_WHEN, runWhen);
         unitOfWork = properties.get(UNIT_OF_WORK, unitOfWork);
         queryTimeout = properties.getInt(QUERY_TIMEOUT, queryTimeout);
+        partitionColumn = properties.get(PARTITION_COLUMN);
+        partitionCount = properties.getInt(PARTITION_COUNT, partitionCount);
+        partitionType = properties.get(PARTITION_TYPE, partitionType);
+        streamResults = properties.is(STREAM_RESULTS, streamResults);
+        lookupBatchSize = properties.getInt(LOOKUP_BATCH_SIZE, lookupBatchSize);
+        attributeIdsBySql.clear();
+        lookupColumnsBySql.clear();
+        fetchSize = properties.getInt(FETCH_SIZE, 0);
+        if (fetchSize <= 0) {
+            fetchSize = streamResults ? (int) Math.min(rowsPerMessage, Integer.MAX_VALUE) : -1;
+        }
     }
 
     @Override
@@ -139,6 +207,12 @@ public class RdbmsReader extends AbstractRdbmsComponentRuntime {
          */
         ArrayList<EntityData> outboundPayload = new ArrayList<EntityData>(); // =
                                                                              // null;
+        if (inboundPayload != null && lookupBatchSize > 1 && inputMessage instanceof EntityDataMessage) {
+            lookupInBatches(template, inputMessage, inboundPayload, callback, unitOfWorkBoundaryReached, outboundPayload);
+            sendLeftOverRows(callback, outboundPayload);
+            return;
+        }
+
         for (int i = 0; i < inboundRecordCount; i++) {
             Object entity = inboundPayload != null && inboundPayload.hasNext() ? inboundPayload.next() : null;
             ResultSetToEntityDataConverter resultSetToEntityDataConverter = new ResultSetToEntityDataConverter(inputMessage, callback,
@@ -152,8 +226,13 @@ public class RdbmsReader extends AbstractRdbmsComponentRuntime {
                 Map<String, Object> paramMap = prepareParams(sqlToExecute, inputMessage, entity, runWhen);
                 log(LogLevel.INFO, "About to run: %s", sqlToExecute);
                 log(LogLevel.INFO, "Passing params: %s", paramMap);
-                resultSetToEntityDataConverter.setSqlToExecute(sqlToExecute);
-                template.query(sqlToExecute, paramMap, resultSetToEntityDataConverter);
+                resultSetToEntityDataConverter.setSql(sql, sqlToExecute);
+                if (isNotBlank(partitionColumn) && partitionCount > 1) {
+                    queryInPartitions(template, sql, sqlToExecute, paramMap, inputMessage, callback, unitOfWorkBoundaryReached,
+                            outboundPayload);
+                } else {
+                    query(template, sqlToExecute, paramMap, resultSetToEntityDataConverter);
+                }
                 if (unitOfWork.equalsIgnoreCase(SQL_STATEMENT)) {
                     sendLeftOverRows(callback, outboundPayload);
                     callback.sendControlMessage();
@@ -168,6 +247,421 @@ public class RdbmsReader extends AbstractRdbmsComponentRuntime {
         
     }
 
+    /*
+     * Splits the query into ranges or modulo buckets of the partition column
+     * and runs each one on its own pooled connection.  Rows are handed back
+     * to this thread in batches so that messages are only sent from here.
+     */
+    private void queryInPartitions(NamedParameterJdbcTemplate template, String sql, String sqlToExecute, Map<String, Object> paramMap,
+            Message inputMessage, ISendMessageCallback callback, boolean unitOfWorkBoundaryReached, ArrayList<EntityData> outboundPayload) {
+        List<String> conditions = getPartitionConditions(template, sqlToExecute, paramMap);
+        if (conditions.size() <= 1) {
+            ResultSetToEntityDataConverter converter = new ResultSetToEntityDataConverter(inputMessage, callback, unitOfWorkBoundaryReached,
+                    outboundPayload);
+            converter.setSql(sql, sqlToExecute);
+            query(template, getPartitionSql(sqlToExecute, "1=1"), paramMap, converter);
+            return;
+        }
+
+        final BlockingQueue<Object> batches = new LinkedBlockingQueue<Object>(conditions.size() * 2);
+        List<Set<Statement>> runningStatements = new ArrayList<Set<Statement>>(conditions.size());
+        ExecutorService executor = ThreadUtils.createFixedThreadPool(getFlowStep().getName() + "-partition", conditions.size(),
+                conditions.size());
+        int partitionsRunning = conditions.size();
+        try {
+            for (String condition : conditions) {
+                final String partitionSql = getPartitionSql(sqlToExecute, condition);
+                final PartitionConverter converter = new PartitionConverter(inputMessage, callback, unitOfWorkBoundaryReached, batches);
+                final Set<Statement> statements = Collections.newSetFromMap(new ConcurrentHashMap<Statement, Boolean>());
+                final NamedParameterJdbcTemplate partitionTemplate = new NamedParameterJdbcTemplate(
+                        createJdbcTemplate(dataSource, fetchSize, statements));
+                runningStatements.add(statements);
+                converter.setSql(sql, sqlToExecute);
+                log(LogLevel.INFO, "About to run partition: %s", partitionSql);
+                executor.execute(() -> {
+                    Object result = converter;
+                    try {
+                        query(partitionTemplate, partitionSql, paramMap, converter, statements);
+                    } catch (Throwable ex) {
+                        result = ex;
+                    } finally {
+                        statements.clear();
+                    }
+                    try {
+                        batches.put(result);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+
+            while (partitionsRunning > 0) {
+                checkForInterruption();
+                Object batch = batches.poll(1, TimeUnit.SECONDS);
+                if (batch instanceof Throwable) {
+                    Throwable ex = (Throwable) batch;
+                    throw ex instanceof RuntimeException ? (RuntimeException) ex : new RuntimeException(ex);
+                } else if (batch instanceof PartitionConverter) {
+                    partitionsRunning--;
+                } else if (batch != null) {
+                    @SuppressWarnings("unchecked")
+                    List<EntityData> rows = (List<EntityData>) batch;
+                    rowReadDuringHandle += rows.size();
+                    for (EntityData row : rows) {
+                        outboundPayload.add(row);
+                        if (outboundPayload.size() >= rowsPerMessage) {
+                            sendLeftOverRows(callback, outboundPayload);
+                        }
+                    }
+                }
+            }
+        } catch (InterruptedException ex) {
+            throw new CancellationException();
+        } finally {
+            if (partitionsRunning > 0) {
+                cancel(runningStatements);
+            }
+            executor.shutdownNow();
+        }
+    }
+
+    /*
+     * Cancels the queries of partitions that are still running after another
+     * partition failed so that their connections are freed right away
+     */
+    protected void cancel(List<Set<Statement>> runningStatements) {
+        for (Set<Statement> statements : runningStatements) {
+            for (Statement statement : statements) {
+                try {
+                    statement.cancel();
+                } catch (SQLException ex) {
+                    log(LogLevel.DEBUG, "Could not cancel a partition query: %s", ex.getMessage());
+                }
+            }
+        }
+    }
+
+    /*
+     * Creates a template that keeps track of the statements it runs so that
+     * they can be cancelled from another thread
+     */
+    protected JdbcTemplate createJdbcTemplate(DataSource dataSource, int fetchSize, final Set<Statement> statements) {
+        JdbcTemplate template = new JdbcTemplate(dataSource) {
+            @Override
+            protected void applyStatementSettings(Statement stmt) throws SQLException {
+                super.applyStatementSettings(stmt);
+                if (statements != null) {
+                    statements.add(stmt);
+                }
+            }
+        };
+        template.setQueryTimeout(queryTimeout);
+        template.setFetchSize(fetchSize);
+        return template;
+    }
+
+    /*
+     * When streaming, the query runs on a connection set up so that the
+     * driver fetches rows with a cursor instead of reading the whole result
+     * into memory.  PostgreSQL only uses a cursor when auto commit is off and
+     * MySQL only streams when the fetch size is Integer.MIN_VALUE.
+     */
+    protected void query(NamedParameterJdbcTemplate template, final String sql, final Map<String, Object> paramMap,
+            final ResultSetExtractor<?> extractor) {
+        query(template, sql, paramMap, extractor, null);
+    }
+
+    protected void query(NamedParameterJdbcTemplate template, final String sql, final Map<String, Object> paramMap,
+            final ResultSetExtractor<?> extractor, final Set<Statement> statements) {
+        if (!streamResults) {
+            template.query(sql, paramMap, extractor);
+            return;
+        }
+
+        template.getJdbcOperations().execute(new ConnectionCallback<Object>() {
+            @Override
+            public Object doInConnection(Connection con) throws SQLException, DataAccessException {
+                String productName = con.getMetaData().getDatabaseProductName();
+                productName = productName != null ? productName.toLowerCase() : "";
+                boolean mysql = productName.contains("mysql") || productName.contains("mariadb");
+                boolean autoCommit = con.getAutoCommit();
+                boolean changeAutoCommit = autoCommit && !mysql;
+
+                JdbcTemplate streamingTemplate = createJdbcTemplate(new SingleConnectionDataSource(con, true),
+                        mysql ? Integer.MIN_VALUE : fetchSize, statements);
+                if (changeAutoCommit) {
+                    con.setAutoCommit(false);
+                }
+                try {
+                    new NamedParameterJdbcTemplate(streamingTemplate).query(sql, paramMap, extractor);
+                    if (changeAutoCommit) {
+                        con.commit();
+                    }
+                } catch (RuntimeException ex) {
+                    if (changeAutoCommit) {
+                        con.rollback();
+                    }
+                    throw ex;
+                } finally {
+                    if (changeAutoCommit) {
+                        con.setAutoCommit(true);
+                    }
+                }
+                return null;
+            }
+        });
+    }
+
+    protected String getPartitionSql(String sql, String condition) {
+        if (sql.contains(PARTITION_CONDITION_TOKEN)) {
+            return sql.replace(PARTITION_CONDITION_TOKEN, "(" + condition + ")");
+        } else {
+            return "select * from (" + sql + ") metl_partition where " + condition;
+        }
+    }
+
+    /*
+     * Outside of the sub select that wraps a query without a partition
+     * condition token, only the unqualified column name is visible
+     */
+    protected String getPartitionColumn(String sql) {
+        if (sql.contains(PARTITION_CONDITION_TOKEN)) {
+            return partitionColumn;
+        } else {
+            return partitionColumn.substring(partitionColumn.lastIndexOf('.') + 1);
+        }
+    }
+
+    protected List<String> getPartitionConditions(NamedParameterJdbcTemplate template, String sql, Map<String, Object> paramMap) {
+        List<String> conditions = new ArrayList<String>(partitionCount);
+        String partitionColumn = getPartitionColumn(sql);
+        /* rows with a null partition value always go to the first partition */
+        String nullCondition = " or " + partitionColumn + " is null";
+        if (PARTITION_TYPE_MODULO.equals(partitionType)) {
+            String productName = template.getJdbcOperations().execute(new ConnectionCallback<String>() {
+                @Override
+                public String doInConnection(Connection con) throws SQLException, DataAccessException {
+                    return con.getMetaData().getDatabaseProductName();
+                }
+            });
+            boolean sqlServer = productName != null && productName.toLowerCase().contains("microsoft");
+            for (int i = 0; i < partitionCount; i++) {
+                /*
+                 * most databases return a negative remainder for a negative
+                 * value, so the remainder is shifted into 0 to count - 1
+                 */
+                String modulo = sqlServer
+                        ? String.format("((%s %% %d) + %d) %% %d", partitionColumn, partitionCount, partitionCount, partitionCount)
+                        : String.format("mod(mod(%s, %d) + %d, %d)", partitionColumn, partitionCount, partitionCount, partitionCount);
+                conditions.add(modulo + " = " + i + (i == 0 ? nullCondition : ""));
+            }
+        } else {
+            String rangeSql = getPartitionSql(sql, "1=1");
+            String rangeColumn = getPartitionColumn(rangeSql);
+            rangeSql = String.format("select min(%s), max(%s) from (%s) metl_range", rangeColumn, rangeColumn, rangeSql);
+            Object[] range = template.query(rangeSql, paramMap, new ResultSetExtractor<Object[]>() {
+                @Override
+                public Object[] extractData(ResultSet rs) throws SQLException, DataAccessException {
+                    return rs.next() ? new Object[] { rs.getObject(1), rs.getObject(2) } : new Object[2];
+                }
+            });
+            if (range[0] instanceof Number && range[1] instanceof Number) {
+                long min = ((Number) range[0]).longValue();
+                long max = ((Number) range[1]).longValue();
+                long width = Math.max(1, (max - min) / partitionCount + 1);
+                for (long lower = min; lower <= max && conditions.size() < partitionCount; lower += width) {
+                    boolean first = conditions.isEmpty();
+                    boolean last = lower + width > max || conditions.size() == partitionCount - 1;
+                    String condition;
+                    if (first && last) {
+                        condition = "1=1";
+                    } else if (first) {
+                        condition = String.format("%s < %d%s", partitionColumn, lower + width, nullCondition);
+                    } else if (last) {
+                        condition = String.format("%s >= %d", partitionColumn, lower);
+                    } else {
+                        condition = String.format("%s >= %d and %s < %d", partitionColumn, lower, partitionColumn, lower + width);
+                    }
+                    conditions.add(condition);
+                }
+            } else if (range[0] != null) {
+                log(LogLevel.WARN, "The partition column %s is not numeric.  Use the %s partition type to split this query", partitionColumn,
+                        PARTITION_TYPE_MODULO);
+            }
+        }
+        return conditions;
+    }
+
+    /*
+     * Runs each statement once for a batch of inbound rows.  The statement
+     * selects the batch with an in list of an input attribute, for example
+     * "where c.id in (:ORDER.CUSTOMER_ID)", and selects the column on the
+     * left of the in list so that result rows can be matched back to the
+     * inbound rows they belong to.
+     */
+    private void lookupInBatches(NamedParameterJdbcTemplate template, Message inputMessage, Iterator<?> inboundPayload,
+            ISendMessageCallback callback, boolean unitOfWorkBoundaryReached, ArrayList<EntityData> outboundPayload) {
+        List<EntityData> batch = new ArrayList<EntityData>(lookupBatchSize);
+        while (inboundPayload.hasNext()) {
+            batch.add((EntityData) inboundPayload.next());
+            if (batch.size() >= lookupBatchSize || !inboundPayload.hasNext()) {
+                lookup(template, inputMessage, batch, callback, unitOfWorkBoundaryReached, outboundPayload);
+                batch.clear();
+            }
+        }
+    }
+
+    private void lookup(NamedParameterJdbcTemplate template, Message inputMessage, List<EntityData> batch, ISendMessageCallback callback,
+            boolean unitOfWorkBoundaryReached, ArrayList<EntityData> outboundPayload) {
+        List<String> parameterNames = new ArrayList<String>();
+        List<List<Map<String, List<EntityData>>>> rowsByKeyPerSql = new ArrayList<List<Map<String, List<EntityData>>>>();
+        for (String sql : getSqls()) {
+            checkForInterruption();
+            String[] lookupColumns = getLookupColumns(sql);
+
+            /*
+             * rows that resolve the statement and its other parameters to the
+             * same values share a query
+             */
+            Map<List<Object>, List<Integer>> groups = new LinkedHashMap<List<Object>, List<Integer>>();
+            for (int i = 0; i < batch.size(); i++) {
+                String sqlToExecute = prepareSql(sql, inputMessage, batch.get(i));
+                Map<String, Object> paramMap = prepareParams(sqlToExecute, inputMessage, batch.get(i), runWhen);
+                List<Object> bindings = new ArrayList<Object>();
+                bindings.add(sqlToExecute);
+                for (String parameterName : getParameterNames(sqlToExecute)) {
+                    if (!parameterName.equals(lookupColumns[0])) {
+                        bindings.add(paramMap.get(parameterName));
+                    }
+                }
+                List<Integer> group = groups.get(bindings);
+                if (group == null) {
+                    group = new ArrayList<Integer>();
+                    groups.put(bindings, group);
+                }
+                group.add(i);
+            }
+
+            List<Map<String, List<EntityData>>> rowsByKeyPerEntity = new ArrayList<Map<String, List<EntityData>>>(batch.size());
+            rowsByKeyPerEntity.addAll(Collections.nCopies(batch.size(), (Map<String, List<EntityData>>) null));
+            for (List<Integer> group : groups.values()) {
+                EntityData first = batch.get(group.get(0));
+                String sqlToExecute = prepareSql(sql, inputMessage, first);
+                Map<String, Object> paramMap = prepareParams(sqlToExecute, inputMessage, first, runWhen);
+                Set<Object> keys = new LinkedHashSet<Object>();
+                for (Integer i : group) {
+                    Object value = getComponent().toRow(batch.get(i), true, true).get(lookupColumns[0]);
+                    if (value != null) {
+                        keys.add(value);
+                    }
+                }
+                paramMap.put(lookupColumns[0], new ArrayList<Object>(keys));
+                log(LogLevel.INFO, "About to run: %s", sqlToExecute);
+                log(LogLevel.INFO, "Passing params: %s", paramMap);
+
+                Map<String, List<EntityData>> rowsByKey = new HashMap<String, List<EntityData>>();
+                if (!keys.isEmpty()) {
+                    LookupConverter converter = new LookupConverter(inputMessage, callback, unitOfWorkBoundaryReached, lookupColumns[1],
+                            rowsByKey);
+                    converter.setSql(sql, sqlToExecute);
+                    query(template, sqlToExecute, paramMap, converter);
+                }
+                for (Integer i : group) {
+                    rowsByKeyPerEntity.set(i, rowsByKey);
+                }
+            }
+            parameterNames.add(lookupColumns[0]);
+            rowsByKeyPerSql.add(rowsByKeyPerEntity);
+        }
+
+        /*
+         * rows are sent, and units of work are closed, in the same order as
+         * when each inbound row runs its own statements
+         */
+        Set<List<EntityData>> rowsUsed = Collections.newSetFromMap(new IdentityHashMap<List<EntityData>, Boolean>());
+        for (int entityIndex = 0; entityIndex < batch.size(); entityIndex++) {
+            EntityData entity = batch.get(entityIndex);
+            if (passInputRowsThrough) {
+                outboundPayload.add(entity);
+            }
+            Row row = getComponent().toRow(entity, true, true);
+            for (int i = 0; i < parameterNames.size(); i++) {
+                String key = getLookupKey(row.get(parameterNames.get(i)));
+                List<EntityData> rows = key != null ? rowsByKeyPerSql.get(i).get(entityIndex).get(key) : null;
+                if (rows != null) {
+                    /* rows matched by more than one inbound row are copied */
+                    boolean firstUse = rowsUsed.add(rows);
+                    for (EntityData rowData : rows) {
+                        outboundPayload.add(firstUse ? rowData : rowData.copy());
+                        if (outboundPayload.size() >= rowsPerMessage) {
+                            sendLeftOverRows(callback, outboundPayload);
+                        }
+                    }
+                }
+                if (unitOfWork.equalsIgnoreCase(SQL_STATEMENT)) {
+                    sendLeftOverRows(callback, outboundPayload);
+                    callback.sendControlMessage();
+                }
+            }
+            if (unitOfWork.equalsIgnoreCase(SQL_SCRIPT)) {
+                sendLeftOverRows(callback, outboundPayload);
+                callback.sendControlMessage();
+            }
+        }
+    }
+
+    /*
+     * Returns the names of the named parameters in the statement
+     */
+    protected static Set<String> getParameterNames(String sql) {
+        Set<String> parameterNames = new LinkedHashSet<String>();
+        Matcher matcher = PARAMETER_PATTERN.matcher(sql);
+        while (matcher.find()) {
+            parameterNames.add(matcher.group(1));
+        }
+        return parameterNames;
+    }
+
+    /*
+     * Returns the in list parameter and the column it is compared to
+     */
+    protected String[] getLookupColumns(String sql) {
+        String[] lookupColumns = lookupColumnsBySql.get(sql);
+        if (lookupColumns == null) {
+            for (String parameterName : findWhereInParameters(sql)) {
+                Matcher matcher = Pattern.compile("([\\w.\"`\\[\\]]+)\\s+in\\s*\\(\\s*:" + Pattern.quote(parameterName) + "\\s*\\)",
+                        Pattern.CASE_INSENSITIVE).matcher(sql);
+                if (matcher.find()) {
+                    String column = matcher.group(1);
+                    column = column.substring(column.lastIndexOf('.') + 1).replaceAll("[\"`\\[\\]]", "");
+                    lookupColumns = new String[] { parameterName, column };
+                    lookupColumnsBySql.put(sql, lookupColumns);
+                    break;
+                }
+            }
+        }
+
+        if (lookupColumns == null) {
+            throw new MisconfiguredException("A lookup batch size greater than 1 requires the SQL to select rows with an in list of "
+                    + "an input attribute.  For example: where c.id in (:ENTITY.ATTRIBUTE).  SQL: %s", sql);
+        }
+        return lookupColumns;
+    }
+
+    protected static String getLookupKey(Object value) {
+        if (value == null) {
+            return null;
+        } else if (value instanceof Number) {
+            try {
+                return new BigDecimal(value.toString()).stripTrailingZeros().toPlainString();
+            } catch (NumberFormatException ex) {
+                return value.toString();
+            }
+        } else {
+            return value.toString();
+        }
+    }
+
     private void sendLeftOverRows(final ISendMessageCallback callback, ArrayList<EntityData> outboundPayload) {
         if (outboundPayload != null && outboundPayload.size() > 0) {
             callback.sendEntityDataMessage(null, outboundPayload);
@@ -445,6 +939,8 @@ public class RdbmsReader extends AbstractRdbmsComponentRuntime {
 
         ISendMessageCallback callback;
 
+        String sql;
+
         String sqlToExecute;
 
         int outputRecCount;
@@ -467,18 +963,26 @@ public class RdbmsReader extends AbstractRdbmsComponentRuntime {
         public ArrayList<EntityData> extractData(ResultSet rs) throws SQLException, DataAccessException {
             checkForInterruption();
             ResultSetMetaData meta = rs.getMetaData();
-            Map<Integer, String> columnHints = getSqlColumnEntityHints(sqlToExecute);
-            ArrayList<String> attributeIds = getAttributeIds(sqlToExecute, meta, columnHints);
+            /*
+             * cached by the statement before its parameters are resolved so
+             * that the cache does not grow with every resolved value
+             */
+            ArrayList<String> attributeIds = attributeIdsBySql.get(sql);
+            if (attributeIds == null || attributeIds.size() != meta.getColumnCount()) {
+                Map<Integer, String> columnHints = getSqlColumnEntityHints(sqlToExecute);
+                attributeIds = getAttributeIds(sqlToExecute, meta, columnHints);
+                attributeIdsBySql.put(sql, attributeIds);
+            }
+            EntityDataSchema schema = getOutputModel() != null ? getOutputModel().getEntityDataSchema() : null;
             long ts = System.currentTimeMillis();
             while (rs.next()) {
                 if (outputRecCount++ % rowsPerMessage == 0 && payload != null && !payload.isEmpty()) {
-                    callback.sendEntityDataMessage(null, payload);
-                    payload.clear();
+                    sendPayload();
                 }
 
                 getComponentStatistics().incrementNumberEntitiesProcessed(threadNumber);
 
-                EntityData rowData = new EntityData();
+                EntityData rowData = new EntityData(schema);
                 rowData.setChangeType(entityChangeType);
                 for (int i = 1; i <= meta.getColumnCount(); i++) {
                     String attributeId = attributeIds.get(i - 1);
@@ -490,8 +994,8 @@ public class RdbmsReader extends AbstractRdbmsComponentRuntime {
                         rowData.put(attributeId, value);
                     }
                 }
-                rowReadDuringHandle++;
-                payload.add(rowData);
+                rowRead();
+                addRow(rs, rowData);
                 if (context.getDeployment() != null && context.getDeployment().asLogLevel() == LogLevel.DEBUG) {
                     logEntityAttributes(rowData);
                 }
@@ -505,11 +1009,103 @@ public class RdbmsReader extends AbstractRdbmsComponentRuntime {
             return payload;
         }
 
-        public void setSqlToExecute(String sqlToExecute) {
+        protected void sendPayload() {
+            callback.sendEntityDataMessage(null, payload);
+            payload.clear();
+        }
+
+        protected void rowRead() {
+            rowReadDuringHandle++;
+        }
+
+        protected void addRow(ResultSet rs, EntityData rowData) throws SQLException {
+            payload.add(rowData);
+        }
+
+        public void setSql(String sql, String sqlToExecute) {
+            this.sql = sql;
             this.sqlToExecute = sqlToExecute;
         }
     }
 
+    class LookupConverter extends ResultSetToEntityDataConverter {
+
+        String keyColumn;
+
+        int keyColumnIndex;
+
+        Map<String, List<EntityData>> rowsByKey;
+
+        public LookupConverter(Message inputMessage, ISendMessageCallback callback, boolean unitOfWorkLastMessage, String keyColumn,
+                Map<String, List<EntityData>> rowsByKey) {
+            super(inputMessage, callback, unitOfWorkLastMessage, new ArrayList<EntityData>());
+            this.keyColumn = keyColumn;
+            this.rowsByKey = rowsByKey;
+        }
+
+        @Override
+        public ArrayList<EntityData> extractData(ResultSet rs) throws SQLException, DataAccessException {
+            ResultSetMetaData meta = rs.getMetaData();
+            for (int i = 1; i <= meta.getColumnCount() && keyColumnIndex == 0; i++) {
+                if (keyColumn.equalsIgnoreCase(meta.getColumnLabel(i)) || keyColumn.equalsIgnoreCase(meta.getColumnName(i))) {
+                    keyColumnIndex = i;
+                }
+            }
+            if (keyColumnIndex == 0) {
+                throw new MisconfiguredException("The column %s that is compared to the in list must be selected so that results can be "
+                        + "matched to input rows.  SQL: %s", keyColumn, sqlToExecute);
+            }
+            super.extractData(rs);
+            return null;
+        }
+
+        @Override
+        protected void addRow(ResultSet rs, EntityData rowData) throws SQLException {
+            String key = getLookupKey(JdbcUtils.getResultSetValue(rs, keyColumnIndex));
+            List<EntityData> rows = rowsByKey.get(key);
+            if (rows == null) {
+                rows = new ArrayList<EntityData>();
+                rowsByKey.put(key, rows);
+            }
+            rows.add(rowData);
+        }
+    }
+
+    class PartitionConverter extends ResultSetToEntityDataConverter {
+
+        BlockingQueue<Object> batches;
+
+        public PartitionConverter(Message inputMessage, ISendMessageCallback callback, boolean unitOfWorkLastMessage,
+                BlockingQueue<Object> batches) {
+            super(inputMessage, callback, unitOfWorkLastMessage, new ArrayList<EntityData>());
+            this.batches = batches;
+        }
+
+        @Override
+        public ArrayList<EntityData> extractData(ResultSet rs) throws SQLException, DataAccessException {
+            super.extractData(rs);
+            if (!payload.isEmpty()) {
+                sendPayload();
+            }
+            return null;
+        }
+
+        @Override
+        protected void sendPayload() {
+            try {
+                batches.put(new ArrayList<EntityData>(payload));
+                payload.clear();
+            } catch (InterruptedException ex) {
+                throw new CancellationException();
+            }
+        }
+
+        @Override
+        protected void rowRead() {
+            /* rows are counted when the component thread takes the batch */
+        }
+    }
+
     public void setRunWhen(String runWhen) {
         this.runWhen = runWhen;
     }
@@ -0,0 +1,271 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.jumpmind.db.platform.IDatabasePlatform;
+import org.jumpmind.db.sql.ISqlTemplate;
+import org.jumpmind.metl.core.model.Component;
+import org.jumpmind.metl.core.model.ComponentAttributeSetting;
+import org.jumpmind.metl.core.model.FlowStep;
+import org.jumpmind.metl.core.model.Model;
+import org.jumpmind.metl.core.model.ModelAttribute;
+import org.jumpmind.metl.core.model.ModelEntity;
+import org.jumpmind.metl.core.model.Setting;
+import org.jumpmind.metl.core.runtime.ControlMessage;
+import org.jumpmind.metl.core.runtime.EntityData;
+import org.jumpmind.metl.core.runtime.EntityDataMessage;
+import org.jumpmind.metl.core.runtime.ExecutionTrackerNoOp;
+import org.jumpmind.metl.core.runtime.Message;
+import org.jumpmind.metl.core.utils.DbTestUtils;
+import org.jumpmind.metl.core.utils.TestUtils;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class RdbmsReaderTest {
+
+    static IDatabasePlatform platform;
+
+    ISqlTemplate template;
+
+    @BeforeClass
+    public static void setupPlatform() throws Exception {
+        platform = DbTestUtils.createDatabasePlatform();
+    }
+
+    @Before
+    public void setup() throws Exception {
+        template = platform.getSqlTemplate();
+        template.update("drop table if exists TEST_TABLE");
+        template.update("create table TEST_TABLE (ID integer, NAME varchar(50))");
+        for (int id = 1; id <= 20; id++) {
+            template.update("insert into TEST_TABLE values(?,?)", id, "name" + id);
+        }
+        template.update("insert into TEST_TABLE values(-7,'negative7')");
+        template.update("insert into TEST_TABLE values(null,'null1')");
+        template.update("insert into TEST_TABLE values(null,'null2')");
+    }
+
+    @Test
+    public void testPartitionedRead() throws Exception {
+        List<String> expected = new ArrayList<String>();
+        for (int id = 1; id <= 20; id++) {
+            expected.add("name" + id);
+        }
+        expected.add("negative7");
+        expected.add("null1");
+        expected.add("null2");
+        Collections.sort(expected);
+
+        for (String partitionType : new String[] { RdbmsReader.PARTITION_TYPE_RANGE, RdbmsReader.PARTITION_TYPE_MODULO }) {
+            for (String sql : new String[] { "select t.ID, t.NAME from TEST_TABLE t",
+                    "select t.ID, t.NAME from TEST_TABLE t where " + RdbmsReader.PARTITION_CONDITION_TOKEN }) {
+                RdbmsReader reader = createReader(new Setting(RdbmsReader.SQL, sql), new Setting(RdbmsReader.PARTITION_COLUMN, "t.ID"),
+                        new Setting(RdbmsReader.PARTITION_COUNT, "3"), new Setting(RdbmsReader.PARTITION_TYPE, partitionType));
+                List<String> names = read(reader);
+                Collections.sort(names);
+                assertEquals(partitionType + " " + sql, expected, names);
+                assertEquals(partitionType + " " + sql, 23, reader.getRowReadDuringHandle());
+            }
+        }
+    }
+
+    @Test
+    public void testLookupInBatches() throws Exception {
+        RdbmsReader reader = createReader(
+                new Setting(RdbmsReader.SQL, "select ID, NAME from TEST_TABLE where ID in (:INPUT.REF_ID) and NAME <> :INPUT.EXCLUDE"),
+                new Setting(RdbmsReader.RUN_WHEN, RdbmsReader.PER_ENTITY), new Setting(RdbmsReader.LOOKUP_BATCH_SIZE, "10"),
+                new Setting(RdbmsReader.UNIT_OF_WORK, RdbmsReader.SQL_STATEMENT));
+        ArrayList<EntityData> inputRows = new ArrayList<EntityData>();
+        inputRows.add(createInputRow(1, "x"));
+        inputRows.add(createInputRow(2, "name2"));
+        inputRows.add(createInputRow(3, "x"));
+        inputRows.add(createInputRow(2, "x"));
+        inputRows.add(createInputRow(99, "x"));
+
+        List<String> names = read(reader, new EntityDataMessage("test", inputRows));
+
+        /* a control message is sent after each inbound row's statement */
+        assertEquals(Arrays.asList("name1", "|", "|", "name3", "|", "name2", "|", "|"), names);
+    }
+
+    @Test
+    public void testStreamedRead() throws Exception {
+        for (String partitionCount : new String[] { "1", "3" }) {
+            AutoCommitRecorder recorder = new AutoCommitRecorder(platform.getDataSource());
+            RdbmsReader reader = createReader(recorder.getDataSource(), new Setting(RdbmsReader.SQL, "select t.ID, t.NAME from TEST_TABLE t"),
+                    new Setting(RdbmsReader.STREAM_RESULTS, "true"), new Setting(RdbmsReader.FETCH_SIZE, "2"),
+                    new Setting(RdbmsReader.PARTITION_COLUMN, "t.ID"), new Setting(RdbmsReader.PARTITION_COUNT, partitionCount));
+            final List<String> names = new ArrayList<String>();
+            final List<Integer> batchSizes = new ArrayList<Integer>();
+            reader.handle(new ControlMessage("test"), new SendMessageCallback<Object>() {
+                @Override
+                public void sendEntityDataMessage(Map<String, Serializable> messageHeaders, ArrayList<EntityData> payload,
+                        String... targetStepIds) {
+                    batchSizes.add(payload.size());
+                    for (EntityData row : payload) {
+                        names.add((String) row.get("name"));
+                    }
+                }
+            }, true);
+
+            assertEquals(partitionCount, 23, names.size());
+            assertEquals(partitionCount, 23, reader.getRowReadDuringHandle());
+            assertEquals(partitionCount, Arrays.asList(5, 5, 5, 5, 3), batchSizes);
+            assertTrue(partitionCount, recorder.autoCommitTurnedOff);
+            assertFalse(partitionCount, recorder.closedWithoutAutoCommit);
+        }
+    }
+
+    protected List<String> read(RdbmsReader reader) {
+        return read(reader, new ControlMessage("test"));
+    }
+
+    protected List<String> read(RdbmsReader reader, Message message) {
+        final List<String> names = new ArrayList<String>();
+        reader.handle(message, new SendMessageCallback<Object>() {
+            @Override
+            public void sendEntityDataMessage(Map<String, Serializable> messageHeaders, ArrayList<EntityData> payload,
+                    String... targetStepIds) {
+                for (EntityData row : payload) {
+                    names.add((String) row.get("name"));
+                }
+            }
+
+            @Override
+            public void sendControlMessage(Map<String, Serializable> messageHeaders, String... targetStepIds) {
+                names.add("|");
+            }
+        }, true);
+        return names;
+    }
+
+    protected static EntityData createInputRow(int refId, String exclude) {
+        EntityData row = new EntityData();
+        row.put("ref_id", refId);
+        row.put("exclude", exclude);
+        return row;
+    }
+
+    protected RdbmsReader createReader(Setting... settings) {
+        return createReader(platform.getDataSource(), settings);
+    }
+
+    protected RdbmsReader createReader(DataSource dataSource, Setting... settings) {
+        List<Setting> allSettings = new ArrayList<Setting>();
+        allSettings.add(new Setting(RdbmsReader.ROWS_PER_MESSAGE, "5"));
+        Collections.addAll(allSettings, settings);
+        Component component = TestUtils.createComponent(RdbmsReader.TYPE, false, null, createInputModel(), createOutputModel(), null,
+                new ArrayList<ComponentAttributeSetting>(), allSettings.toArray(new Setting[allSettings.size()]));
+        FlowStep flowStep = new FlowStep();
+        flowStep.setCreateTime(new Date());
+        flowStep.setComponent(component);
+
+        RdbmsReader reader = new RdbmsReader();
+        reader.setContext(new ComponentContext(null, flowStep, null, new ExecutionTrackerNoOp(), null, null, null));
+        reader.setDataSource(dataSource);
+        reader.start();
+        return reader;
+    }
+
+    protected static Model createInputModel() {
+        ModelEntity entity = new ModelEntity("input", "INPUT");
+        entity.addModelAttribute(new ModelAttribute("ref_id", entity.getId(), "REF_ID"));
+        entity.addModelAttribute(new ModelAttribute("exclude", entity.getId(), "EXCLUDE"));
+        Model model = new Model();
+        model.getModelEntities().add(entity);
+        return model;
+    }
+
+    protected static Model createOutputModel() {
+        ModelEntity entity = new ModelEntity("test_table", "TEST_TABLE");
+        entity.addModelAttribute(new ModelAttribute("id", entity.getId(), "ID"));
+        entity.addModelAttribute(new ModelAttribute("name", entity.getId(), "NAME"));
+        Model model = new Model();
+        model.getModelEntities().add(entity);
+        return model;
+    }
+
+    /*
+     * Hands out connections that note whether auto commit was turned off
+     * and whether it was turned back on before they went back to the pool
+     */
+    static class AutoCommitRecorder {
+
+        final DataSource dataSource;
+
+        volatile boolean autoCommitTurnedOff;
+
+        volatile boolean closedWithoutAutoCommit;
+
+        AutoCommitRecorder(DataSource dataSource) {
+            this.dataSource = dataSource;
+        }
+
+        DataSource getDataSource() {
+            return proxy(DataSource.class, dataSource);
+        }
+
+        @SuppressWarnings("unchecked")
+        <T> T proxy(Class<T> type, final T target) {
+            return (T) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { type }, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    String name = method.getName();
+                    if (name.equals("setAutoCommit") && Boolean.FALSE.equals(args[0])) {
+                        autoCommitTurnedOff = true;
+                    } else if (name.equals("close") && target instanceof Connection && !((Connection) target).getAutoCommit()) {
+                        closedWithoutAutoCommit = true;
+                    }
+                    try {
+                        Object result = method.invoke(target, args);
+                        if (name.equals("getConnection")) {
+                            result = proxy(Connection.class, (Connection) result);
+                        }
+                        return result;
+                    } catch (InvocationTargetException ex) {
+                        throw ex.getCause();
+                    }
+                }
+            });
+        }
+    }
+
+}
@@ -23,23 +23,34 @@ package org.jumpmind.metl.core.runtime.component;
 
 import static org.apache.commons.lang.StringUtils.isBlank;
 
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.Timestamp;
 import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.sql.DataSource;
 
 import org.jumpmind.db.model.Column;
 import org.jumpmind.db.model.Table;
+import org.jumpmind.db.platform.DatabaseNamesConstants;
 import org.jumpmind.db.platform.IDatabasePlatform;
 import org.jumpmind.db.platform.JdbcDatabasePlatformFactory;
+import org.jumpmind.db.platform.mysql.MySqlDatabasePlatform;
 import org.jumpmind.db.sql.DmlStatement;
 import org.jumpmind.db.sql.DmlStatement.DmlType;
 import org.jumpmind.db.sql.ISqlTransaction;
+import org.jumpmind.db.sql.JdbcSqlTransaction;
 import org.jumpmind.db.sql.SqlException;
 import org.jumpmind.db.sql.SqlTemplateSettings;
 import org.jumpmind.db.sql.UniqueKeyException;
@@ -68,22 +79,38 @@ public class RdbmsWriter extends AbstractRdbmsComponentRuntime {
     public final static String REPLACE = "replace";
     public final static String UPDATE_FIRST = "update.first";
     public final static String INSERT_FALLBACK = "insert.fallback";
+    public final static String UPSERT = "upsert";
     public final static String QUOTE_IDENTIFIERS = "quote.identifiers";
     public final static String FIT_TO_COLUMN = "fit.to.column";
     public final static String ATTRIBUTE_INSERT_ENABLED = "insert.enabled";
     public final static String ATTRIBUTE_UPDATE_ENABLED = "update.enabled";
     public final static String BATCH_MODE = "batch.mode";
+    public final static String BATCH_SIZE = "batch.size";
+    public final static String INSERT_MODE = "insert.mode";
+    public final static String INSERT_MODE_SINGLE_ROW = "SINGLE ROW";
+    public final static String INSERT_MODE_MULTI_ROW = "MULTI ROW VALUES";
+    public final static String INSERT_MODE_BULK_LOAD = "BULK LOAD";
     public final static String CONTINUE_ON_ERROR = "continue.on.error";
     public final static String TABLE_SUFFIX = "table.suffix";
     public final static String TABLE_PREFIX = "table.prefix";
     public final static String AUTO_CREATE_TABLE = "table.auto.create";
     public final static String USE_CACHED_METADATA = "use.cached.table.metadata";
+    public final static String OPERATION_UPSERT = "UPSERT";
+
+    /* Stays under the SQL Server limit of 2100 parameters per statement */
+    final static int MAX_PARAMETERS_PER_STATEMENT = 2000;
+
+    /* Platforms known to accept more than one row in the values clause of an insert */
+    final static Set<String> MULTI_ROW_INSERT_PLATFORMS = new HashSet<String>(Arrays.asList(DatabaseNamesConstants.POSTGRESQL,
+            DatabaseNamesConstants.MYSQL, DatabaseNamesConstants.H2, DatabaseNamesConstants.MSSQL2008, DatabaseNamesConstants.SQLITE,
+            DatabaseNamesConstants.DB2, DatabaseNamesConstants.DERBY));
 
     boolean useCachedMetadata = false;
     boolean continueOnError = false;
     boolean replaceRows = false;
     boolean updateFirst = false;
     boolean insertFallback = false;
+    boolean upsert = false;
     boolean quoteIdentifiers = false;
     boolean fitToColumn = false;
     boolean autoCreateTable = false;
@@ -94,6 +121,9 @@ public class RdbmsWriter extends AbstractRdbmsComponentRuntime {
     int inboundEntityDataCount = 0;
     int totalStatementCount = 0;
     boolean batchMode = false;
+    int batchSize = 100;
+    String insertMode = INSERT_MODE_SINGLE_ROW;
+    boolean transactionInBatchMode = false;
     IDatabasePlatform databasePlatform;
     List<TargetTableDefintion> targetTables;
     Throwable error;
@@ -101,6 +131,8 @@ public class RdbmsWriter extends AbstractRdbmsComponentRuntime {
     Map<TargetTableDefintion, WriteStats> statsMap = new HashMap<>();
     long lastStatsLogTime = System.currentTimeMillis();
     long sqlDuration = 0;
+    long unrecordedDuration = 0;
+    int unrecordedErrorCount = 0;
 
     @Override
     public void start() {
@@ -117,11 +149,14 @@ public class RdbmsWriter extends AbstractRdbmsComponentRuntime {
 
         TypedProperties properties = getTypedProperties();
         batchMode = properties.is(BATCH_MODE, batchMode);
+        batchSize = Math.max(1, properties.getInt(BATCH_SIZE, batchSize));
+        insertMode = properties.get(INSERT_MODE, insertMode);
         useCachedMetadata = properties.is(USE_CACHED_METADATA, useCachedMetadata);
         replaceRows = properties.is(REPLACE);
         continueOnError = properties.is(CONTINUE_ON_ERROR, continueOnError);
         updateFirst = properties.is(UPDATE_FIRST);
         insertFallback = properties.is(INSERT_FALLBACK);
+        upsert = properties.is(UPSERT, upsert);
         quoteIdentifiers = properties.is(QUOTE_IDENTIFIERS);
         fitToColumn = properties.is(FIT_TO_COLUMN);
         tableSuffix = properties.get(TABLE_SUFFIX, "");
@@ -156,6 +191,8 @@ public class RdbmsWriter extends AbstractRdbmsComponentRuntime {
     public void handle(final Message inputMessage, final ISendMessageCallback callback, boolean unitOfWorkBoundaryReached) {
         if (inputMessage instanceof EntityDataMessage) {
             results.clear();
+            unrecordedDuration = 0;
+            unrecordedErrorCount = 0;
             lastPreparedDml = null;
 
             if (error == null) {
@@ -164,7 +201,9 @@ public class RdbmsWriter extends AbstractRdbmsComponentRuntime {
                         throw new RuntimeException("The data source resource has not been configured.  Please configure it.");
                     }
                     DataSource dataSource = (DataSource) getResourceReference();
-                    databasePlatform = JdbcDatabasePlatformFactory.createNewPlatformInstance(dataSource, new SqlTemplateSettings(),
+                    SqlTemplateSettings settings = new SqlTemplateSettings();
+                    settings.setBatchSize(batchSize);
+                    databasePlatform = JdbcDatabasePlatformFactory.createNewPlatformInstance(dataSource, settings,
                             quoteIdentifiers, false);
                 }
                 if (targetTables == null) {
@@ -186,9 +225,19 @@ public class RdbmsWriter extends AbstractRdbmsComponentRuntime {
                             databasePlatform.createTables(false, false, table);
                         }
                         if (table != null) {
-                            targetTables.add(new TargetTableDefintion(entity, new TargetTable(DmlType.UPDATE, entity, table.copy()),
-                                    new TargetTable(DmlType.INSERT, entity, table.copy()),
-                                    new TargetTable(DmlType.DELETE, entity, table.copy())));
+                            TargetTableDefintion targetTable = new TargetTableDefintion(entity,
+                                    new TargetTable(DmlType.UPDATE, entity, table.copy()), new TargetTable(DmlType.INSERT, entity, table.copy()),
+                                    new TargetTable(DmlType.DELETE, entity, table.copy()));
+                            if (upsert) {
+                                TargetTable upsertTable = new TargetTable(DmlType.INSERT, entity, table.copy());
+                                if (upsertTable.buildUpsertSql(targetTable.getUpdateTable()) != null) {
+                                    targetTable.setUpsertTable(upsertTable);
+                                } else {
+                                    log(LogLevel.WARN, "Cannot upsert into %s on %s.  Falling back to insert and update statements",
+                                            table.getFullyQualifiedTableName(), databasePlatform.getName());
+                                }
+                            }
+                            targetTables.add(targetTable);
                         }
                     }
                 }
@@ -197,6 +246,7 @@ public class RdbmsWriter extends AbstractRdbmsComponentRuntime {
                 if (inputRows != null && inputRows.size() > 0) {
                     ISqlTransaction transaction = databasePlatform.getSqlTemplate().startSqlTransaction();
                     transaction.setInBatchMode(batchMode);
+                    transactionInBatchMode = batchMode;
                     try {
                         write(transaction, (EntityDataMessage)inputMessage, callback, unitOfWorkBoundaryReached);
                         transaction.commit();
@@ -222,6 +272,9 @@ public class RdbmsWriter extends AbstractRdbmsComponentRuntime {
                     targetTable.getDeleteTable().getRowValues().clear();
                     targetTable.getInsertTable().getRowValues().clear();
                     targetTable.getUpdateTable().getRowValues().clear();
+                    if (targetTable.getUpsertTable() != null) {
+                        targetTable.getUpsertTable().getRowValues().clear();
+                    }
                 }
             }
         } 
@@ -293,6 +346,8 @@ public class RdbmsWriter extends AbstractRdbmsComponentRuntime {
             for (TargetTableDefintion targetTableDefinition : targetTables) {
                 if (inputRow.getChangeType() == ChangeType.DEL) {
                     modelTable = targetTableDefinition.getDeleteTable();
+                } else if (targetTableDefinition.getUpsertTable() != null) {
+                    modelTable = targetTableDefinition.getUpsertTable();
                 } else if (updateFirst || inputRow.getChangeType() == ChangeType.CHG) {
                     modelTable = targetTableDefinition.getUpdateTable();
                 } else if (inputRow.getChangeType() == ChangeType.ADD) {
@@ -330,6 +385,7 @@ public class RdbmsWriter extends AbstractRdbmsComponentRuntime {
         for (TargetTableDefintion targetTableDefinition : targetTables) {
             WriteStats stats = getStats(targetTableDefinition);
             executeSqlDeletes(targetTableDefinition.getDeleteTable(), transaction, stats);
+            executeSqlUpserts(targetTableDefinition.getUpsertTable(), transaction, stats);
             executeSqlChanges(targetTableDefinition, transaction, stats);
             executeSqlInserts(targetTableDefinition, transaction, stats);
         }
@@ -345,6 +401,14 @@ public class RdbmsWriter extends AbstractRdbmsComponentRuntime {
     }
 
     private void executeSqlDeletes(TargetTable targetTable, ISqlTransaction transaction, WriteStats stats) {
+        if (targetTable.getRowValues().isEmpty()) {
+            return;
+        } else if (batchMode && !continueOnError) {
+            stats.deleteCount += executeSqlInBatches(targetTable, transaction);
+            return;
+        }
+
+        useBatchMode(transaction, false);
         for (EntityData inputRow : targetTable.getRowValues()) {
             Object[] rowData = getValues(false, targetTable, inputRow);
             int count = executeSql(targetTable, transaction, rowData);
@@ -352,11 +416,48 @@ public class RdbmsWriter extends AbstractRdbmsComponentRuntime {
         }
     }
 
+    private void executeSqlUpserts(TargetTable targetTable, ISqlTransaction transaction, WriteStats stats) {
+        if (targetTable == null || targetTable.getRowValues().isEmpty()) {
+            return;
+        }
+
+        String sql = targetTable.getUpsertSql();
+        int[] types = targetTable.getStatement().getTypes();
+        if (continueOnError) {
+            useBatchMode(transaction, false);
+            for (EntityData inputRow : targetTable.getRowValues()) {
+                int count = execute(transaction, sql, types, new Object(), getValues(false, targetTable, inputRow));
+                recordResult(OPERATION_UPSERT, sql, count);
+                stats.upsertCount += count;
+            }
+        } else {
+            stats.upsertCount += executeSqlInBatches(targetTable, transaction, OPERATION_UPSERT, sql, types);
+        }
+    }
+
     private void executeSqlChanges(TargetTableDefintion targetTableDefinition, ISqlTransaction transaction, WriteStats stats) {
 
         TargetTable targetUpdateTable = targetTableDefinition.getUpdateTable();
         TargetTable targetInsertTable = targetTableDefinition.getInsertTable();
 
+        if (targetUpdateTable.getRowValues().isEmpty()) {
+            return;
+        } else if (batchMode && !insertFallback && !continueOnError) {
+            /*
+             * Batched update counts only come back per batch, so the check
+             * that every row was updated is made against the total
+             */
+            int expectedCount = targetUpdateTable.getRowValues().size();
+            int count = executeSqlInBatches(targetUpdateTable, transaction);
+            stats.updateCount += count;
+            if (count < expectedCount) {
+                throw new SqlException(String.format("Failed to update %d of %d rows using: \n%s\n", expectedCount - count, expectedCount,
+                        targetUpdateTable.getStatement().getSql()));
+            }
+            return;
+        }
+
+        useBatchMode(transaction, false);
         for (EntityData inputRow : targetUpdateTable.getRowValues()) {
             Object[] rowData = getValues(false, targetUpdateTable, inputRow);
             int count = executeSql(targetUpdateTable, transaction, rowData);
@@ -380,16 +481,38 @@ public class RdbmsWriter extends AbstractRdbmsComponentRuntime {
         TargetTable targetUpdateTable = targetTableDefinition.getUpdateTable();
         TargetTable targetInsertTable = targetTableDefinition.getInsertTable();
 
+        if (targetInsertTable.getRowValues().isEmpty()) {
+            return;
+        } else if (!replaceRows && !continueOnError) {
+            /*
+             * The set based paths can only be used when no row needs to be
+             * handled on its own after a failure
+             */
+            if (INSERT_MODE_BULK_LOAD.equals(insertMode) && DatabaseNamesConstants.POSTGRESQL.equals(databasePlatform.getName())) {
+                stats.insertCount += executeSqlCopy(targetInsertTable, transaction);
+                return;
+            } else if (INSERT_MODE_BULK_LOAD.equals(insertMode) || INSERT_MODE_MULTI_ROW.equals(insertMode)) {
+                stats.insertCount += executeSqlMultiRowInserts(targetInsertTable, transaction);
+                return;
+            } else if (batchMode) {
+                stats.insertCount += executeSqlInBatches(targetInsertTable, transaction);
+                return;
+            }
+        }
+
+        useBatchMode(transaction, false);
         for (EntityData inputRow : targetInsertTable.getRowValues()) {
             try {
                 Object[] rowData = getValues(false, targetInsertTable, inputRow);
                 int count = executeSql(targetInsertTable, transaction, rowData);
                 stats.insertCount += count;
             } catch (UniqueKeyException e) {
+                /* the failed insert took its own time, which the update must not be charged for */
+                recordResult(targetInsertTable.getOperation(), targetInsertTable.getStatement().getSql(), 0);
                 if (replaceRows) {
                     log.debug("Falling back to update");
                     Object[] rowData = getValues(false, targetUpdateTable, inputRow);
-                    int count = execute(transaction, targetUpdateTable.getStatement(), new Object(), rowData);
+                    int count = executeSql(targetUpdateTable, transaction, rowData);
                     stats.fallbackUpdateCount += count;
                 } else if (!continueOnError) {
                     throw e;
@@ -403,14 +526,197 @@ public class RdbmsWriter extends AbstractRdbmsComponentRuntime {
     private int executeSql(TargetTable targetTable, ISqlTransaction transaction, Object[] rowData) {
 
         int count = execute(transaction, targetTable.getStatement(), new Object(), rowData);
+        recordResult(targetTable.getOperation(), targetTable.getStatement().getSql(), count);
+        return count;
+    }
+
+    /*
+     * Results are totaled per statement and operation.  The time and errors
+     * since the last result are charged to the statement being recorded.
+     */
+    private void recordResult(String operation, String sql, int count) {
+        addResult(operation, sql, count, unrecordedDuration, unrecordedErrorCount);
+        unrecordedDuration = 0;
+        unrecordedErrorCount = 0;
         if (count > 0) {
-            results.add(new Result(targetTable.getStatement().getSql(), count));
             totalStatementCount++;
             getComponentStatistics().incrementNumberEntitiesProcessed(count);
         }
+    }
+
+    private int executeSqlInBatches(TargetTable targetTable, ISqlTransaction transaction) {
+        DmlStatement statement = targetTable.getStatement();
+        return executeSqlInBatches(targetTable, transaction, targetTable.getOperation(), statement.getSql(), statement.getTypes());
+    }
+
+    private int executeSqlInBatches(TargetTable targetTable, ISqlTransaction transaction, String operation, String sql, int[] types) {
+        useBatchMode(transaction, true);
+        int count = 0;
+        int flushedCount = 0;
+        int rowsInBatch = 0;
+        for (EntityData inputRow : targetTable.getRowValues()) {
+            /* the transaction flushes on its own once its batch size is reached */
+            flushedCount += execute(transaction, sql, types, new Object(), getValues(false, targetTable, inputRow));
+            if (++rowsInBatch >= batchSize) {
+                count += getBatchCount(flushedCount + flush(transaction, sql), rowsInBatch);
+                flushedCount = 0;
+                rowsInBatch = 0;
+            }
+        }
+        count += getBatchCount(flushedCount + flush(transaction, sql), rowsInBatch);
+        recordResult(operation, sql, count);
+        return count;
+    }
+
+    /*
+     * Drivers that do not know how many rows a batched statement changed
+     * return Statement.SUCCESS_NO_INFO (-2) for every row of the batch. The
+     * batch succeeded, so each of those rows is counted.
+     */
+    private int getBatchCount(int count, int rowsInBatch) {
+        return count < 0 ? rowsInBatch : count;
+    }
+
+    private int executeSqlMultiRowInserts(TargetTable targetTable, ISqlTransaction transaction) {
+        DmlStatement statement = targetTable.getStatement();
+        int[] columnTypes = statement.getTypes();
+        int columnCount = columnTypes.length;
+        if (columnCount == 0 || !supportsMultiRowInserts() || targetTable.getMultiRowInsertSql(1) == null) {
+            return executeSqlInBatches(targetTable, transaction);
+        }
+
+        useBatchMode(transaction, false);
+        int rowsPerStatement = Math.max(1, Math.min(batchSize, MAX_PARAMETERS_PER_STATEMENT / columnCount));
+        List<EntityData> rows = targetTable.getRowValues();
+        int count = 0;
+        for (int start = 0; start < rows.size(); start += rowsPerStatement) {
+            int rowCount = Math.min(rowsPerStatement, rows.size() - start);
+            Object[] data = new Object[rowCount * columnCount];
+            int[] types = new int[rowCount * columnCount];
+            for (int i = 0; i < rowCount; i++) {
+                Object[] rowData = getValues(false, targetTable, rows.get(start + i));
+                System.arraycopy(rowData, 0, data, i * columnCount, columnCount);
+                System.arraycopy(columnTypes, 0, types, i * columnCount, columnCount);
+            }
+            count += execute(transaction, targetTable.getMultiRowInsertSql(rowCount), types, new Object(), data);
+        }
+        recordResult(targetTable.getOperation(), statement.getSql(), count);
         return count;
     }
 
+    protected boolean supportsMultiRowInserts() {
+        return MULTI_ROW_INSERT_PLATFORMS.contains(databasePlatform.getName()) || isMySql();
+    }
+
+    /*
+     * MariaDB has its own platform, which extends the MySQL one
+     */
+    protected boolean isMySql() {
+        return databasePlatform instanceof MySqlDatabasePlatform;
+    }
+
+    private int executeSqlCopy(TargetTable targetTable, ISqlTransaction transaction) {
+        String sql = targetTable.getCopySql();
+        Object copyManager = sql != null ? getCopyManager(transaction) : null;
+        if (copyManager == null) {
+            return executeSqlMultiRowInserts(targetTable, transaction);
+        }
+
+        useBatchMode(transaction, false);
+        StringBuilder csv = new StringBuilder();
+        for (EntityData inputRow : targetTable.getRowValues()) {
+            Object[] rowData = getValues(false, targetTable, inputRow);
+            for (int i = 0; i < rowData.length; i++) {
+                if (i > 0) {
+                    csv.append(',');
+                }
+                appendCsvValue(csv, rowData[i]);
+            }
+            csv.append('\n');
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("Copying {} rows using: {}", targetTable.getRowValues().size(), sql);
+        }
+        long ts = System.currentTimeMillis();
+        try {
+            Method copyIn = copyManager.getClass().getMethod("copyIn", String.class, Reader.class);
+            int count = ((Number) copyIn.invoke(copyManager, sql, new StringReader(csv.toString()))).intValue();
+            recordResult(targetTable.getOperation(), sql, count);
+            return count;
+        } catch (Exception ex) {
+            Throwable cause = ex instanceof InvocationTargetException ? ex.getCause() : ex;
+            log(LogLevel.ERROR, String.format("Failed to run the following sql: \n%s\n", sql));
+            throw new SqlException(cause);
+        } finally {
+            long duration = System.currentTimeMillis() - ts;
+            sqlDuration += duration;
+            unrecordedDuration += duration;
+        }
+    }
+
+    /*
+     * The PostgreSQL driver is only reached through reflection so that this
+     * component does not depend on it
+     */
+    private Object getCopyManager(ISqlTransaction transaction) {
+        if (transaction instanceof JdbcSqlTransaction) {
+            try {
+                Connection connection = ((JdbcSqlTransaction) transaction).getConnection();
+                Class<?> pgConnectionClass = Class.forName("org.postgresql.PGConnection", true, connection.getClass().getClassLoader());
+                if (connection.isWrapperFor(pgConnectionClass)) {
+                    Object pgConnection = connection.unwrap(pgConnectionClass);
+                    return pgConnectionClass.getMethod("getCopyAPI").invoke(pgConnection);
+                }
+            } catch (Exception ex) {
+                log.debug("Could not use copy to load data.  Falling back to multi row inserts", ex);
+            }
+        }
+        return null;
+    }
+
+    private void appendCsvValue(StringBuilder csv, Object value) {
+        if (value != null) {
+            String text;
+            if (value instanceof byte[]) {
+                byte[] bytes = (byte[]) value;
+                StringBuilder hex = new StringBuilder(bytes.length * 2 + 2).append("\\x");
+                for (byte b : bytes) {
+                    hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+                }
+                text = hex.toString();
+            } else if (value.getClass().equals(java.util.Date.class)) {
+                text = new Timestamp(((java.util.Date) value).getTime()).toString();
+            } else {
+                text = value.toString();
+            }
+            csv.append('"').append(text.replace("\"", "\"\"")).append('"');
+        }
+    }
+
+    private void useBatchMode(ISqlTransaction transaction, boolean inBatchMode) {
+        if (transactionInBatchMode != inBatchMode) {
+            flush(transaction, lastPreparedDml);
+            transaction.setInBatchMode(inBatchMode);
+            transactionInBatchMode = inBatchMode;
+            lastPreparedDml = null;
+        }
+    }
+
+    private int flush(ISqlTransaction transaction, String sql) {
+        long ts = System.currentTimeMillis();
+        try {
+            return transaction.flush();
+        } catch (RuntimeException ex) {
+            log(LogLevel.ERROR, String.format("Failed to run a batch of the following sql: \n%s\n", sql));
+            throw ex;
+        } finally {
+            long duration = System.currentTimeMillis() - ts;
+            sqlDuration += duration;
+            unrecordedDuration += duration;
+        }
+    }
+
     private void write(ISqlTransaction transaction, EntityDataMessage inputMessage, ISendMessageCallback callback, boolean unitOfWorkLastMessage) {
         sortAndStoreRowsByTableAndOperation(inputMessage.getPayload());
         executeSqlByTableAndOperation(transaction);
@@ -453,6 +759,14 @@ public class RdbmsWriter extends AbstractRdbmsComponentRuntime {
                         msg.append(stats.deleteCount);
                         rowCount += stats.deleteCount;
                     }
+                    if (stats.upsertCount > 0) {
+                        if (msg.length() > 0) {
+                            msg.append(", ");
+                        }
+                        msg.append("Upserted: ");
+                        msg.append(stats.upsertCount);
+                        rowCount += stats.upsertCount;
+                    }
                     if (stats.fallbackInsertCount > 0) {
                         if (msg.length() > 0) {
                             msg.append(", ");
@@ -485,8 +799,11 @@ public class RdbmsWriter extends AbstractRdbmsComponentRuntime {
     }
 
     private int execute(ISqlTransaction transaction, DmlStatement dmlStatement, Object marker, Object[] data) {
+        return execute(transaction, dmlStatement.getSql(), dmlStatement.getTypes(), marker, data);
+    }
+
+    private int execute(ISqlTransaction transaction, String sql, int[] types, Object marker, Object[] data) {
 
-        String sql = dmlStatement.getSql();
         if (!sql.equals(lastPreparedDml)) {
             transaction.flush();
             if (log.isDebugEnabled()) {
@@ -496,28 +813,31 @@ public class RdbmsWriter extends AbstractRdbmsComponentRuntime {
             lastPreparedDml = sql;
         }
         if (log.isDebugEnabled()) {
-            log.debug("Submitting data {} with types {}", Arrays.toString(data), Arrays.toString(dmlStatement.getTypes()));
+            log.debug("Submitting data {} with types {}", Arrays.toString(data), Arrays.toString(types));
         }
         long ts = System.currentTimeMillis();
         try {
-            return transaction.addRow(marker, data, dmlStatement.getTypes());
+            return transaction.addRow(marker, data, types);
         } catch (Exception ex) {
             if (!(replaceRows && ex instanceof UniqueKeyException)) {
                 if (continueOnError) {
                     log(LogLevel.WARN, String.format("Failed to run the following sql: \n%s\nWith values: \n%s\nWith types: \n%s\n."
                             + "Continue on Error flag set - Continuing load",
-                            dmlStatement.getSql(), Arrays.toString(data), Arrays.toString(dmlStatement.getTypes())));
+                            sql, Arrays.toString(data), Arrays.toString(types)));
+                    unrecordedErrorCount++;
                     return 0;
                 } else {
                     log(LogLevel.ERROR, String.format("Failed to run the following sql: \n%s\nWith values: \n%s\nWith types: \n%s\n",
-                            dmlStatement.getSql(), Arrays.toString(data), Arrays.toString(dmlStatement.getTypes())));
+                            sql, Arrays.toString(data), Arrays.toString(types)));
                     throw ex;
                 }
             } else {
                 throw ex;
             }
         } finally {
-            sqlDuration += System.currentTimeMillis()-ts;
+            long duration = System.currentTimeMillis() - ts;
+            sqlDuration += duration;
+            unrecordedDuration += duration;
         }
     }
 
@@ -546,6 +866,14 @@ public class RdbmsWriter extends AbstractRdbmsComponentRuntime {
         this.batchMode = batchMode;
     }
 
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public void setInsertMode(String insertMode) {
+        this.insertMode = insertMode;
+    }
+
     public void setFitToColumn(boolean fitToColumn) {
         this.fitToColumn = fitToColumn;
     }
@@ -574,6 +902,11 @@ public class RdbmsWriter extends AbstractRdbmsComponentRuntime {
         this.updateFirst = updateFirst;
     }
 
+    public void setUpsert(boolean upsert) {
+        this.upsert = upsert;
+        this.targetTables = null;
+    }
+
     public boolean isContinueOnError() {
         return continueOnError;
     }
@@ -591,6 +924,7 @@ public class RdbmsWriter extends AbstractRdbmsComponentRuntime {
         TargetTable updateTable;
         TargetTable insertTable;
         TargetTable deleteTable;
+        TargetTable upsertTable;
         Integer order;
 
         public TargetTableDefintion(ModelEntity modelEntity, TargetTable updateTable, TargetTable insertTable, TargetTable deleteTable) {
@@ -606,6 +940,14 @@ public class RdbmsWriter extends AbstractRdbmsComponentRuntime {
             return deleteTable;
         }
 
+        public TargetTable getUpsertTable() {
+            return upsertTable;
+        }
+
+        public void setUpsertTable(TargetTable upsertTable) {
+            this.upsertTable = upsertTable;
+        }
+
         public TargetTable getInsertTable() {
             return insertTable;
         }
@@ -643,13 +985,17 @@ public class RdbmsWriter extends AbstractRdbmsComponentRuntime {
 
     class TargetTable {
         Table table;
+        DmlType dmlType;
         DmlStatement statement;
         List<TargetColumn> keyTargetColumns = new ArrayList<TargetColumn>();
         List<TargetColumn> targetColumns = new ArrayList<TargetColumn>();
         List<EntityData> rowValues = new ArrayList<EntityData>();
+        Map<Integer, String> multiRowInsertSql = new HashMap<Integer, String>();
+        String upsertSql;
 
         public TargetTable(DmlType dmlType, ModelEntity entity, Table table) {
             this.table = table;
+            this.dmlType = dmlType;
             List<ModelAttribute> attributes = entity.getModelAttributes();
             String[] columnNames = table.getColumnNames();
             /*
@@ -699,6 +1045,156 @@ public class RdbmsWriter extends AbstractRdbmsComponentRuntime {
             return statement;
         }
 
+        public String getOperation() {
+            return dmlType.name();
+        }
+
+        /*
+         * Repeats the values clause of the single row insert so that quoting
+         * and any platform specific casts are kept
+         */
+        public String getMultiRowInsertSql(int rowCount) {
+            String sql = multiRowInsertSql.get(rowCount);
+            if (sql == null && !multiRowInsertSql.containsKey(rowCount)) {
+                String insertSql = statement.getSql();
+                int valuesIndex = insertSql.toLowerCase().lastIndexOf(" values");
+                if (valuesIndex > 0) {
+                    String valuesTuple = insertSql.substring(valuesIndex + " values".length()).trim();
+                    StringBuilder multiRowSql = new StringBuilder(insertSql);
+                    for (int i = 1; i < rowCount; i++) {
+                        multiRowSql.append(",").append(valuesTuple);
+                    }
+                    sql = multiRowSql.toString();
+                }
+                multiRowInsertSql.put(rowCount, sql);
+            }
+            return sql;
+        }
+
+        public String getUpsertSql() {
+            return upsertSql;
+        }
+
+        /*
+         * Builds a single statement that inserts a row or updates it when its
+         * primary key already exists.  The columns that are set on update are
+         * the ones of the update table.  Returns null when the platform or the
+         * table does not support it, or when a column is enabled for update
+         * but not for insert, because its value would not be bound.
+         */
+        public String buildUpsertSql(TargetTable updateTable) {
+            if (upsertSql == null && keyTargetColumns.size() > 0) {
+                String insertSql = statement.getSql();
+                String lowerCaseSql = insertSql.toLowerCase();
+                int columnsIndex = insertSql.indexOf('(');
+                int valuesIndex = lowerCaseSql.lastIndexOf(" values");
+                if (!lowerCaseSql.startsWith("insert into ") || columnsIndex < 0 || valuesIndex < columnsIndex) {
+                    return null;
+                }
+
+                String quote = quoteIdentifiers ? databasePlatform.getDatabaseInfo().getDelimiterToken() : "";
+                String tableName = insertSql.substring("insert into ".length(), columnsIndex).trim();
+                String valuesTuple = insertSql.substring(valuesIndex + " values".length()).trim();
+                List<String> columns = new ArrayList<String>();
+                List<String> keyColumns = new ArrayList<String>();
+                List<String> updateColumns = new ArrayList<String>();
+                for (TargetColumn targetColumn : targetColumns) {
+                    String column = quote + targetColumn.getColumn().getName() + quote;
+                    columns.add(column);
+                    if (targetColumn.getColumn().isPrimaryKey()) {
+                        keyColumns.add(column);
+                    }
+                }
+                for (TargetColumn targetColumn : updateTable.getTargetColumns()) {
+                    String column = quote + targetColumn.getColumn().getName() + quote;
+                    if (!targetColumn.getColumn().isPrimaryKey()) {
+                        if (!columns.contains(column)) {
+                            return null;
+                        }
+                        updateColumns.add(column);
+                    }
+                }
+
+                String name = databasePlatform.getName();
+                StringBuilder sql = new StringBuilder();
+                if (DatabaseNamesConstants.POSTGRESQL.equals(name) || DatabaseNamesConstants.SQLITE.equals(name)) {
+                    sql.append(insertSql).append(" on conflict (").append(join(keyColumns, "", ", ")).append(") do ");
+                    if (updateColumns.isEmpty()) {
+                        sql.append("nothing");
+                    } else {
+                        sql.append("update set ");
+                        for (int i = 0; i < updateColumns.size(); i++) {
+                            String column = updateColumns.get(i);
+                            sql.append(i > 0 ? ", " : "").append(column).append(" = excluded.").append(column);
+                        }
+                    }
+                } else if (isMySql()) {
+                    sql.append(insertSql).append(" on duplicate key update ");
+                    List<String> setColumns = updateColumns.isEmpty() ? keyColumns.subList(0, 1) : updateColumns;
+                    for (int i = 0; i < setColumns.size(); i++) {
+                        String column = setColumns.get(i);
+                        sql.append(i > 0 ? ", " : "").append(column).append(" = values(").append(column).append(")");
+                    }
+                } else if (DatabaseNamesConstants.H2.equals(name)) {
+                    /* H2's merge sets every column it inserts */
+                    if (updateColumns.size() + keyColumns.size() != columns.size()) {
+                        return null;
+                    }
+                    sql.append("merge into ").append(insertSql.substring("insert into ".length(), valuesIndex).trim());
+                    sql.append(" key (").append(join(keyColumns, "", ", ")).append(") values ").append(valuesTuple);
+                } else if (DatabaseNamesConstants.ORACLE.equals(name) || DatabaseNamesConstants.MSSQL2008.equals(name)) {
+                    boolean oracle = DatabaseNamesConstants.ORACLE.equals(name);
+                    sql.append("merge into ").append(tableName).append(" t using (select ");
+                    for (int i = 0; i < columns.size(); i++) {
+                        sql.append(i > 0 ? ", " : "").append("? ").append(columns.get(i));
+                    }
+                    sql.append(oracle ? " from dual) s on (" : ") s on (");
+                    for (int i = 0; i < keyColumns.size(); i++) {
+                        String column = keyColumns.get(i);
+                        sql.append(i > 0 ? " and " : "").append("t.").append(column).append(" = s.").append(column);
+                    }
+                    sql.append(")");
+                    if (!updateColumns.isEmpty()) {
+                        sql.append(" when matched then update set ");
+                        for (int i = 0; i < updateColumns.size(); i++) {
+                            String column = updateColumns.get(i);
+                            sql.append(i > 0 ? ", " : "").append("t.").append(column).append(" = s.").append(column);
+                        }
+                    }
+                    sql.append(" when not matched then insert (").append(join(columns, "", ", ")).append(") values (");
+                    sql.append(join(columns, "s.", ", ")).append(")");
+                    if (!oracle) {
+                        sql.append(";");
+                    }
+                } else {
+                    return null;
+                }
+                upsertSql = sql.toString();
+            }
+            return upsertSql;
+        }
+
+        private String join(List<String> columns, String prefix, String separator) {
+            StringBuilder joined = new StringBuilder();
+            for (String column : columns) {
+                if (joined.length() > 0) {
+                    joined.append(separator);
+                }
+                joined.append(prefix).append(column);
+            }
+            return joined.toString();
+        }
+
+        public String getCopySql() {
+            String insertSql = statement.getSql();
+            String lowerCaseSql = insertSql.toLowerCase();
+            int valuesIndex = lowerCaseSql.lastIndexOf(" values");
+            if (lowerCaseSql.startsWith("insert into ") && valuesIndex > 0) {
+                return "copy " + insertSql.substring("insert into ".length(), valuesIndex).trim() + " from stdin with csv";
+            }
+            return null;
+        }
+
         public void setTable(Table table) {
             this.table = table;
         }
@@ -768,5 +1264,6 @@ public class RdbmsWriter extends AbstractRdbmsComponentRuntime {
         int updateCount;
         int fallbackInsertCount;
         int fallbackUpdateCount;
+        int upsertCount;
     }
 }
@@ -0,0 +1,195 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.jumpmind.db.platform.IDatabasePlatform;
+import org.jumpmind.db.sql.ISqlTemplate;
+import org.jumpmind.metl.core.model.Component;
+import org.jumpmind.metl.core.model.ComponentAttributeSetting;
+import org.jumpmind.metl.core.model.FlowStep;
+import org.jumpmind.metl.core.model.Model;
+import org.jumpmind.metl.core.model.ModelAttribute;
+import org.jumpmind.metl.core.model.ModelEntity;
+import org.jumpmind.metl.core.model.Setting;
+import org.jumpmind.metl.core.runtime.EntityData;
+import org.jumpmind.metl.core.runtime.EntityDataMessage;
+import org.jumpmind.metl.core.runtime.ExecutionTrackerNoOp;
+import org.jumpmind.metl.core.utils.DbTestUtils;
+import org.jumpmind.metl.core.utils.TestUtils;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class RdbmsWriterTest {
+
+    static IDatabasePlatform platform;
+
+    ISqlTemplate template;
+
+    @BeforeClass
+    public static void setupPlatform() throws Exception {
+        platform = DbTestUtils.createDatabasePlatform();
+    }
+
+    @Before
+    public void setup() throws Exception {
+        template = platform.getSqlTemplate();
+        template.update("drop table if exists TEST_TABLE");
+        template.update("create table TEST_TABLE (ID integer not null primary key, NAME varchar(50), NOTE varchar(50))");
+    }
+
+    @Test
+    public void testInsertModes() throws Exception {
+        for (String insertMode : new String[] { RdbmsWriter.INSERT_MODE_SINGLE_ROW, RdbmsWriter.INSERT_MODE_MULTI_ROW,
+                RdbmsWriter.INSERT_MODE_BULK_LOAD }) {
+            for (boolean batchMode : new boolean[] { false, true }) {
+                String description = insertMode + (batchMode ? " in batch mode" : "");
+                template.update("delete from TEST_TABLE");
+                RdbmsWriter writer = createWriter();
+                writer.setInsertMode(insertMode);
+                writer.setBatchMode(batchMode);
+                writer.setBatchSize(3);
+
+                writer.handle(createMessage(1, 10, "name"), new SendMessageCallback<Object>(), true);
+
+                assertEquals(description, 10, template.queryForInt("select count(*) from TEST_TABLE"));
+                assertEquals(description, "name7", template.queryForString("select NAME from TEST_TABLE where ID=7"));
+                assertEquals(description, 10, getRowsAffected(writer, "INSERT"));
+            }
+        }
+    }
+
+    @Test
+    public void testUpsertWithMerge() throws Exception {
+        for (boolean batchMode : new boolean[] { false, true }) {
+            template.update("delete from TEST_TABLE");
+            createWriter().handle(createMessage(1, 3, "old"), new SendMessageCallback<Object>(), true);
+
+            RdbmsWriter writer = createWriter();
+            writer.setUpsert(true);
+            writer.setBatchMode(batchMode);
+            writer.handle(createMessage(2, 5, "new"), new SendMessageCallback<Object>(), true);
+
+            assertEquals(5, template.queryForInt("select count(*) from TEST_TABLE"));
+            assertEquals("old1", template.queryForString("select NAME from TEST_TABLE where ID=1"));
+            assertEquals("new2", template.queryForString("select NAME from TEST_TABLE where ID=2"));
+            assertEquals("new5", template.queryForString("select NAME from TEST_TABLE where ID=5"));
+            assertEquals(4, getRowsAffected(writer, RdbmsWriter.OPERATION_UPSERT));
+            assertEquals(0, getRowsAffected(writer, "INSERT"));
+        }
+    }
+
+    @Test
+    public void testUpsertDoesNotSetColumnsThatAreNotUpdateEnabled() throws Exception {
+        createWriter().handle(createMessage(1, 2, "old"), new SendMessageCallback<Object>(), true);
+        template.update("update TEST_TABLE set NOTE='kept'");
+
+        RdbmsWriter writer = createWriter(new ComponentAttributeSetting("note", RdbmsWriter.ATTRIBUTE_UPDATE_ENABLED, "false"));
+        writer.setUpsert(true);
+        writer.setReplaceRows(true);
+        writer.handle(createMessage(2, 3, "new"), new SendMessageCallback<Object>(), true);
+
+        assertEquals(3, template.queryForInt("select count(*) from TEST_TABLE"));
+        assertEquals("new2", template.queryForString("select NAME from TEST_TABLE where ID=2"));
+        assertEquals("kept", template.queryForString("select NOTE from TEST_TABLE where ID=2"));
+        assertEquals("note3", template.queryForString("select NOTE from TEST_TABLE where ID=3"));
+        assertEquals(0, getRowsAffected(writer, RdbmsWriter.OPERATION_UPSERT));
+    }
+
+    @Test
+    public void testReplaceRowsChargesFailedInsertsToTheInsertResult() throws Exception {
+        createWriter().handle(createMessage(1, 2, "old"), new SendMessageCallback<Object>(), true);
+
+        RdbmsWriter writer = createWriter();
+        writer.setReplaceRows(true);
+        writer.handle(createMessage(2, 3, "new"), new SendMessageCallback<Object>(), true);
+
+        assertEquals("new2", template.queryForString("select NAME from TEST_TABLE where ID=2"));
+        AbstractRdbmsComponentRuntime.Result insert = getResult(writer, "INSERT");
+        assertEquals(2, insert.numberOfExecutions);
+        assertEquals(1, insert.numberRowsAffected);
+        AbstractRdbmsComponentRuntime.Result update = getResult(writer, "UPDATE");
+        assertEquals(1, update.numberOfExecutions);
+        assertEquals(1, update.numberRowsAffected);
+    }
+
+    protected RdbmsWriter createWriter(ComponentAttributeSetting... attributeSettings) {
+        Component component = TestUtils.createComponent(RdbmsWriter.TYPE, false, null, createInputModel(), null, null,
+                new ArrayList<ComponentAttributeSetting>(Arrays.asList(attributeSettings)), new Setting[0]);
+        FlowStep flowStep = new FlowStep();
+        flowStep.setCreateTime(new Date());
+        flowStep.setComponent(component);
+
+        RdbmsWriter writer = new RdbmsWriter();
+        writer.setContext(new ComponentContext(null, flowStep, null, new ExecutionTrackerNoOp(), null, null, null));
+        writer.setDatabasePlatform(platform);
+        return writer;
+    }
+
+    protected static EntityDataMessage createMessage(int firstId, int lastId, String name) {
+        ArrayList<EntityData> rows = new ArrayList<EntityData>();
+        for (int id = firstId; id <= lastId; id++) {
+            EntityData row = new EntityData();
+            row.put("id", id);
+            row.put("name", name + id);
+            row.put("note", "note" + id);
+            rows.add(row);
+        }
+        return new EntityDataMessage("test", rows);
+    }
+
+    protected static AbstractRdbmsComponentRuntime.Result getResult(RdbmsWriter writer, String operation) {
+        for (AbstractRdbmsComponentRuntime.Result result : writer.results.values()) {
+            if (result.operation.equals(operation)) {
+                return result;
+            }
+        }
+        return null;
+    }
+
+    protected static long getRowsAffected(RdbmsWriter writer, String operation) {
+        long count = 0;
+        for (AbstractRdbmsComponentRuntime.Result result : writer.results.values()) {
+            if (result.operation.equals(operation)) {
+                count += result.numberRowsAffected;
+            }
+        }
+        return count;
+    }
+
+    protected static Model createInputModel() {
+        ModelEntity entity = new ModelEntity("test_table", "TEST_TABLE");
+        entity.addModelAttribute(new ModelAttribute("id", entity.getId(), "ID"));
+        entity.addModelAttribute(new ModelAttribute("name", entity.getId(), "NAME"));
+        entity.addModelAttribute(new ModelAttribute("note", entity.getId(), "NOTE"));
+        Model model = new Model();
+        model.getModelEntities().add(entity);
+        return model;
+    }
+
+}
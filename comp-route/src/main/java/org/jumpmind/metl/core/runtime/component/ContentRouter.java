@@ -23,33 +23,42 @@ package org.jumpmind.metl.core.runtime.component;
 import static org.apache.commons.lang.StringUtils.isNotBlank;
 
 import java.io.Serializable;
+import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import javax.script.Bindings;
-import javax.script.ScriptContext;
-import javax.script.ScriptEngine;
-import javax.script.ScriptException;
+import javax.script.SimpleBindings;
 
-import org.codehaus.groovy.jsr223.GroovyScriptEngineImpl;
+import org.codehaus.groovy.runtime.InvokerHelper;
 import org.jumpmind.exception.IoException;
 import org.jumpmind.metl.core.model.FlowStepLink;
+import org.jumpmind.metl.core.model.Model;
+import org.jumpmind.metl.core.model.ModelAttribute;
+import org.jumpmind.metl.core.model.ModelEntity;
 import org.jumpmind.metl.core.runtime.ControlMessage;
 import org.jumpmind.metl.core.runtime.EntityData;
 import org.jumpmind.metl.core.runtime.EntityDataMessage;
+import org.jumpmind.metl.core.runtime.LogLevel;
 import org.jumpmind.metl.core.runtime.Message;
 import org.jumpmind.metl.core.runtime.MisconfiguredException;
 import org.jumpmind.metl.core.runtime.TextMessage;
 import org.jumpmind.metl.core.runtime.flow.ISendMessageCallback;
+import org.jumpmind.metl.core.util.GroovyClassCache;
 import org.jumpmind.properties.TypedProperties;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import groovy.lang.Binding;
+import groovy.lang.Script;
+
 public class ContentRouter extends AbstractComponentRuntime {
 
     public static final String TYPE = "Content Router";
@@ -58,9 +67,23 @@ public class ContentRouter extends AbstractComponentRuntime {
 
     public final static String ONLY_ROUTE_FIRST_MATCH = "only.route.first.match";
 
+    /*
+     * Matches ENTITY.ATTRIBUTE == or != a quoted string, a number or null so
+     * that the most common routes can be checked without running a script
+     */
+    final static Pattern SIMPLE_COMPARISON = Pattern
+            .compile("^\\s*(\\w+)\\.(\\w+)\\s*(==|!=)\\s*(?:'([^'\\\\]*)'|\"([^\"\\\\$]*)\"|(-?\\d+(?:\\.\\d+)?)|(null))\\s*$");
+
     List<Route> routes;
 
-    ScriptEngine scriptEngine;
+    List<CompiledRoute> compiledRoutes;
+
+    /* Runtimes are not shared between threads, so the bindings can be reused */
+    Bindings bindings;
+
+    Map<String, ModelAttribute> attributesById;
+
+    EntityNameLookup entityNameLookup;
 
     boolean onlyRouteFirstMatch;
 
@@ -70,7 +93,6 @@ public class ContentRouter extends AbstractComponentRuntime {
 
     @Override
     public void start() {
-        scriptEngine = new GroovyScriptEngineImpl();
         TypedProperties properties = getTypedProperties();
         rowsPerMessage = properties.getLong(ROWS_PER_MESSAGE);
         String json = getComponent().get(SETTING_CONFIG);
@@ -91,6 +113,46 @@ public class ContentRouter extends AbstractComponentRuntime {
                 throw new IoException(e);
             }
         }
+        compileRoutes();
+    }
+
+    protected void compileRoutes() {
+        bindings = new SimpleBindings();
+        attributesById = new HashMap<String, ModelAttribute>();
+        Model model = getInputModel();
+        if (model != null) {
+            for (ModelEntity entity : model.getModelEntities()) {
+                for (ModelAttribute attribute : entity.getModelAttributes()) {
+                    attributesById.put(attribute.getId(), attribute);
+                }
+            }
+        }
+        entityNameLookup = new EntityNameLookup(model);
+
+        compiledRoutes = new ArrayList<CompiledRoute>();
+        if (routes != null) {
+            Binding binding = new Binding(bindings);
+            for (Route route : routes) {
+                CompiledRoute compiledRoute = new CompiledRoute(route);
+                Matcher matcher = SIMPLE_COMPARISON.matcher(route.getMatchExpression());
+                ModelEntity entity = model != null && matcher.matches() ? model.getEntityByName(matcher.group(1)) : null;
+                ModelAttribute attribute = entity != null ? entity.getModelAttributeByName(matcher.group(2)) : null;
+                if (attribute != null && entity.getName().equals(matcher.group(1)) && attribute.getName().equals(matcher.group(2))) {
+                    compiledRoute.entityName = entity.getName();
+                    compiledRoute.attributeId = attribute.getId();
+                    compiledRoute.notEquals = "!=".equals(matcher.group(3));
+                    if (matcher.group(4) != null) {
+                        compiledRoute.value = matcher.group(4);
+                    } else if (matcher.group(5) != null) {
+                        compiledRoute.value = matcher.group(5);
+                    } else if (matcher.group(6) != null) {
+                        compiledRoute.value = new BigDecimal(matcher.group(6));
+                    }
+                }
+                compiledRoute.script = InvokerHelper.createScript(GroovyClassCache.getClass(route.getMatchExpression()), binding);
+                compiledRoutes.add(compiledRoute);
+            }
+        }
     }
 
     @Override
@@ -119,33 +181,33 @@ public class ContentRouter extends AbstractComponentRuntime {
         Map<String, ArrayList<EntityData>> outboundMessages = new HashMap<String, ArrayList<EntityData>>();
         ArrayList<EntityData> inputDatas = inputMessage.getPayload();
 
+        bindHeadersAndFlowParameters(inputMessage);
         for (EntityData entityData : inputDatas) {
             getComponentStatistics().incrementNumberEntitiesProcessed(threadNumber);
-            bindEntityData(scriptEngine, inputMessage, entityData);
-            if (routes != null) {
-                for (Route route : routes) {
-                    try {
-                        if (Boolean.TRUE.equals(scriptEngine.eval(route.getMatchExpression()))) {
-                            ArrayList<EntityData> outboundPayload = outboundMessages.get(route.getTargetStepId());
-                            if (outboundPayload != null && outboundPayload.size() >= rowsPerMessage) {
-                                outboundMessages.remove(route.getTargetStepId());
-                                callback.sendEntityDataMessage(null, outboundPayload, route.getTargetStepId());
-                                targetStepsThatNeedControlMessages.add(route.getTargetStepId());
-                                outboundPayload = null;
-                            }
-                            if (outboundPayload == null) {
-                                outboundPayload = new ArrayList<EntityData>();
-                                outboundMessages.put(route.getTargetStepId(), outboundPayload);
-                            }
-                            outboundPayload.add(entityData.copy());
-                            if (onlyRouteFirstMatch) {
-                                break;
-                            }
+            bindEntityData(entityData);
+            try {
+                for (CompiledRoute compiledRoute : compiledRoutes) {
+                    if (compiledRoute.matches(entityData)) {
+                        String targetStepId = compiledRoute.route.getTargetStepId();
+                        ArrayList<EntityData> outboundPayload = outboundMessages.get(targetStepId);
+                        if (outboundPayload != null && outboundPayload.size() >= rowsPerMessage) {
+                            outboundMessages.remove(targetStepId);
+                            callback.sendEntityDataMessage(null, outboundPayload, targetStepId);
+                            targetStepsThatNeedControlMessages.add(targetStepId);
+                            outboundPayload = null;
+                        }
+                        if (outboundPayload == null) {
+                            outboundPayload = new ArrayList<EntityData>();
+                            outboundMessages.put(targetStepId, outboundPayload);
+                        }
+                        outboundPayload.add(entityData.copy());
+                        if (onlyRouteFirstMatch) {
+                            break;
                         }
-                    } catch (ScriptException e) {
-                        throw new RuntimeException(e);
                     }
                 }
+            } finally {
+                unbindEntityData(entityData);
             }
         }
 
@@ -156,21 +218,13 @@ public class ContentRouter extends AbstractComponentRuntime {
     }
 
     protected void handleControlMessages(ControlMessage inputMessage, ISendMessageCallback callback, boolean unitOfWorkBoundaryReached) {
-        Bindings bindings = scriptEngine.createBindings();
-        bindHeadersAndFlowParameters(bindings, inputMessage);
-        scriptEngine.setBindings(bindings, ScriptContext.ENGINE_SCOPE);
-        if (routes != null) {
-            for (Route route : routes) {
-                try {
-                    if (Boolean.TRUE.equals(scriptEngine.eval(route.getMatchExpression()))) {
-                        callback.sendControlMessage(inputMessage.getHeader(), route.getTargetStepId());
-                        targetStepsThatNeedControlMessages.remove(route.getTargetStepId());
-                        if (onlyRouteFirstMatch) {
-                            break;
-                        }
-                    }
-                } catch (ScriptException e) {
-                    throw new RuntimeException(e);
+        bindHeadersAndFlowParameters(inputMessage);
+        for (CompiledRoute compiledRoute : compiledRoutes) {
+            if (compiledRoute.matchesScript()) {
+                callback.sendControlMessage(inputMessage.getHeader(), compiledRoute.route.getTargetStepId());
+                targetStepsThatNeedControlMessages.remove(compiledRoute.route.getTargetStepId());
+                if (onlyRouteFirstMatch) {
+                    break;
                 }
             }
         }
@@ -179,30 +233,31 @@ public class ContentRouter extends AbstractComponentRuntime {
     protected void handleStringListPayload(TextMessage inputMessage, ISendMessageCallback callback, boolean unitOfWorkBoundaryReached) {
         Map<String, ArrayList<String>> outboundMessages = new HashMap<String, ArrayList<String>>();
         ArrayList<String> inputDatas = (ArrayList<String>) inputMessage.getPayload();
+        bindHeadersAndFlowParameters(inputMessage);
         for (String data : inputDatas) {
             getComponentStatistics().incrementNumberEntitiesProcessed(threadNumber);
-            bindStringData(scriptEngine, inputMessage, data);
-            if (routes != null) {
-                for (Route route : routes) {
-                    try {
-                        if (Boolean.TRUE.equals(scriptEngine.eval(route.getMatchExpression()))) {
-                            ArrayList<String> outboundPayload = outboundMessages.get(route.getTargetStepId());
-                            if (outboundPayload == null) {
-                                outboundPayload = new ArrayList<String>();
-                                outboundMessages.put(route.getTargetStepId(), outboundPayload);
-                            }
-                            if (outboundPayload.size() >= rowsPerMessage) {
-                                outboundMessages.remove(route.getTargetStepId());
-                                callback.sendTextMessage(null, outboundPayload, route.getTargetStepId());
-                                targetStepsThatNeedControlMessages.add(route.getTargetStepId());
-                            }
-                            outboundPayload.add(data);
-                            if (onlyRouteFirstMatch) {
-                                break;
-                            }
-                        }
-                    } catch (ScriptException e) {
-                        throw new RuntimeException(e);
+            if (data != null) {
+                bindings.put("text", data);
+            } else {
+                bindings.put("text", null);
+                log(LogLevel.WARN, "Binding was unsuccessful since the value was null");
+            }
+            for (CompiledRoute compiledRoute : compiledRoutes) {
+                if (compiledRoute.matchesScript()) {
+                    String targetStepId = compiledRoute.route.getTargetStepId();
+                    ArrayList<String> outboundPayload = outboundMessages.get(targetStepId);
+                    if (outboundPayload == null) {
+                        outboundPayload = new ArrayList<String>();
+                        outboundMessages.put(targetStepId, outboundPayload);
+                    }
+                    if (outboundPayload.size() >= rowsPerMessage) {
+                        outboundMessages.remove(targetStepId);
+                        callback.sendTextMessage(null, outboundPayload, targetStepId);
+                        targetStepsThatNeedControlMessages.add(targetStepId);
+                    }
+                    outboundPayload.add(data);
+                    if (onlyRouteFirstMatch) {
+                        break;
                     }
                 }
             }
@@ -215,6 +270,105 @@ public class ContentRouter extends AbstractComponentRuntime {
 
     }
 
+    /*
+     * Rebinds the headers and flow parameters once per message.  The entity
+     * maps are recreated here, so row values are always set on the current
+     * maps.
+     */
+    protected void bindHeadersAndFlowParameters(Message inputMessage) {
+        bindings.clear();
+        bindHeadersAndFlowParameters(bindings, inputMessage);
+    }
+
+    @SuppressWarnings("unchecked")
+    protected void bindEntityData(EntityData entityData) {
+        bindings.put("CHANGE_TYPE", entityData.getChangeType().name());
+        bindings.put("ENTITY_NAMES", entityNameLookup.getEntityNames(entityData));
+        Model model = getInputModel();
+        for (Map.Entry<String, Object> entry : entityData.entrySet()) {
+            ModelAttribute attribute = attributesById.get(entry.getKey());
+            if (attribute != null) {
+                Object boundEntity = bindings.get(model.getEntityById(attribute.getEntityId()).getName());
+                if (boundEntity instanceof Map) {
+                    ((Map<String, Object>) boundEntity).put(attribute.getName(), entry.getValue());
+                }
+            } else {
+                log(LogLevel.WARN, "Could not find attribute in the input model with an id of " + entry.getKey());
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    protected void unbindEntityData(EntityData entityData) {
+        Model model = getInputModel();
+        for (String attributeId : entityData.keySet()) {
+            ModelAttribute attribute = attributesById.get(attributeId);
+            if (attribute != null) {
+                Object boundEntity = bindings.get(model.getEntityById(attribute.getEntityId()).getName());
+                if (boundEntity instanceof Map) {
+                    ((Map<String, Object>) boundEntity).put(attribute.getName(), null);
+                }
+            }
+        }
+    }
+
+    class CompiledRoute {
+
+        Route route;
+
+        Script script;
+
+        String entityName;
+
+        String attributeId;
+
+        boolean notEquals;
+
+        Object value;
+
+        CompiledRoute(Route route) {
+            this.route = route;
+        }
+
+        boolean matches(EntityData entityData) {
+            /*
+             * A header or flow parameter with the same name as the entity
+             * hides the entity from the script, so the script decides then
+             */
+            if (attributeId != null && bindings.get(entityName) instanceof Map) {
+                return isEqual(entityData.get(attributeId)) != notEquals;
+            } else {
+                return matchesScript();
+            }
+        }
+
+        boolean matchesScript() {
+            return Boolean.TRUE.equals(script.run());
+        }
+
+        /*
+         * Follows Groovy's == for the literal types the pattern accepts
+         */
+        boolean isEqual(Object rowValue) {
+            if (value == null || rowValue == null) {
+                return value == rowValue;
+            } else if (value instanceof BigDecimal) {
+                if (rowValue instanceof Number) {
+                    try {
+                        return ((BigDecimal) value).compareTo(new BigDecimal(rowValue.toString())) == 0;
+                    } catch (NumberFormatException ex) {
+                        return false;
+                    }
+                }
+                return false;
+            } else if (rowValue instanceof CharSequence || rowValue instanceof Character) {
+                return value.equals(rowValue.toString());
+            } else {
+                return false;
+            }
+        }
+    }
+
     static public class Route implements Serializable {
         
         private static final long serialVersionUID = 1L;
@@ -108,6 +108,32 @@ public class ContentRouterTest {
         assertEquals("Route to 2", datas.get(0).get("tt2colx"));
     }
     
+    @Test
+    public void testScriptedAndSimpleRoutes() throws Exception {
+        Set<Route> routes = new HashSet<Route>();
+        routes.add(new Route("TEST_TABLE_1.COL1 != null && TEST_TABLE_1.COL1.startsWith('Route')", "Target 1"));
+        routes.add(new Route("TEST_TABLE_2.COLY != 2", "Target 2"));
+        step.setComponent(TestUtils.createComponent(ContentRouter.TYPE, false, null, createInputModel(), null, null, null,
+                new Setting(ContentRouter.SETTING_CONFIG, new ObjectMapper().writeValueAsString(routes))));
+
+        SendMessageCallback<ArrayList<EntityData>> target = route(new EntityData(new NameValue("tt1col1", "Route to 1")),
+                new EntityData(new NameValue("tt2colx", "Route to 2"), new NameValue("tt2coly", 2)),
+                new EntityData(new NameValue("tt2colx", "Route to 2"), new NameValue("tt2coly", 3L)));
+        assertEquals(2, target.getPayloadList().size());
+        for (int i = 0; i < 2; i++) {
+            Collection<String> targetIds = target.getTargetStepIds().get(i);
+            List<EntityData> datas = target.getPayloadList().get(i);
+            if ("Target 1".equals(targetIds.iterator().next())) {
+                assertEquals(1, datas.size());
+                assertEquals("Route to 1", datas.get(0).get("tt1col1"));
+            } else {
+                /* the first row has no COLY and the second matches the number */
+                assertEquals(2, datas.size());
+                assertEquals(3L, datas.get(1).get("tt2coly"));
+            }
+        }
+    }
+    
     protected SendMessageCallback<ArrayList<EntityData>> route(EntityData...data) {
         SendMessageCallback<ArrayList<EntityData>> target = new SendMessageCallback<ArrayList<EntityData>>();
         ContentRouter router = new ContentRouter();
@@ -18,6 +18,10 @@ public class HttpRequest extends AbstractHttpRequestResponse implements IHasSecu
 
     public static final String SECURE_PASSWORD = "secure.password";
 
+    public static final String MIN_POOL_SIZE = "min.pool.size";
+
+    public static final String MAX_POOL_SIZE = "max.pool.size";
+
     public HttpRequest() {
     }
 
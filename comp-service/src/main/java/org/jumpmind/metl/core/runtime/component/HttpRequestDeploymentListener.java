@@ -79,6 +79,8 @@ public class HttpRequestDeploymentListener implements IComponentDeploymentListen
         mapping.setSecurityScheme(SecurityScheme.valueOf(properties.get(HttpRequest.SECURITY_SCHEME, SecurityScheme.NONE.name())));
         mapping.setSecurityUsername(properties.get(HttpRequest.SECURE_USERNAME));
         mapping.setSecurityPassword(properties.get(HttpRequest.SECURE_PASSWORD));
+        mapping.setMinPoolSize(properties.getInt(HttpRequest.MIN_POOL_SIZE, 0));
+        mapping.setMaxPoolSize(properties.getInt(HttpRequest.MAX_POOL_SIZE, 0));
         mapping.setRequestDescription(properties.get(NOTES));
         mapping.setFlowDescription(flow.getNotes());
         mapping.setResponseDescription(responseDescription);
@@ -20,14 +20,26 @@
  */
 package org.jumpmind.metl.core.runtime.component;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.UUID;
+import java.util.function.Consumer;
 
 import org.apache.commons.lang.ObjectUtils;
 import org.h2.Driver;
@@ -36,7 +48,9 @@ import org.jumpmind.metl.core.model.ModelAttribute;
 import org.jumpmind.metl.core.model.ModelEntity;
 import org.jumpmind.metl.core.runtime.ControlMessage;
 import org.jumpmind.metl.core.runtime.EntityData;
+import org.jumpmind.metl.core.runtime.EntityDataCodec;
 import org.jumpmind.metl.core.runtime.EntityDataMessage;
+import org.jumpmind.metl.core.runtime.EntityDataSchema;
 import org.jumpmind.metl.core.runtime.LogLevel;
 import org.jumpmind.metl.core.runtime.Message;
 import org.jumpmind.metl.core.runtime.flow.ISendMessageCallback;
@@ -63,8 +77,37 @@ public class Sorter extends AbstractComponentRuntime {
 
     public final static String ATTRIBUTE_SORTER_ENABLED = "sort.enabled";
 
+    public final static String SORT_ROWS_IN_MEMORY = "sort.rows.in.memory";
+
+    static final int RUN_BUFFER_SIZE = 64 * 1024;
+
     int rowsPerMessage;
 
+    /*
+     * When greater than zero rows are sorted in runs of this size that are
+     * spilled to temporary files and merged when the unit of work completes
+     */
+    int rowsInMemory;
+
+    EntityDataSchema schema;
+
+    EntityDataCodec codec;
+
+    Comparator<EntityData> rowComparator;
+
+    /*
+     * Whole rows when sorting on a single entity.attribute
+     */
+    SortRuns rowRuns;
+
+    /*
+     * Rows split by entity when spilling in place of the H2 database. Rows
+     * are first sorted by primary key so duplicates can be dropped.
+     */
+    Map<ModelEntity, SortRuns> entityRuns;
+
+    int entityRowsInMemory;
+
     IDatabasePlatform databasePlatform;
 
     RdbmsWriter databaseWriter;
@@ -73,8 +116,6 @@ public class Sorter extends AbstractComponentRuntime {
 
     ArrayList<ComponentAttributeSetting> sortKeyAttributeIdList = new ArrayList<>();
     
-    List<EntityData> sortedRecords = new ArrayList<EntityData>();
-    
     List<ModelEntity> entities;
 
     String databaseName;
@@ -87,6 +128,7 @@ public class Sorter extends AbstractComponentRuntime {
     public void start() {
         TypedProperties properties = getTypedProperties();
         rowsPerMessage = properties.getInt(ROWS_PER_MESSAGE);
+        rowsInMemory = properties.getInt(SORT_ROWS_IN_MEMORY, 0);
         String sortAttribute = properties.get(SORT_ATTRIBUTE);
         Model inputModel = this.getComponent().getInputModel();
         Component component = context.getFlowStep().getComponent();
@@ -132,6 +174,26 @@ public class Sorter extends AbstractComponentRuntime {
         			"Sort attribute must be a valid 'entity.attribute' in the input model. "
         			+ "Or at least one attribute must be specified to sort on in the component editor.");
         }        
+
+        rowComparator = createRowComparator();
+        schema = inputModel.getEntityDataSchema();
+        codec = new EntityDataCodec(schema);
+        if (entitySort) {
+            rowRuns = new SortRuns(rowComparator);
+        } else if (rowsInMemory > 0) {
+            entityRuns = new LinkedHashMap<>();
+            for (ModelEntity entity : entities) {
+                List<ModelAttribute> pkAttributes = getPrimaryKeyAttributes(entity);
+                entityRuns.put(entity, new SortRuns(
+                        pkAttributes.size() > 0 ? createComparator(pkAttributes) : rowComparator));
+            }
+        }
+    }
+
+    @Override
+    public void stop() {
+        deleteRunFiles();
+        super.stop();
     }
     
     @Override
@@ -142,7 +204,7 @@ public class Sorter extends AbstractComponentRuntime {
     @Override
     public void handle(Message inputMessage, ISendMessageCallback callback, boolean unitOfWorkBoundaryReached) {
     	if (inputMessage instanceof EntityDataMessage) {
-            if (!entitySort) {
+            if (rowRuns == null && entityRuns == null) {
 	            createDatabase();
 	            loadIntoDatabase(inputMessage);
             }
@@ -151,54 +213,327 @@ public class Sorter extends AbstractComponentRuntime {
             for (int i = 0; i < payload.size(); i++) {
                 getComponentStatistics().incrementNumberEntitiesProcessed(threadNumber);
                 
-                if (entitySort) {
-                	EntityData record = payload.get(i);
-                	sortedRecords.add(record);
+                EntityData record = payload.get(i);
+                if (rowRuns != null) {
+                	rowRuns.add(record);
+                	if (rowsInMemory > 0 && rowRuns.rows.size() >= rowsInMemory) {
+                	    rowRuns.spill();
+                	}
+                } else if (entityRuns != null) {
+                    addToEntityRuns(record);
                 }
             }
     	}
 
     	if (unitOfWorkBoundaryReached && error == null) {
-    		if (entitySort) {
-    			ArrayList<EntityData> dataToSend = new ArrayList<EntityData>();
-    			
-    			sort();
-
-    			for (EntityData record : sortedRecords) {
-    				if (dataToSend.size() >= rowsPerMessage) {
-    					callback.sendEntityDataMessage(null, dataToSend);
-    					dataToSend = new ArrayList<EntityData>();
-    				}
-    				dataToSend.add(record);
-    			}
-
-    			sortedRecords.clear();
-
-    			if (dataToSend != null && dataToSend.size() > 0) {
-    				callback.sendEntityDataMessage(null, dataToSend);
-    			}
+    		if (rowRuns != null) {
+    			sendSorted(rowRuns, callback);
+    		} else if (entityRuns != null) {
+    			sendSortedByEntity(callback);
     		} else {
     			sortData(callback);
     		}
     	}
     }
 
-    private void sort() {
-    	Collections.sort(sortedRecords, new Comparator<EntityData>() {
-    		@Override
-    		public int compare(EntityData o1, EntityData o2) {
-    			Object obj1 = o1.get(sortAttributeId);
-    			Object obj2 = o2.get(sortAttributeId);
-    			if ((obj1 instanceof Comparable || obj1 == null)
-    					&& (obj2 instanceof Comparable || obj2 == null)) {
-    				return ObjectUtils.compare((Comparable<?>) obj1, (Comparable<?>) obj2);
-    			} else {
-    				String str1 = obj1 != null ? obj1.toString() : null;
-    				String str2 = obj2 != null ? obj2.toString() : null;
-    				return ObjectUtils.compare(str1, str2);
-    			}
-    		}
-    	});
+    /*
+     * Split the row the same way the database writer does: each entity that
+     * has at least one attribute in the row gets a row of all its attributes
+     */
+    protected void addToEntityRuns(EntityData record) {
+        for (Map.Entry<ModelEntity, SortRuns> entry : entityRuns.entrySet()) {
+            List<ModelAttribute> attributes = entry.getKey().getModelAttributes();
+            boolean found = false;
+            for (ModelAttribute attribute : attributes) {
+                if (record.containsKey(attribute.getId())) {
+                    found = true;
+                    break;
+                }
+            }
+            if (found) {
+                EntityData entityRecord = new EntityData(schema);
+                for (ModelAttribute attribute : attributes) {
+                    entityRecord.put(attribute.getId(), record.get(attribute.getId()));
+                }
+                entry.getValue().add(entityRecord);
+                if (++entityRowsInMemory >= rowsInMemory) {
+                    for (SortRuns runs : entityRuns.values()) {
+                        if (runs.rows.size() > 0) {
+                            runs.spill();
+                        }
+                    }
+                    entityRowsInMemory = 0;
+                }
+            }
+        }
+    }
+
+    protected void sendSorted(SortRuns runs, ISendMessageCallback callback) {
+        final ArrayList<EntityData> dataToSend = new ArrayList<EntityData>(rowsPerMessage);
+        runs.merge(record -> send(record, dataToSend, callback));
+        flush(dataToSend, callback);
+    }
+
+    /*
+     * Entities are sent in model order. Duplicate primary keys keep the last
+     * row that arrived like the replace mode of the database writer does.
+     */
+    protected void sendSortedByEntity(ISendMessageCallback callback) {
+        final ArrayList<EntityData> dataToSend = new ArrayList<EntityData>(rowsPerMessage);
+        for (Map.Entry<ModelEntity, SortRuns> entry : entityRuns.entrySet()) {
+            SortRuns runs = entry.getValue();
+            if (getPrimaryKeyAttributes(entry.getKey()).size() > 0) {
+                SortRuns pkRuns = runs;
+                SortRuns sortedRuns = new SortRuns(rowComparator);
+                EntityData[] last = new EntityData[1];
+                pkRuns.merge(record -> {
+                    if (last[0] != null && pkRuns.comparator.compare(last[0], record) != 0) {
+                        addSorted(sortedRuns, last[0]);
+                    }
+                    last[0] = record;
+                });
+                if (last[0] != null) {
+                    addSorted(sortedRuns, last[0]);
+                }
+                runs = sortedRuns;
+            }
+            long rowCount = runs.rowCount;
+            runs.merge(record -> send(record, dataToSend, callback));
+            info("Sorted %d records for %s", rowCount, entry.getKey().getName());
+        }
+        flush(dataToSend, callback);
+        entityRowsInMemory = 0;
+    }
+
+    private static List<ModelAttribute> getPrimaryKeyAttributes(ModelEntity entity) {
+        List<ModelAttribute> pkAttributes = new ArrayList<>();
+        for (ModelAttribute attribute : entity.getModelAttributes()) {
+            if (attribute.isPk()) {
+                pkAttributes.add(attribute);
+            }
+        }
+        return pkAttributes;
+    }
+
+    private void addSorted(SortRuns runs, EntityData record) {
+        runs.add(record);
+        if (runs.rows.size() >= rowsInMemory) {
+            runs.spill();
+        }
+    }
+
+    private void send(EntityData record, ArrayList<EntityData> dataToSend, ISendMessageCallback callback) {
+        dataToSend.add(record);
+        if (dataToSend.size() >= rowsPerMessage) {
+            flush(dataToSend, callback);
+        }
+    }
+
+    private void flush(ArrayList<EntityData> dataToSend, ISendMessageCallback callback) {
+        if (dataToSend.size() > 0) {
+            callback.sendEntityDataMessage(null, new ArrayList<EntityData>(dataToSend));
+            dataToSend.clear();
+        }
+    }
+
+    protected Comparator<EntityData> createRowComparator() {
+        final String[] sortAttributeIds = new String[sortKeyAttributeIdList.size()];
+        for (int i = 0; i < sortAttributeIds.length; i++) {
+            sortAttributeIds[i] = sortKeyAttributeIdList.get(i).getAttributeId();
+        }
+        return createComparator(sortAttributeIds);
+    }
+
+    protected static Comparator<EntityData> createComparator(List<ModelAttribute> attributes) {
+        String[] attributeIds = new String[attributes.size()];
+        for (int i = 0; i < attributeIds.length; i++) {
+            attributeIds[i] = attributes.get(i).getId();
+        }
+        return createComparator(attributeIds);
+    }
+
+    protected static Comparator<EntityData> createComparator(final String[] attributeIds) {
+        return new Comparator<EntityData>() {
+            @Override
+            public int compare(EntityData o1, EntityData o2) {
+                for (String attributeId : attributeIds) {
+                    int result = compareValues(o1.get(attributeId), o2.get(attributeId));
+                    if (result != 0) {
+                        return result;
+                    }
+                }
+                return 0;
+            }
+        };
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    protected static int compareValues(Object obj1, Object obj2) {
+        if ((obj1 instanceof Comparable || obj1 == null)
+                && (obj2 instanceof Comparable || obj2 == null)) {
+            return ObjectUtils.compare((Comparable) obj1, (Comparable) obj2);
+        } else {
+            String str1 = obj1 != null ? obj1.toString() : null;
+            String str2 = obj2 != null ? obj2.toString() : null;
+            return ObjectUtils.compare(str1, str2);
+        }
+    }
+
+    protected void deleteRunFiles() {
+        if (rowRuns != null) {
+            rowRuns.clear();
+        }
+        if (entityRuns != null) {
+            for (SortRuns runs : entityRuns.values()) {
+                runs.clear();
+            }
+        }
+    }
+
+    /*
+     * Rows sorted in memory until they are spilled to a run file. Merging
+     * treats the rows still in memory as the last run. Ties are broken by run
+     * number so rows with equal keys keep their arrival order.
+     */
+    class SortRuns {
+
+        Comparator<EntityData> comparator;
+
+        List<EntityData> rows = new ArrayList<>();
+
+        List<File> runFiles = new ArrayList<>();
+
+        long rowCount;
+
+        SortRuns(Comparator<EntityData> comparator) {
+            this.comparator = comparator;
+        }
+
+        void add(EntityData record) {
+            rows.add(record);
+            rowCount++;
+        }
+
+        void spill() {
+            Collections.sort(rows, comparator);
+            File runFile = null;
+            try {
+                runFile = File.createTempFile("metl-sort-", ".run");
+                runFile.deleteOnExit();
+                runFiles.add(runFile);
+                try (DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(new FileOutputStream(runFile), RUN_BUFFER_SIZE))) {
+                    for (EntityData record : rows) {
+                        codec.write(out, record);
+                    }
+                    codec.writeEnd(out);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to write sort run to " + runFile, e);
+            }
+            log(LogLevel.DEBUG, "Spilled %d sorted rows to %s", rows.size(), runFile);
+            rows.clear();
+        }
+
+        /*
+         * K-way merge of the run files and the rows still in memory. The runs
+         * are removed once they have been merged.
+         */
+        void merge(Consumer<EntityData> consumer) {
+            Collections.sort(rows, comparator);
+            if (runFiles.size() == 0) {
+                for (EntityData record : rows) {
+                    consumer.accept(record);
+                }
+                clear();
+                return;
+            }
+
+            info("Merging %d sorted runs", runFiles.size() + (rows.size() > 0 ? 1 : 0));
+            List<RunReader> readers = new ArrayList<>(runFiles.size() + 1);
+            try {
+                PriorityQueue<RunReader> queue = new PriorityQueue<>(runFiles.size() + 1, (r1, r2) -> {
+                    int result = comparator.compare(r1.current, r2.current);
+                    return result != 0 ? result : Integer.compare(r1.runNumber, r2.runNumber);
+                });
+                for (int i = 0; i < runFiles.size(); i++) {
+                    readers.add(new RunReader(i, runFiles.get(i)));
+                }
+                if (rows.size() > 0) {
+                    readers.add(new RunReader(runFiles.size(), rows));
+                }
+                for (RunReader reader : readers) {
+                    if (reader.next()) {
+                        queue.add(reader);
+                    }
+                }
+
+                while (!queue.isEmpty()) {
+                    RunReader reader = queue.poll();
+                    consumer.accept(reader.current);
+                    if (reader.next()) {
+                        queue.add(reader);
+                    }
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to merge sort runs", e);
+            } finally {
+                for (RunReader reader : readers) {
+                    reader.close();
+                }
+                clear();
+            }
+        }
+
+        void clear() {
+            for (File runFile : runFiles) {
+                if (runFile.exists() && !runFile.delete()) {
+                    log(LogLevel.WARN, "Failed to delete sort run %s", runFile);
+                }
+            }
+            runFiles.clear();
+            rows.clear();
+            rowCount = 0;
+        }
+    }
+
+    class RunReader {
+
+        int runNumber;
+
+        DataInputStream in;
+
+        Iterator<EntityData> rows;
+
+        EntityData current;
+
+        RunReader(int runNumber, File runFile) throws IOException {
+            this.runNumber = runNumber;
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(runFile), RUN_BUFFER_SIZE));
+        }
+
+        RunReader(int runNumber, List<EntityData> rows) {
+            this.runNumber = runNumber;
+            this.rows = rows.iterator();
+        }
+
+        boolean next() throws IOException {
+            if (rows != null) {
+                current = rows.hasNext() ? rows.next() : null;
+            } else {
+                current = codec.read(in);
+            }
+            return current != null;
+        }
+
+        void close() {
+            try {
+                if (in != null) {
+                    in.close();
+                }
+            } catch (IOException e) {
+            }
+        }
     }
 
 	private void sortData(ISendMessageCallback callback) {
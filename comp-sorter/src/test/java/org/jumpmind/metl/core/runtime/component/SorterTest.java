@@ -0,0 +1,169 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.jumpmind.metl.core.model.Component;
+import org.jumpmind.metl.core.model.ComponentAttributeSetting;
+import org.jumpmind.metl.core.model.FlowStep;
+import org.jumpmind.metl.core.model.Model;
+import org.jumpmind.metl.core.model.ModelAttribute;
+import org.jumpmind.metl.core.model.ModelEntity;
+import org.jumpmind.metl.core.model.Setting;
+import org.jumpmind.metl.core.runtime.EntityData;
+import org.jumpmind.metl.core.runtime.EntityDataMessage;
+import org.jumpmind.metl.core.runtime.ExecutionTrackerNoOp;
+import org.jumpmind.metl.core.utils.TestUtils;
+import org.junit.Test;
+
+public class SorterTest {
+
+    @Test
+    public void testSpilledRunsAreGroupedByEntityAndDeduped() throws Exception {
+        List<ComponentAttributeSetting> attributeSettings = new ArrayList<ComponentAttributeSetting>();
+        attributeSettings.add(new ComponentAttributeSetting("p_name", Sorter.SORTER_ATTRIBUTE_ORDINAL, "1"));
+        attributeSettings.add(new ComponentAttributeSetting("a_city", Sorter.SORTER_ATTRIBUTE_ORDINAL, "2"));
+        Sorter sorter = createSorter(attributeSettings, new Setting(Sorter.SORT_ROWS_IN_MEMORY, "3"));
+
+        sorter.handle(message(row("3", "carol", "3", "rome"), row("1", "alice", "1", "oslo"),
+                row("2", "bob", "2", "lima")), null, false);
+        sorter.handle(message(row("1", "zed", "1", "bern"), row("4", "dave", null, null)), null, false);
+        Sorter.SortRuns personRuns = sorter.entityRuns.get(sorter.entities.get(0));
+        assertTrue(personRuns.runFiles.size() > 1);
+
+        SendMessageCallback<ArrayList<EntityData>> callback = new SendMessageCallback<ArrayList<EntityData>>();
+        sorter.handle(message(row("5", "bob", "5", "kiev")), callback, true);
+        List<EntityData> rows = flatten(callback);
+
+        assertEquals(9, rows.size());
+        assertRow(rows.get(0), "p_id", "2", "p_name", "bob");
+        assertRow(rows.get(1), "p_id", "5", "p_name", "bob");
+        assertRow(rows.get(2), "p_id", "3", "p_name", "carol");
+        assertRow(rows.get(3), "p_id", "4", "p_name", "dave");
+        assertRow(rows.get(4), "p_id", "1", "p_name", "zed");
+        assertRow(rows.get(5), "a_id", "1", "a_city", "bern");
+        assertRow(rows.get(6), "a_id", "5", "a_city", "kiev");
+        assertRow(rows.get(7), "a_id", "2", "a_city", "lima");
+        assertRow(rows.get(8), "a_id", "3", "a_city", "rome");
+        assertEquals(0, personRuns.runFiles.size());
+    }
+
+    @Test
+    public void testSpilledRunsKeepWholeRowsForEntityAttributeSort() throws Exception {
+        Sorter sorter = createSorter(new ArrayList<ComponentAttributeSetting>(),
+                new Setting(Sorter.SORT_ATTRIBUTE, "person.name"), new Setting(Sorter.SORT_ROWS_IN_MEMORY, "2"));
+
+        sorter.handle(message(row("3", "carol", "3", "rome"), row("1", "bob", "1", "oslo"),
+                row("2", "alice", "2", "lima")), null, false);
+        sorter.handle(message(row("4", "bob", "4", "bern"), row("5", "alice", "5", "kiev")), null, false);
+        assertTrue(sorter.rowRuns.runFiles.size() > 1);
+
+        SendMessageCallback<ArrayList<EntityData>> callback = new SendMessageCallback<ArrayList<EntityData>>();
+        sorter.handle(message(), callback, true);
+        List<EntityData> rows = flatten(callback);
+
+        assertEquals(5, rows.size());
+        assertRow(rows.get(0), "p_id", "2", "a_city", "lima");
+        assertRow(rows.get(1), "p_id", "5", "a_city", "kiev");
+        assertRow(rows.get(2), "p_id", "1", "a_city", "oslo");
+        assertRow(rows.get(3), "p_id", "4", "a_city", "bern");
+        assertRow(rows.get(4), "p_id", "3", "a_city", "rome");
+    }
+
+    private static void assertRow(EntityData row, String id, String idValue, String attribute, String value) {
+        assertEquals(idValue, row.get(id));
+        assertEquals(value, row.get(attribute));
+    }
+
+    private static List<EntityData> flatten(SendMessageCallback<ArrayList<EntityData>> callback) {
+        List<EntityData> rows = new ArrayList<EntityData>();
+        for (ArrayList<EntityData> payload : callback.getPayloadList()) {
+            assertTrue(payload.size() <= 2);
+            rows.addAll(payload);
+        }
+        return rows;
+    }
+
+    private static EntityData row(String personId, String name, String addressId, String city) {
+        EntityData row = new EntityData();
+        row.put("p_id", personId);
+        row.put("p_name", name);
+        if (addressId != null) {
+            row.put("a_id", addressId);
+            row.put("a_city", city);
+        }
+        return row;
+    }
+
+    private static EntityDataMessage message(EntityData... rows) {
+        EntityDataMessage message = new EntityDataMessage("fake step id");
+        ArrayList<EntityData> payload = new ArrayList<EntityData>();
+        for (EntityData row : rows) {
+            payload.add(row);
+        }
+        message.setPayload(payload);
+        return message;
+    }
+
+    private static Sorter createSorter(List<ComponentAttributeSetting> attributeSettings, Setting... settings) {
+        List<Setting> settingList = new ArrayList<Setting>();
+        settingList.add(new Setting(Sorter.ROWS_PER_MESSAGE, "2"));
+        for (Setting setting : settings) {
+            settingList.add(setting);
+        }
+        Component component = TestUtils.createComponent(Sorter.TYPE, false, null, createInputModel(), null, null,
+                attributeSettings, settingList.toArray(new Setting[settingList.size()]));
+        FlowStep flowStep = new FlowStep();
+        flowStep.setComponentId(component.getId());
+        flowStep.setCreateTime(new Date());
+        flowStep.setComponent(component);
+
+        Sorter sorter = new Sorter();
+        sorter.setContext(new ComponentContext(null, flowStep, null, new ExecutionTrackerNoOp(), null, null, null));
+        sorter.start();
+        return sorter;
+    }
+
+    private static Model createInputModel() {
+        ModelEntity person = new ModelEntity("person", "PERSON");
+        ModelAttribute personId = new ModelAttribute("p_id", person.getId(), "ID");
+        personId.setPk(true);
+        person.addModelAttribute(personId);
+        person.addModelAttribute(new ModelAttribute("p_name", person.getId(), "NAME"));
+
+        ModelEntity address = new ModelEntity("address", "ADDRESS");
+        ModelAttribute addressId = new ModelAttribute("a_id", address.getId(), "ID");
+        addressId.setPk(true);
+        address.addModelAttribute(addressId);
+        address.addModelAttribute(new ModelAttribute("a_city", address.getId(), "CITY"));
+
+        Model model = new Model();
+        model.getModelEntities().add(person);
+        model.getModelEntities().add(address);
+        return model;
+    }
+}
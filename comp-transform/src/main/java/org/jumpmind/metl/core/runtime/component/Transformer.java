@@ -23,16 +23,13 @@ package org.jumpmind.metl.core.runtime.component;
 import static org.apache.commons.lang.StringUtils.isNotBlank;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-import javax.script.ScriptException;
-
-import org.apache.commons.collections.CollectionUtils;
-import org.codehaus.groovy.jsr223.GroovyScriptEngineImpl;
 import org.jumpmind.metl.core.model.ComponentAttributeSetting;
 import org.jumpmind.metl.core.model.Model;
 import org.jumpmind.metl.core.model.ModelAttribute;
@@ -40,30 +37,49 @@ import org.jumpmind.metl.core.model.ModelEntity;
 import org.jumpmind.metl.core.runtime.ControlMessage;
 import org.jumpmind.metl.core.runtime.EntityData;
 import org.jumpmind.metl.core.runtime.EntityDataMessage;
+import org.jumpmind.metl.core.runtime.EntityDataSchema;
 import org.jumpmind.metl.core.runtime.Message;
 import org.jumpmind.metl.core.runtime.flow.ISendMessageCallback;
 
 public class Transformer extends AbstractComponentRuntime {
 
     public static final String TYPE = "Transformer";
-    
+
     public static String TRANSFORM_EXPRESSION = "transform.expression";
-    
+
     public static String PASS_ALONG_CONTROL_MESSAGES = "pass.along.control.messages";
 
+    public static String COMPILE_STATIC = "compile.static";
+
     Map<String, String> transformsByAttributeId = new HashMap<String, String>();
-    
-    GroovyScriptEngineImpl scriptEngine;
-    
+
+    boolean compileStatic;
+
     Map<String, ModelAttributeScriptHelper> helpers = new HashMap<>();
-       
+
+    /*
+     * The position of each input model entity, keyed by the ids of its
+     * attributes. A row's entities are recorded as bits in this order.
+     */
+    Map<String, Integer> entityIndexByAttributeId = new HashMap<>();
+
+    Map<BitSet, TransformPlan> plansByEntities = new HashMap<>();
+
+    BitSet rowEntities = new BitSet();
+
+    Set<String> unknownAttributeIds = new HashSet<>();
+
     long totalTime = 0;
     long totalCalls = 0;
-    
+
     @Override
     public void start() {
         transformsByAttributeId.clear();
-        
+        entityIndexByAttributeId.clear();
+        plansByEntities.clear();
+        unknownAttributeIds.clear();
+        compileStatic = properties.is(COMPILE_STATIC, false);
+
         List<ComponentAttributeSetting> settings = getComponent().getAttributeSettings();
         for (ComponentAttributeSetting setting : settings) {
             if (setting.getName().equals(TRANSFORM_EXPRESSION)) {
@@ -71,115 +87,185 @@ public class Transformer extends AbstractComponentRuntime {
                     transformsByAttributeId.put(setting.getAttributeId(), setting.getValue());
                 }
             }
-        }     
+        }
+
+        Model inputModel = getComponent().getInputModel();
+        if (inputModel != null) {
+            List<ModelEntity> entities = inputModel.getModelEntities();
+            for (int i = 0; i < entities.size(); i++) {
+                for (ModelAttribute attribute : entities.get(i).getModelAttributes()) {
+                    entityIndexByAttributeId.put(attribute.getId(), i);
+                }
+            }
+        }
     }
-    
+
     @Override
     public boolean supportsStartupMessages() {
         return false;
-    }   
-    
-    protected Set<String> getAllAttributesForIncludedEntities(EntityData data) {
-        Set<String> allAttributesForIncludedEntities = new HashSet<>();
-        Model inputModel = getComponent().getInputModel();
-        Set<String> attributeIds = data.keySet();
-        for (String attributeId : attributeIds) {
-            ModelAttribute attribute = inputModel.getAttributeById(attributeId);
-            if (attribute != null) {
-                ModelEntity entity = inputModel.getEntityById(attribute.getEntityId());
-                List<ModelAttribute> attributes = entity.getModelAttributes();
-                for (ModelAttribute modelAttribute : attributes) {
-                    allAttributesForIncludedEntities.add(modelAttribute.getId());
+    }
+
+    @Override
+    public void handle(Message inputMessage, ISendMessageCallback callback, boolean unitOfWorkBoundaryReached) {
+        totalTime = 0;
+        if (inputMessage instanceof EntityDataMessage) {
+            Model inputModel = getComponent().getInputModel();
+            EntityDataSchema schema = inputModel.getEntityDataSchema();
+            List<EntityData> inDatas = ((EntityDataMessage) inputMessage).getPayload();
+            ArrayList<EntityData> outDatas = new ArrayList<EntityData>(inDatas != null ? inDatas.size() : 0);
+
+            if (inDatas != null) {
+                for (EntityData inData : inDatas) {
+                    EntityData outData = new EntityData(schema);
+                    outData.setChangeType(inData.getChangeType());
+                    outDatas.add(outData);
+
+                    TransformPlan plan = getPlan(inData, outData);
+                    transform(plan, inputMessage, inData, outData);
+                    getComponentStatistics().incrementNumberEntitiesProcessed(threadNumber);
                 }
+            }
+            callback.sendEntityDataMessage(null, outDatas);
+
+            if (totalCalls > 0) {
+                log.debug("It took " + (totalTime / totalCalls) + "ms on average to call eval");
+            }
+
+        } else if (inputMessage instanceof ControlMessage && properties.is(PASS_ALONG_CONTROL_MESSAGES, false)) {
+            callback.sendControlMessage();
+        }
+    }
+
+    /*
+     * Finds the plan for the entities that are present in the row. Values
+     * of attributes that are not in the input model are copied as they are
+     * while the row is scanned.
+     */
+    protected TransformPlan getPlan(EntityData inData, EntityData outData) {
+        rowEntities.clear();
+        for (Map.Entry<String, Object> entry : inData.entrySet()) {
+            String attributeId = entry.getKey();
+            Integer entityIndex = entityIndexByAttributeId.get(attributeId);
+            if (entityIndex != null) {
+                rowEntities.set(entityIndex);
             } else {
-                log.warn("Found an attribute that wasn't in the configured model.  The attribute id was: {}", attributeId);
+                if (unknownAttributeIds.add(attributeId)) {
+                    log.warn("Found an attribute that wasn't in the configured model.  The attribute id was: {}", attributeId);
+                }
+                outData.put(attributeId, entry.getValue());
             }
         }
-        return allAttributesForIncludedEntities;
+
+        TransformPlan plan = plansByEntities.get(rowEntities);
+        if (plan == null) {
+            plan = createPlan(rowEntities);
+            plansByEntities.put((BitSet) rowEntities.clone(), plan);
+        }
+        return plan;
     }
 
-    @SuppressWarnings("unchecked")
-    @Override
-	public void handle(Message inputMessage, ISendMessageCallback callback, boolean unitOfWorkBoundaryReached) {
-        if (scriptEngine == null) {
-            scriptEngine = new GroovyScriptEngineImpl();
+    protected TransformPlan createPlan(BitSet entities) {
+        Model inputModel = getComponent().getInputModel();
+        EntityDataSchema schema = inputModel.getEntityDataSchema();
+        List<ModelEntity> modelEntities = inputModel.getModelEntities();
+        List<ModelAttribute> transformed = new ArrayList<>();
+        List<ModelAttributeScriptHelper> transformHelpers = new ArrayList<>();
+        List<String> passedAlong = new ArrayList<>();
+        for (int i = entities.nextSetBit(0); i >= 0; i = entities.nextSetBit(i + 1)) {
+            ModelEntity entity = modelEntities.get(i);
+            for (ModelAttribute attribute : entity.getModelAttributes()) {
+                String transform = transformsByAttributeId.get(attribute.getId());
+                if (isNotBlank(transform)) {
+                    transformed.add(attribute);
+                    transformHelpers.add(getHelper(entity, attribute, transform));
+                } else {
+                    passedAlong.add(attribute.getId());
+                }
+            }
         }
-        totalTime = 0;
-		if (inputMessage instanceof EntityDataMessage) {
-			Model inputModel = getComponent().getInputModel();
-			List<EntityData> inDatas = ((EntityDataMessage)inputMessage).getPayload();
-			ArrayList<EntityData> outDatas = new ArrayList<EntityData>(inDatas != null ? inDatas.size() : 0);
-
-			if (inDatas != null) {
-				for (EntityData inData : inDatas) {
-					EntityData outData = new EntityData();
-					outData.setChangeType(inData.getChangeType());
-					outDatas.add(outData);
-
-					Set<String> attributeIds = new HashSet<String>();
-					attributeIds.addAll(inData.keySet());					
-					attributeIds.addAll(CollectionUtils.intersection(getAllAttributesForIncludedEntities(inData), transformsByAttributeId.keySet()));
-					
-					for (String attributeId : attributeIds) {
-						String transform = transformsByAttributeId.get(attributeId);
-						Object value = inData.get(attributeId);
-						if (isNotBlank(transform)) {
-							ModelAttribute attribute = inputModel.getAttributeById(attributeId);
-							ModelEntity entity = inputModel.getEntityById(attribute.getEntityId());
-							
-
-							ModelAttributeScriptHelper helper = helpers.get(attribute.getId());
-							if (helper == null) {
-							    
-							    long ts = System.currentTimeMillis();
-						        scriptEngine.put("entity", entity);
-						        scriptEngine.put("attribute", attribute);
-						        scriptEngine.put("context", context);      
-						        scriptEngine.put("model", getInputModel());
-						        try {
-						            String importString = "import org.jumpmind.metl.core.runtime.component.ModelAttributeScriptHelper;\n";
-						            String code = String.format(
-						                    "return new ModelAttributeScriptHelper(context, attribute, entity, model) { public Object eval() { %s \n } }",
-						                    transform);
-						            helper = (ModelAttributeScriptHelper)scriptEngine.eval(importString + code);
-						            helpers.put(attribute.getId(), helper);
-						        } catch (ScriptException e) {
-						            throw new RuntimeException("Unable to evaluate groovy script.  Attribute ==> " + attribute.getName() + ".  Value ==> "
-						                    + (value==null ? "null" : value.toString()) + "." + e.getCause().getMessage(), e);
-						        }
-						        
-						        log.debug("It took " + (System.currentTimeMillis()-ts) + "ms to create class");
-							}
-							
-							helper.setData(inData);
-							helper.setValue(value);
-							helper.setMessage(inputMessage);
-							long ts = System.currentTimeMillis();
-							try {
-							    value = helper.eval();
-							} catch (Exception e) {
-							    throw new RuntimeException("Groovy script evaluation resulted in an exception.  Attribute ==> " 
-							            + attribute.getName() + ".  Value ==> " + (value==null ? "null" : value.toString()) 
-							            + ".  Payload ==>\n" + getComponent().toRow(inData, false, false), e);
-							}
-							totalTime += (System.currentTimeMillis()-ts);
-							totalCalls ++;   
-						}
-						if (value != ModelAttributeScriptHelper.REMOVE_ATTRIBUTE) {
-							outData.put(attributeId, value);
-						}
-					}
-					getComponentStatistics().incrementNumberEntitiesProcessed(threadNumber);
-				}
-			}
-			callback.sendEntityDataMessage(null, outDatas);
-			
-			if (totalCalls > 0) {
-			   log.debug("It took " + (totalTime/totalCalls) + "ms on average to call eval");
-			}
-						
-		} else if (inputMessage instanceof ControlMessage && properties.is(PASS_ALONG_CONTROL_MESSAGES, false)) {
-		        callback.sendControlMessage();
-		}
-	}
+        return new TransformPlan(schema, transformed, transformHelpers, passedAlong);
+    }
+
+    protected void transform(TransformPlan plan, Message inputMessage, EntityData inData, EntityData outData) {
+        for (int i = 0; i < plan.passedAlongAttributeIds.length; i++) {
+            String attributeId = plan.passedAlongAttributeIds[i];
+            if (inData.containsKey(attributeId)) {
+                put(outData, plan.passedAlongSlots[i], attributeId, inData.get(attributeId));
+            }
+        }
+
+        for (int i = 0; i < plan.helpers.length; i++) {
+            ModelAttribute attribute = plan.attributes[i];
+            ModelAttributeScriptHelper helper = plan.helpers[i];
+            Object value = inData.get(attribute.getId());
+            helper.setData(inData);
+            helper.setValue(value);
+            helper.setMessage(inputMessage);
+            long ts = System.currentTimeMillis();
+            try {
+                value = helper.eval();
+            } catch (Exception e) {
+                throw new RuntimeException("Groovy script evaluation resulted in an exception.  Attribute ==> "
+                        + attribute.getName() + ".  Value ==> " + (value==null ? "null" : value.toString())
+                        + ".  Payload ==>\n" + getComponent().toRow(inData, false, false), e);
+            }
+            totalTime += (System.currentTimeMillis()-ts);
+            totalCalls ++;
+            if (value != ModelAttributeScriptHelper.REMOVE_ATTRIBUTE) {
+                put(outData, plan.slots[i], attribute.getId(), value);
+            }
+        }
+    }
+
+    private void put(EntityData outData, int slot, String attributeId, Object value) {
+        if (slot >= 0) {
+            outData.putOrdinal(slot, value);
+        } else {
+            outData.put(attributeId, value);
+        }
+    }
+
+    protected ModelAttributeScriptHelper getHelper(ModelEntity entity, ModelAttribute attribute, String transform) {
+        ModelAttributeScriptHelper helper = helpers.get(attribute.getId());
+        if (helper == null) {
+            long ts = System.currentTimeMillis();
+            helper = ModelAttributeScriptHelper.create(context, attribute, entity, getInputModel(), transform, compileStatic);
+            helpers.put(attribute.getId(), helper);
+            log.debug("It took " + (System.currentTimeMillis()-ts) + "ms to create class");
+        }
+        return helper;
+    }
+
+    /*
+     * What to do with a row that has a given set of entities. The transforms
+     * are evaluated in model order and every other attribute of those
+     * entities is copied along.
+     */
+    static class TransformPlan {
+
+        final ModelAttribute[] attributes;
+
+        final ModelAttributeScriptHelper[] helpers;
+
+        final int[] slots;
+
+        final String[] passedAlongAttributeIds;
+
+        final int[] passedAlongSlots;
+
+        TransformPlan(EntityDataSchema schema, List<ModelAttribute> attributes, List<ModelAttributeScriptHelper> helpers,
+                List<String> passedAlongAttributeIds) {
+            this.attributes = attributes.toArray(new ModelAttribute[attributes.size()]);
+            this.helpers = helpers.toArray(new ModelAttributeScriptHelper[helpers.size()]);
+            this.slots = new int[this.attributes.length];
+            for (int i = 0; i < slots.length; i++) {
+                slots[i] = schema != null ? schema.getOrdinal(this.attributes[i].getId()) : -1;
+            }
+            this.passedAlongAttributeIds = passedAlongAttributeIds.toArray(new String[passedAlongAttributeIds.size()]);
+            this.passedAlongSlots = new int[this.passedAlongAttributeIds.length];
+            for (int i = 0; i < passedAlongSlots.length; i++) {
+                passedAlongSlots[i] = schema != null ? schema.getOrdinal(this.passedAlongAttributeIds[i]) : -1;
+            }
+        }
+    }
 }
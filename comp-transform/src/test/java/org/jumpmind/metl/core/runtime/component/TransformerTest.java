@@ -0,0 +1,110 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.jumpmind.metl.core.model.Component;
+import org.jumpmind.metl.core.model.ComponentAttributeSetting;
+import org.jumpmind.metl.core.model.FlowStep;
+import org.jumpmind.metl.core.model.Model;
+import org.jumpmind.metl.core.model.ModelAttribute;
+import org.jumpmind.metl.core.model.ModelEntity;
+import org.jumpmind.metl.core.runtime.EntityData;
+import org.jumpmind.metl.core.runtime.EntityDataMessage;
+import org.jumpmind.metl.core.runtime.ExecutionTrackerNoOp;
+import org.jumpmind.metl.core.utils.TestUtils;
+import org.junit.Test;
+
+public class TransformerTest {
+
+    @Test
+    public void testPlansPerEntityCombination() throws Exception {
+        List<ComponentAttributeSetting> attributeSettings = new ArrayList<ComponentAttributeSetting>();
+        attributeSettings.add(new ComponentAttributeSetting("a1", Transformer.TRANSFORM_EXPRESSION, "value.toUpperCase()"));
+        attributeSettings.add(new ComponentAttributeSetting("b1", Transformer.TRANSFORM_EXPRESSION, "value * 2"));
+        attributeSettings.add(new ComponentAttributeSetting("b2", Transformer.TRANSFORM_EXPRESSION,
+                "ModelAttributeScriptHelper.REMOVE_ATTRIBUTE"));
+        Transformer transformer = createTransformer(attributeSettings);
+
+        ArrayList<EntityData> rows = new ArrayList<EntityData>();
+        rows.add(createRow("a1", "one", "a2", "kept"));
+        rows.add(createRow("a1", "two", "b1", 2, "b2", "removed"));
+        rows.add(createRow("a1", "three", "unknown", "copied"));
+        rows.add(createRow("b1", 4));
+        SendMessageCallback<ArrayList<EntityData>> callback = new SendMessageCallback<ArrayList<EntityData>>();
+        transformer.handle(new EntityDataMessage("test", rows), callback, true);
+
+        List<EntityData> out = callback.getPayloadList().get(0);
+        assertEquals(4, out.size());
+        assertEquals("ONE", out.get(0).get("a1"));
+        assertEquals("kept", out.get(0).get("a2"));
+        assertEquals("TWO", out.get(1).get("a1"));
+        assertEquals(4, out.get(1).get("b1"));
+        assertFalse(out.get(1).containsKey("b2"));
+        assertEquals("THREE", out.get(2).get("a1"));
+        assertEquals("copied", out.get(2).get("unknown"));
+        assertEquals(8, out.get(3).get("b1"));
+
+        /* rows with the same entities share a plan */
+        assertEquals(3, transformer.plansByEntities.size());
+    }
+
+    protected Transformer createTransformer(List<ComponentAttributeSetting> attributeSettings) {
+        Component component = TestUtils.createComponent(Transformer.TYPE, false, null, createInputModel(), createInputModel(), null,
+                attributeSettings);
+        FlowStep flowStep = new FlowStep();
+        flowStep.setCreateTime(new Date());
+        flowStep.setComponent(component);
+
+        Transformer transformer = new Transformer();
+        transformer.create(null, new ComponentContext(null, flowStep, null, new ExecutionTrackerNoOp(), null, null, null), 0);
+        transformer.start();
+        return transformer;
+    }
+
+    protected static EntityData createRow(Object... values) {
+        EntityData row = new EntityData();
+        for (int i = 0; i < values.length; i += 2) {
+            row.put((String) values[i], values[i + 1]);
+        }
+        return row;
+    }
+
+    protected static Model createInputModel() {
+        Model model = new Model();
+        ModelEntity a = new ModelEntity("a", "A");
+        a.addModelAttribute(new ModelAttribute("a1", a.getId(), "A1"));
+        a.addModelAttribute(new ModelAttribute("a2", a.getId(), "A2"));
+        model.addModelEntity(a);
+        ModelEntity b = new ModelEntity("b", "B");
+        b.addModelAttribute(new ModelAttribute("b1", b.getId(), "B1"));
+        b.addModelAttribute(new ModelAttribute("b2", b.getId(), "B2"));
+        model.addModelEntity(b);
+        return model;
+    }
+
+}
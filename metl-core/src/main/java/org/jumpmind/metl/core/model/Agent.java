@@ -57,6 +57,8 @@ public class Agent extends AbstractNamedObject {
     
     int execThreadCount = 10;
 
+    boolean useVirtualThreads;
+
     public Agent(String name) {
         this();
         this.name = name;
@@ -228,4 +230,12 @@ public class Agent extends AbstractNamedObject {
         return execThreadCount;
     }
 
+    public void setUseVirtualThreads(boolean useVirtualThreads) {
+        this.useVirtualThreads = useVirtualThreads;
+    }
+
+    public boolean isUseVirtualThreads() {
+        return useVirtualThreads;
+    }
+
 }
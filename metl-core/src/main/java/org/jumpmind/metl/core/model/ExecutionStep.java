@@ -59,6 +59,14 @@ public class ExecutionStep extends AbstractObject {
     
     private long queueDuration = 0;
 
+    private long handleP50Micros = 0;
+
+    private long handleP99Micros = 0;
+
+    private long queueWaitP99Micros = 0;
+
+    private long sendWaitP99Micros = 0;
+
     public long getHandleDuration() {
         return handleDuration;
     }
@@ -197,4 +205,36 @@ public class ExecutionStep extends AbstractObject {
         return queueDuration;
     }
 
+    public void setHandleP50Micros(long handleP50Micros) {
+        this.handleP50Micros = handleP50Micros;
+    }
+
+    public long getHandleP50Micros() {
+        return handleP50Micros;
+    }
+
+    public void setHandleP99Micros(long handleP99Micros) {
+        this.handleP99Micros = handleP99Micros;
+    }
+
+    public long getHandleP99Micros() {
+        return handleP99Micros;
+    }
+
+    public void setQueueWaitP99Micros(long queueWaitP99Micros) {
+        this.queueWaitP99Micros = queueWaitP99Micros;
+    }
+
+    public long getQueueWaitP99Micros() {
+        return queueWaitP99Micros;
+    }
+
+    public void setSendWaitP99Micros(long sendWaitP99Micros) {
+        this.sendWaitP99Micros = sendWaitP99Micros;
+    }
+
+    public long getSendWaitP99Micros() {
+        return sendWaitP99Micros;
+    }
+
 }
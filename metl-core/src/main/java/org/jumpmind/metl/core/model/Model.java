@@ -29,6 +29,7 @@ import java.util.UUID;
 
 import org.jumpmind.db.sql.Row;
 import org.jumpmind.metl.core.runtime.EntityData;
+import org.jumpmind.metl.core.runtime.EntityDataSchema;
 import org.jumpmind.metl.core.util.LogUtils;
 
 public class Model extends AbstractNamedObject implements IAuditable {
@@ -51,6 +52,10 @@ public class Model extends AbstractNamedObject implements IAuditable {
 
     boolean deleted = false;
 
+    transient volatile ModelIndex index;
+
+    transient volatile int indexVersion;
+
     public Model() {
         this.modelEntities = new ArrayList<ModelEntity>();
     }
@@ -98,65 +103,86 @@ public class Model extends AbstractNamedObject implements IAuditable {
         this.shared = shared;
     }
 
-    public ModelEntity getEntityById(String entityId) {
-        for (ModelEntity entity : modelEntities) {
-            if (entity.getId().equalsIgnoreCase(entityId)) {
-                return entity;
+    /*
+     * Lookups go through an index that is built on first use. Indexing links
+     * the entities and attributes back to this model, so adding, removing,
+     * renaming or re-identifying them through their setters, or changing the
+     * entity list through this class, drops the index. Changes made directly
+     * to the lists returned by getModelEntities() and getModelAttributes()
+     * after a lookup are not seen.
+     */
+    protected ModelIndex getIndex() {
+        ModelIndex current = index;
+        if (current == null) {
+            int version = indexVersion;
+            current = new ModelIndex(this, modelEntities);
+            if (version == indexVersion) {
+                index = current;
             }
         }
-        return null;
+        return current;
+    }
+
+    protected void invalidateIndex() {
+        indexVersion++;
+        index = null;
+    }
+
+    public ModelEntity getEntityById(String entityId) {
+        return entityId != null ? getIndex().getEntityById(entityId) : null;
     }
 
     public ModelEntity getEntityByName(String entityName) {
-        for (ModelEntity entity : modelEntities) {
-            if (entity.getName().equalsIgnoreCase(entityName)) {
-                return entity;
-            }
-        }
-        return null;
+        return entityName != null ? getIndex().getEntityByName(entityName) : null;
     }
 
     public ModelAttribute getAttributeById(String attributeId) {
-        for (ModelEntity entity : modelEntities) {
-            for (ModelAttribute modelAttribute : entity.getModelAttributes()) {
-                if (modelAttribute.getId().equalsIgnoreCase(attributeId)) {
-                    return modelAttribute;
-                }
-            }
-        }
-        return null;
+        return attributeId != null ? getIndex().getAttributeById(attributeId) : null;
     }
 
     public ModelAttribute getAttributeByName(String entityName, String attributeName) {
         ModelEntity entity = getEntityByName(entityName);
-        if (entity != null) {
-            for (ModelAttribute modelAttribute : entity.getModelAttributes()) {
-                if (modelAttribute.getName().equalsIgnoreCase(attributeName)) {
-                    return modelAttribute;
-                }
-            }
+        if (entity != null && attributeName != null) {
+            return getIndex().getAttributeByName(entity, attributeName);
         }
         return null;
     }
 
     public List<ModelAttribute> getAttributesByName(String attributeName) {
         List<ModelAttribute> attributes = new ArrayList<ModelAttribute>();
-        for (ModelEntity entity : modelEntities) {
-            for (ModelAttribute modelAttribute : entity.getModelAttributes()) {
-                if (modelAttribute.getName().equalsIgnoreCase(attributeName)) {
-                    attributes.add(modelAttribute);
-                }
-            }
+        if (attributeName != null) {
+            attributes.addAll(getIndex().getAttributesByName(attributeName));
         }
         return attributes;
     }
 
+    /**
+     * @return the attribute ordinals for rows of this model. Keys that are
+     *         not in the schema still work with {@link EntityData}, so a
+     *         schema built before the model was edited is never wrong, only
+     *         slower to look up.
+     */
+    public EntityDataSchema getEntityDataSchema() {
+        return getIndex().getEntityDataSchema();
+    }
+
     public List<ModelEntity> getModelEntities() {
         return modelEntities;
     }
 
     public void setModelEntities(List<ModelEntity> modelEntities) {
         this.modelEntities = modelEntities;
+        invalidateIndex();
+    }
+
+    public void addModelEntity(ModelEntity modelEntity) {
+        this.modelEntities.add(modelEntity);
+        invalidateIndex();
+    }
+
+    public void removeModelEntity(ModelEntity modelEntity) {
+        this.modelEntities.remove(modelEntity);
+        invalidateIndex();
     }
 
     public void setProjectVersionId(String projectVersionId) {
@@ -192,6 +218,7 @@ public class Model extends AbstractNamedObject implements IAuditable {
         for (ModelEntity modelEntity : modelEntities) {
             AbstractObjectNameBasedSorter.sort(modelEntity.getModelAttributes());
         }
+        invalidateIndex();
     }
 
     public Row toRow(EntityData data, boolean qualifyWithEntityName) {
@@ -38,6 +38,11 @@ public class ModelAttribute extends AbstractNamedObject implements IAuditable, C
     
     boolean pk;
 
+    /*
+     * The entity whose model has indexed this attribute
+     */
+    transient ModelEntity entity;
+
     public ModelAttribute() {    	
     }
     
@@ -69,6 +74,19 @@ public class ModelAttribute extends AbstractNamedObject implements IAuditable, C
 
 	public void setName(String name) {
 		this.name = name;
+		changed();
+	}
+
+	@Override
+	public void setId(String id) {
+	    super.setId(id);
+	    changed();
+	}
+
+	protected void changed() {
+	    if (entity != null) {
+	        entity.changed();
+	    }
 	}
 
 	public DataType getDataType() {
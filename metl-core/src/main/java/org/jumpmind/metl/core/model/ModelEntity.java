@@ -35,6 +35,11 @@ public class ModelEntity extends AbstractNamedObject implements IAuditable {
     
     String description;
 
+    /*
+     * The model that has indexed this entity
+     */
+    transient Model model;
+
     public ModelEntity() {
         modelAttributes = new ArrayList<ModelAttribute>();
     }
@@ -51,15 +56,30 @@ public class ModelEntity extends AbstractNamedObject implements IAuditable {
 
     public void setModelAttributes(List<ModelAttribute> modelAttributes) {
         this.modelAttributes = modelAttributes;
+        changed();
     }
 
     public void addModelAttribute(ModelAttribute modelAttribute) {
         modelAttribute.setAttributeOrder(modelAttributes.size());
         this.modelAttributes.add(modelAttribute);
+        changed();
     }
 
     public void removeModelAttribute(ModelAttribute modelAttribute) {
         this.modelAttributes.remove(modelAttribute);
+        changed();
+    }
+
+    @Override
+    public void setId(String id) {
+        super.setId(id);
+        changed();
+    }
+
+    protected void changed() {
+        if (model != null) {
+            model.invalidateIndex();
+        }
     }
 
     public ModelAttribute getModelAttributeByName(String name) {
@@ -85,6 +105,7 @@ public class ModelEntity extends AbstractNamedObject implements IAuditable {
 
     public void setName(String name) {
         this.name = name;
+        changed();
     }
     
     public String getDescription() {
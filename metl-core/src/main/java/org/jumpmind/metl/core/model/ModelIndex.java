@@ -0,0 +1,127 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jumpmind.metl.core.runtime.EntityDataSchema;
+
+/**
+ * Immutable hash index over the entities and attributes of a {@link Model}.
+ * Keys are stored as given and lower cased so that the common exact case
+ * lookup does not need to lower case the key.
+ */
+class ModelIndex {
+
+    final Map<String, ModelEntity> entitiesById = new HashMap<>();
+
+    final Map<String, ModelEntity> entitiesByName = new HashMap<>();
+
+    final Map<String, ModelAttribute> attributesById = new HashMap<>();
+
+    final Map<String, List<ModelAttribute>> attributesByName = new HashMap<>();
+
+    final Map<ModelEntity, Map<String, ModelAttribute>> attributesByEntityAndName = new IdentityHashMap<>();
+
+    final EntityDataSchema entityDataSchema;
+
+    ModelIndex(Model model, List<ModelEntity> entities) {
+        List<String> attributeIds = new ArrayList<>();
+        for (ModelEntity entity : entities) {
+            List<ModelAttribute> attributes = entity.getModelAttributes();
+            entity.model = model;
+            put(entitiesById, entity.getId(), entity);
+            put(entitiesByName, entity.getName(), entity);
+            Map<String, ModelAttribute> byName = new HashMap<>();
+            attributesByEntityAndName.put(entity, byName);
+            for (ModelAttribute attribute : attributes) {
+                attribute.entity = entity;
+                put(attributesById, attribute.getId(), attribute);
+                put(byName, attribute.getName(), attribute);
+                if (attribute.getName() != null) {
+                    String key = attribute.getName().toLowerCase();
+                    List<ModelAttribute> list = attributesByName.get(key);
+                    if (list == null) {
+                        list = new ArrayList<>(1);
+                        attributesByName.put(key, list);
+                    }
+                    list.add(attribute);
+                }
+                attributeIds.add(attribute.getId());
+            }
+        }
+        this.entityDataSchema = new EntityDataSchema(attributeIds);
+    }
+
+    /*
+     * The first object registered for a case insensitive key wins, which
+     * matches the order of the scans this index replaces
+     */
+    static <T> void put(Map<String, T> map, String key, T value) {
+        if (key != null) {
+            String lowerCaseKey = key.toLowerCase();
+            if (!map.containsKey(lowerCaseKey)) {
+                map.put(lowerCaseKey, value);
+                map.put(key, value);
+            }
+        }
+    }
+
+    static <T> T get(Map<String, T> map, String key) {
+        T value = map.get(key);
+        if (value == null) {
+            value = map.get(key.toLowerCase());
+        }
+        return value;
+    }
+
+    ModelEntity getEntityById(String entityId) {
+        return get(entitiesById, entityId);
+    }
+
+    ModelEntity getEntityByName(String entityName) {
+        return get(entitiesByName, entityName);
+    }
+
+    ModelAttribute getAttributeById(String attributeId) {
+        return get(attributesById, attributeId);
+    }
+
+    ModelAttribute getAttributeByName(ModelEntity entity, String attributeName) {
+        Map<String, ModelAttribute> byName = attributesByEntityAndName.get(entity);
+        return byName != null ? get(byName, attributeName) : null;
+    }
+
+    List<ModelAttribute> getAttributesByName(String attributeName) {
+        List<ModelAttribute> attributes = attributesByName.get(attributeName.toLowerCase());
+        return attributes != null ? attributes : Collections.<ModelAttribute> emptyList();
+    }
+
+    EntityDataSchema getEntityDataSchema() {
+        return entityDataSchema;
+    }
+
+}
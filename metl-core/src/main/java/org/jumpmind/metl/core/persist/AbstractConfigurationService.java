@@ -656,7 +656,7 @@ abstract class AbstractConfigurationService extends AbstractService
         Map<String, ModelEntity> byModelEntityId = new HashMap<String, ModelEntity>();
         for (ModelEntity entity : entities) {
             byModelEntityId.put(entity.getId(), entity);
-            model.getModelEntities().add(entity);
+            model.addModelEntity(entity);
         }
 
         for (ModelAttribute modelAttribute : attributes) {
@@ -1501,7 +1501,7 @@ abstract class AbstractConfigurationService extends AbstractService
                 newAttribute.setEntityId(newModelEntity.getId());
                 newModelEntity.addModelAttribute(newAttribute);
             }
-            newModel.getModelEntities().add(newModelEntity);
+            newModel.addModelEntity(newModelEntity);
         }
 
         for (ModelEntity modelEntity : newModel.getModelEntities()) {
@@ -23,11 +23,13 @@ package org.jumpmind.metl.core.plugin;
 import static org.apache.commons.lang.StringUtils.isNotBlank;
 import static org.jumpmind.metl.core.plugin.PluginConstants.DEFINTION_TYPE_COMPONENT;
 import static org.jumpmind.metl.core.plugin.PluginConstants.DEFINTION_TYPE_RESOURCE;
+import static org.jumpmind.metl.core.runtime.component.ComponentSettingsConstants.COPY_OUTBOUND_PAYLOAD;
 import static org.jumpmind.metl.core.runtime.component.ComponentSettingsConstants.ENABLED;
 import static org.jumpmind.metl.core.runtime.component.ComponentSettingsConstants.INBOUND_QUEUE_CAPACITY;
 import static org.jumpmind.metl.core.runtime.component.ComponentSettingsConstants.LOG_INPUT;
 import static org.jumpmind.metl.core.runtime.component.ComponentSettingsConstants.LOG_OUTPUT;
 import static org.jumpmind.metl.core.runtime.component.ComponentSettingsConstants.NOTES;
+import static org.jumpmind.metl.core.runtime.component.ComponentSettingsConstants.RUN_ON_SOURCE_THREAD;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -364,6 +366,12 @@ public class DefinitionFactory implements IDefinitionFactory {
                                     .add(new XMLSetting(LOG_OUTPUT, "Log Output", "false", Type.BOOLEAN, false));
                             xmlComponent.getSettings().getSetting()
                                     .add(new XMLSetting(INBOUND_QUEUE_CAPACITY, "Inbound Queue Capacity", "100", Type.INTEGER, true));
+                            xmlComponent.getSettings().getSetting()
+                                    .add(new XMLSetting(COPY_OUTBOUND_PAYLOAD, "Copy Outbound Payload", "true", Type.BOOLEAN, false));
+                            if (xmlComponent.isStateless()) {
+                                xmlComponent.getSettings().getSetting()
+                                        .add(new XMLSetting(RUN_ON_SOURCE_THREAD, "Run On Source Thread", "true", Type.BOOLEAN, false));
+                            }
                             xmlComponent.getSettings().getSetting().add(new XMLSetting(NOTES, "Notes", null, Type.MULTILINE_TEXT, false));
                         } else {
                             if (!classLoader.equals(componentsById.get(id).getClassLoader())) {
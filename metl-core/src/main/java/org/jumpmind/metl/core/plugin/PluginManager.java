@@ -47,6 +47,7 @@ import org.jumpmind.metl.core.model.Plugin;
 import org.jumpmind.metl.core.model.PluginRepository;
 import org.jumpmind.metl.core.persist.IConfigurationService;
 import org.jumpmind.metl.core.util.ChildFirstURLClassLoader;
+import org.jumpmind.metl.core.util.GroovyClassCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -124,6 +125,9 @@ public class PluginManager implements IPluginManager {
 
     @Override
     public void refresh() {
+        for (ClassLoader classLoader : plugins.values()) {
+            GroovyClassCache.remove(classLoader);
+        }
         plugins = new HashMap<>();
         checkForNewOutOfTheBoxVersions();
         checkForNewConfiguredVersions();
@@ -226,6 +230,10 @@ public class PluginManager implements IPluginManager {
     @Override
     public void delete(String artifactGroup, String artifactName, String artifactVersion) {
         String pluginId = toPluginId(artifactGroup, artifactName, artifactVersion);
+        ClassLoader classLoader = plugins.remove(pluginId);
+        if (classLoader != null) {
+            GroovyClassCache.remove(classLoader);
+        }
         Artifact artifact = new DefaultArtifact(pluginId);
         File file = new File(localRepositoryPath, repositorySystemSession.getLocalRepositoryManager().getPathForLocalArtifact(artifact));
         File dir = file.getParentFile();
@@ -93,6 +93,13 @@ public class XMLComponentDefinition extends XMLAbstractDefinition {
     @XmlAttribute(required = false)
     protected boolean supportsMultipleThreads;
 
+    /*
+     * A stateless component keeps nothing between messages, so it may be run
+     * on the thread of its only source step instead of its own
+     */
+    @XmlAttribute(required = false)
+    protected boolean stateless;
+
     @XmlAttribute(required = false)
     protected boolean inputOutputModelsMatch;
 
@@ -175,6 +182,14 @@ public class XMLComponentDefinition extends XMLAbstractDefinition {
         this.supportsMultipleThreads = supportsMultipleThreads;
     }
 
+    public boolean isStateless() {
+        return stateless;
+    }
+
+    public void setStateless(boolean stateless) {
+        this.stateless = stateless;
+    }
+
     public void setFlowManipulatorClassName(String flowManipulatorClassName) {
         this.flowManipulatorClassName = flowManipulatorClassName;
     }
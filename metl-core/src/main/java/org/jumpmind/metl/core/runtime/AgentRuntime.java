@@ -34,6 +34,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledFuture;
 
@@ -63,7 +64,9 @@ import org.jumpmind.metl.core.runtime.component.IComponentDeploymentListener;
 import org.jumpmind.metl.core.runtime.component.IComponentRuntimeFactory;
 import org.jumpmind.metl.core.runtime.component.Results;
 import org.jumpmind.metl.core.runtime.flow.FlowRuntime;
+import org.jumpmind.metl.core.runtime.flow.FlowRuntimePool;
 import org.jumpmind.metl.core.runtime.resource.IResourceRuntime;
+import org.jumpmind.metl.core.runtime.web.HttpRequestMapping;
 import org.jumpmind.metl.core.runtime.web.IHttpRequestMappingRegistry;
 import org.jumpmind.metl.core.util.LogUtils;
 import org.jumpmind.metl.core.util.ThreadUtils;
@@ -111,6 +114,8 @@ public class AgentRuntime {
 
     Map<AgentDeployment, List<FlowRuntime>> runningFlows = Collections.synchronizedMap(new HashMap<>());
 
+    Map<AgentDeployment, FlowRuntimePool> flowRuntimePools = Collections.synchronizedMap(new HashMap<>());
+
     public AgentRuntime(Agent agent, IConfigurationService configurationService, IExecutionService executionService,
             IComponentRuntimeFactory componentFactory, IDefinitionFactory definitionFactory,
             IHttpRequestMappingRegistry httpRequestMappingRegistry) {
@@ -162,7 +167,7 @@ public class AgentRuntime {
             }
             final String namePrefix = LogUtils.normalizeName(agentName);
 
-            this.flowStepsExecutionThreads = ThreadUtils.createUnboundedThreadPool(namePrefix);
+            this.flowStepsExecutionThreads = ThreadUtils.createUnboundedThreadPool(namePrefix, agent.isUseVirtualThreads());
 
             this.flowExecutionScheduler = new ThreadPoolTaskScheduler();
             this.flowExecutionScheduler.setDaemon(true);
@@ -381,6 +386,15 @@ public class AgentRuntime {
 
                 doComponentDeploymentEvent(deployment, (l, f, s, c) -> l.onDeploy(agent, deployment, f, s, c));
 
+                closeFlowRuntimePool(deployment);
+                if (!agent.isAutoRefresh() && httpRequestMappingRegistry != null) {
+                    for (HttpRequestMapping mapping : httpRequestMappingRegistry.getHttpRequestMappingsFor(deployment)) {
+                        if (mapping.getMaxPoolSize() > 0) {
+                            getFlowRuntimePool(deployment, mapping.getMinPoolSize(), mapping.getMaxPoolSize());
+                        }
+                    }
+                }
+
                 if (deployment.asStartType() == StartType.SCHEDULED_CRON) {
                     String cron = deployment.getStartExpression();
                     log.info("Scheduling '{}' on '{}' with a cron expression of '{}'  The next run time should be at: {}", new Object[] {
@@ -436,6 +450,56 @@ public class AgentRuntime {
 
     }
 
+    /**
+     * Like {@link #createFlowRuntime(String, AgentDeployment, Map)} but takes
+     * the runtime from a pool of runtimes for the deployment that are built
+     * ahead of time when maxPoolSize is greater than zero. Agents that auto
+     * refresh always build a new runtime so that they pick up changes.
+     */
+    public FlowRuntime createFlowRuntime(String userId, AgentDeployment deployment, Map<String, String> runtimeParameters, int minPoolSize,
+            int maxPoolSize) throws Exception {
+        FlowRuntime flowRuntime = null;
+        if (maxPoolSize > 0 && !agent.isAutoRefresh()) {
+            flowRuntime = getFlowRuntimePool(deployment, minPoolSize, maxPoolSize).checkout();
+        }
+
+        if (flowRuntime != null) {
+            flowRuntime.prepare(createExecutionId(), userId, runtimeParameters);
+            return flowRuntime;
+        } else {
+            return createFlowRuntime(userId, deployment, runtimeParameters);
+        }
+    }
+
+    protected FlowRuntimePool getFlowRuntimePool(final AgentDeployment deployment, int minPoolSize, int maxPoolSize) {
+        synchronized (flowRuntimePools) {
+            FlowRuntimePool pool = flowRuntimePools.get(deployment);
+            if (pool == null || pool.getMinSize() != minPoolSize || pool.getMaxSize() != maxPoolSize) {
+                if (pool != null) {
+                    pool.close();
+                }
+                pool = new FlowRuntimePool(deployment.getName(), minPoolSize, maxPoolSize, new Callable<FlowRuntime>() {
+                    @Override
+                    public FlowRuntime call() throws Exception {
+                        return new FlowRuntime(null, null, deployment, agent, componentRuntimeFactory, definitionFactory,
+                                flowStepsExecutionThreads, configurationService, executionService, deployedResources, null,
+                                globalSettings, null);
+                    }
+                }, flowExecutionScheduler);
+                flowRuntimePools.put(deployment, pool);
+                pool.warm();
+            }
+            return pool;
+        }
+    }
+
+    protected void closeFlowRuntimePool(AgentDeployment deployment) {
+        FlowRuntimePool pool = flowRuntimePools.remove(deployment);
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
     public Results execute(String userId, AgentDeployment deployment, Map<String, String> runtimeParameters) throws Exception {
         log.info("Executing '{}' on '{}' for now", new Object[] { deployment.getName(), agent.getName() });
         return createFlowRuntime(userId, deployment, runtimeParameters).execute();
@@ -449,6 +513,8 @@ public class AgentRuntime {
     }
 
     protected void stop(AgentDeployment deployment, DeploymentStatus nextStatus) {
+        closeFlowRuntimePool(deployment);
+
         ScheduledFuture<?> future = scheduledDeployments.get(deployment);
         if (future != null) {
             future.cancel(true);
@@ -580,6 +646,13 @@ public class AgentRuntime {
                 if (agent.getStatus().equals(AgentStatus.REQUEST_REFRESH.name())) {
                     log.info("Agent '" + agent.getName() + "' is refreshing settings");
                     globalSettings = configurationService.findGlobalSettingsAsMap();
+                    /* pooled runtimes were built with the old settings */
+                    synchronized (flowRuntimePools) {
+                        for (FlowRuntimePool pool : flowRuntimePools.values()) {
+                            pool.close();
+                        }
+                        flowRuntimePools.clear();
+                    }
                     agent.setStatus(AgentStatus.RUNNING.name());
                     configurationService.save(agent);
                     ;
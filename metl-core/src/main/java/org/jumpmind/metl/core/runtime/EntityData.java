@@ -20,10 +20,26 @@
  */
 package org.jumpmind.metl.core.runtime;
 
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
 import org.jumpmind.metl.core.util.NameValue;
 import org.jumpmind.util.LinkedCaseInsensitiveMap;
 
-public class EntityData extends LinkedCaseInsensitiveMap<Object> {
+/**
+ * A row of data keyed by attribute id. When created with an
+ * {@link EntityDataSchema} the row keeps its entries in insertion order in a
+ * few arrays that only grow with the number of attributes actually set, so a
+ * row of one entity does not pay for the rest of the model. Without a schema
+ * every key is kept in a case insensitive map.
+ */
+public class EntityData extends AbstractMap<String, Object> implements Serializable, Cloneable {
 
     private static final long serialVersionUID = 1L;
 
@@ -31,12 +47,65 @@ public class EntityData extends LinkedCaseInsensitiveMap<Object> {
         ADD, CHG, DEL
     };
 
+    /*
+     * Rows with up to this many entries find an attribute by scanning.  Wider
+     * rows build an index of positions by ordinal.
+     */
+    static final int LINEAR_SCAN_LIMIT = 8;
+
+    static final int INITIAL_CAPACITY = 16;
+
     ChangeType changeType = ChangeType.ADD;
 
+    /*
+     * Set when the arrays of this row are also used by another row created
+     * by share(). They are copied before this row is changed.
+     */
+    transient boolean copyOnWrite;
+
+    EntityDataSchema schema;
+
+    /*
+     * The schema ordinal of each entry in insertion order, or -1 for a key
+     * that is not part of the schema
+     */
+    int[] ordinals;
+
+    /*
+     * The keys of entries that are not part of the schema, by position.  Only
+     * created once such a key is put.
+     */
+    String[] keys;
+
+    Object[] values;
+
+    int size;
+
+    /*
+     * Open addressing table of position + 1 by ordinal.  Only built for rows
+     * with more than LINEAR_SCAN_LIMIT entries.
+     */
+    int[] positions;
+
+    LinkedCaseInsensitiveMap<Object> map;
+
     public EntityData() {
+        this.map = new LinkedCaseInsensitiveMap<Object>();
+    }
+
+    public EntityData(EntityDataSchema schema) {
+        if (schema != null && schema.size() > 0) {
+            int capacity = Math.min(schema.size(), INITIAL_CAPACITY);
+            this.schema = schema;
+            this.ordinals = new int[capacity];
+            this.values = new Object[capacity];
+        } else {
+            this.map = new LinkedCaseInsensitiveMap<Object>();
+        }
     }
 
     public EntityData(NameValue... nameValues) {
+        this();
         if (nameValues != null) {
             for (NameValue nameValue : nameValues) {
                 put(nameValue.getName(), nameValue.getValue());
@@ -48,6 +117,41 @@ public class EntityData extends LinkedCaseInsensitiveMap<Object> {
         return (EntityData) this.clone();
     }
 
+    /**
+     * Returns a row with the same entries that shares this row's storage
+     * until either row is changed. Whichever row is changed first copies the
+     * storage, so a change to one is never seen by the other. Rows without a
+     * schema are copied straight away.
+     */
+    public EntityData share() {
+        if (map != null) {
+            return copy();
+        } else {
+            try {
+                EntityData shared = (EntityData) super.clone();
+                shared.copyOnWrite = true;
+                this.copyOnWrite = true;
+                return shared;
+            } catch (CloneNotSupportedException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    protected void beforeWrite() {
+        if (copyOnWrite) {
+            ordinals = ordinals.clone();
+            values = values.clone();
+            if (keys != null) {
+                keys = keys.clone();
+            }
+            if (positions != null) {
+                positions = positions.clone();
+            }
+            copyOnWrite = false;
+        }
+    }
+
     public ChangeType getChangeType() {
         return changeType;
     }
@@ -56,4 +160,343 @@ public class EntityData extends LinkedCaseInsensitiveMap<Object> {
         this.changeType = changeType;
     }
 
+    public EntityDataSchema getSchema() {
+        return schema;
+    }
+
+    protected int indexOf(Object key) {
+        if (key instanceof String) {
+            int ordinal = schema.getOrdinal((String) key);
+            return ordinal >= 0 ? indexOfOrdinal(ordinal) : indexOfKey((String) key);
+        } else {
+            return -1;
+        }
+    }
+
+    protected int indexOfOrdinal(int ordinal) {
+        if (positions != null) {
+            int mask = positions.length - 1;
+            for (int slot = ordinal & mask; positions[slot] != 0; slot = (slot + 1) & mask) {
+                int index = positions[slot] - 1;
+                if (ordinals[index] == ordinal) {
+                    return index;
+                }
+            }
+        } else {
+            for (int i = 0; i < size; i++) {
+                if (ordinals[i] == ordinal) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    protected int indexOfKey(String key) {
+        if (keys != null) {
+            for (int i = 0; i < size; i++) {
+                if (ordinals[i] < 0 && keys[i].equalsIgnoreCase(key)) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    protected void append(int ordinal, String key, Object value) {
+        beforeWrite();
+        if (size == values.length) {
+            int capacity = values.length * 2;
+            ordinals = Arrays.copyOf(ordinals, capacity);
+            values = Arrays.copyOf(values, capacity);
+            if (keys != null) {
+                keys = Arrays.copyOf(keys, capacity);
+            }
+        }
+        if (key != null) {
+            if (keys == null) {
+                keys = new String[values.length];
+            }
+            keys[size] = key;
+        }
+        ordinals[size] = ordinal;
+        values[size] = value;
+        size++;
+        if (ordinal >= 0) {
+            if (positions == null ? size > LINEAR_SCAN_LIMIT : size * 2 > positions.length) {
+                indexPositions();
+            } else if (positions != null) {
+                indexPosition(size - 1);
+            }
+        }
+    }
+
+    protected void removeAt(int index) {
+        beforeWrite();
+        int moved = size - index - 1;
+        if (moved > 0) {
+            System.arraycopy(ordinals, index + 1, ordinals, index, moved);
+            System.arraycopy(values, index + 1, values, index, moved);
+            if (keys != null) {
+                System.arraycopy(keys, index + 1, keys, index, moved);
+            }
+        }
+        size--;
+        values[size] = null;
+        if (keys != null) {
+            keys[size] = null;
+        }
+        if (positions != null) {
+            indexPositions();
+        }
+    }
+
+    protected void indexPositions() {
+        if (size > LINEAR_SCAN_LIMIT) {
+            positions = new int[Integer.highestOneBit(size * 2) << 1];
+            for (int i = 0; i < size; i++) {
+                if (ordinals[i] >= 0) {
+                    indexPosition(i);
+                }
+            }
+        } else {
+            positions = null;
+        }
+    }
+
+    protected void indexPosition(int index) {
+        int mask = positions.length - 1;
+        int slot = ordinals[index] & mask;
+        while (positions[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        positions[slot] = index + 1;
+    }
+
+    @Override
+    public Object get(Object key) {
+        if (map != null) {
+            return map.get(key);
+        } else {
+            int index = indexOf(key);
+            return index >= 0 ? values[index] : null;
+        }
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        if (map != null) {
+            return map.containsKey(key);
+        } else {
+            return indexOf(key) >= 0;
+        }
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        if (map != null) {
+            return map.put(key, value);
+        } else {
+            int ordinal = schema.getOrdinal(key);
+            int index = ordinal >= 0 ? indexOfOrdinal(ordinal) : indexOfKey(key);
+            if (index >= 0) {
+                beforeWrite();
+                Object old = values[index];
+                values[index] = value;
+                return old;
+            } else {
+                append(ordinal, ordinal >= 0 ? null : key, value);
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Stores the value of an attribute of this row's schema, skipping the
+     * attribute id lookup. The ordinal must come from {@link #getSchema()}.
+     */
+    public void putOrdinal(int ordinal, Object value) {
+        int index = indexOfOrdinal(ordinal);
+        if (index >= 0) {
+            beforeWrite();
+            values[index] = value;
+        } else {
+            append(ordinal, null, value);
+        }
+    }
+
+    @Override
+    public Object remove(Object key) {
+        if (map != null) {
+            return map.remove(key);
+        } else {
+            int index = indexOf(key);
+            if (index >= 0) {
+                Object old = values[index];
+                removeAt(index);
+                return old;
+            } else {
+                return null;
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        return map != null ? map.size() : size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public void clear() {
+        if (map != null) {
+            map.clear();
+        } else {
+            beforeWrite();
+            Arrays.fill(values, 0, size, null);
+            if (keys != null) {
+                Arrays.fill(keys, 0, size, null);
+            }
+            size = 0;
+            positions = null;
+        }
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        if (map != null) {
+            return map.entrySet();
+        } else {
+            return new AbstractSet<Map.Entry<String, Object>>() {
+                @Override
+                public Iterator<Map.Entry<String, Object>> iterator() {
+                    return new EntryIterator();
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+
+                @Override
+                public void clear() {
+                    EntityData.this.clear();
+                }
+            };
+        }
+    }
+
+    @Override
+    public Object clone() {
+        try {
+            EntityData copy = (EntityData) super.clone();
+            copy.copyOnWrite = false;
+            if (map != null) {
+                copy.map = new LinkedCaseInsensitiveMap<Object>();
+                for (Map.Entry<String, Object> entry : map.entrySet()) {
+                    copy.map.put(entry.getKey(), entry.getValue());
+                }
+            } else {
+                copy.ordinals = ordinals.clone();
+                copy.values = values.clone();
+                if (keys != null) {
+                    copy.keys = keys.clone();
+                }
+                if (positions != null) {
+                    copy.positions = positions.clone();
+                }
+            }
+            return copy;
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    class EntryIterator implements Iterator<Map.Entry<String, Object>> {
+
+        int next;
+
+        int current = -1;
+
+        @Override
+        public boolean hasNext() {
+            return next < size;
+        }
+
+        @Override
+        public Map.Entry<String, Object> next() {
+            if (next < size) {
+                current = next++;
+                return new SlotEntry(current);
+            } else {
+                throw new NoSuchElementException();
+            }
+        }
+
+        @Override
+        public void remove() {
+            if (current >= 0) {
+                removeAt(current);
+                next = current;
+                current = -1;
+            } else {
+                throw new IllegalStateException();
+            }
+        }
+    }
+
+    class SlotEntry implements Map.Entry<String, Object> {
+
+        final int index;
+
+        SlotEntry(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public String getKey() {
+            int ordinal = ordinals[index];
+            return ordinal >= 0 ? schema.getAttributeId(ordinal) : keys[index];
+        }
+
+        @Override
+        public Object getValue() {
+            return values[index];
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            beforeWrite();
+            Object old = values[index];
+            values[index] = value;
+            return old;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            Object key = getKey();
+            Object value = getValue();
+            return key.equals(e.getKey()) && (value == null ? e.getValue() == null : value.equals(e.getValue()));
+        }
+
+        @Override
+        public int hashCode() {
+            Object value = getValue();
+            return getKey().hashCode() ^ (value == null ? 0 : value.hashCode());
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+    }
+
 }
@@ -0,0 +1,245 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.Map;
+
+import org.jumpmind.metl.core.runtime.EntityData.ChangeType;
+
+/**
+ * Compact binary form of {@link EntityData} used when rows are spilled to
+ * disk. Attributes that are part of the schema are written as their ordinal
+ * and common value types are written without Java serialization. A stream of
+ * rows is terminated by {@link #writeEnd(DataOutputStream)}.
+ */
+public class EntityDataCodec {
+
+    static final byte ROW = 1;
+    static final byte END = 0;
+
+    static final byte NULL = 0;
+    static final byte STRING = 1;
+    static final byte BIG_DECIMAL = 2;
+    static final byte LONG = 3;
+    static final byte INTEGER = 4;
+    static final byte DOUBLE = 5;
+    static final byte BOOLEAN = 6;
+    static final byte TIMESTAMP = 7;
+    static final byte DATE = 8;
+    static final byte SQL_DATE = 9;
+    static final byte SQL_TIME = 10;
+    static final byte BYTES = 11;
+    static final byte BIG_INTEGER = 12;
+    static final byte SERIALIZED = 13;
+
+    static final ChangeType[] CHANGE_TYPES = ChangeType.values();
+
+    final EntityDataSchema schema;
+
+    public EntityDataCodec(EntityDataSchema schema) {
+        this.schema = schema;
+    }
+
+    public void write(DataOutputStream out, EntityData data) throws IOException {
+        out.writeByte(ROW);
+        out.writeByte(data.getChangeType() != null ? data.getChangeType().ordinal() : -1);
+        writeVarInt(out, data.size());
+        for (Map.Entry<String, Object> entry : data.entrySet()) {
+            String attributeId = entry.getKey();
+            int ordinal = schema != null ? schema.getOrdinal(attributeId) : -1;
+            writeVarInt(out, ordinal + 1);
+            if (ordinal < 0) {
+                writeString(out, attributeId);
+            }
+            writeValue(out, entry.getValue());
+        }
+    }
+
+    public void writeEnd(DataOutputStream out) throws IOException {
+        out.writeByte(END);
+    }
+
+    /**
+     * @return the next row or null when the end of the stream was reached
+     */
+    public EntityData read(DataInputStream in) throws IOException {
+        if (in.readByte() == END) {
+            return null;
+        }
+        EntityData data = new EntityData(schema);
+        int changeType = in.readByte();
+        data.setChangeType(changeType >= 0 ? CHANGE_TYPES[changeType] : null);
+        int size = readVarInt(in);
+        for (int i = 0; i < size; i++) {
+            int ordinal = readVarInt(in) - 1;
+            String attributeId = ordinal >= 0 ? schema.getAttributeId(ordinal) : readString(in);
+            data.put(attributeId, readValue(in));
+        }
+        return data;
+    }
+
+    protected void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof String) {
+            out.writeByte(STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof BigDecimal) {
+            BigDecimal decimal = (BigDecimal) value;
+            out.writeByte(BIG_DECIMAL);
+            writeVarInt(out, decimal.scale());
+            writeBytes(out, decimal.unscaledValue().toByteArray());
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(INTEGER);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof java.sql.Timestamp) {
+            java.sql.Timestamp timestamp = (java.sql.Timestamp) value;
+            out.writeByte(TIMESTAMP);
+            out.writeLong(timestamp.getTime());
+            out.writeInt(timestamp.getNanos());
+        } else if (value instanceof java.sql.Date) {
+            out.writeByte(SQL_DATE);
+            out.writeLong(((Date) value).getTime());
+        } else if (value instanceof java.sql.Time) {
+            out.writeByte(SQL_TIME);
+            out.writeLong(((Date) value).getTime());
+        } else if (value.getClass().equals(Date.class)) {
+            out.writeByte(DATE);
+            out.writeLong(((Date) value).getTime());
+        } else if (value instanceof byte[]) {
+            out.writeByte(BYTES);
+            writeBytes(out, (byte[]) value);
+        } else if (value instanceof BigInteger) {
+            out.writeByte(BIG_INTEGER);
+            writeBytes(out, ((BigInteger) value).toByteArray());
+        } else {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream objectOut = new ObjectOutputStream(bytes)) {
+                objectOut.writeObject(value);
+            }
+            out.writeByte(SERIALIZED);
+            writeBytes(out, bytes.toByteArray());
+        }
+    }
+
+    protected Object readValue(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case NULL:
+                return null;
+            case STRING:
+                return readString(in);
+            case BIG_DECIMAL:
+                int scale = readVarInt(in);
+                return new BigDecimal(new BigInteger(readBytes(in)), scale);
+            case LONG:
+                return in.readLong();
+            case INTEGER:
+                return in.readInt();
+            case DOUBLE:
+                return in.readDouble();
+            case BOOLEAN:
+                return in.readBoolean();
+            case TIMESTAMP:
+                java.sql.Timestamp timestamp = new java.sql.Timestamp(in.readLong());
+                timestamp.setNanos(in.readInt());
+                return timestamp;
+            case SQL_DATE:
+                return new java.sql.Date(in.readLong());
+            case SQL_TIME:
+                return new java.sql.Time(in.readLong());
+            case DATE:
+                return new Date(in.readLong());
+            case BYTES:
+                return readBytes(in);
+            case BIG_INTEGER:
+                return new BigInteger(readBytes(in));
+            case SERIALIZED:
+                try (ObjectInputStream objectIn = new ObjectInputStream(new ByteArrayInputStream(readBytes(in)))) {
+                    return objectIn.readObject();
+                } catch (ClassNotFoundException e) {
+                    throw new IOException(e);
+                }
+            default:
+                throw new IOException("Unexpected value type " + type);
+        }
+    }
+
+    protected void writeString(DataOutputStream out, String value) throws IOException {
+        writeBytes(out, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    protected String readString(DataInputStream in) throws IOException {
+        return new String(readBytes(in), StandardCharsets.UTF_8);
+    }
+
+    protected void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    protected byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[readVarInt(in)];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    protected static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    protected static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+}
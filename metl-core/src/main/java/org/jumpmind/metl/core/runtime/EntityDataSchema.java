@@ -0,0 +1,98 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shared, immutable description of the attribute slots of a schema backed
+ * {@link EntityData}. An attribute's ordinal is its position in the model.
+ */
+public class EntityDataSchema implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    final String[] attributeIds;
+
+    final Map<String, Integer> ordinals;
+
+    /*
+     * Keys that did not match exactly, with the ordinal they matched after
+     * lower casing or -1, so that repeated lookups do not lower case again.
+     * Bounded because keys outside the schema can come from the data.
+     */
+    transient volatile Map<String, Integer> aliases;
+
+    static final int MAX_ALIASES = 1024;
+
+    public EntityDataSchema(List<String> attributeIds) {
+        this.attributeIds = attributeIds.toArray(new String[attributeIds.size()]);
+        this.ordinals = new HashMap<>(attributeIds.size() * 4);
+        for (int i = 0; i < this.attributeIds.length; i++) {
+            String attributeId = this.attributeIds[i];
+            ordinals.putIfAbsent(attributeId, i);
+            ordinals.putIfAbsent(attributeId.toLowerCase(), i);
+        }
+    }
+
+    /**
+     * @return the slot of the attribute or -1 if the attribute is not part of
+     *         this schema. Lookups are case insensitive like the rest of
+     *         {@link EntityData}.
+     */
+    public int getOrdinal(String attributeId) {
+        if (attributeId == null) {
+            return -1;
+        }
+        Integer ordinal = ordinals.get(attributeId);
+        if (ordinal == null) {
+            Map<String, Integer> aliases = this.aliases;
+            if (aliases == null) {
+                aliases = new ConcurrentHashMap<>();
+                this.aliases = aliases;
+            }
+            ordinal = aliases.get(attributeId);
+            if (ordinal == null) {
+                ordinal = ordinals.get(attributeId.toLowerCase());
+                if (ordinal == null) {
+                    ordinal = -1;
+                }
+                if (aliases.size() < MAX_ALIASES) {
+                    aliases.put(attributeId, ordinal);
+                }
+            }
+        }
+        return ordinal;
+    }
+
+    public String getAttributeId(int ordinal) {
+        return attributeIds[ordinal];
+    }
+
+    public int size() {
+        return attributeIds.length;
+    }
+
+}
@@ -36,6 +36,7 @@ import org.jumpmind.metl.core.model.ExecutionStepLog;
 import org.jumpmind.metl.core.persist.IExecutionService;
 import org.jumpmind.metl.core.runtime.component.ComponentContext;
 import org.jumpmind.metl.core.runtime.component.ComponentStatistics;
+import org.jumpmind.metl.core.runtime.component.LatencyHistogram;
 import org.jumpmind.metl.core.runtime.flow.AsyncRecorder;
 import org.jumpmind.util.AppUtils;
 
@@ -172,6 +173,7 @@ public class ExecutionTrackerRecorder extends ExecutionTrackerLogger {
                 step.setPayloadReceived(stats.getNumberInboundPayload(threadNumber));
                 step.setHandleDuration(stats.getTimeSpentInHandle(threadNumber));
                 step.setQueueDuration(stats.getTimeSpentWaiting(threadNumber));                
+                setLatencies(step, stats, threadNumber);
                 lastStatUpdate.put(step, new Date());
             }
             step.setLastUpdateTime(new Date());
@@ -196,6 +198,7 @@ public class ExecutionTrackerRecorder extends ExecutionTrackerLogger {
                 step.setPayloadReceived(stats.getNumberInboundPayload(threadNumber));
                 step.setHandleDuration(stats.getTimeSpentInHandle(threadNumber));
                 step.setQueueDuration(stats.getTimeSpentWaiting(threadNumber));
+                setLatencies(step, stats, threadNumber);
                 lastStatUpdate.put(step, new Date());
             }
             step.setLastUpdateTime(new Date());
@@ -229,6 +232,7 @@ public class ExecutionTrackerRecorder extends ExecutionTrackerLogger {
             step.setPayloadReceived(stats.getNumberInboundPayload(threadNumber));
             step.setHandleDuration(stats.getTimeSpentInHandle(threadNumber));
             step.setQueueDuration(stats.getTimeSpentWaiting(threadNumber));            
+            setLatencies(step, stats, threadNumber);
             lastStatUpdate.put(step, new Date());
         }
         step.setLastUpdateTime(new Date());
@@ -244,6 +248,14 @@ public class ExecutionTrackerRecorder extends ExecutionTrackerLogger {
         }
     }
 
+    private void setLatencies(ExecutionStep step, ComponentStatistics stats, int threadNumber) {
+        LatencyHistogram handleTimes = stats.getHandleTimes(threadNumber);
+        step.setHandleP50Micros(handleTimes.getPercentileMicros(50));
+        step.setHandleP99Micros(handleTimes.getPercentileMicros(99));
+        step.setQueueWaitP99Micros(stats.getQueueWaits(threadNumber).getPercentileMicros(99));
+        step.setSendWaitP99Micros(stats.getSendWaits(threadNumber).getPercentileMicros(99));
+    }
+
     private void setToErrorStatus(ExecutionStep step) {
         step.setStatus(ExecutionStatus.ERROR.name());
         step.setLastUpdateTime(new Date());
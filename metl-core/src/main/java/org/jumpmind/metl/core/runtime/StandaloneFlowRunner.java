@@ -46,6 +46,7 @@ import org.jumpmind.metl.core.model.Execution;
 import org.jumpmind.metl.core.model.ExecutionStatus;
 import org.jumpmind.metl.core.model.ExecutionStep;
 import org.jumpmind.metl.core.model.ExecutionStepLog;
+import org.jumpmind.metl.core.model.Flow;
 import org.jumpmind.metl.core.model.FlowName;
 import org.jumpmind.metl.core.model.Project;
 import org.jumpmind.metl.core.persist.ConfigurationSqlService;
@@ -127,11 +128,15 @@ public class StandaloneFlowRunner {
     }
 
     public String runFlow(FlowName flow, boolean waitFor) throws Exception {
+        return runFlow(configurationService.findFlow(flow.getId()), waitFor);
+    }
+
+    public String runFlow(Flow flow, boolean waitFor) throws Exception {
         BrokerService broker = new BrokerService();
         broker.setPersistent(false);
         try {
             broker.start();
-            AgentDeployment deployment = agentRuntime.deploy(configurationService.findFlow(flow.getId()), new HashMap<>());
+            AgentDeployment deployment = agentRuntime.deploy(flow, new HashMap<>());
             FlowRuntime runtime = agentRuntime.createFlowRuntime("standalone", deployment, new HashMap<>());
             runtime.execute();
             return runtime.getExecutionId();
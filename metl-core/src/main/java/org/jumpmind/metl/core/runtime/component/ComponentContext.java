@@ -93,6 +93,10 @@ public class ComponentContext {
         return executionTracker;
     }
 
+    public void setExecutionTracker(IExecutionTracker executionTracker) {
+        this.executionTracker = executionTracker;
+    }
+
     public Map<String, IResourceRuntime> getDeployedResources() {
         return deployedResources;
     }
@@ -105,6 +109,10 @@ public class ComponentContext {
         return flowParameters;
     }
 
+    public void setFlowParameters(Map<String, String> flowParameters) {
+        this.flowParameters = Collections.synchronizedMap(new HashMap<>(flowParameters));
+    }
+
     public void setComponentStatistics(ComponentStatistics componentStatistics) {
         this.componentStatistics = componentStatistics;
     }
@@ -6,6 +6,10 @@ final public class ComponentSettingsConstants {
     }
     
     public final static String INBOUND_QUEUE_CAPACITY = "inbound.queue.capacity";     
+
+    public final static String COPY_OUTBOUND_PAYLOAD = "copy.outbound.payload";
+
+    public final static String RUN_ON_SOURCE_THREAD = "run.on.source.thread";
     
     public final static String ENABLED = "enabled";
 
@@ -20,128 +20,192 @@
  */
 package org.jumpmind.metl.core.runtime.component;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Counters for a flow step, kept per component thread number. Each thread
+ * number gets its own slot of {@link LongAdder}s so that increments are
+ * neither boxed nor lost when several threads update the same step.
+ */
 public class ComponentStatistics {
 
-    private Map<Integer, Integer> numberInboundMessages = new ConcurrentHashMap<>();
-    private Map<Integer, Integer> numberOutboundMessages = new ConcurrentHashMap<>();
-    private Map<Integer, Integer> numberEntitiesProcessed = new ConcurrentHashMap<>();
-    private Map<Integer, Integer> numberInboundPayload = new ConcurrentHashMap<>();
-    private Map<Integer, Integer> numberOutboundPayload = new ConcurrentHashMap<>();
-    private Map<Integer, Long> timeSpentInHandle = new ConcurrentHashMap<>();
-    private Map<Integer, Long> timeSpentWaiting = new ConcurrentHashMap<>();
-    
-    
+    private volatile ThreadStatistics[] threads = new ThreadStatistics[2];
+
+    protected ThreadStatistics thread(int thread) {
+        ThreadStatistics[] current = threads;
+        if (thread >= 0 && thread < current.length) {
+            ThreadStatistics statistics = current[thread];
+            if (statistics != null) {
+                return statistics;
+            }
+        }
+        return createThread(thread);
+    }
+
+    private synchronized ThreadStatistics createThread(int thread) {
+        ThreadStatistics[] current = threads;
+        if (thread < current.length && current[thread] != null) {
+            return current[thread];
+        }
+        ThreadStatistics[] grown = new ThreadStatistics[Math.max(current.length, thread + 1)];
+        System.arraycopy(current, 0, grown, 0, current.length);
+        ThreadStatistics statistics = new ThreadStatistics();
+        grown[thread] = statistics;
+        threads = grown;
+        return statistics;
+    }
+
     public long getTimeSpentInHandle(int thread) {
-        Long number = timeSpentInHandle.get(thread);
-        return number != null ? number : 0;
+        return TimeUnit.NANOSECONDS.toMillis(thread(thread).timeSpentInHandle.sum());
     }
     
     public long getTimeSpentWaiting(int thread) {
-        Long number = timeSpentWaiting.get(thread);
-        return number != null ? number : 0;
+        return TimeUnit.NANOSECONDS.toMillis(thread(thread).timeSpentWaiting.sum());
     }
     
     public void incrementTimeSpentInHandle(int thread, long amount) {
         if (amount > 0) {
-            Long number = timeSpentInHandle.get(thread);
-            if (number != null) {
-                number = number + amount;
-            } else {
-                number = amount;
-            }
-            timeSpentInHandle.put(thread, number);
+            thread(thread).timeSpentInHandle.add(TimeUnit.MILLISECONDS.toNanos(amount));
         }
     }
 
     public void incrementTimeSpentWaiting(int thread, long amount) {
         if (amount > 0) {
-            Long number = timeSpentWaiting.get(thread);
-            if (number != null) {
-                number = number + amount;
-            } else {
-                number = amount;
-            }
-            timeSpentWaiting.put(thread, number);
+            thread(thread).timeSpentWaiting.add(TimeUnit.MILLISECONDS.toNanos(amount));
+        }
+    }
+
+    /**
+     * Add a handle duration to the total and to the handle time histogram
+     */
+    public void recordHandleTime(int thread, long nanos) {
+        ThreadStatistics statistics = thread(thread);
+        if (nanos > 0) {
+            statistics.timeSpentInHandle.add(nanos);
+        }
+        statistics.handleTimes.record(nanos);
+    }
+
+    /**
+     * Add the time spent blocked on full downstream queues while sending a
+     * message to the total and to the send wait histogram
+     */
+    public void recordSendWait(int thread, long nanos) {
+        ThreadStatistics statistics = thread(thread);
+        if (nanos > 0) {
+            statistics.timeSpentWaiting.add(nanos);
         }
+        statistics.sendWaits.record(nanos);
+    }
+
+    /**
+     * Add the time a message waited on the step's inbound queue before it
+     * was handled to the queue wait histogram
+     */
+    public void recordQueueWait(int thread, long nanos) {
+        thread(thread).queueWaits.record(nanos);
+    }
+
+    public LatencyHistogram getHandleTimes(int thread) {
+        return thread(thread).handleTimes;
+    }
+
+    public LatencyHistogram getQueueWaits(int thread) {
+        return thread(thread).queueWaits;
+    }
+
+    public LatencyHistogram getSendWaits(int thread) {
+        return thread(thread).sendWaits;
     }
 
     public int getNumberInboundMessages(int thread) {
-        Integer number = numberInboundMessages.get(thread);
-        return number != null ? number : 0;
+        return thread(thread).numberInboundMessages.intValue();
     }
 
     public void setNumberInboundMessages(int thread, int numberInboundMessages) {
-        this.numberInboundMessages.put(thread, numberInboundMessages);
+        set(thread(thread).numberInboundMessages, numberInboundMessages);
     }
 
     public void incrementInboundMessages(int thread) {
-        this.numberInboundMessages.put(thread, getNumberInboundMessages(thread)+1);
+        thread(thread).numberInboundMessages.increment();
     }
 
     public void setNumberOutboundMessages(int thread, int numberOutboundMessages) {
-        this.numberOutboundMessages.put(thread, numberOutboundMessages);
+        set(thread(thread).numberOutboundMessages, numberOutboundMessages);
     }
 
     public int getNumberOutboundMessages(int thread) {
-        Integer number = numberOutboundMessages.get(thread);
-        return number != null ? number : 0;
+        return thread(thread).numberOutboundMessages.intValue();
     }
 
     public void incrementOutboundMessages(int thread) {
-        this.numberOutboundMessages.put(thread, getNumberOutboundMessages(thread)+1);
+        thread(thread).numberOutboundMessages.increment();
     }
 
     public void setNumberEntitiesProcessed(int thread, int numberEntitiesProcessed) {
-        this.numberEntitiesProcessed.put(thread, getNumberEntitiesProcessed(thread)+1);
+        set(thread(thread).numberEntitiesProcessed, numberEntitiesProcessed);
     }
 
     public int getNumberEntitiesProcessed(int thread) {
-        Integer number = numberEntitiesProcessed.get(thread);
-        return number != null ? number : 0;
+        return thread(thread).numberEntitiesProcessed.intValue();
     }
 
     public void incrementNumberEntitiesProcessed(int thread) {
-        this.numberEntitiesProcessed.put(thread, getNumberEntitiesProcessed(thread)+1);
+        thread(thread).numberEntitiesProcessed.increment();
     }
 
     public void incrementNumberEntitiesProcessed(int thread, int count) {
-        this.numberEntitiesProcessed.put(thread, getNumberEntitiesProcessed(thread)+count);
+        thread(thread).numberEntitiesProcessed.add(count);
     }
     
     public void setNumberInboundPayload(int thread, int numberInboundPayload) {
-        this.numberInboundPayload.put(thread, getNumberInboundPayload(thread)+1);
+        set(thread(thread).numberInboundPayload, numberInboundPayload);
     }
 
     public int getNumberInboundPayload(int thread) {
-        Integer number = numberInboundPayload.get(thread);
-        return number != null ? number : 0;
+        return thread(thread).numberInboundPayload.intValue();
     }
 
     public void incrementNumberInboundPayload(int thread) {
-        this.numberInboundPayload.put(thread, getNumberInboundPayload(thread)+1);
+        thread(thread).numberInboundPayload.increment();
     }
 
     public void incrementNumberInboundPayload(int thread, int count) {
-        this.numberInboundPayload.put(thread, getNumberInboundPayload(thread)+count);
+        thread(thread).numberInboundPayload.add(count);
     }
     
     public void setNumberOutboundPayload(int thread, int numberOutboundPayload) {
-        this.numberOutboundPayload.put(thread, getNumberOutboundPayload(thread)+1);
+        set(thread(thread).numberOutboundPayload, numberOutboundPayload);
     }
 
     public int getNumberOutboundPayload(int thread) {
-        Integer number = numberOutboundPayload.get(thread);
-        return number != null ? number : 0;
+        return thread(thread).numberOutboundPayload.intValue();
     }
 
     public void incrementNumberOutboundPayload(int thread) {
-        this.numberOutboundPayload.put(thread, getNumberOutboundPayload(thread)+1);
+        thread(thread).numberOutboundPayload.increment();
     }
 
     public void incrementNumberOutboundPayload(int thread, int count) {
-        this.numberOutboundPayload.put(thread, getNumberOutboundPayload(thread)+count);
+        thread(thread).numberOutboundPayload.add(count);
+    }
+
+    private static void set(LongAdder adder, long value) {
+        adder.reset();
+        adder.add(value);
+    }
+
+    static class ThreadStatistics {
+        final LongAdder numberInboundMessages = new LongAdder();
+        final LongAdder numberOutboundMessages = new LongAdder();
+        final LongAdder numberEntitiesProcessed = new LongAdder();
+        final LongAdder numberInboundPayload = new LongAdder();
+        final LongAdder numberOutboundPayload = new LongAdder();
+        final LongAdder timeSpentInHandle = new LongAdder();
+        final LongAdder timeSpentWaiting = new LongAdder();
+        final LatencyHistogram handleTimes = new LatencyHistogram();
+        final LatencyHistogram queueWaits = new LatencyHistogram();
+        final LatencyHistogram sendWaits = new LatencyHistogram();
     }
 }
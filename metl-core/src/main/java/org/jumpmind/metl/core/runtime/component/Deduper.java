@@ -20,9 +20,22 @@
  */
 package org.jumpmind.metl.core.runtime.component;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 import org.jumpmind.metl.core.model.Component;
 import org.jumpmind.metl.core.model.ComponentAttributeSetting;
@@ -30,9 +43,11 @@ import org.jumpmind.metl.core.model.Model;
 import org.jumpmind.metl.core.model.ModelAttribute;
 import org.jumpmind.metl.core.model.ModelEntity;
 import org.jumpmind.metl.core.runtime.EntityData;
+import org.jumpmind.metl.core.runtime.EntityDataCodec;
 import org.jumpmind.metl.core.runtime.EntityDataMessage;
 import org.jumpmind.metl.core.runtime.Message;
 import org.jumpmind.metl.core.runtime.MisconfiguredException;
+import org.jumpmind.metl.core.runtime.component.DigestKeySet.Digest;
 import org.jumpmind.metl.core.runtime.flow.ISendMessageCallback;
 import org.jumpmind.properties.TypedProperties;
 
@@ -51,6 +66,12 @@ public class Deduper extends AbstractComponentRuntime {
     public final static String PRESERVE_RECORD = "preserve.record";
 
     public final static String ATTRIBUTE_DEDUPE_ENABLED = "dedupe.enabled";
+
+    public final static String STREAM_FIRST_RECORDS = "stream.first.records";
+
+    public final static String MAX_KEYS_IN_MEMORY = "max.keys.in.memory";
+
+    public final static String BLOOM_FILTER_EXPECTED_KEYS = "bloom.filter.expected.keys";
     
     int rowsPerMessage = 1000;
     
@@ -62,7 +83,23 @@ public class Deduper extends AbstractComponentRuntime {
     
     String preserveRecord = PRESERVE_FIRST;
 
-    LinkedHashMap<String, EntityData> deduped = new LinkedHashMap<String, EntityData>();
+    boolean streamFirstRecords;
+
+    int maxKeysInMemory;
+
+    LastRecordMap lastRecords;
+
+    DigestKeySet firstKeys;
+
+    List<EntityData> firstRecords = new ArrayList<EntityData>();
+
+    File firstRecordsFile;
+
+    DataOutputStream firstRecordsOut;
+
+    EntityDataCodec codec;
+
+    MessageDigest messageDigest;
 
     @Override
     public void start() {
@@ -70,6 +107,8 @@ public class Deduper extends AbstractComponentRuntime {
         rowsPerMessage = getComponent().getInt(ROWS_PER_MESSAGE, rowsPerMessage);
         dedupeType = properties.get(DEDUPE_TYPE);
         preserveRecord = properties.get(PRESERVE_RECORD);
+        streamFirstRecords = properties.is(STREAM_FIRST_RECORDS, false);
+        maxKeysInMemory = properties.getInt(MAX_KEYS_IN_MEMORY, 0);
         Model inputModel = this.getComponent().getInputModel();
         if (inputModel == null) {
             throw new MisconfiguredException("The input model is not set and it is required");
@@ -96,6 +135,23 @@ public class Deduper extends AbstractComponentRuntime {
 	    				"At least one attribute must be specified when Dedupe Type of 'ATTRIBUTE' is selected.");
 	        }	
         }
+
+        firstKeys = new DigestKeySet(maxKeysInMemory, properties.getInt(BLOOM_FILTER_EXPECTED_KEYS, 0));
+        codec = new EntityDataCodec(inputModel.getEntityDataSchema());
+        lastRecords = new LastRecordMap(maxKeysInMemory, codec);
+        try {
+            messageDigest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void stop() {
+        firstKeys.clear();
+        lastRecords.clear();
+        deleteFirstRecordsFile();
+        super.stop();
     }
     
     @Override
@@ -107,46 +163,190 @@ public class Deduper extends AbstractComponentRuntime {
     public void handle(Message inputMessage, ISendMessageCallback callback, boolean unitOfWorkBoundaryReached) {
         if (inputMessage instanceof EntityDataMessage) {
             ArrayList<EntityData> payload = ((EntityDataMessage)inputMessage).getPayload();
+            ArrayList<EntityData> streamed = new ArrayList<EntityData>();
             for (EntityData entityData : payload) {
-                String key = "";
+                Digest key = digest(entityData);
 
-                if (DEDUPE_ATTRIBUTE.equals(dedupeType)) {
-                	for (String attributeId : dedupeKeyAttributeIdList) {
-                		key += entityData.get(attributeId);
-                	}
-                } else {
-                	key = entityData.toString();
-                }
-                
-                if (!deduped.containsKey(key)) {
+                if (PRESERVE_LAST.equals(preserveRecord)) {
+                    /* when records can be spilled the key set tells whether a key is new */
+                    if (lastRecords.put(key, entityData) && (maxKeysInMemory <= 0 || firstKeys.add(key))) {
+                        getComponentStatistics().incrementNumberEntitiesProcessed(threadNumber);
+                    }
+                } else if (firstKeys.add(key)) {
                     getComponentStatistics().incrementNumberEntitiesProcessed(threadNumber);
-                    deduped.put(key, entityData);
-                } else {
-                    // else it exists, check if we need to save the first or last value and replace if necessary
-                	if (PRESERVE_LAST.equals(preserveRecord)) {
-                		deduped.put(key, entityData);
-                	}
+                    if (streamFirstRecords) {
+                        streamed.add(entityData);
+                        if (streamed.size() >= rowsPerMessage) {
+                            callback.sendEntityDataMessage(null, streamed);
+                            streamed = new ArrayList<EntityData>();
+                        }
+                    } else {
+                        addFirstRecord(entityData);
+                    }
                 }
             }
+
+            if (streamed.size() > 0) {
+                callback.sendEntityDataMessage(null, streamed);
+            }
         }
 
         if (unitOfWorkBoundaryReached) {
-            if (deduped.size() > 0) {
-                int count = 0;
-                ArrayList<EntityData> payload = new ArrayList<EntityData>(rowsPerMessage);
-                for (EntityData data : deduped.values()) {
-                    if (count >= rowsPerMessage) {
+            if (PRESERVE_LAST.equals(preserveRecord)) {
+                sendLastRecords(callback);
+                firstKeys.clear();
+            } else {
+                sendFirstRecords(callback);
+                firstKeys.clear();
+            }
+        }
+    }
+
+    /*
+     * Fixed width digest of the dedupe key. Each value is length prefixed so
+     * that adjacent values cannot run together.
+     */
+    protected Digest digest(EntityData entityData) {
+        if (DEDUPE_ATTRIBUTE.equals(dedupeType)) {
+            for (String attributeId : dedupeKeyAttributeIdList) {
+                update(entityData.get(attributeId));
+            }
+        } else {
+            for (Map.Entry<String, Object> entry : entityData.entrySet()) {
+                update(entry.getKey());
+                update(entry.getValue());
+            }
+        }
+        ByteBuffer bytes = ByteBuffer.wrap(messageDigest.digest());
+        return new Digest(bytes.getLong(), bytes.getLong());
+    }
+
+    private void update(Object value) {
+        if (value == null) {
+            messageDigest.update((byte) 0);
+        } else {
+            byte[] bytes = value.toString().getBytes(StandardCharsets.UTF_8);
+            messageDigest.update((byte) 1);
+            messageDigest.update((byte) (bytes.length >>> 24));
+            messageDigest.update((byte) (bytes.length >>> 16));
+            messageDigest.update((byte) (bytes.length >>> 8));
+            messageDigest.update((byte) bytes.length);
+            messageDigest.update(bytes);
+        }
+    }
+
+    /*
+     * Unique records are held until the unit of work completes. When the key
+     * set is bounded the records are written to a temporary file instead of
+     * being held on the heap.
+     */
+    protected void addFirstRecord(EntityData entityData) {
+        firstRecords.add(entityData);
+        if (maxKeysInMemory > 0 && firstRecords.size() >= rowsPerMessage) {
+            try {
+                if (firstRecordsOut == null) {
+                    firstRecordsFile = File.createTempFile("metl-dedupe-", ".rows");
+                    firstRecordsFile.deleteOnExit();
+                    firstRecordsOut = new DataOutputStream(
+                            new BufferedOutputStream(new FileOutputStream(firstRecordsFile), 64 * 1024));
+                }
+                for (EntityData record : firstRecords) {
+                    codec.write(firstRecordsOut, record);
+                }
+                firstRecords.clear();
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to write deduped records to " + firstRecordsFile, e);
+            }
+        }
+    }
+
+    protected void sendFirstRecords(ISendMessageCallback callback) {
+        if (firstRecordsOut != null) {
+            try {
+                codec.writeEnd(firstRecordsOut);
+                firstRecordsOut.close();
+                firstRecordsOut = null;
+                try (DataInputStream in = new DataInputStream(
+                        new BufferedInputStream(new FileInputStream(firstRecordsFile), 64 * 1024))) {
+                    ArrayList<EntityData> payload = new ArrayList<EntityData>(rowsPerMessage);
+                    EntityData record = null;
+                    while ((record = codec.read(in)) != null) {
+                        payload.add(record);
+                        if (payload.size() >= rowsPerMessage) {
+                            callback.sendEntityDataMessage(null, payload);
+                            payload = new ArrayList<EntityData>(rowsPerMessage);
+                        }
+                    }
+                    if (payload.size() > 0) {
                         callback.sendEntityDataMessage(null, payload);
-                        payload = new ArrayList<EntityData>();
-                        count = 0;
                     }
-                    payload.add(data);
-                    count++;
                 }
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to read deduped records from " + firstRecordsFile, e);
+            } finally {
+                deleteFirstRecordsFile();
+            }
+        }
+        sendRecords(firstRecords, callback);
+        firstRecords.clear();
+    }
 
-                deduped.clear();
+    protected void sendLastRecords(final ISendMessageCallback callback) {
+        RecordSender sender = new RecordSender(callback);
+        lastRecords.read(sender);
+        sender.flush();
+    }
+
+    protected void sendRecords(Iterable<EntityData> records, ISendMessageCallback callback) {
+        ArrayList<EntityData> payload = new ArrayList<EntityData>(rowsPerMessage);
+        for (EntityData data : records) {
+            if (payload.size() >= rowsPerMessage) {
+                callback.sendEntityDataMessage(null, payload);
+                payload = new ArrayList<EntityData>();
+            }
+            payload.add(data);
+        }
+        if (payload.size() > 0) {
+            callback.sendEntityDataMessage(null, payload);
+        }
+    }
+
+    protected void deleteFirstRecordsFile() {
+        if (firstRecordsOut != null) {
+            try {
+                firstRecordsOut.close();
+            } catch (IOException e) {
+            }
+            firstRecordsOut = null;
+        }
+        if (firstRecordsFile != null) {
+            firstRecordsFile.delete();
+            firstRecordsFile = null;
+        }
+    }
+
+    class RecordSender implements Consumer<EntityData> {
+
+        ISendMessageCallback callback;
+
+        ArrayList<EntityData> payload = new ArrayList<EntityData>(rowsPerMessage);
+
+        RecordSender(ISendMessageCallback callback) {
+            this.callback = callback;
+        }
+
+        @Override
+        public void accept(EntityData record) {
+            if (payload.size() >= rowsPerMessage) {
+                flush();
+            }
+            payload.add(record);
+        }
 
+        void flush() {
+            if (payload.size() > 0) {
                 callback.sendEntityDataMessage(null, payload);
+                payload = new ArrayList<EntityData>(rowsPerMessage);
             }
         }
     }
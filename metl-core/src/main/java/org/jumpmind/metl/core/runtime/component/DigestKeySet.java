@@ -0,0 +1,345 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * An exact set of 128 bit key digests with bounded heap use. Keys are held in
+ * memory until the configured limit is reached and are then written as a
+ * sorted run file that is memory mapped and binary searched. A new run is
+ * merged with the runs before it while they are not larger than it, so every
+ * key is rewritten a logarithmic number of times and there are only a
+ * logarithmic number of runs. Each run keeps a small Bloom filter so a lookup
+ * searches only the runs that might hold the key. An optional Bloom filter over
+ * all keys avoids looking at the runs for keys that have not been seen.
+ */
+public class DigestKeySet {
+
+    static final int RECORD_SIZE = 16;
+
+    static final int RECORDS_PER_SEGMENT = Integer.MAX_VALUE / RECORD_SIZE;
+
+    final int maxKeysInMemory;
+
+    final BloomFilter bloomFilter;
+
+    Set<Digest> keys = new HashSet<>();
+
+    List<SortedRun> runs = new ArrayList<>();
+
+    /**
+     * @param maxKeysInMemory
+     *            the number of keys to hold on the heap before they are
+     *            spilled to disk or 0 to keep every key in memory
+     * @param expectedKeys
+     *            the number of keys to size the Bloom filter for or 0 to run
+     *            without a Bloom filter
+     */
+    public DigestKeySet(int maxKeysInMemory, int expectedKeys) {
+        this.maxKeysInMemory = maxKeysInMemory;
+        this.bloomFilter = expectedKeys > 0 ? new BloomFilter(expectedKeys) : null;
+    }
+
+    /**
+     * @return true if the digest had not been added before
+     */
+    public boolean add(Digest digest) {
+        if (keys.contains(digest)) {
+            return false;
+        }
+        if (runs.size() > 0 && (bloomFilter == null || bloomFilter.mightContain(digest))) {
+            for (SortedRun run : runs) {
+                if (run.filter.mightContain(digest) && run.contains(digest)) {
+                    return false;
+                }
+            }
+        }
+        keys.add(digest);
+        if (bloomFilter != null) {
+            bloomFilter.put(digest);
+        }
+        if (maxKeysInMemory > 0 && keys.size() >= maxKeysInMemory) {
+            spill();
+        }
+        return true;
+    }
+
+    public long size() {
+        long size = keys.size();
+        for (SortedRun run : runs) {
+            size += run.count;
+        }
+        return size;
+    }
+
+    public int getRunCount() {
+        return runs.size();
+    }
+
+    public void clear() {
+        keys.clear();
+        for (SortedRun run : runs) {
+            run.delete();
+        }
+        runs.clear();
+        if (bloomFilter != null) {
+            bloomFilter.clear();
+        }
+    }
+
+    protected void spill() {
+        Digest[] sorted = keys.toArray(new Digest[keys.size()]);
+        Arrays.sort(sorted);
+        try {
+            File file = createRunFile();
+            BloomFilter filter = new BloomFilter(sorted.length);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024))) {
+                for (Digest digest : sorted) {
+                    out.writeLong(digest.hi);
+                    out.writeLong(digest.lo);
+                    filter.put(digest.hi, digest.lo);
+                }
+            }
+            runs.add(new SortedRun(file, sorted.length, filter));
+            keys = new HashSet<>();
+            int first = runs.size() - 1;
+            long mergedCount = runs.get(first).count;
+            while (first > 0 && runs.get(first - 1).count <= mergedCount) {
+                first--;
+                mergedCount += runs.get(first).count;
+            }
+            if (first < runs.size() - 1) {
+                mergeRuns(first);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to spill dedupe keys to disk", e);
+        }
+    }
+
+    /**
+     * Merge the runs from the given index to the last one into a single run.
+     * The runs hold distinct keys so the merged count is the sum of theirs.
+     */
+    protected void mergeRuns(int first) throws IOException {
+        List<SortedRun> merging = new ArrayList<>(runs.subList(first, runs.size()));
+        File file = createRunFile();
+        long count = 0;
+        for (SortedRun run : merging) {
+            count += run.count;
+        }
+        BloomFilter filter = new BloomFilter(count);
+        long[] positions = new long[merging.size()];
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024))) {
+            while (true) {
+                int next = -1;
+                for (int i = 0; i < positions.length; i++) {
+                    SortedRun run = merging.get(i);
+                    if (positions[i] < run.count && (next < 0 || run.compare(positions[i], merging.get(next), positions[next]) < 0)) {
+                        next = i;
+                    }
+                }
+                if (next < 0) {
+                    break;
+                }
+                SortedRun run = merging.get(next);
+                long hi = run.hi(positions[next]);
+                long lo = run.lo(positions[next]);
+                out.writeLong(hi);
+                out.writeLong(lo);
+                filter.put(hi, lo);
+                positions[next]++;
+            }
+        }
+        for (SortedRun run : merging) {
+            run.delete();
+        }
+        runs.subList(first, runs.size()).clear();
+        runs.add(new SortedRun(file, count, filter));
+    }
+
+    protected File createRunFile() throws IOException {
+        File file = File.createTempFile("metl-dedupe-", ".keys");
+        file.deleteOnExit();
+        return file;
+    }
+
+    public static final class Digest implements Comparable<Digest> {
+
+        final long hi;
+
+        final long lo;
+
+        public Digest(long hi, long lo) {
+            this.hi = hi;
+            this.lo = lo;
+        }
+
+        @Override
+        public int compareTo(Digest o) {
+            int result = Long.compare(hi, o.hi);
+            return result != 0 ? result : Long.compare(lo, o.lo);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj instanceof Digest) {
+                Digest o = (Digest) obj;
+                return hi == o.hi && lo == o.lo;
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (hi ^ (hi >>> 32));
+        }
+    }
+
+    static class SortedRun {
+
+        File file;
+
+        long count;
+
+        MappedByteBuffer[] segments;
+
+        BloomFilter filter;
+
+        SortedRun(File file, long count, BloomFilter filter) throws IOException {
+            this.file = file;
+            this.count = count;
+            this.filter = filter;
+            int segmentCount = (int) ((count + RECORDS_PER_SEGMENT - 1) / RECORDS_PER_SEGMENT);
+            this.segments = new MappedByteBuffer[segmentCount];
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+                for (int i = 0; i < segmentCount; i++) {
+                    long start = (long) i * RECORDS_PER_SEGMENT;
+                    long records = Math.min(RECORDS_PER_SEGMENT, count - start);
+                    segments[i] = channel.map(MapMode.READ_ONLY, start * RECORD_SIZE, records * RECORD_SIZE);
+                }
+            }
+        }
+
+        long hi(long index) {
+            return segments[(int) (index / RECORDS_PER_SEGMENT)].getLong((int) (index % RECORDS_PER_SEGMENT) * RECORD_SIZE);
+        }
+
+        long lo(long index) {
+            return segments[(int) (index / RECORDS_PER_SEGMENT)].getLong((int) (index % RECORDS_PER_SEGMENT) * RECORD_SIZE + 8);
+        }
+
+        int compare(long index, SortedRun other, long otherIndex) {
+            int result = Long.compare(hi(index), other.hi(otherIndex));
+            return result != 0 ? result : Long.compare(lo(index), other.lo(otherIndex));
+        }
+
+        boolean contains(Digest digest) {
+            long low = 0;
+            long high = count - 1;
+            while (low <= high) {
+                long mid = (low + high) >>> 1;
+                int result = Long.compare(hi(mid), digest.hi);
+                if (result == 0) {
+                    result = Long.compare(lo(mid), digest.lo);
+                }
+                if (result < 0) {
+                    low = mid + 1;
+                } else if (result > 0) {
+                    high = mid - 1;
+                } else {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void delete() {
+            segments = null;
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * Bloom filter sized for a one percent false positive rate. The digests
+     * are already well mixed so the probe positions are derived from them by
+     * double hashing.
+     */
+    static class BloomFilter {
+
+        final long[] bits;
+
+        final long bitCount;
+
+        final int hashCount = 7;
+
+        BloomFilter(long expectedKeys) {
+            long requiredBits = Math.max(64, (long) Math.ceil(expectedKeys * 9.6));
+            this.bits = new long[(int) Math.min(Integer.MAX_VALUE - 8, (requiredBits + 63) / 64)];
+            this.bitCount = (long) bits.length * 64;
+        }
+
+        void put(Digest digest) {
+            put(digest.hi, digest.lo);
+        }
+
+        void put(long hi, long lo) {
+            for (int i = 0; i < hashCount; i++) {
+                long bit = index(hi, lo, i);
+                bits[(int) (bit >>> 6)] |= 1l << bit;
+            }
+        }
+
+        boolean mightContain(Digest digest) {
+            for (int i = 0; i < hashCount; i++) {
+                long bit = index(digest.hi, digest.lo, i);
+                if ((bits[(int) (bit >>> 6)] & (1l << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        long index(long hi, long lo, int i) {
+            return ((hi + i * lo) & Long.MAX_VALUE) % bitCount;
+        }
+
+        void clear() {
+            Arrays.fill(bits, 0);
+        }
+    }
+
+}
@@ -0,0 +1,302 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+import org.jumpmind.metl.core.runtime.EntityData;
+import org.jumpmind.metl.core.runtime.EntityDataCodec;
+import org.jumpmind.metl.core.runtime.component.DigestKeySet.Digest;
+
+/**
+ * Keeps the last record put for each key digest, in the order the digests
+ * were first put, with bounded heap use. Records are held in memory until the
+ * configured limit is reached and are then written as a run sorted by digest.
+ * When the records are read the runs are merged, keeping the first sequence
+ * number and the last record of each digest, and the merged records are
+ * sorted back into sequence order in runs of the same size.
+ */
+public class LastRecordMap {
+
+    static final Comparator<Entry> BY_SEQUENCE = (a, b) -> Long.compare(a.sequence, b.sequence);
+
+    final int maxRecordsInMemory;
+
+    final EntityDataCodec codec;
+
+    LinkedHashMap<Digest, Entry> records = new LinkedHashMap<>();
+
+    List<File> runs = new ArrayList<>();
+
+    long sequence;
+
+    /**
+     * @param maxRecordsInMemory
+     *            the number of records to hold on the heap before they are
+     *            spilled to disk or 0 to keep every record in memory
+     */
+    public LastRecordMap(int maxRecordsInMemory, EntityDataCodec codec) {
+        this.maxRecordsInMemory = maxRecordsInMemory;
+        this.codec = codec;
+    }
+
+    /**
+     * @return true if the digest was not already held in memory. Unless
+     *         records have been spilled, that means it had not been put
+     *         before.
+     */
+    public boolean put(Digest digest, EntityData record) {
+        Entry entry = records.get(digest);
+        if (entry != null) {
+            entry.record = record;
+            return false;
+        }
+        records.put(digest, new Entry(digest, sequence++, record));
+        if (maxRecordsInMemory > 0 && records.size() >= maxRecordsInMemory) {
+            spill();
+        }
+        return true;
+    }
+
+    public int getRunCount() {
+        return runs.size();
+    }
+
+    /**
+     * Passes the last record of each digest to the consumer in the order the
+     * digests were first put and then clears the map
+     */
+    public void read(Consumer<EntityData> consumer) {
+        try {
+            if (runs.isEmpty()) {
+                for (Entry entry : records.values()) {
+                    consumer.accept(entry.record);
+                }
+            } else {
+                if (records.size() > 0) {
+                    spill();
+                }
+                runs.addAll(mergeByDigest());
+                readBySequence(consumer);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read deduped records from disk", e);
+        } finally {
+            clear();
+        }
+    }
+
+    public void clear() {
+        records.clear();
+        for (File run : runs) {
+            delete(run);
+        }
+        runs.clear();
+        sequence = 0;
+    }
+
+    protected void spill() {
+        List<Entry> sorted = new ArrayList<>(records.values());
+        Collections.sort(sorted, (a, b) -> a.digest.compareTo(b.digest));
+        try {
+            runs.add(writeRun(sorted));
+            records = new LinkedHashMap<>();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to spill deduped records to disk", e);
+        }
+    }
+
+    /*
+     * Merges the runs sorted by digest into runs sorted by sequence. A digest
+     * found in more than one run keeps the sequence of the earliest run and
+     * the record of the latest one.
+     */
+    protected List<File> mergeByDigest() throws IOException {
+        List<File> sequenceRuns = new ArrayList<>();
+        List<RunReader> readers = open(runs);
+        try {
+            PriorityQueue<RunReader> queue = new PriorityQueue<>(Math.max(1, readers.size()), (a, b) -> {
+                int result = a.entry.digest.compareTo(b.entry.digest);
+                return result != 0 ? result : Integer.compare(a.index, b.index);
+            });
+            addIfNotAtEnd(queue, readers);
+            List<Entry> buffer = new ArrayList<>();
+            while (!queue.isEmpty()) {
+                RunReader reader = queue.poll();
+                Entry merged = reader.entry;
+                advance(queue, reader);
+                while (!queue.isEmpty() && queue.peek().entry.digest.equals(merged.digest)) {
+                    RunReader later = queue.poll();
+                    merged.record = later.entry.record;
+                    advance(queue, later);
+                }
+                buffer.add(merged);
+                if (maxRecordsInMemory > 0 && buffer.size() >= maxRecordsInMemory) {
+                    Collections.sort(buffer, BY_SEQUENCE);
+                    sequenceRuns.add(writeRun(buffer));
+                    buffer.clear();
+                }
+            }
+            if (buffer.size() > 0) {
+                Collections.sort(buffer, BY_SEQUENCE);
+                sequenceRuns.add(writeRun(buffer));
+            }
+        } finally {
+            close(readers);
+            for (File run : runs) {
+                delete(run);
+            }
+            runs.clear();
+        }
+        return sequenceRuns;
+    }
+
+    protected void readBySequence(Consumer<EntityData> consumer) throws IOException {
+        List<RunReader> readers = open(runs);
+        try {
+            PriorityQueue<RunReader> queue = new PriorityQueue<>(Math.max(1, readers.size()),
+                    (a, b) -> BY_SEQUENCE.compare(a.entry, b.entry));
+            addIfNotAtEnd(queue, readers);
+            while (!queue.isEmpty()) {
+                RunReader reader = queue.poll();
+                consumer.accept(reader.entry.record);
+                advance(queue, reader);
+            }
+        } finally {
+            close(readers);
+        }
+    }
+
+    protected File writeRun(List<Entry> entries) throws IOException {
+        File file = File.createTempFile("metl-dedupe-", ".rows");
+        file.deleteOnExit();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024))) {
+            for (Entry entry : entries) {
+                out.writeBoolean(true);
+                out.writeLong(entry.digest.hi);
+                out.writeLong(entry.digest.lo);
+                out.writeLong(entry.sequence);
+                codec.write(out, entry.record);
+            }
+            out.writeBoolean(false);
+        }
+        return file;
+    }
+
+    protected List<RunReader> open(List<File> files) throws IOException {
+        List<RunReader> readers = new ArrayList<>(files.size());
+        try {
+            for (File file : files) {
+                readers.add(new RunReader(readers.size(), file));
+            }
+        } catch (IOException e) {
+            close(readers);
+            throw e;
+        }
+        return readers;
+    }
+
+    private void addIfNotAtEnd(PriorityQueue<RunReader> queue, List<RunReader> readers) throws IOException {
+        for (RunReader reader : readers) {
+            if (reader.next()) {
+                queue.add(reader);
+            }
+        }
+    }
+
+    private void advance(PriorityQueue<RunReader> queue, RunReader reader) throws IOException {
+        if (reader.next()) {
+            queue.add(reader);
+        }
+    }
+
+    private void close(List<RunReader> readers) {
+        for (RunReader reader : readers) {
+            try {
+                reader.in.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    private void delete(File file) {
+        if (!file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    static class Entry {
+
+        final Digest digest;
+
+        final long sequence;
+
+        EntityData record;
+
+        Entry(Digest digest, long sequence, EntityData record) {
+            this.digest = digest;
+            this.sequence = sequence;
+            this.record = record;
+        }
+    }
+
+    class RunReader {
+
+        final int index;
+
+        final DataInputStream in;
+
+        Entry entry;
+
+        RunReader(int index, File file) throws IOException {
+            this.index = index;
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+        }
+
+        boolean next() throws IOException {
+            if (in.readBoolean()) {
+                Digest digest = new Digest(in.readLong(), in.readLong());
+                long sequence = in.readLong();
+                entry = new Entry(digest, sequence, codec.read(in));
+                return true;
+            } else {
+                entry = null;
+                return false;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,105 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed size histogram of durations using power of two microsecond buckets.
+ * Bucket 0 holds durations under a microsecond and bucket n holds durations
+ * from 2^(n-1) up to 2^n microseconds. Percentiles are reported as the upper
+ * bound of the bucket they fall in, so they are accurate to within a factor
+ * of two.
+ */
+public class LatencyHistogram {
+
+    static final int BUCKETS = 48;
+
+    final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    final AtomicLong count = new AtomicLong();
+
+    final AtomicLong maxNanos = new AtomicLong();
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        long micros = nanos / 1000;
+        int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        counts.incrementAndGet(bucket);
+        count.incrementAndGet();
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMaxMicros() {
+        return maxNanos.get() / 1000;
+    }
+
+    /**
+     * @param percentile
+     *            a value between 0 and 100
+     * @return the upper bound in microseconds of the bucket that holds the
+     *         requested percentile or 0 when nothing has been recorded
+     */
+    public long getPercentileMicros(double percentile) {
+        long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(total * percentile / 100d);
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += counts.get(bucket);
+            if (seen >= target && seen > 0) {
+                return Math.min(bucket == 0 ? 1 : 1l << bucket, Math.max(1, getMaxMicros()));
+            }
+        }
+        return getMaxMicros();
+    }
+
+    public void merge(LatencyHistogram other) {
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            counts.addAndGet(bucket, other.counts.get(bucket));
+        }
+        count.addAndGet(other.count.get());
+        long otherMax = other.maxNanos.get();
+        long max = maxNanos.get();
+        while (otherMax > max && !maxNanos.compareAndSet(max, otherMax)) {
+            max = maxNanos.get();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d,p50=%dus,p90=%dus,p99=%dus,max=%dus", getCount(), getPercentileMicros(50),
+                getPercentileMicros(90), getPercentileMicros(99), getMaxMicros());
+    }
+
+}
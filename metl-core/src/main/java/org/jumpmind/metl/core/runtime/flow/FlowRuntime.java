@@ -57,6 +57,7 @@ import org.jumpmind.metl.core.plugin.IDefinitionFactory;
 import org.jumpmind.metl.core.plugin.XMLComponentDefinition;
 import org.jumpmind.metl.core.runtime.ControlMessage;
 import org.jumpmind.metl.core.runtime.ExecutionTrackerLogger;
+import org.jumpmind.metl.core.runtime.ExecutionTrackerNoOp;
 import org.jumpmind.metl.core.runtime.ExecutionTrackerRecorder;
 import org.jumpmind.metl.core.runtime.IExecutionTracker;
 import org.jumpmind.metl.core.runtime.component.AbstractComponentRuntime;
@@ -154,18 +155,9 @@ public class FlowRuntime {
         this.deployedResources = deployedResources;
         this.globalSettings = globalSettings;
         
-        this.flowParameters = new LinkedHashMap<String, String>();         
-        if (runtimeParameters != null) {
-            this.flowParameters.putAll(runtimeParameters);
-        }
-        getFlowParameters(this.flowParameters, agent, deployment);
-        
-        if (threadService != null && executionService != null) {
-            this.executionTracker = new ExecutionTrackerRecorder(agent, deployment, threadService,
-                    executionService, userId, flowParameters.toString());
-        } else {
-            this.executionTracker = new ExecutionTrackerLogger(deployment);
-        }
+        this.flowParameters = createFlowParameters(runtimeParameters);
+        /* a runtime built without an execution id waits to be prepared */
+        this.executionTracker = executionId != null ? createExecutionTracker(userId) : new ExecutionTrackerNoOp();
         this.stepRuntimes = new HashMap<String, StepRuntime>();
 
         manipulatedFlow = manipulateFlow(deployment.getFlow());
@@ -211,10 +203,99 @@ public class FlowRuntime {
             }
         }
 
+        fuseLinearSteps();
+
         /* start up each step runtime */
         manipulatedFlow.calculateApproximateOrder();        
     }
 
+    /**
+     * Gives a runtime that was built ahead of time, see
+     * {@link FlowRuntimePool}, the id, user and parameters of the execution
+     * it is about to run. Such a runtime is built without an execution id and
+     * does not record anything until it is prepared.
+     */
+    public void prepare(String executionId, String userId, Map<String, String> runtimeParameters) {
+        this.executionId = executionId;
+        this.flowParameters = createFlowParameters(runtimeParameters);
+        this.executionTracker = createExecutionTracker(userId);
+        for (StepRuntime stepRuntime : stepRuntimes.values()) {
+            ComponentContext context = stepRuntime.getComponentContext();
+            context.setExecutionTracker(executionTracker);
+            context.setFlowParameters(flowParameters);
+        }
+    }
+
+    protected Map<String, String> createFlowParameters(Map<String, String> runtimeParameters) {
+        Map<String, String> flowParameters = new LinkedHashMap<String, String>();
+        if (runtimeParameters != null) {
+            flowParameters.putAll(runtimeParameters);
+        }
+        return getFlowParameters(flowParameters, agent, deployment);
+    }
+
+    protected IExecutionTracker createExecutionTracker(String userId) {
+        if (threadService != null && executionService != null) {
+            return new ExecutionTrackerRecorder(agent, deployment, threadService,
+                    executionService, userId, flowParameters.toString());
+        } else {
+            return new ExecutionTrackerLogger(deployment);
+        }
+    }
+
+    /*
+     * A stateless, single threaded step whose only source has no other target
+     * is fused into that source. It runs on the source's thread and is called
+     * directly instead of through a queue. It keeps its own statistics and
+     * execution step records.
+     */
+    protected void fuseLinearSteps() {
+        List<StepRuntime> candidates = new ArrayList<StepRuntime>();
+        for (StepRuntime stepRuntime : stepRuntimes.values()) {
+            if (canFuse(stepRuntime)) {
+                candidates.add(stepRuntime);
+            }
+        }
+
+        for (StepRuntime stepRuntime : candidates) {
+            stepRuntime.setFused(true);
+            log.debug("Running {} on the thread of {}", stepRuntime, stepRuntime.getSourceStepRuntimes().get(0));
+        }
+    }
+
+    /*
+     * A step is never fused when its source can be reached from it. The
+     * source's thread would then block inside the step on a queue that only
+     * the source itself could drain.
+     */
+    protected boolean canFuse(StepRuntime stepRuntime) {
+        List<StepRuntime> sources = stepRuntime.getSourceStepRuntimes();
+        XMLComponentDefinition definition = stepRuntime.getComponentDefintion();
+        if (sources.size() == 1 && definition != null && definition.isStateless() && stepRuntime.getThreadCount() == 1
+                && stepRuntime.getComponentContext().getFlowStep().getComponent().getBoolean(AbstractComponentRuntime.RUN_ON_SOURCE_THREAD,
+                        true)) {
+            StepRuntime source = sources.get(0);
+            return source.getThreadCount() == 1 && source.getTargetStepRuntimes().size() == 1 && !isDownstream(source, stepRuntime);
+        } else {
+            return false;
+        }
+    }
+
+    protected boolean isDownstream(StepRuntime stepRuntime, StepRuntime from) {
+        Set<StepRuntime> visited = new HashSet<StepRuntime>();
+        List<StepRuntime> toVisit = new ArrayList<StepRuntime>();
+        toVisit.add(from);
+        while (toVisit.size() > 0) {
+            StepRuntime next = toVisit.remove(toVisit.size() - 1);
+            if (next == stepRuntime) {
+                return true;
+            } else if (visited.add(next) && next.getTargetStepRuntimes() != null) {
+                toVisit.addAll(next.getTargetStepRuntimes());
+            }
+        }
+        return false;
+    }
+
     public AgentDeployment getDeployment() {
         return deployment;
     }
@@ -300,10 +381,12 @@ public class FlowRuntime {
             }
         }
 
-        /* each step is started as a thread */
+        /* each step that is not fused into its source is started as a thread */
         for (StepRuntime stepRuntime : stepRuntimes.values()) {
             stepRuntime.startRunning();
-            threadService.execute(stepRuntime);
+            if (!stepRuntime.isFused()) {
+                threadService.execute(stepRuntime);
+            }
         }
 
         ControlMessage startMessage = new ControlMessage();
@@ -0,0 +1,134 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.flow;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps flow runtimes for one deployment built ahead of time so that a
+ * request does not pay for cloning and manipulating the flow and for creating
+ * its step and component runtimes. A runtime holds the state of the execution
+ * it was used for, so it is only used once. Every checkout schedules a
+ * replacement. The pool warms up to its minimum size and grows under load to
+ * at most its maximum size, counting runtimes that are still being built.
+ */
+public class FlowRuntimePool {
+
+    final Logger log = LoggerFactory.getLogger(getClass());
+
+    final String name;
+
+    final int minSize;
+
+    final int maxSize;
+
+    final Callable<FlowRuntime> factory;
+
+    final Executor executor;
+
+    final BlockingQueue<FlowRuntime> idle;
+
+    final AtomicInteger building = new AtomicInteger();
+
+    volatile boolean closed;
+
+    public FlowRuntimePool(String name, int minSize, int maxSize, Callable<FlowRuntime> factory, Executor executor) {
+        this.name = name;
+        this.maxSize = Math.max(1, maxSize);
+        this.minSize = Math.min(Math.max(0, minSize), this.maxSize);
+        this.factory = factory;
+        this.executor = executor;
+        this.idle = new LinkedBlockingQueue<FlowRuntime>(this.maxSize);
+    }
+
+    /**
+     * Build runtimes in the background until the pool holds its minimum
+     */
+    public void warm() {
+        while (!closed && idle.size() + building.get() < minSize) {
+            build();
+        }
+    }
+
+    /**
+     * @return a runtime that is ready to be prepared and executed or null if
+     *         none is ready yet. Either way a replacement is scheduled.
+     */
+    public FlowRuntime checkout() {
+        FlowRuntime flowRuntime = idle.poll();
+        if (!closed && idle.size() + building.get() < maxSize) {
+            build();
+        }
+        warm();
+        return flowRuntime;
+    }
+
+    public void close() {
+        closed = true;
+        idle.clear();
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    protected void build() {
+        building.incrementAndGet();
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        long ts = System.currentTimeMillis();
+                        FlowRuntime flowRuntime = factory.call();
+                        if (!closed) {
+                            idle.offer(flowRuntime);
+                        }
+                        log.debug("Built a flow runtime for '{}' in {}ms.  {} are ready", name, System.currentTimeMillis() - ts, idle.size());
+                    } catch (Exception e) {
+                        log.warn("Failed to build a flow runtime for '" + name + "'", e);
+                    } finally {
+                        building.decrementAndGet();
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            building.decrementAndGet();
+            throw e;
+        }
+    }
+
+}
@@ -32,10 +32,13 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang.exception.ExceptionUtils;
@@ -62,7 +65,6 @@ import org.jumpmind.metl.core.runtime.component.IComponentRuntime;
 import org.jumpmind.metl.core.runtime.component.IComponentRuntimeFactory;
 import org.jumpmind.metl.core.util.LogUtils;
 import org.jumpmind.metl.core.util.ThreadUtils;
-import org.jumpmind.util.AppUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -76,17 +78,36 @@ public class StepRuntime implements Runnable {
 
     public static final String UNIT_OF_WORK_FLOW = "Flow";
 
-    protected BlockingQueue<Message> inQueue;
+    /*
+     * The dispatch thread is woken up as soon as a message is queued. This
+     * timeout is only a safety net so that state changes made by other
+     * threads (running, cancelled) are noticed.
+     */
+    static final long DISPATCH_WAKEUP_TIMEOUT_MS = 500;
+
+    /* passed instead of an enqueue time for messages that a fused step handles without queueing */
+    static final long NOT_QUEUED = Long.MIN_VALUE;
+
+    protected BlockingQueue<QueuedMessage> inQueue;
 
     protected Executor componentRuntimeExecutor;
+
+    /*
+     * Guards activeCount and signals state changes. A j.u.c lock is used
+     * rather than an object monitor so that waiting steps do not pin their
+     * carrier thread when running on virtual threads.
+     */
+    final ReentrantLock stateLock = new ReentrantLock();
+
+    final Condition stateChanged = stateLock.newCondition();
     
-    boolean running = false;
+    volatile boolean running = false;
     
-    boolean cancelling = false;
+    volatile boolean cancelling = false;
 
-    boolean cancelled = false;
+    volatile boolean cancelled = false;
 
-    boolean finished = false;
+    volatile boolean finished = false;
 
     Throwable error;
 
@@ -122,11 +143,22 @@ public class StepRuntime implements Runnable {
     
     int threadCount;
 
+    boolean copyOutboundPayload;
+
+    /*
+     * A fused step has no thread or inbound queue of its own. Its only source
+     * step calls it directly, on the source's thread, from the send callback.
+     * Rows sent to it are still copy on write shares, see copy.
+     */
+    boolean fused;
+
+    SendMessageCallback fusedCallback;
+
     public StepRuntime(IComponentRuntimeFactory componentFactory, IDefinitionFactory componentDefinitionFactory, ComponentContext componentContext, FlowRuntime flowRuntime) {
         this.flowRuntime = flowRuntime;
         this.componentContext = componentContext;
         this.queueCapacity = componentContext.getFlowStep().getComponent().getInt(AbstractComponentRuntime.INBOUND_QUEUE_CAPACITY, 1000);
-        this.inQueue = new LinkedBlockingQueue<Message>(queueCapacity);
+        this.inQueue = new LinkedBlockingQueue<QueuedMessage>(queueCapacity);
         this.sourceStepRuntimeUnitOfWorkReceived = new HashMap<String, Boolean>();
         this.targetStepRuntimeUnitOfWorkSent = new HashSet<String>();
         this.componentRuntimeFactory = componentFactory;
@@ -134,6 +166,7 @@ public class StepRuntime implements Runnable {
         this.componentDefintion = componentDefintionFactory.getComponentDefinition(componentContext.getFlowStep().getComponent().getProjectVersionId(), getComponentType());        
         Component component = componentContext.getFlowStep().getComponent();
         this.threadCount = component.getInt(StepRuntime.THREAD_COUNT, 1);        
+        this.copyOutboundPayload = component.getBoolean(AbstractComponentRuntime.COPY_OUTBOUND_PAYLOAD, true);
         for (int threadNumber = 1; threadNumber <= threadCount; threadNumber++) {
             createComponentRuntime(threadNumber);
         }
@@ -152,8 +185,8 @@ public class StepRuntime implements Runnable {
     }
 
     public boolean isQueueEmpty() {
-        Message message = this.inQueue.peek();
-        return message == null || message instanceof ShutdownMessage;
+        QueuedMessage queued = this.inQueue.peek();
+        return queued == null || queued.message instanceof ShutdownMessage;
     }
 
     public void setTargetStepRuntimes(List<StepRuntime> targetStepRuntimes) {
@@ -177,18 +210,83 @@ public class StepRuntime implements Runnable {
         return sourceStepRuntimes;
     }
 
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    public XMLComponentDefinition getComponentDefintion() {
+        return componentDefintion;
+    }
+
+    public void setFused(boolean fused) {
+        this.fused = fused;
+        this.fusedCallback = fused ? createSendMessageCallback() : null;
+    }
+
+    public boolean isFused() {
+        return fused;
+    }
+
     protected void queue(Message message) throws InterruptedException {
+        if (fused) {
+            handleOnSourceThread(message);
+            return;
+        }
         if (inQueue.remainingCapacity() == 0
                 && message.getHeader().getOriginatingStepId().equalsIgnoreCase(componentContext.getFlowStep().getId())) {
             throw new RuntimeException("Inbound queue capacity on " + componentContext.getFlowStep().getName()
                     + " not sufficient to handle inbound messages from other components in addition to inbound messages from itself.");
         }
         if (running) {
-            while (!inQueue.offer(message, 500, TimeUnit.MILLISECONDS)) {
+            QueuedMessage queued = new QueuedMessage(message);
+            while (!inQueue.offer(queued, 500, TimeUnit.MILLISECONDS)) {
                 if (cancelling) {
                     throw new CancellationException();
                 }
             }
+            wakeUp();
+        }
+    }
+
+    /*
+     * Does for a fused step what run() does for every other step, except on
+     * the calling thread. The caller's class loader and project version are
+     * put back afterwards because the caller is another component.
+     */
+    protected void handleOnSourceThread(Message message) throws InterruptedException {
+        if (running && !cancelled) {
+            Thread thread = Thread.currentThread();
+            ClassLoader previousLoader = thread.getContextClassLoader();
+            String previousProjectVersionId = ComponentContext.projectVersionId.get();
+            try {
+                if (message instanceof ShutdownMessage) {
+                    process((ShutdownMessage) message, fusedCallback);
+                } else {
+                    stateLock.lock();
+                    try {
+                        activeCount++;
+                    } finally {
+                        stateLock.unlock();
+                    }
+                    process(message, NOT_QUEUED, fusedCallback);
+                }
+            } finally {
+                thread.setContextClassLoader(previousLoader);
+                ComponentContext.projectVersionId.set(previousProjectVersionId);
+            }
+        }
+    }
+
+    /*
+     * Signal the dispatch thread (and any thread waiting for a unit of work
+     * boundary) that the state of this step has changed
+     */
+    protected void wakeUp() {
+        stateLock.lock();
+        try {
+            stateChanged.signalAll();
+        } finally {
+            stateLock.unlock();
         }
     }
 
@@ -198,7 +296,8 @@ public class StepRuntime implements Runnable {
             if (threadCount > 1) {
                 String prefix = String.format("%s-%s", LogUtils.normalizeName(flowRuntime.getAgent().getName()),
                         LogUtils.normalizeName(componentContext.getFlowStep().getName()));
-                this.componentRuntimeExecutor = ThreadUtils.createFixedThreadPool(prefix, queueCapacity, threadCount);
+                this.componentRuntimeExecutor = ThreadUtils.createFixedThreadPool(prefix, queueCapacity, threadCount,
+                        flowRuntime.getAgent().isUseVirtualThreads());
             }
             for(IComponentRuntime componentRuntime:componentContext.getComponentRuntimeByThread().values()) {
                 if (sourceStepRuntimes.size() == 0 && !componentRuntime.supportsStartupMessages()) {
@@ -264,26 +363,32 @@ public class StepRuntime implements Runnable {
              */
             while (running && !cancelled) {
                 /*
-                 * Continue to poll as long as the flow is running. other
-                 * components could be generating messages which could block if
-                 * we don't continue to poll
+                 * Continue to take messages as long as the flow is running.
+                 * other components could be generating messages which could
+                 * block if we don't continue to take them. When the queue is
+                 * empty we wait to be signaled by queue() instead of sleeping.
                  */
+                QueuedMessage queued = null;
                 Message inputMessage = null;
-                synchronized (this) {
-                    inputMessage = inQueue.poll();
-                    if (inputMessage != null && !(inputMessage instanceof ShutdownMessage)) {
+                stateLock.lock();
+                try {
+                    queued = inQueue.poll();
+                    if (queued == null) {
+                        stateChanged.await(DISPATCH_WAKEUP_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                        continue;
+                    }
+                    inputMessage = queued.message;
+                    if (!(inputMessage instanceof ShutdownMessage)) {
                         activeCount++;
                     }
+                } finally {
+                    stateLock.unlock();
                 }
                 if (running && !cancelled) {
-                    if (inputMessage != null) {
-                        if (inputMessage instanceof ShutdownMessage) {
-                            process((ShutdownMessage) inputMessage, target);
-                        } else {
-                            process(inputMessage, target);
-                        }
-                    } else if (running && !cancelled) {
-                        AppUtils.sleep(50);
+                    if (inputMessage instanceof ShutdownMessage) {
+                        process((ShutdownMessage) inputMessage, target);
+                    } else {
+                        process(inputMessage, queued.queuedNanos, target);
                     }
                 }
             }
@@ -292,15 +397,37 @@ public class StepRuntime implements Runnable {
         }
     }
     
-    protected synchronized void decrementActiveCount() {
-        activeCount--;
+    protected void decrementActiveCount() {
+        stateLock.lock();
+        try {
+            activeCount--;
+            stateChanged.signalAll();
+        } finally {
+            stateLock.unlock();
+        }
+    }
+
+    protected void waitForOtherThreadsToFinish() throws InterruptedException {
+        stateLock.lock();
+        try {
+            while (activeCount > 1 && !cancelling) {
+                stateChanged.await(DISPATCH_WAKEUP_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            stateLock.unlock();
+        }
     }
     
-    protected synchronized int getActiveCountPlusQueueSize() {
-        return activeCount + inQueue.size();
+    protected int getActiveCountPlusQueueSize() {
+        stateLock.lock();
+        try {
+            return activeCount + inQueue.size();
+        } finally {
+            stateLock.unlock();
+        }
     }
 
-    protected void process(Message inputMessage, SendMessageCallback target) {
+    protected void process(Message inputMessage, long queuedNanos, SendMessageCallback target) throws InterruptedException {
         boolean unitOfWorkBoundaryReached = calculateUnitOfWorkLastMessage(inputMessage);
         /*
          * If unitOfWorkBoundaryReached, we might want to consider waiting to
@@ -308,19 +435,24 @@ public class StepRuntime implements Runnable {
          * race conditions.
          */
         if (threadCount > 1) {
-            while (unitOfWorkBoundaryReached && activeCount > 1) {
-                AppUtils.sleep(5);
+            if (unitOfWorkBoundaryReached) {
+                waitForOtherThreadsToFinish();
             }
-            this.componentRuntimeExecutor.execute(() -> processOnAnotherThread(inputMessage, unitOfWorkBoundaryReached, target));    
+            this.componentRuntimeExecutor
+                    .execute(() -> processOnAnotherThread(inputMessage, queuedNanos, unitOfWorkBoundaryReached, target));
         } else {
-            processOnAnotherThread(inputMessage, unitOfWorkBoundaryReached, target);
+            processOnAnotherThread(inputMessage, queuedNanos, unitOfWorkBoundaryReached, target);
         }
     }
 
-    protected void processOnAnotherThread(Message inputMessage, boolean unitOfWorkBoundaryReached, SendMessageCallback callback) {
+    protected void processOnAnotherThread(Message inputMessage, long queuedNanos, boolean unitOfWorkBoundaryReached,
+            SendMessageCallback callback) {
         int threadNumber = ThreadUtils.getThreadNumber(threadCount);
         try {
             ComponentStatistics statistics = componentContext.getComponentStatistics();
+            if (queuedNanos != NOT_QUEUED) {
+                statistics.recordQueueWait(threadNumber, System.nanoTime() - queuedNanos);
+            }
             statistics.incrementInboundMessages(threadNumber);
             if (inputMessage instanceof ContentMessage<?>) {
                 Object payload = ((ContentMessage<?>)inputMessage).getPayload();
@@ -342,7 +474,7 @@ public class StepRuntime implements Runnable {
                 logInput(inputMessage, callback, unitOfWorkBoundaryReached);
             }
             callback.setCurrentInputMessage(threadNumber, inputMessage);
-            long ts = System.currentTimeMillis();
+            long ts = System.nanoTime();
             
             try {
                 ComponentContext.projectVersionId.set(componentContext.getManipulatedFlow().getProjectVersionId());
@@ -352,7 +484,7 @@ public class StepRuntime implements Runnable {
                 log.info("Handle was interrupted by cancellation for {}", componentContext.getFlowStep().getName());
             }
             
-            statistics.incrementTimeSpentInHandle(threadNumber, System.currentTimeMillis()-ts-callback.useQueueTime(threadNumber));
+            statistics.recordHandleTime(threadNumber, System.nanoTime()-ts-callback.useQueueTime(threadNumber));
 
             boolean recursionDone = liveSourceStepIds.size() == 1 && liveSourceStepIds.contains(componentContext.getFlowStep().getId())
                     && getActiveCountPlusQueueSize() == 1;
@@ -378,8 +510,13 @@ public class StepRuntime implements Runnable {
         }
     }
 
-    protected synchronized boolean idle() {
-        return activeCount <= 0;
+    protected boolean idle() {
+        stateLock.lock();
+        try {
+            return activeCount <= 0;
+        } finally {
+            stateLock.unlock();
+        }
     }
 
     protected void process(ShutdownMessage shutdownMessage, SendMessageCallback target) {
@@ -488,6 +625,12 @@ public class StepRuntime implements Runnable {
 
         if (log.isDebugEnabled()) {
             log.debug("Shutting down " + componentContext.getFlowStep().getName());
+            ComponentStatistics statistics = componentContext.getComponentStatistics();
+            for (int threadNumber = 1; threadNumber <= threadCount; threadNumber++) {
+                log.debug("Step {} thread {} handle times [{}], queue waits [{}], send waits [{}]", componentContext.getFlowStep().getName(),
+                        threadNumber, statistics.getHandleTimes(threadNumber), statistics.getQueueWaits(threadNumber),
+                        statistics.getSendWaits(threadNumber));
+            }
         }
 
         targetStepRuntimes.forEach(t -> shutdownTargets(t));
@@ -498,6 +641,7 @@ public class StepRuntime implements Runnable {
         if (cancelling) {
             cancelled = true;
         }
+        wakeUp();
 
         recordFlowStepFinished();
     }
@@ -527,7 +671,16 @@ public class StepRuntime implements Runnable {
 
     public void cancel() {
         cancelling = true;
-        if (isRunning()) {
+        if (isRunning() && fused) {
+            /*
+             * The source step sends the shutdown message once it has been
+             * cancelled itself. Shutting down here could stop the component
+             * while the source thread is still inside handle.
+             */
+            for (IComponentRuntime componentRuntime : getComponentRuntimes()) {
+                componentRuntime.interrupt();
+            }
+        } else if (isRunning()) {
             try {
                 inQueue.clear();
                 queue(new ShutdownMessage(componentContext.getFlowStep().getId(), true));
@@ -661,7 +814,7 @@ public class StepRuntime implements Runnable {
     class SendMessageCallback implements ISendMessageCallback {
 
         Map<Integer, Message> currentInputMessages = new HashMap<>();
-        Map<Integer, Long> queueTime = new HashMap<>();
+        Map<Integer, Long> queueTime = new ConcurrentHashMap<>();
 
         private void setCurrentInputMessage(int threadNumber, Message currentInputMessage) {
             currentInputMessages.put(threadNumber, currentInputMessage);
@@ -685,24 +838,80 @@ public class StepRuntime implements Runnable {
             return newMessage;
         }
 
+        /*
+         * The outbound list is always copied because components are free to
+         * reuse it after sending. Rows are sent as copy on write views of the
+         * component's rows, so a change made by either side is never seen by
+         * the other. When copyOutboundPayload is turned off the rows
+         * themselves are handed over. Every target after the first gets its
+         * own views, see sendMessage.
+         *
+         * A fused target is done with the list before the send returns, so
+         * when the rows are handed over to a fused target the list is too.
+         */
         @SuppressWarnings("unchecked")
-        private <T extends Serializable> T copy(T payload) {
-            if (payload instanceof ArrayList) {
+        private <T extends Serializable> T copy(T payload, String... targetFlowStepIds) {
+            boolean handOver = !copyOutboundPayload;
+            if (payload instanceof ArrayList && handOver && isOnlyTargetFused()) {
+                return payload;
+            } else if (payload instanceof ArrayList) {
                 ArrayList<?> old = (ArrayList<?>) payload;
                 ArrayList<Object> copied = new ArrayList<>(old.size());
                 for (Object object : old) {
-                    if (object instanceof EntityData) {
-                        object = ((EntityData) object).copy();
+                    if (object instanceof EntityData && !handOver) {
+                        object = ((EntityData) object).share();
                     }
                     copied.add(object);
                 }
                 payload = (T) copied;
-            } else if (payload instanceof byte[]) {
+            } else if (payload instanceof byte[] && (!handOver || countTargets(targetFlowStepIds) > 1)) {
                 payload = (T) ArrayUtils.clone((byte[]) payload);
             }
             return payload;
         }
 
+        private boolean isOnlyTargetFused() {
+            return targetStepRuntimes.size() == 1 && targetStepRuntimes.get(0).isFused();
+        }
+
+        private int countTargets(String... targetFlowStepIds) {
+            if (targetFlowStepIds == null || targetFlowStepIds.length == 0) {
+                return targetStepRuntimes.size();
+            } else {
+                Collection<String> targetStepIds = Arrays.asList(targetFlowStepIds);
+                int count = 0;
+                for (StepRuntime targetRuntime : targetStepRuntimes) {
+                    if (targetStepIds.contains(targetRuntime.getComponentContext().getFlowStep().getId())) {
+                        count++;
+                    }
+                }
+                return count;
+            }
+        }
+
+        /*
+         * Gives another target its own list of copy on write rows so that
+         * targets cannot see each other's changes
+         */
+        private Message share(Message message) {
+            if (message instanceof EntityDataMessage) {
+                MessageHeader header = message.getHeader();
+                ArrayList<EntityData> payload = ((EntityDataMessage) message).getPayload();
+                ArrayList<EntityData> shared = new ArrayList<>(payload.size());
+                for (EntityData entityData : payload) {
+                    shared.add(entityData.share());
+                }
+                EntityDataMessage sharedMessage = new EntityDataMessage(header.getOriginatingStepId(), shared);
+                MessageHeader sharedHeader = sharedMessage.getHeader();
+                sharedHeader.putAll(header);
+                sharedHeader.setExecutionId(header.getExecutionId());
+                sharedHeader.setSequenceNumber(header.getSequenceNumber());
+                return sharedMessage;
+            } else {
+                return message;
+            }
+        }
+
         private void sendMessage(Message message, String... targetFlowStepIds) {
             ComponentStatistics statistics = componentContext.getComponentStatistics();
             int threadNumber = ThreadUtils.getThreadNumber(threadCount);
@@ -725,41 +934,61 @@ public class StepRuntime implements Runnable {
                 logOutput(message, targetFlowStepIds);
             }
             
-            long ts = System.currentTimeMillis();
+            long ts = System.nanoTime();
+            long fusedTime = 0;
 
             Collection<String> targetStepIds = targetFlowStepIds != null ? Arrays.asList(targetFlowStepIds) : Collections.emptyList();
 
+            List<StepRuntime> forwardTo = new ArrayList<>(targetStepRuntimes.size());
             for (StepRuntime targetRuntime : targetStepRuntimes) {
-                boolean forward = targetStepIds == null || targetStepIds.size() == 0
-                        || targetStepIds.contains(targetRuntime.getComponentContext().getFlowStep().getId());
-                if (forward) {
-                    try {
-                        if (log.isDebugEnabled()) {
-                            log.debug("Sending " + message.getClass().getSimpleName() + " to "
-                                    + targetRuntime.getComponentContext().getFlowStep().getName());
-                        }
-                        targetRuntime.queue(message);
-                        if (message instanceof ControlMessage) {
-                            targetStepRuntimeUnitOfWorkSent.add(targetRuntime.getComponentContext().getFlowStep().getId());
-                        }
-                    } catch (Exception e) {
-                        if (e instanceof RuntimeException) {
-                            throw (RuntimeException) e;
-                        } else {
-                            throw new RuntimeException(e);
-                        }
+                if (targetStepIds == null || targetStepIds.size() == 0
+                        || targetStepIds.contains(targetRuntime.getComponentContext().getFlowStep().getId())) {
+                    forwardTo.add(targetRuntime);
+                }
+            }
+
+            /*
+             * Every target's message is created before any of them is queued
+             * because a target may start changing its rows as soon as it has
+             * them
+             */
+            Message[] messages = new Message[forwardTo.size()];
+            for (int i = 0; i < messages.length; i++) {
+                messages[i] = i == 0 ? message : share(message);
+            }
+
+            for (int i = 0; i < messages.length; i++) {
+                StepRuntime targetRuntime = forwardTo.get(i);
+                try {
+                    if (log.isDebugEnabled()) {
+                        log.debug("Sending " + message.getClass().getSimpleName() + " to "
+                                + targetRuntime.getComponentContext().getFlowStep().getName());
+                    }
+                    long fusedStart = targetRuntime.isFused() ? System.nanoTime() : 0;
+                    targetRuntime.queue(messages[i]);
+                    if (targetRuntime.isFused()) {
+                        fusedTime += System.nanoTime() - fusedStart;
+                    }
+                    if (message instanceof ControlMessage) {
+                        targetStepRuntimeUnitOfWorkSent.add(targetRuntime.getComponentContext().getFlowStep().getId());
+                    }
+                } catch (Exception e) {
+                    if (e instanceof RuntimeException) {
+                        throw (RuntimeException) e;
+                    } else {
+                        throw new RuntimeException(e);
                     }
                 }
             }
             
-            long queueTime = System.currentTimeMillis()-ts;
-            Long totalQueueTime = this.queueTime.get(threadNumber);
-            if (totalQueueTime == null) {
-                totalQueueTime = 0l;
-            }
-            totalQueueTime += queueTime;
-            this.queueTime.put(threadNumber, totalQueueTime);
-            statistics.incrementTimeSpentWaiting(threadNumber, queueTime);
+            /*
+             * Time spent in a fused target is that step's handle time. It is
+             * still taken out of this step's handle time but is not a queue
+             * wait.
+             */
+            long queueTime = System.nanoTime()-ts;
+            this.queueTime.merge(threadNumber, queueTime, Long::sum);
+            statistics.recordSendWait(threadNumber, queueTime - fusedTime);
         }
         
         protected long useQueueTime(int threadNumber) {
@@ -798,7 +1027,7 @@ public class StepRuntime implements Runnable {
 
         @Override
         public void sendBinaryMessage(Map<String, Serializable> messageHeaders, byte[] payload, String... targetStepIds) {
-            payload = copy(payload);
+            payload = copy(payload, targetStepIds);
             FlowStep flowStep = componentContext.getFlowStep();
             sendMessage(createMessage(new BinaryMessage(flowStep.getId(), payload), messageHeaders), targetStepIds);
             contentMessagesSentCount++;
@@ -807,7 +1036,7 @@ public class StepRuntime implements Runnable {
         @Override
         public void sendEntityDataMessage(Map<String, Serializable> messageHeaders, ArrayList<EntityData> payload, String... targetStepIds) {
             validateEntityData(payload);
-            payload = copy(payload);
+            payload = copy(payload, targetStepIds);
             FlowStep flowStep = componentContext.getFlowStep();
             sendMessage(createMessage(new EntityDataMessage(flowStep.getId(), payload), messageHeaders), targetStepIds);
             contentMessagesSentCount++;
@@ -822,7 +1051,7 @@ public class StepRuntime implements Runnable {
 
         @Override
         public void sendTextMessage(Map<String, Serializable> messageHeaders, ArrayList<String> payload, String... targetStepIds) {
-            payload = copy(payload);
+            payload = copy(payload, targetStepIds);
             FlowStep flowStep = componentContext.getFlowStep();
             sendMessage(createMessage(new TextMessage(flowStep.getId(), payload), messageHeaders), targetStepIds);
             contentMessagesSentCount++;
@@ -850,4 +1079,19 @@ public class StepRuntime implements Runnable {
         return componentContext.getFlowStep().getName();
     }
 
+    /*
+     * A message on the inbound queue and when it was put there so that the
+     * time it waits to be handled can be recorded
+     */
+    static class QueuedMessage {
+
+        final Message message;
+
+        final long queuedNanos = System.nanoTime();
+
+        QueuedMessage(Message message) {
+            this.message = message;
+        }
+    }
+
 }
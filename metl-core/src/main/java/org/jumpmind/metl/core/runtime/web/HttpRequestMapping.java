@@ -28,6 +28,10 @@ public class HttpRequestMapping implements Serializable, Comparable<HttpRequestM
     String responseDescription;
     
     String flowDescription;
+
+    int minPoolSize;
+
+    int maxPoolSize;
     
     public HttpMethod getMethod() {
         return method;
@@ -109,6 +113,22 @@ public class HttpRequestMapping implements Serializable, Comparable<HttpRequestM
         return flowDescription;
     }
 
+    public void setMinPoolSize(int minPoolSize) {
+        this.minPoolSize = minPoolSize;
+    }
+
+    public int getMinPoolSize() {
+        return minPoolSize;
+    }
+
+    public void setMaxPoolSize(int maxPoolSize) {
+        this.maxPoolSize = maxPoolSize;
+    }
+
+    public int getMaxPoolSize() {
+        return maxPoolSize;
+    }
+
     @Override
     public int compareTo(HttpRequestMapping o) {
         int compare = new Integer(priority).compareTo(new Integer(o.getPriority()));
@@ -3,42 +3,62 @@ package org.jumpmind.metl.core.runtime.web;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.regex.Pattern;
 
 import org.jumpmind.metl.core.model.AgentDeployment;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.util.AntPathMatcher;
+import org.springframework.util.StringUtils;
 
 public class HttpRequestMappingRegistry implements IHttpRequestMappingRegistry {
 
+    static final Pattern VARIABLE_SEGMENT = Pattern.compile("\\{([^{}:]+)\\}");
+
     final Logger log = LoggerFactory.getLogger(getClass());
 
     AntPathMatcher patternMatcher = new AntPathMatcher();
-    
+
     Map<HttpMethod, Set<HttpRequestMapping>> mappingsByHttpMethod = new HashMap<>();
     
     Map<AgentDeployment, Set<HttpRequestMapping>> mappingsByAgentDeployment = new HashMap<>();
+
+    /*
+     * A path trie for each http method. A trie is rebuilt when the mappings
+     * for its method change and is not modified after that, so requests walk
+     * it without locking.
+     */
+    volatile Map<HttpMethod, Node> triesByHttpMethod = Collections.emptyMap();
     
     @Override
     public HttpRequestMapping findBestMatch(HttpMethod method, String path) {
-        Set<HttpRequestMapping> mappings = mappingsByHttpMethod.get(method);
-        if (mappings != null) {
-            for (HttpRequestMapping httpRequestMapping : mappings) {
-                log.info(String.format("Found available uri: %s",httpRequestMapping.getPath()));
-                if (patternMatcher.match(httpRequestMapping.getPath(), path)) {
-                    return httpRequestMapping;
+        return findBestMatch(method, path, null);
+    }
+
+    @Override
+    public HttpRequestMapping findBestMatch(HttpMethod method, String path, Map<String, String> uriVariables) {
+        Node root = triesByHttpMethod.get(method);
+        if (root != null) {
+            Match match = new Match();
+            root.find(split(path), 0, path, new LinkedHashMap<String, String>(), match);
+            if (match.mapping != null) {
+                log.debug("Matched {} to the service uri {}", path, match.mapping.getPath());
+                if (uriVariables != null) {
+                    uriVariables.putAll(match.uriVariables);
                 }
+                return match.mapping;
             }
         }
         return null;
     }
     
     @Override
-    public List<HttpRequestMapping> getHttpRequestMappingsFor(AgentDeployment deployment) {
+    public synchronized List<HttpRequestMapping> getHttpRequestMappingsFor(AgentDeployment deployment) {
         Set<HttpRequestMapping> mappings = mappingsByAgentDeployment.get(deployment);
         if (mappings != null) {
             return new ArrayList<>(mappings);
@@ -48,7 +68,7 @@ public class HttpRequestMappingRegistry implements IHttpRequestMappingRegistry {
     }  
     
     @Override
-    public void register(HttpRequestMapping request) {
+    public synchronized void register(HttpRequestMapping request) {
         Set<HttpRequestMapping> mappings = mappingsByHttpMethod.get(request.getMethod());
         if (mappings == null) {
             mappings = new TreeSet<>();
@@ -63,12 +83,13 @@ public class HttpRequestMappingRegistry implements IHttpRequestMappingRegistry {
         }
                 
         mappings.add(request);
+        rebuild(request.getMethod());
         
         log.info("Registering REST service: {}", request);
     }
     
     @Override
-    public void unregister(HttpRequestMapping request) {
+    public synchronized void unregister(HttpRequestMapping request) {
         boolean unregistered = false;
         Set<HttpRequestMapping> mappings = mappingsByHttpMethod.get(request.getMethod());
         if (mappings != null) {            
@@ -81,9 +102,151 @@ public class HttpRequestMappingRegistry implements IHttpRequestMappingRegistry {
         }
         
         if (unregistered) {
+            rebuild(request.getMethod());
             log.info("Unregistering REST service: {}", request);
         }
     }
-    
+
+    protected void rebuild(HttpMethod method) {
+        Node root = new Node();
+        Set<HttpRequestMapping> mappings = mappingsByHttpMethod.get(method);
+        if (mappings != null) {
+            for (HttpRequestMapping mapping : mappings) {
+                Node node = root;
+                node.minPriority = Math.min(node.minPriority, mapping.getPriority());
+                for (String segment : split(mapping.getPath())) {
+                    node = node.child(segment);
+                    node.minPriority = Math.min(node.minPriority, mapping.getPriority());
+                }
+                /* mappings are sorted by priority so the first one wins */
+                if (node.mapping == null) {
+                    node.mapping = mapping;
+                }
+            }
+        }
+        Map<HttpMethod, Node> tries = new HashMap<>(triesByHttpMethod);
+        tries.put(method, root);
+        triesByHttpMethod = tries;
+    }
+
+    protected static String[] split(String path) {
+        return StringUtils.tokenizeToStringArray(path, "/");
+    }
+
+    /*
+     * The best mapping found so far and the uri variables it was matched
+     * with
+     */
+    static class Match {
+
+        HttpRequestMapping mapping;
+
+        Map<String, String> uriVariables;
+
+    }
+
+    /*
+     * One path segment of the registered patterns. Of all the mappings that
+     * match a path, the one with the lowest priority value wins. Among
+     * mappings of the same priority the most specific one wins: children are
+     * tried from the most to the least specific, i.e. literal segments,
+     * segments that mix text with wildcards or variables, whole segment
+     * variables, a single segment wildcard and finally a wildcard for any
+     * number of segments, and a later match only replaces an earlier one when
+     * its priority is lower. A subtree is skipped when none of its mappings
+     * can beat the current match.
+     */
+    class Node {
+
+        Map<String, Node> literals = new HashMap<>();
+
+        Map<String, Node> patterns = new LinkedHashMap<>();
+
+        Map<String, Node> variables = new LinkedHashMap<>();
+
+        Node anySegment;
+
+        Node anySegments;
+
+        HttpRequestMapping mapping;
+
+        int minPriority = Integer.MAX_VALUE;
+
+        Node child(String segment) {
+            if ("**".equals(segment)) {
+                if (anySegments == null) {
+                    anySegments = new Node();
+                }
+                return anySegments;
+            } else if ("*".equals(segment)) {
+                if (anySegment == null) {
+                    anySegment = new Node();
+                }
+                return anySegment;
+            } else if (VARIABLE_SEGMENT.matcher(segment).matches()) {
+                return child(variables, segment.substring(1, segment.length() - 1));
+            } else if (segment.indexOf('*') >= 0 || segment.indexOf('?') >= 0 || segment.indexOf('{') >= 0) {
+                return child(patterns, segment);
+            } else {
+                return child(literals, segment);
+            }
+        }
+
+        Node child(Map<String, Node> children, String key) {
+            Node node = children.get(key);
+            if (node == null) {
+                node = new Node();
+                children.put(key, node);
+            }
+            return node;
+        }
+
+        void find(String[] segments, int index, String path, Map<String, String> uriVariables, Match match) {
+            if (match.mapping != null && minPriority >= match.mapping.getPriority()) {
+                return;
+            }
+
+            /*
+             * The trie ignores empty segments, so the path is checked again
+             * the way AntPathMatcher matched it before, e.g. /a does not match
+             * /a/
+             */
+            if (index == segments.length && mapping != null && patternMatcher.match(mapping.getPath(), path)) {
+                match.mapping = mapping;
+                match.uriVariables = new LinkedHashMap<>(uriVariables);
+            }
+
+            if (index < segments.length) {
+                String segment = segments[index];
+                Node node = literals.get(segment);
+                if (node != null) {
+                    node.find(segments, index + 1, path, uriVariables, match);
+                }
+
+                for (Map.Entry<String, Node> entry : patterns.entrySet()) {
+                    if (patternMatcher.match(entry.getKey(), segment)) {
+                        Map<String, String> extracted = patternMatcher.extractUriTemplateVariables(entry.getKey(), segment);
+                        uriVariables.putAll(extracted);
+                        entry.getValue().find(segments, index + 1, path, uriVariables, match);
+                        uriVariables.keySet().removeAll(extracted.keySet());
+                    }
+                }
+
+                for (Map.Entry<String, Node> entry : variables.entrySet()) {
+                    uriVariables.put(entry.getKey(), segment);
+                    entry.getValue().find(segments, index + 1, path, uriVariables, match);
+                    uriVariables.remove(entry.getKey());
+                }
+
+                if (anySegment != null) {
+                    anySegment.find(segments, index + 1, path, uriVariables, match);
+                }
+            }
+
+            for (int next = index; anySegments != null && next <= segments.length; next++) {
+                anySegments.find(segments, next, path, uriVariables, match);
+            }
+        }
+    }
     
 }
@@ -1,12 +1,19 @@
 package org.jumpmind.metl.core.runtime.web;
 
 import java.util.List;
+import java.util.Map;
 
 import org.jumpmind.metl.core.model.AgentDeployment;
 
 public interface IHttpRequestMappingRegistry {
     
     public HttpRequestMapping findBestMatch(HttpMethod method, String path);
+
+    /**
+     * Finds the most specific mapping for the path and puts the values of the
+     * path's template variables in uriVariables
+     */
+    public HttpRequestMapping findBestMatch(HttpMethod method, String path, Map<String, String> uriVariables);
     
     public void register(HttpRequestMapping request);
     
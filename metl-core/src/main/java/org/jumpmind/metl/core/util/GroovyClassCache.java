@@ -0,0 +1,193 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import groovy.lang.GroovyClassLoader;
+
+/**
+ * A JVM wide cache of compiled Groovy classes. Compiling a script takes far
+ * longer than running it, so classes are kept across flow executions, keyed
+ * by their source and the class loader they were compiled against. Once the
+ * cache is full the least recently used class is dropped. Each class gets its
+ * own {@link GroovyClassLoader} so that dropped classes can be unloaded.
+ * <p>
+ * A cached class keeps the class loader it was compiled against reachable.
+ * The classes of a plugin are dropped with {@link #remove(ClassLoader)} when
+ * the plugin is deleted. Otherwise they are only dropped by eviction.
+ */
+final public class GroovyClassCache {
+
+    public static final String SYSPROP_CACHE_SIZE = "metl.groovy.class.cache.size";
+
+    /**
+     * Put in front of a class declaration to have its methods statically
+     * compiled and type checked
+     */
+    public static final String COMPILE_STATIC = "@groovy.transform.CompileStatic\n";
+
+    private static final Logger log = LoggerFactory.getLogger(GroovyClassCache.class);
+
+    private static final int maxSize = Integer.getInteger(SYSPROP_CACHE_SIZE, 1000);
+
+    private static final AtomicLong hitCount = new AtomicLong();
+
+    private static final AtomicLong missCount = new AtomicLong();
+
+    private static final AtomicLong evictionCount = new AtomicLong();
+
+    private static final AtomicLong compileTimeInMs = new AtomicLong();
+
+    private static final Map<Key, Class<?>> classes = new LinkedHashMap<Key, Class<?>>(16, .75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Class<?>> eldest) {
+            if (size() > maxSize) {
+                evictionCount.incrementAndGet();
+                return true;
+            } else {
+                return false;
+            }
+        }
+    };
+
+    private GroovyClassCache() {
+    }
+
+    /**
+     * @return the class declared by the source, compiled against the context
+     *         class loader of the current thread
+     */
+    public static Class<?> getClass(String source) {
+        ClassLoader parent = Thread.currentThread().getContextClassLoader();
+        return getClass(source, parent != null ? parent : GroovyClassCache.class.getClassLoader());
+    }
+
+    public static Class<?> getClass(String source, ClassLoader parent) {
+        Key key = new Key(source, parent);
+        synchronized (classes) {
+            Class<?> clazz = classes.get(key);
+            if (clazz != null) {
+                hitCount.incrementAndGet();
+                return clazz;
+            }
+        }
+
+        missCount.incrementAndGet();
+        long ts = System.currentTimeMillis();
+        @SuppressWarnings("resource")
+        Class<?> clazz = new GroovyClassLoader(parent).parseClass(source);
+        long time = System.currentTimeMillis() - ts;
+        compileTimeInMs.addAndGet(time);
+        synchronized (classes) {
+            Class<?> existing = classes.get(key);
+            if (existing != null) {
+                clazz = existing;
+            } else {
+                classes.put(key, clazz);
+            }
+        }
+        log.debug("Compiled a groovy class in {}ms.  The cache holds {} classes after {} hits, {} misses and {} evictions", time, size(),
+                hitCount.get(), missCount.get(), evictionCount.get());
+        return clazz;
+    }
+
+    /**
+     * Drops the classes that were compiled against a class loader so that the
+     * class loader can be garbage collected
+     */
+    public static void remove(ClassLoader classLoader) {
+        synchronized (classes) {
+            Iterator<Key> keys = classes.keySet().iterator();
+            while (keys.hasNext()) {
+                if (keys.next().classLoader == classLoader) {
+                    keys.remove();
+                }
+            }
+        }
+    }
+
+    public static int size() {
+        synchronized (classes) {
+            return classes.size();
+        }
+    }
+
+    public static void clear() {
+        synchronized (classes) {
+            classes.clear();
+        }
+    }
+
+    public static long getHitCount() {
+        return hitCount.get();
+    }
+
+    public static long getMissCount() {
+        return missCount.get();
+    }
+
+    public static long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    public static long getCompileTimeInMs() {
+        return compileTimeInMs.get();
+    }
+
+    static class Key {
+
+        final String source;
+
+        final ClassLoader classLoader;
+
+        final int hashCode;
+
+        Key(String source, ClassLoader classLoader) {
+            this.source = source;
+            this.classLoader = classLoader;
+            this.hashCode = source.hashCode() * 31 + System.identityHashCode(classLoader);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj instanceof Key) {
+                Key key = (Key) obj;
+                return hashCode == key.hashCode && classLoader == key.classLoader && source.equals(key.source);
+            } else {
+                return false;
+            }
+        }
+    }
+}
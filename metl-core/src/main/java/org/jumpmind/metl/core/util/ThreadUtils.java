@@ -28,8 +28,13 @@ import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 final public class ThreadUtils {
 
+    private static final Logger log = LoggerFactory.getLogger(ThreadUtils.class);
+
     private ThreadUtils() {
     }
 
@@ -51,10 +56,14 @@ final public class ThreadUtils {
     }
 
     public static ExecutorService createFixedThreadPool(String namePrefix, int queueCapacity, int threadCount) {
+        return createFixedThreadPool(namePrefix, queueCapacity, threadCount, false);
+    }
+
+    public static ExecutorService createFixedThreadPool(String namePrefix, int queueCapacity, int threadCount, boolean virtual) {
           ThreadPoolExecutor executor =  new ThreadPoolExecutor(threadCount, threadCount,
                 0L, TimeUnit.MILLISECONDS,
                 new LinkedBlockingQueue<Runnable>(queueCapacity),
-                new CustomThreadFactory(namePrefix));
+                createThreadFactory(namePrefix, virtual));
             executor.setRejectedExecutionHandler((r, e) -> {try {
                 e.getQueue().put(r);
             } catch (Exception e1) {
@@ -64,7 +73,59 @@ final public class ThreadUtils {
     }
 
     public static ExecutorService createUnboundedThreadPool(String namePrefix) {
-        return Executors.newCachedThreadPool(new CustomThreadFactory(namePrefix));
+        return createUnboundedThreadPool(namePrefix, false);
+    }
+
+    /**
+     * When virtual is true and the JVM supports virtual threads (Java 21+),
+     * every task gets its own virtual thread. Otherwise a cached pool of
+     * platform threads is returned.
+     */
+    public static ExecutorService createUnboundedThreadPool(String namePrefix, boolean virtual) {
+        ThreadFactory threadFactory = createThreadFactory(namePrefix, virtual);
+        if (!(threadFactory instanceof CustomThreadFactory)) {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null,
+                        threadFactory);
+            } catch (ReflectiveOperationException e) {
+                log.warn("Could not create a virtual thread executor.  Falling back to platform threads", e);
+                threadFactory = new CustomThreadFactory(namePrefix);
+            }
+        }
+        return Executors.newCachedThreadPool(threadFactory);
+    }
+
+    public static boolean isVirtualThreadsSupported() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /*
+     * Virtual threads are created reflectively so that Metl still builds and
+     * runs on Java 8. Threads are named namePrefix-N either way because
+     * getThreadNumber relies on the suffix.
+     */
+    static ThreadFactory createThreadFactory(String namePrefix, boolean virtual) {
+        if (virtual) {
+            if (isVirtualThreadsSupported()) {
+                try {
+                    Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+                    Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                    builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, namePrefix + "-", 1l);
+                    return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+                } catch (ReflectiveOperationException | RuntimeException e) {
+                    log.warn("Could not create a virtual thread factory.  Falling back to platform threads", e);
+                }
+            } else {
+                log.warn("Virtual threads were requested for {} but are not supported by this JVM ({}).  Using platform threads",
+                        namePrefix, System.getProperty("java.version"));
+            }
+        }
+        return new CustomThreadFactory(namePrefix);
     }
 
     static class CustomThreadFactory implements ThreadFactory {
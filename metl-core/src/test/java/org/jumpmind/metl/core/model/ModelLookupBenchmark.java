@@ -0,0 +1,113 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Measures the per row cost of resolving every attribute of a 300 attribute
+ * model the way Transformer and the formatters do (attribute by id, then
+ * its entity by id), with the indexed lookups and with the linear scans
+ * they replaced. Only runs when the metl.benchmark system property is set to
+ * true.
+ * <p>
+ * Both variants resolve 20000 rows in each of three passes, and the per row
+ * time of each pass is logged. The later passes show the cost once the JIT
+ * has warmed up.
+ */
+public class ModelLookupBenchmark {
+
+    static final Logger log = LoggerFactory.getLogger(ModelLookupBenchmark.class);
+
+    static final int ROWS = 20000;
+
+    static final int ENTITIES = 10;
+
+    static final int ATTRIBUTES_PER_ENTITY = 30;
+
+    @Test
+    public void benchmarkAttributeLookups() {
+        Assume.assumeTrue(Boolean.getBoolean("metl.benchmark"));
+        Model model = new Model();
+        List<String> attributeIds = new ArrayList<>();
+        for (int e = 0; e < ENTITIES; e++) {
+            ModelEntity entity = new ModelEntity(UUID.randomUUID().toString(), "ENTITY_" + e);
+            for (int a = 0; a < ATTRIBUTES_PER_ENTITY; a++) {
+                ModelAttribute attribute = new ModelAttribute(UUID.randomUUID().toString(), entity.getId(), "ATTR_" + a);
+                entity.addModelAttribute(attribute);
+                attributeIds.add(attribute.getId());
+            }
+            model.addModelEntity(entity);
+        }
+
+        for (int pass = 0; pass < 3; pass++) {
+            long scanNanos = run(model, attributeIds, ROWS, true);
+            long indexNanos = run(model, attributeIds, ROWS, false);
+            log.info(String.format("pass %d: linear scan %.2f us/row, index %.2f us/row", pass + 1,
+                    scanNanos / 1000d / ROWS, indexNanos / 1000d / ROWS));
+        }
+    }
+
+    static long run(Model model, List<String> attributeIds, int rows, boolean scan) {
+        long count = 0;
+        long ts = System.nanoTime();
+        for (int row = 0; row < rows; row++) {
+            for (String attributeId : attributeIds) {
+                ModelAttribute attribute = scan ? scanAttributeById(model, attributeId) : model.getAttributeById(attributeId);
+                ModelEntity entity = scan ? scanEntityById(model, attribute.getEntityId()) : model.getEntityById(attribute.getEntityId());
+                count += entity.getName().length();
+            }
+        }
+        long elapsed = System.nanoTime() - ts;
+        if (count == 0) {
+            throw new IllegalStateException();
+        }
+        return elapsed;
+    }
+
+    static ModelAttribute scanAttributeById(Model model, String attributeId) {
+        for (ModelEntity entity : model.getModelEntities()) {
+            for (ModelAttribute modelAttribute : entity.getModelAttributes()) {
+                if (modelAttribute.getId().equalsIgnoreCase(attributeId)) {
+                    return modelAttribute;
+                }
+            }
+        }
+        return null;
+    }
+
+    static ModelEntity scanEntityById(Model model, String entityId) {
+        for (ModelEntity entity : model.getModelEntities()) {
+            if (entity.getId().equalsIgnoreCase(entityId)) {
+                return entity;
+            }
+        }
+        return null;
+    }
+
+}
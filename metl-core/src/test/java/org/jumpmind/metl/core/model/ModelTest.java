@@ -0,0 +1,121 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ModelTest {
+
+    Model model;
+
+    ModelEntity customer;
+
+    ModelAttribute customerId;
+
+    @Before
+    public void setup() {
+        model = new Model();
+        customer = new ModelEntity("e1", "CUSTOMER");
+        customerId = new ModelAttribute("a1", "e1", "ID");
+        customer.addModelAttribute(customerId);
+        model.addModelEntity(customer);
+    }
+
+    @Test
+    public void testLookups() {
+        assertSame(customer, model.getEntityById("e1"));
+        assertSame(customer, model.getEntityById("E1"));
+        assertSame(customer, model.getEntityByName("customer"));
+        assertSame(customerId, model.getAttributeById("a1"));
+        assertSame(customerId, model.getAttributeByName("Customer", "id"));
+        assertEquals(Arrays.asList(customerId), model.getAttributesByName("ID"));
+        assertNull(model.getEntityByName("ORDER"));
+        assertNull(model.getAttributeByName("CUSTOMER", "NAME"));
+        assertTrue(model.getAttributesByName("NAME").isEmpty());
+    }
+
+    @Test
+    public void testLookupsDoNotRebuildTheIndex() {
+        ModelIndex index = model.getIndex();
+        model.getEntityByName("ORDER");
+        model.getAttributeByName("CUSTOMER", "NAME");
+        model.getAttributesByName("NAME");
+        model.getEntityByName("CUSTOMER");
+        model.getAttributeByName("CUSTOMER", "ID");
+        assertSame(index, model.getIndex());
+    }
+
+    @Test
+    public void testEntityChangesInvalidateTheIndex() {
+        assertNull(model.getEntityByName("ORDER"));
+        ModelEntity order = new ModelEntity("e2", "ORDER");
+        model.addModelEntity(order);
+        assertSame(order, model.getEntityByName("ORDER"));
+
+        order.setName("PURCHASE");
+        assertNull(model.getEntityByName("ORDER"));
+        assertSame(order, model.getEntityByName("PURCHASE"));
+
+        order.setId("e3");
+        assertNull(model.getEntityById("e2"));
+        assertSame(order, model.getEntityById("e3"));
+
+        model.removeModelEntity(order);
+        assertNull(model.getEntityByName("PURCHASE"));
+
+        model.setModelEntities(new ArrayList<ModelEntity>());
+        assertNull(model.getEntityById("e1"));
+    }
+
+    @Test
+    public void testAttributeChangesInvalidateTheIndex() {
+        assertNull(model.getAttributeByName("CUSTOMER", "NAME"));
+        ModelAttribute name = new ModelAttribute("a2", "e1", "NAME");
+        customer.addModelAttribute(name);
+        assertSame(name, model.getAttributeByName("CUSTOMER", "NAME"));
+        assertEquals(2, model.getEntityDataSchema().size());
+
+        name.setName("FULL_NAME");
+        assertNull(model.getAttributeByName("CUSTOMER", "NAME"));
+        assertSame(name, model.getAttributesByName("FULL_NAME").get(0));
+
+        name.setId("a3");
+        assertNull(model.getAttributeById("a2"));
+        assertSame(name, model.getAttributeById("a3"));
+
+        customer.removeModelAttribute(name);
+        assertNull(model.getAttributeById("a3"));
+        assertEquals(1, model.getEntityDataSchema().size());
+
+        customer.setModelAttributes(new ArrayList<ModelAttribute>());
+        assertNull(model.getAttributeById("a1"));
+    }
+
+}
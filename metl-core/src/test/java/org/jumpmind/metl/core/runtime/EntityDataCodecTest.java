@@ -0,0 +1,78 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.Arrays;
+
+import org.jumpmind.metl.core.runtime.EntityData.ChangeType;
+import org.junit.Test;
+
+public class EntityDataCodecTest {
+
+    EntityDataSchema schema = new EntityDataSchema(Arrays.asList("a1", "b2", "c3"));
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        EntityDataCodec codec = new EntityDataCodec(schema);
+
+        EntityData first = new EntityData(schema);
+        first.put("a1", "café");
+        first.put("b2", new BigDecimal("-12.340"));
+        first.put("c3", null);
+        first.put("other", new Timestamp(123456789));
+        first.setChangeType(ChangeType.DEL);
+
+        EntityData second = new EntityData(schema);
+        second.put("B2", 5l);
+        second.put("bytes", new byte[] { 1, 2, 3 });
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            codec.write(out, first);
+            codec.write(out, second);
+            codec.writeEnd(out);
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        EntityData read = codec.read(in);
+        assertEquals(first, read);
+        assertEquals(ChangeType.DEL, read.getChangeType());
+        assertEquals(new BigDecimal("-12.340"), read.get("b2"));
+
+        read = codec.read(in);
+        assertEquals(5l, read.get("b2"));
+        assertArrayEquals(new byte[] { 1, 2, 3 }, (byte[]) read.get("bytes"));
+        assertEquals(ChangeType.ADD, read.getChangeType());
+
+        assertNull(codec.read(in));
+    }
+
+}
@@ -0,0 +1,196 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class EntityDataTest {
+
+    EntityDataSchema schema = new EntityDataSchema(Arrays.asList("a1", "b2", "c3"));
+
+    @Test
+    public void testSchemaBackedMapContract() {
+        EntityData data = new EntityData(schema);
+        assertTrue(data.isEmpty());
+        data.put("c3", 3);
+        data.put("a1", null);
+        data.put("other", "x");
+        assertEquals(3, data.size());
+        assertTrue(data.containsKey("a1"));
+        assertFalse(data.containsKey("b2"));
+        assertNull(data.get("b2"));
+        assertEquals(3, data.get("C3"));
+        assertEquals("x", data.get("OTHER"));
+
+        Map<String, Object> expected = new HashMap<>();
+        expected.put("a1", null);
+        expected.put("c3", 3);
+        expected.put("other", "x");
+        assertEquals(expected, data);
+        assertEquals(expected, new HashMap<>(data));
+
+        assertEquals(3, data.remove("c3"));
+        assertEquals(2, data.size());
+        data.clear();
+        assertTrue(data.isEmpty());
+    }
+
+    @Test
+    public void testCopyIsIndependent() {
+        EntityData data = new EntityData(schema);
+        data.put("a1", "one");
+        data.put("other", "x");
+        data.setChangeType(EntityData.ChangeType.CHG);
+
+        EntityData copy = data.copy();
+        assertEquals(data, copy);
+        assertEquals(EntityData.ChangeType.CHG, copy.getChangeType());
+
+        copy.put("a1", "two");
+        copy.remove("other");
+        assertEquals("one", data.get("a1"));
+        assertEquals("x", data.get("other"));
+    }
+
+    @Test
+    public void testSharedRowsCopyOnWrite() {
+        EntityData data = new EntityData(schema);
+        data.put("a1", "one");
+        data.put("b2", "two");
+        data.put("other", "x");
+
+        EntityData shared = data.share();
+        assertEquals(data, shared);
+        assertSame(data.values, shared.values);
+
+        shared.put("a1", "changed");
+        shared.remove("other");
+        assertEquals("one", data.get("a1"));
+        assertEquals("x", data.get("other"));
+        assertEquals("changed", shared.get("a1"));
+        assertFalse(shared.containsKey("other"));
+
+        EntityData sharedAgain = data.share();
+        data.entrySet().iterator().next().setValue("changed again");
+        data.put("c3", 3);
+        assertEquals("one", sharedAgain.get("a1"));
+        assertNull(sharedAgain.get("c3"));
+        assertEquals(3, sharedAgain.size());
+
+        sharedAgain.clear();
+        assertEquals(4, data.size());
+    }
+
+    @Test
+    public void testRowsWithoutSchemaAreCopiedWhenShared() {
+        EntityData data = new EntityData();
+        data.put("a1", "one");
+        EntityData shared = data.share();
+        shared.put("a1", "changed");
+        assertEquals("one", data.get("a1"));
+    }
+
+    @Test
+    public void testIteratorRemove() {
+        EntityData data = new EntityData(schema);
+        data.put("b2", 2);
+        data.put("other", "x");
+        Iterator<Map.Entry<String, Object>> i = data.entrySet().iterator();
+        assertEquals("b2", i.next().getKey());
+        i.remove();
+        assertEquals("other", i.next().getKey());
+        assertFalse(i.hasNext());
+        assertEquals(1, data.size());
+        assertFalse(data.containsKey("b2"));
+    }
+
+    @Test
+    public void testInsertionOrderIsKept() {
+        EntityData data = new EntityData(schema);
+        data.put("c3", 3);
+        data.put("other", "x");
+        data.put("a1", 1);
+        data.put("C3", 33);
+        assertEquals(Arrays.asList("c3", "other", "a1"), new ArrayList<>(data.keySet()));
+        assertEquals(Arrays.asList(33, "x", 1), new ArrayList<>(data.values()));
+    }
+
+    @Test
+    public void testWideRows() {
+        List<String> attributeIds = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            attributeIds.add("attr" + i);
+        }
+        EntityDataSchema wide = new EntityDataSchema(attributeIds);
+        EntityData data = new EntityData(wide);
+        for (int i = 499; i >= 0; i -= 2) {
+            data.putOrdinal(i, i);
+        }
+        assertEquals(250, data.size());
+        for (int i = 0; i < 500; i++) {
+            assertEquals(i % 2 == 1 ? Integer.valueOf(i) : null, data.get("ATTR" + i));
+        }
+        assertEquals("attr499", data.keySet().iterator().next());
+
+        for (int i = 1; i < 500; i += 4) {
+            assertEquals(i, data.remove("attr" + i));
+        }
+        assertEquals(125, data.size());
+        for (int i = 3; i < 500; i += 4) {
+            assertEquals(i, data.get("attr" + i));
+        }
+        assertFalse(data.containsKey("attr1"));
+    }
+
+    @Test
+    public void testSchemaLookupsAreCaseInsensitive() {
+        assertEquals(1, schema.getOrdinal("b2"));
+        assertEquals(1, schema.getOrdinal("B2"));
+        assertEquals(1, schema.getOrdinal("B2"));
+        assertEquals(-1, schema.getOrdinal("other"));
+        assertEquals(-1, schema.getOrdinal("other"));
+        assertEquals(Integer.valueOf(1), schema.aliases.get("B2"));
+        assertEquals(Integer.valueOf(-1), schema.aliases.get("other"));
+    }
+
+    @Test
+    public void testNullAttributeIdIsNotInTheSchema() {
+        assertEquals(-1, schema.getOrdinal(null));
+        EntityData data = new EntityData(schema);
+        data.put("a1", 1);
+        assertNull(data.get(null));
+        assertFalse(data.containsKey(null));
+    }
+
+}
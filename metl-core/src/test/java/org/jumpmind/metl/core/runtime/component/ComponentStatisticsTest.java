@@ -0,0 +1,139 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ComponentStatisticsTest {
+
+    @Test
+    public void testConcurrentIncrementsAreNotLost() throws Exception {
+        ComponentStatistics statistics = new ComponentStatistics();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread thread = new Thread(() -> {
+                for (int j = 0; j < 100000; j++) {
+                    statistics.incrementNumberEntitiesProcessed(1);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(400000, statistics.getNumberEntitiesProcessed(1));
+        assertEquals(0, statistics.getNumberEntitiesProcessed(5));
+    }
+
+    @Test
+    public void testCountersAreKeptPerThread() {
+        ComponentStatistics statistics = new ComponentStatistics();
+        statistics.incrementInboundMessages(1);
+        statistics.incrementInboundMessages(3);
+        statistics.incrementInboundMessages(3);
+        statistics.incrementOutboundMessages(3);
+        statistics.incrementNumberEntitiesProcessed(1);
+        statistics.incrementNumberEntitiesProcessed(1, 4);
+        statistics.incrementNumberInboundPayload(1);
+        statistics.incrementNumberInboundPayload(1, 9);
+        statistics.incrementNumberOutboundPayload(3);
+        statistics.incrementNumberOutboundPayload(3, 2);
+
+        assertEquals(1, statistics.getNumberInboundMessages(1));
+        assertEquals(2, statistics.getNumberInboundMessages(3));
+        assertEquals(0, statistics.getNumberOutboundMessages(1));
+        assertEquals(1, statistics.getNumberOutboundMessages(3));
+        assertEquals(5, statistics.getNumberEntitiesProcessed(1));
+        assertEquals(0, statistics.getNumberEntitiesProcessed(3));
+        assertEquals(10, statistics.getNumberInboundPayload(1));
+        assertEquals(3, statistics.getNumberOutboundPayload(3));
+        assertEquals(0, statistics.getNumberOutboundPayload(2));
+    }
+
+    @Test
+    public void testSetReplacesValue() {
+        ComponentStatistics statistics = new ComponentStatistics();
+        statistics.incrementInboundMessages(2);
+        statistics.incrementOutboundMessages(2);
+        statistics.incrementNumberEntitiesProcessed(2, 10);
+        statistics.incrementNumberInboundPayload(2, 10);
+        statistics.incrementNumberOutboundPayload(2, 10);
+
+        statistics.setNumberInboundMessages(2, 7);
+        statistics.setNumberOutboundMessages(2, 6);
+        statistics.setNumberEntitiesProcessed(2, 5);
+        statistics.setNumberInboundPayload(2, 4);
+        statistics.setNumberOutboundPayload(2, 3);
+
+        assertEquals(7, statistics.getNumberInboundMessages(2));
+        assertEquals(6, statistics.getNumberOutboundMessages(2));
+        assertEquals(5, statistics.getNumberEntitiesProcessed(2));
+        assertEquals(4, statistics.getNumberInboundPayload(2));
+        assertEquals(3, statistics.getNumberOutboundPayload(2));
+    }
+
+    @Test
+    public void testSendWaits() {
+        ComponentStatistics statistics = new ComponentStatistics();
+        statistics.recordSendWait(1, TimeUnit.MILLISECONDS.toNanos(3));
+        statistics.recordSendWait(1, 0);
+        statistics.incrementTimeSpentWaiting(1, 2);
+        assertEquals(5, statistics.getTimeSpentWaiting(1));
+        assertEquals(0, statistics.getTimeSpentWaiting(2));
+        LatencyHistogram histogram = statistics.getSendWaits(1);
+        assertEquals(2, histogram.getCount());
+        assertEquals(1, histogram.getPercentileMicros(50));
+        assertEquals(3000, histogram.getPercentileMicros(99));
+    }
+
+    @Test
+    public void testQueueWaits() {
+        ComponentStatistics statistics = new ComponentStatistics();
+        statistics.recordQueueWait(1, TimeUnit.MILLISECONDS.toNanos(2));
+        assertEquals(0, statistics.getTimeSpentWaiting(1));
+        assertEquals(1, statistics.getQueueWaits(1).getCount());
+        assertEquals(2000, statistics.getQueueWaits(1).getMaxMicros());
+        assertEquals(0, statistics.getSendWaits(1).getCount());
+    }
+
+    @Test
+    public void testHandleTimes() {
+        ComponentStatistics statistics = new ComponentStatistics();
+        for (int i = 1; i <= 100; i++) {
+            statistics.recordHandleTime(1, TimeUnit.MICROSECONDS.toNanos(i < 100 ? 10 : 5000));
+        }
+        statistics.incrementTimeSpentInHandle(1, 5);
+        assertEquals(10, statistics.getTimeSpentInHandle(1));
+        LatencyHistogram histogram = statistics.getHandleTimes(1);
+        assertEquals(100, histogram.getCount());
+        assertEquals(16, histogram.getPercentileMicros(50));
+        assertTrue(histogram.getPercentileMicros(100) >= 4096);
+        assertEquals(5000, histogram.getMaxMicros());
+    }
+}
@@ -0,0 +1,75 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.jumpmind.metl.core.runtime.component.DigestKeySet.Digest;
+import org.junit.Test;
+
+public class DigestKeySetTest {
+
+    @Test
+    public void testSpilledKeysStayExact() {
+        DigestKeySet keys = new DigestKeySet(100, 10000);
+        Digest[] digests = new Digest[5000];
+        Random random = new Random(1);
+        for (int i = 0; i < digests.length; i++) {
+            digests[i] = new Digest(random.nextLong(), random.nextLong());
+            assertTrue(keys.add(digests[i]));
+        }
+        assertTrue(keys.getRunCount() > 0);
+        assertRunsAreTiered(keys);
+        for (Digest digest : digests) {
+            assertFalse(keys.add(new Digest(digest.hi, digest.lo)));
+        }
+        assertEquals(digests.length, keys.size());
+
+        keys.clear();
+        assertEquals(0, keys.size());
+        assertTrue(keys.add(digests[0]));
+    }
+
+    @Test
+    public void testRunCountGrowsLogarithmically() {
+        DigestKeySet keys = new DigestKeySet(10, 0);
+        Random random = new Random(2);
+        for (int i = 0; i < 10240; i++) {
+            assertTrue(keys.add(new Digest(random.nextLong(), random.nextLong())));
+            assertRunsAreTiered(keys);
+        }
+        // 1024 spills of 10 keys end up as a single run
+        assertEquals(1, keys.getRunCount());
+        assertEquals(10240, keys.runs.get(0).count);
+        assertEquals(10240, keys.size());
+    }
+
+    private static void assertRunsAreTiered(DigestKeySet keys) {
+        for (int i = 1; i < keys.runs.size(); i++) {
+            assertTrue(keys.runs.get(i - 1).count > keys.runs.get(i).count);
+        }
+    }
+
+}
@@ -0,0 +1,59 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.jumpmind.metl.core.runtime.EntityData;
+import org.jumpmind.metl.core.runtime.EntityDataCodec;
+import org.jumpmind.metl.core.runtime.component.DigestKeySet.Digest;
+import org.junit.Test;
+
+public class LastRecordMapTest {
+
+    @Test
+    public void testSpilledRecordsKeepTheLastRecordInFirstPutOrder() {
+        LastRecordMap records = new LastRecordMap(50, new EntityDataCodec(null));
+        Map<Digest, String> expected = new LinkedHashMap<Digest, String>();
+        Random random = new Random(3);
+        for (int i = 0; i < 5000; i++) {
+            Digest digest = new Digest(random.nextInt(700), 7);
+            EntityData record = new EntityData();
+            record.put("value", "value" + i);
+            records.put(digest, record);
+            expected.put(digest, "value" + i);
+        }
+        assertTrue(records.getRunCount() > 0);
+
+        List<String> values = new ArrayList<String>();
+        records.read(record -> values.add((String) record.get("value")));
+        assertEquals(new ArrayList<String>(expected.values()), values);
+        assertEquals(0, records.getRunCount());
+    }
+
+}
@@ -0,0 +1,131 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.flow;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+import org.jumpmind.metl.core.model.Agent;
+import org.jumpmind.metl.core.model.AgentDeployment;
+import org.jumpmind.metl.core.model.Component;
+import org.jumpmind.metl.core.model.Flow;
+import org.jumpmind.metl.core.model.FlowStep;
+import org.jumpmind.metl.core.model.Folder;
+import org.jumpmind.metl.core.model.Setting;
+import org.jumpmind.metl.core.plugin.IDefinitionFactory;
+import org.jumpmind.metl.core.plugin.XMLComponentDefinition;
+import org.jumpmind.metl.core.plugin.XMLSetting;
+import org.jumpmind.metl.core.plugin.XMLSettings;
+import org.jumpmind.metl.core.runtime.component.ComponentContext;
+import org.jumpmind.metl.core.runtime.component.IComponentRuntime;
+import org.jumpmind.metl.core.runtime.component.IComponentRuntimeFactory;
+import org.jumpmind.metl.core.runtime.component.NoOp;
+import org.jumpmind.metl.core.utils.TestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.mockito.Mockito;
+
+/**
+ * Builds flows out of test components and runs them through a real
+ * {@link FlowRuntime}, with a thread per step just like an agent does.
+ */
+public abstract class AbstractFlowRuntimeTest {
+
+    protected ExecutorService threadService;
+
+    protected Folder folder;
+
+    protected Agent agent;
+
+    protected Flow flow;
+
+    protected IDefinitionFactory definitionFactory;
+
+    protected Map<String, Supplier<IComponentRuntime>> componentSuppliers;
+
+    @Before
+    public void setupFlow() throws Exception {
+        threadService = Executors.newCachedThreadPool();
+        folder = TestUtils.createFolder("Test Folder");
+        agent = TestUtils.createAgent("agent", folder);
+        flow = TestUtils.createFlow("TestFlow", folder);
+        definitionFactory = Mockito.mock(IDefinitionFactory.class);
+        componentSuppliers = new HashMap<String, Supplier<IComponentRuntime>>();
+        registerComponent(NoOp.TYPE, false, () -> new NoOp());
+    }
+
+    @After
+    public void tearDownFlow() throws Exception {
+        threadService.shutdownNow();
+    }
+
+    protected void registerComponent(String type, boolean stateless, Supplier<IComponentRuntime> supplier) {
+        XMLComponentDefinition definition = new XMLComponentDefinition();
+        definition.setId(type);
+        definition.setName(type);
+        definition.setStateless(stateless);
+        XMLSettings settings = new XMLSettings();
+        settings.setSetting(new ArrayList<XMLSetting>());
+        definition.setSettings(settings);
+        Mockito.when(definitionFactory.getComponentDefinition(null, type)).thenReturn(definition);
+        componentSuppliers.put(type, supplier);
+    }
+
+    protected FlowStep addStep(String name, String type, Setting... settings) {
+        Component component = TestUtils.createComponent(type, false, null, null, null, null, null, settings);
+        component.setName(name);
+        FlowStep step = new FlowStep(component);
+        step.setId(name);
+        step.setName(name);
+        step.setFlowId(flow.getId());
+        flow.getFlowSteps().add(step);
+        return step;
+    }
+
+    protected void link(FlowStep source, FlowStep target) {
+        flow.getFlowStepLinks().add(TestUtils.createComponentLink(source, target));
+    }
+
+    protected FlowRuntime createFlowRuntime() {
+        AgentDeployment deployment = TestUtils.createAgentDeployment("deployment", agent, flow);
+        deployment.setName("deployment");
+        IComponentRuntimeFactory componentRuntimeFactory = new IComponentRuntimeFactory() {
+            @Override
+            public IComponentRuntime create(String projectVersionId, String type, ComponentContext context, int threadNumber) {
+                IComponentRuntime runtime = componentSuppliers.get(type).get();
+                runtime.create(definitionFactory.getComponentDefinition(projectVersionId, type), context, threadNumber);
+                return runtime;
+            }
+        };
+        return new FlowRuntime("execution", "test", deployment, agent, componentRuntimeFactory, definitionFactory, threadService,
+                null, null, new HashMap<>(), null, new HashMap<>());
+    }
+
+    @SuppressWarnings("unchecked")
+    protected <T extends IComponentRuntime> T getComponentRuntime(FlowRuntime flowRuntime, FlowStep step) {
+        return (T) flowRuntime.stepRuntimes.get(step.getId()).getComponentRuntimes().get(0);
+    }
+
+}
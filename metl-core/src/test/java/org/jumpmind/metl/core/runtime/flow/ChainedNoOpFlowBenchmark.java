@@ -0,0 +1,133 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.flow;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.jumpmind.metl.core.model.FlowStep;
+import org.jumpmind.metl.core.runtime.EntityData;
+import org.jumpmind.metl.core.runtime.EntityDataMessage;
+import org.jumpmind.metl.core.runtime.Message;
+import org.jumpmind.metl.core.runtime.component.AbstractComponentRuntime;
+import org.jumpmind.metl.core.runtime.component.NoOp;
+import org.junit.Assume;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Measures how long a single row takes to travel through a chain of No Op
+ * steps. Only runs when the metl.benchmark system property is set to true.
+ * <p>
+ * Ten No Op steps sit between a sender and a receiver. The mean, median and
+ * max of 200 round trips are logged so runs on the same machine can be
+ * compared before and after a change to step dispatch.
+ */
+public class ChainedNoOpFlowBenchmark extends AbstractFlowRuntimeTest {
+
+    static final Logger log = LoggerFactory.getLogger(ChainedNoOpFlowBenchmark.class);
+
+    static final int NO_OP_STEPS = 10;
+
+    static final int ROUND_TRIPS = 200;
+
+    BlockingQueue<Long> arrivals = new LinkedBlockingQueue<Long>();
+
+    long[] latencies = new long[ROUND_TRIPS];
+
+    @Test
+    public void testRoundTripLatency() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean("metl.benchmark"));
+
+        registerComponent("Sender", false, () -> new Sender());
+        registerComponent("Receiver", false, () -> new Receiver());
+        FlowStep previous = addStep("sender", "Sender");
+        for (int i = 1; i <= NO_OP_STEPS; i++) {
+            FlowStep step = addStep("noop" + i, NoOp.TYPE);
+            link(previous, step);
+            previous = step;
+        }
+        link(previous, addStep("receiver", "Receiver"));
+
+        FlowRuntime flowRuntime = createFlowRuntime();
+        flowRuntime.execute();
+        assertEquals(0, flowRuntime.getAllErrors().size());
+
+        Arrays.sort(latencies);
+        long total = 0;
+        for (long latency : latencies) {
+            total += latency;
+        }
+        log.info(String.format("%d round trips through %d No Op steps: mean %.2f ms, median %.2f ms, max %.2f ms", ROUND_TRIPS,
+                NO_OP_STEPS, total / (double) ROUND_TRIPS / 1000000, latencies[ROUND_TRIPS / 2] / 1000000d,
+                latencies[ROUND_TRIPS - 1] / 1000000d));
+    }
+
+    class Sender extends AbstractComponentRuntime {
+
+        @Override
+        public boolean supportsStartupMessages() {
+            return true;
+        }
+
+        @Override
+        public void handle(Message inputMessage, ISendMessageCallback callback, boolean unitOfWorkBoundaryReached) {
+            try {
+                for (int i = 0; i < ROUND_TRIPS; i++) {
+                    ArrayList<EntityData> payload = new ArrayList<EntityData>();
+                    EntityData row = new EntityData();
+                    row.put("id", i);
+                    payload.add(row);
+                    long ts = System.nanoTime();
+                    callback.sendEntityDataMessage(null, payload);
+                    Long arrival = arrivals.poll(10, TimeUnit.SECONDS);
+                    assertNotNull(arrival);
+                    latencies[i] = arrival - ts;
+                }
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    class Receiver extends AbstractComponentRuntime {
+
+        @Override
+        public boolean supportsStartupMessages() {
+            return false;
+        }
+
+        @Override
+        public void handle(Message inputMessage, ISendMessageCallback callback, boolean unitOfWorkBoundaryReached) {
+            if (inputMessage instanceof EntityDataMessage) {
+                arrivals.add(System.nanoTime());
+            }
+        }
+    }
+
+}
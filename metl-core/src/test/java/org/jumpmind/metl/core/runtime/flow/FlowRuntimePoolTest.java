@@ -0,0 +1,102 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.flow;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class FlowRuntimePoolTest {
+
+    AtomicInteger built = new AtomicInteger();
+
+    Callable<FlowRuntime> factory = new Callable<FlowRuntime>() {
+        @Override
+        public FlowRuntime call() throws Exception {
+            built.incrementAndGet();
+            return Mockito.mock(FlowRuntime.class);
+        }
+    };
+
+    Executor sameThread = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Test
+    public void testWarmsToMinimumAndReplacesCheckedOutRuntimes() {
+        FlowRuntimePool pool = new FlowRuntimePool("test", 2, 3, factory, sameThread);
+        pool.warm();
+        assertEquals(2, pool.getIdleCount());
+        assertEquals(2, built.get());
+
+        FlowRuntime first = pool.checkout();
+        FlowRuntime second = pool.checkout();
+        assertNotNull(first);
+        assertNotNull(second);
+        assertNotSame(first, second);
+        assertEquals(2, pool.getIdleCount());
+        assertEquals(4, built.get());
+    }
+
+    @Test
+    public void testNeverBuildsMoreThanMaximum() {
+        final List<Runnable> scheduled = new ArrayList<Runnable>();
+        FlowRuntimePool pool = new FlowRuntimePool("test", 0, 2, factory, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                scheduled.add(command);
+            }
+        });
+        assertNull(pool.checkout());
+        assertNull(pool.checkout());
+        assertNull(pool.checkout());
+        assertEquals(2, scheduled.size());
+
+        for (Runnable runnable : scheduled) {
+            runnable.run();
+        }
+        assertEquals(2, pool.getIdleCount());
+        assertEquals(2, built.get());
+    }
+
+    @Test
+    public void testClosedPoolHandsOutNothing() {
+        FlowRuntimePool pool = new FlowRuntimePool("test", 1, 1, factory, sameThread);
+        pool.warm();
+        pool.close();
+        assertNull(pool.checkout());
+        assertEquals(0, pool.getIdleCount());
+    }
+
+}
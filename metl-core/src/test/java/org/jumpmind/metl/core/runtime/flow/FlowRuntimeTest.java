@@ -0,0 +1,249 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.flow;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.jumpmind.metl.core.model.FlowStep;
+import org.jumpmind.metl.core.model.Setting;
+import org.jumpmind.metl.core.runtime.EntityData;
+import org.jumpmind.metl.core.runtime.EntityDataMessage;
+import org.jumpmind.metl.core.runtime.EntityDataSchema;
+import org.jumpmind.metl.core.runtime.Message;
+import org.jumpmind.metl.core.runtime.component.AbstractComponentRuntime;
+import org.jumpmind.metl.core.runtime.component.ComponentSettingsConstants;
+import org.jumpmind.metl.core.runtime.component.NoOp;
+import org.junit.Test;
+
+public class FlowRuntimeTest extends AbstractFlowRuntimeTest {
+
+    static final String SOURCE = "Source";
+
+    static final String FUSABLE = "Fusable";
+
+    static final String RECORDER = "Recorder";
+
+    static final String BLOCKER = "Blocker";
+
+    @Test
+    public void testStatelessStepRunsOnItsSourceThread() throws Exception {
+        registerComponents();
+        FlowStep source = addStep("source", SOURCE);
+        FlowStep fused = addStep("fused", FUSABLE);
+        FlowStep target = addStep("target", RECORDER);
+        link(source, fused);
+        link(fused, target);
+
+        FlowRuntime flowRuntime = createFlowRuntime();
+        assertFalse(flowRuntime.stepRuntimes.get(source.getId()).isFused());
+        assertTrue(flowRuntime.stepRuntimes.get(fused.getId()).isFused());
+        assertFalse(flowRuntime.stepRuntimes.get(target.getId()).isFused());
+
+        flowRuntime.start();
+        waitForCompletion(flowRuntime);
+
+        Source sourceRuntime = getComponentRuntime(flowRuntime, source);
+        Recorder fusedRuntime = getComponentRuntime(flowRuntime, fused);
+        Recorder targetRuntime = getComponentRuntime(flowRuntime, target);
+        assertSame(sourceRuntime.handledBy, fusedRuntime.handledBy);
+        assertFalse(targetRuntime.handledBy == sourceRuntime.handledBy);
+
+        EntityDataMessage received = (EntityDataMessage) targetRuntime.received.poll(5, TimeUnit.SECONDS);
+        assertNotNull(received);
+        assertEquals("value", received.getPayload().get(0).get("a1"));
+        assertTrue(flowRuntime.stepRuntimes.get(fused.getId()).getComponentContext().getComponentStatistics()
+                .getNumberInboundMessages(1) > 0);
+    }
+
+    @Test
+    public void testRowsHandedOverToAFusedStepAreNotCopied() throws Exception {
+        registerComponents();
+        FlowStep source = addStep("source", SOURCE,
+                new Setting(ComponentSettingsConstants.COPY_OUTBOUND_PAYLOAD, "false"));
+        FlowStep fused = addStep("fused", FUSABLE);
+        link(source, fused);
+
+        FlowRuntime flowRuntime = createFlowRuntime();
+        flowRuntime.start();
+        waitForCompletion(flowRuntime);
+
+        Source sourceRuntime = getComponentRuntime(flowRuntime, source);
+        Recorder fusedRuntime = getComponentRuntime(flowRuntime, fused);
+        EntityDataMessage received = null;
+        for (Message message : fusedRuntime.received) {
+            if (message instanceof EntityDataMessage) {
+                received = (EntityDataMessage) message;
+            }
+        }
+        assertSame(sourceRuntime.sent, received.getPayload());
+    }
+
+    @Test
+    public void testCancelStopsAFusedChain() throws Exception {
+        registerComponents();
+        FlowStep source = addStep("source", SOURCE);
+        FlowStep fused = addStep("fused", BLOCKER);
+        FlowStep target = addStep("target", RECORDER);
+        link(source, fused);
+        link(fused, target);
+
+        FlowRuntime flowRuntime = createFlowRuntime();
+        assertTrue(flowRuntime.stepRuntimes.get(fused.getId()).isFused());
+        flowRuntime.start();
+        Blocker blocker = getComponentRuntime(flowRuntime, fused);
+        assertTrue(blocker.entered.await(5, TimeUnit.SECONDS));
+
+        flowRuntime.cancel();
+        waitForCompletion(flowRuntime);
+
+        for (StepRuntime stepRuntime : flowRuntime.stepRuntimes.values()) {
+            assertFalse(stepRuntime.isRunning());
+        }
+        Recorder targetRuntime = getComponentRuntime(flowRuntime, target);
+        for (Message message : targetRuntime.received) {
+            assertFalse(message instanceof EntityDataMessage);
+        }
+    }
+
+    @Test
+    public void testStepIsNotFusedWhenItsSourceIsDownstream() throws Exception {
+        registerComponents();
+        FlowStep start = addStep("start", NoOp.TYPE);
+        FlowStep source = addStep("source", RECORDER);
+        FlowStep fusable = addStep("fusable", FUSABLE);
+        FlowStep target = addStep("target", RECORDER);
+        link(start, source);
+        link(source, fusable);
+        link(fusable, target);
+        link(target, source);
+
+        FlowRuntime flowRuntime = createFlowRuntime();
+        assertFalse(flowRuntime.stepRuntimes.get(fusable.getId()).isFused());
+    }
+
+    @Test
+    public void testCycleOfStatelessStepsIsNotFused() throws Exception {
+        registerComponents();
+        FlowStep first = addStep("first", FUSABLE);
+        FlowStep second = addStep("second", FUSABLE);
+        link(first, second);
+        link(second, first);
+
+        FlowRuntime flowRuntime = createFlowRuntime();
+        assertFalse(flowRuntime.stepRuntimes.get(first.getId()).isFused());
+        assertFalse(flowRuntime.stepRuntimes.get(second.getId()).isFused());
+    }
+
+    protected void registerComponents() {
+        registerComponent(SOURCE, false, () -> new Source());
+        registerComponent(FUSABLE, true, () -> new Recorder());
+        registerComponent(RECORDER, false, () -> new Recorder());
+        registerComponent(BLOCKER, true, () -> new Blocker());
+    }
+
+    protected void waitForCompletion(FlowRuntime flowRuntime) throws Exception {
+        long ts = System.currentTimeMillis();
+        while (flowRuntime.isRunning() && System.currentTimeMillis() - ts < 10000) {
+            Thread.sleep(5);
+        }
+        assertFalse("The flow did not finish", flowRuntime.isRunning());
+    }
+
+    static class Source extends AbstractComponentRuntime {
+
+        volatile Thread handledBy;
+
+        volatile ArrayList<EntityData> sent;
+
+        @Override
+        public boolean supportsStartupMessages() {
+            return true;
+        }
+
+        @Override
+        public void handle(Message inputMessage, ISendMessageCallback callback, boolean unitOfWorkBoundaryReached) {
+            handledBy = Thread.currentThread();
+            EntityData row = new EntityData(new EntityDataSchema(Arrays.asList("a1")));
+            row.put("a1", "value");
+            sent = new ArrayList<>();
+            sent.add(row);
+            callback.sendEntityDataMessage(null, sent);
+        }
+    }
+
+    static class Recorder extends AbstractComponentRuntime {
+
+        BlockingQueue<Message> received = new LinkedBlockingQueue<Message>();
+
+        volatile Thread handledBy;
+
+        @Override
+        public boolean supportsStartupMessages() {
+            return false;
+        }
+
+        @Override
+        public void handle(Message inputMessage, ISendMessageCallback callback, boolean unitOfWorkBoundaryReached) {
+            handledBy = Thread.currentThread();
+            received.add(inputMessage);
+            callback.forward(inputMessage);
+        }
+    }
+
+    static class Blocker extends AbstractComponentRuntime {
+
+        CountDownLatch entered = new CountDownLatch(1);
+
+        @Override
+        public boolean supportsStartupMessages() {
+            return false;
+        }
+
+        @Override
+        public void handle(Message inputMessage, ISendMessageCallback callback, boolean unitOfWorkBoundaryReached) {
+            if (inputMessage instanceof EntityDataMessage) {
+                entered.countDown();
+                while (!interrupted) {
+                    try {
+                        Thread.sleep(1);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            } else {
+                callback.forward(inputMessage);
+            }
+        }
+    }
+
+}
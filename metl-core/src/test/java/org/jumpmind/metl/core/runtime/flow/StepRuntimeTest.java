@@ -0,0 +1,241 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.flow;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.jumpmind.metl.core.model.FlowStep;
+import org.jumpmind.metl.core.model.Setting;
+import org.jumpmind.metl.core.runtime.ControlMessage;
+import org.jumpmind.metl.core.runtime.EntityData;
+import org.jumpmind.metl.core.runtime.EntityDataMessage;
+import org.jumpmind.metl.core.runtime.EntityDataSchema;
+import org.jumpmind.metl.core.runtime.Message;
+import org.jumpmind.metl.core.runtime.ShutdownMessage;
+import org.jumpmind.metl.core.runtime.component.AbstractComponentRuntime;
+import org.jumpmind.metl.core.runtime.component.ComponentSettingsConstants;
+import org.jumpmind.metl.core.runtime.component.NoOp;
+import org.jumpmind.metl.core.util.ThreadUtils;
+import org.junit.Test;
+
+public class StepRuntimeTest extends AbstractFlowRuntimeTest {
+
+    static final String RECORDER = "Recorder";
+
+    static final String MUTATOR = "Mutator";
+
+    /*
+     * A step that has been idle for a while is in the middle of its wake up
+     * timeout. Without a signal it would only notice new work at the end of it.
+     */
+    static final long IDLE_MS = 50;
+
+    static final long MAX_WAKEUP_MS = StepRuntime.DISPATCH_WAKEUP_TIMEOUT_MS / 5;
+
+    @Test
+    public void testIdleStepWakesUpWhenAMessageIsQueued() throws Exception {
+        StepRuntime target = startIdleTarget();
+        Recorder recorder = (Recorder) target.getComponentRuntimes().get(0);
+
+        long ts = System.nanoTime();
+        target.queue(new ControlMessage("source"));
+        Message received = recorder.received.poll(StepRuntime.DISPATCH_WAKEUP_TIMEOUT_MS * 2, TimeUnit.MILLISECONDS);
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - ts);
+
+        assertNotNull(received);
+        assertTrue("Took " + elapsedMs + "ms to handle the message", elapsedMs < MAX_WAKEUP_MS);
+    }
+
+    @Test
+    public void testTimeOnTheInboundQueueIsRecorded() throws Exception {
+        StepRuntime target = startIdleTarget();
+        Recorder recorder = (Recorder) target.getComponentRuntimes().get(0);
+
+        target.queue(new ControlMessage("source"));
+        assertNotNull(recorder.received.poll(StepRuntime.DISPATCH_WAKEUP_TIMEOUT_MS * 2, TimeUnit.MILLISECONDS));
+
+        assertEquals(1, target.getComponentContext().getComponentStatistics().getQueueWaits(1).getCount());
+    }
+
+    @Test
+    public void testIdleStepWakesUpOnShutdown() throws Exception {
+        StepRuntime target = startIdleTarget();
+
+        long ts = System.nanoTime();
+        target.queue(new ShutdownMessage("source"));
+        while (target.isRunning() && TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - ts) < StepRuntime.DISPATCH_WAKEUP_TIMEOUT_MS * 2) {
+            Thread.sleep(1);
+        }
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - ts);
+
+        assertFalse(target.isRunning());
+        assertTrue("Took " + elapsedMs + "ms to shut down", elapsedMs < MAX_WAKEUP_MS);
+    }
+
+    @Test
+    public void testMultiThreadedStepRunsOnTheAgentThreadType() throws Exception {
+        agent.setUseVirtualThreads(true);
+        StepRuntime target = startIdleTarget(new Setting(StepRuntime.THREAD_COUNT, "2"));
+        Recorder recorder = (Recorder) target.getComponentRuntimes().get(0);
+
+        target.queue(new ControlMessage("source"));
+        assertNotNull(recorder.received.poll(StepRuntime.DISPATCH_WAKEUP_TIMEOUT_MS * 2, TimeUnit.MILLISECONDS));
+
+        Thread thread = recorder.handledBy;
+        assertTrue(thread.getName(), thread.getName().startsWith("agent-target-"));
+        assertEquals(ThreadUtils.isVirtualThreadsSupported(), isVirtual(thread));
+    }
+
+    @Test
+    public void testMultiThreadedStepRunsOnPlatformThreadsByDefault() throws Exception {
+        StepRuntime target = startIdleTarget(new Setting(StepRuntime.THREAD_COUNT, "2"));
+        Recorder recorder = (Recorder) target.getComponentRuntimes().get(0);
+
+        target.queue(new ControlMessage("source"));
+        assertNotNull(recorder.received.poll(StepRuntime.DISPATCH_WAKEUP_TIMEOUT_MS * 2, TimeUnit.MILLISECONDS));
+
+        Thread thread = recorder.handledBy;
+        assertTrue(thread.getName(), thread.getName().startsWith("agent-target-"));
+        assertFalse(isVirtual(thread));
+    }
+
+    @Test
+    public void testTargetsDoNotSeeEachOthersChangesWhenCopying() throws Exception {
+        assertTargetsDoNotSeeEachOthersChanges(true);
+    }
+
+    @Test
+    public void testTargetsDoNotSeeEachOthersChangesWhenHandingOver() throws Exception {
+        assertTargetsDoNotSeeEachOthersChanges(false);
+    }
+
+    protected void assertTargetsDoNotSeeEachOthersChanges(boolean copyOutboundPayload) throws Exception {
+        registerComponent(RECORDER, false, () -> new Recorder());
+        registerComponent(MUTATOR, false, () -> new Mutator());
+        FlowStep source = addStep("source", NoOp.TYPE,
+                new Setting(ComponentSettingsConstants.COPY_OUTBOUND_PAYLOAD, Boolean.toString(copyOutboundPayload)));
+        FlowStep mutator = addStep("mutator", MUTATOR);
+        FlowStep recorder = addStep("recorder", RECORDER);
+        link(source, mutator);
+        link(source, recorder);
+
+        FlowRuntime flowRuntime = createFlowRuntime();
+        for (StepRuntime stepRuntime : flowRuntime.stepRuntimes.values()) {
+            stepRuntime.start();
+            stepRuntime.startRunning();
+            threadService.execute(stepRuntime);
+        }
+
+        EntityData row = new EntityData(new EntityDataSchema(Arrays.asList("a1", "b2")));
+        row.put("a1", "original");
+        row.put("b2", "original");
+        ArrayList<EntityData> rows = new ArrayList<>();
+        rows.add(row);
+        flowRuntime.stepRuntimes.get(source.getId()).queue(new EntityDataMessage("test", rows));
+
+        Mutator mutatorRuntime = getComponentRuntime(flowRuntime, mutator);
+        EntityDataMessage mutated = (EntityDataMessage) mutatorRuntime.received.poll(5, TimeUnit.SECONDS);
+        Recorder recorderRuntime = getComponentRuntime(flowRuntime, recorder);
+        EntityDataMessage recorded = (EntityDataMessage) recorderRuntime.received.poll(5, TimeUnit.SECONDS);
+
+        assertEquals("changed", mutated.getPayload().get(0).get("a1"));
+        assertNull(mutated.getPayload().get(0).get("b2"));
+        assertEquals("original", recorded.getPayload().get(0).get("a1"));
+        assertEquals("original", recorded.getPayload().get(0).get("b2"));
+        if (copyOutboundPayload) {
+            assertEquals("original", row.get("a1"));
+            assertEquals("original", row.get("b2"));
+        }
+    }
+
+    static boolean isVirtual(Thread thread) throws Exception {
+        if (ThreadUtils.isVirtualThreadsSupported()) {
+            return (Boolean) Thread.class.getMethod("isVirtual").invoke(thread);
+        } else {
+            return false;
+        }
+    }
+
+    protected StepRuntime startIdleTarget(Setting... targetSettings) throws Exception {
+        registerComponent(RECORDER, false, () -> new Recorder());
+        FlowStep source = addStep("source", NoOp.TYPE);
+        FlowStep target = addStep("target", RECORDER, targetSettings);
+        link(source, target);
+
+        StepRuntime stepRuntime = createFlowRuntime().stepRuntimes.get(target.getId());
+        stepRuntime.start();
+        stepRuntime.startRunning();
+        threadService.execute(stepRuntime);
+        Thread.sleep(IDLE_MS);
+        return stepRuntime;
+    }
+
+    static class Recorder extends AbstractComponentRuntime {
+
+        BlockingQueue<Message> received = new LinkedBlockingQueue<Message>();
+
+        volatile Thread handledBy;
+
+        @Override
+        public boolean supportsStartupMessages() {
+            return false;
+        }
+
+        @Override
+        public void handle(Message inputMessage, ISendMessageCallback callback, boolean unitOfWorkBoundaryReached) {
+            handledBy = Thread.currentThread();
+            received.add(inputMessage);
+            callback.forward(inputMessage);
+        }
+    }
+
+    static class Mutator extends AbstractComponentRuntime {
+
+        BlockingQueue<Message> received = new LinkedBlockingQueue<Message>();
+
+        @Override
+        public boolean supportsStartupMessages() {
+            return false;
+        }
+
+        @Override
+        public void handle(Message inputMessage, ISendMessageCallback callback, boolean unitOfWorkBoundaryReached) {
+            if (inputMessage instanceof EntityDataMessage) {
+                for (EntityData row : ((EntityDataMessage) inputMessage).getPayload()) {
+                    row.put("a1", "changed");
+                    row.remove("b2");
+                }
+                received.add(inputMessage);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,121 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.web;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jumpmind.metl.core.model.AgentDeployment;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HttpRequestMappingRegistryTest {
+
+    HttpRequestMappingRegistry registry;
+
+    @Before
+    public void setup() {
+        registry = new HttpRequestMappingRegistry();
+        register("/**");
+        register("/api/person/{id}");
+        register("/api/person/new");
+        register("/api/*/list");
+        register("/api/person/{id}/orders/{orderId}");
+        register("/api/person/{personId}/photo");
+        register("/files/{name}.json");
+        register("/docs/**/index");
+    }
+
+    @Test
+    public void testMostSpecificMatchWins() {
+        assertMatch("/api/person/new", "/api/person/new");
+        assertMatch("/api/person/{id}", "/api/person/5");
+        assertMatch("/api/*/list", "/api/order/list");
+        assertMatch("/docs/**/index", "/docs/index");
+        assertMatch("/docs/**/index", "/docs/a/b/index");
+        assertMatch("/**", "/files/a.xml");
+        assertMatch("/**", "/nothing/else");
+        assertNull(registry.findBestMatch(HttpMethod.POST, "/api/person/new"));
+    }
+
+    @Test
+    public void testPriorityWinsOverSpecificity() {
+        HttpRequestMapping mapping = createMapping("/api/**");
+        mapping.setPriority(-1);
+        registry.register(mapping);
+        assertMatch("/api/**", "/api/person/new");
+        assertMatch("/api/**", "/api/person/5/orders/7");
+        assertMatch("/docs/**/index", "/docs/index");
+    }
+
+    @Test
+    public void testTrailingSlashIsNotIgnored() {
+        assertMatch("/**", "/api/person/new/");
+        assertMatch("/**", "/api/person/5/");
+        registry.unregister(createMapping("/**"));
+        assertNull(registry.findBestMatch(HttpMethod.GET, "/api/person/new/"));
+    }
+
+    @Test
+    public void testUriVariablesAreExtracted() {
+        Map<String, String> variables = new HashMap<String, String>();
+        assertEquals("/api/person/{id}/orders/{orderId}", registry.findBestMatch(HttpMethod.GET, "/api/person/5/orders/7", variables).getPath());
+        assertEquals(2, variables.size());
+        assertEquals("5", variables.get("id"));
+        assertEquals("7", variables.get("orderId"));
+
+        variables.clear();
+        assertEquals("/api/person/{personId}/photo", registry.findBestMatch(HttpMethod.GET, "/api/person/5/photo", variables).getPath());
+        assertEquals(1, variables.size());
+        assertEquals("5", variables.get("personId"));
+
+        variables.clear();
+        assertEquals("/files/{name}.json", registry.findBestMatch(HttpMethod.GET, "/files/a.json", variables).getPath());
+        assertEquals("a", variables.get("name"));
+    }
+
+    @Test
+    public void testUnregister() {
+        registry.unregister(createMapping("/**"));
+        assertNull(registry.findBestMatch(HttpMethod.GET, "/nothing/else"));
+        assertMatch("/api/person/new", "/api/person/new");
+    }
+
+    protected void assertMatch(String expectedPattern, String path) {
+        assertEquals(expectedPattern, registry.findBestMatch(HttpMethod.GET, path).getPath());
+    }
+
+    protected void register(String path) {
+        registry.register(createMapping(path));
+    }
+
+    protected HttpRequestMapping createMapping(String path) {
+        HttpRequestMapping mapping = new HttpRequestMapping();
+        mapping.setPath(path);
+        mapping.setMethod(HttpMethod.GET);
+        mapping.setDeployment(new AgentDeployment());
+        return mapping;
+    }
+
+}
@@ -0,0 +1,68 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.codehaus.groovy.runtime.InvokerHelper;
+import org.junit.Test;
+
+import groovy.lang.Binding;
+
+public class GroovyClassCacheTest {
+
+    @Test
+    public void testClassesAreCompiledOnce() {
+        long misses = GroovyClassCache.getMissCount();
+        long hits = GroovyClassCache.getHitCount();
+        Class<?> first = GroovyClassCache.getClass("value * 2");
+        Class<?> second = GroovyClassCache.getClass("value * 2");
+        assertSame(first, second);
+        assertEquals(misses + 1, GroovyClassCache.getMissCount());
+        assertEquals(hits + 1, GroovyClassCache.getHitCount());
+
+        Binding binding = new Binding();
+        binding.setVariable("value", 21);
+        assertEquals(42, InvokerHelper.createScript(second, binding).run());
+    }
+
+    @Test
+    public void testClassLoaderIsPartOfTheKey() {
+        ClassLoader other = new ClassLoader(getClass().getClassLoader()) {
+        };
+        assertNotSame(GroovyClassCache.getClass("value * 3", getClass().getClassLoader()),
+                GroovyClassCache.getClass("value * 3", other));
+    }
+
+    @Test
+    public void testRemoveDropsTheClassesOfAClassLoader() {
+        ClassLoader other = new ClassLoader(getClass().getClassLoader()) {
+        };
+        Class<?> kept = GroovyClassCache.getClass("value * 4", getClass().getClassLoader());
+        Class<?> removed = GroovyClassCache.getClass("value * 4", other);
+        GroovyClassCache.remove(other);
+        assertSame(kept, GroovyClassCache.getClass("value * 4", getClass().getClassLoader()));
+        assertNotSame(removed, GroovyClassCache.getClass("value * 4", other));
+    }
+
+}
@@ -0,0 +1,95 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ThreadUtilsTest {
+
+    @Test
+    public void testUnboundedPoolUsesVirtualThreadsOnlyWhenSupported() throws Exception {
+        ExecutorService executor = ThreadUtils.createUnboundedThreadPool("unbounded", true);
+        try {
+            Thread thread = executor.submit(() -> Thread.currentThread()).get(5, TimeUnit.SECONDS);
+            assertEquals("unbounded-1", thread.getName());
+            assertEquals(ThreadUtils.isVirtualThreadsSupported(), isVirtual(thread));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFixedPoolUsesVirtualThreadsOnlyWhenSupported() throws Exception {
+        ExecutorService executor = ThreadUtils.createFixedThreadPool("fixed", 10, 2, true);
+        try {
+            Thread thread = executor.submit(() -> Thread.currentThread()).get(5, TimeUnit.SECONDS);
+            assertTrue(thread.getName(), thread.getName().startsWith("fixed-"));
+            assertEquals(ThreadUtils.isVirtualThreadsSupported(), isVirtual(thread));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testPlatformThreadsWhenVirtualThreadsAreNotRequested() throws Exception {
+        ExecutorService executor = ThreadUtils.createUnboundedThreadPool("platform", false);
+        try {
+            Future<Thread> thread = executor.submit(() -> Thread.currentThread());
+            assertFalse(isVirtual(thread.get(5, TimeUnit.SECONDS)));
+        } finally {
+            executor.shutdownNow();
+        }
+        assertTrue(ThreadUtils.createThreadFactory("platform", false) instanceof ThreadUtils.CustomThreadFactory);
+    }
+
+    @Test
+    public void testFallsBackToPlatformThreadsWithoutVirtualThreadSupport() {
+        boolean supported = ThreadUtils.isVirtualThreadsSupported();
+        assertEquals(supported, hasMethod(Thread.class, "ofVirtual"));
+        assertEquals(!supported, ThreadUtils.createThreadFactory("fallback", true) instanceof ThreadUtils.CustomThreadFactory);
+    }
+
+    static boolean isVirtual(Thread thread) throws Exception {
+        if (hasMethod(Thread.class, "isVirtual")) {
+            return (Boolean) Thread.class.getMethod("isVirtual").invoke(thread);
+        } else {
+            return false;
+        }
+    }
+
+    static boolean hasMethod(Class<?> clazz, String name) {
+        try {
+            clazz.getMethod(name);
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+}
@@ -6,8 +6,11 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 
+import org.jumpmind.metl.core.model.Component;
 import org.jumpmind.metl.core.model.Execution;
+import org.jumpmind.metl.core.model.Flow;
 import org.jumpmind.metl.core.model.FlowName;
+import org.jumpmind.metl.core.model.FlowStep;
 
 public class StandaloneTestFlowRunner extends StandaloneFlowRunner {
 
@@ -29,7 +32,25 @@ public class StandaloneTestFlowRunner extends StandaloneFlowRunner {
     }
 
     public void testFlow(FlowName flow) throws Exception {
-        String executionId = runFlow(flow, true);
+        checkExecution(runFlow(flow, true));
+    }
+
+    /**
+     * Run the flow with a setting changed on every component of the given
+     * type
+     */
+    public void testFlow(FlowName flowName, String componentType, String settingName, String settingValue) throws Exception {
+        Flow flow = configurationService.findFlow(flowName.getId());
+        for (FlowStep flowStep : flow.getFlowSteps()) {
+            Component component = flowStep.getComponent();
+            if (componentType.equals(component.getType())) {
+                component.put(settingName, settingValue);
+            }
+        }
+        checkExecution(runFlow(flow, true));
+    }
+
+    protected void checkExecution(String executionId) {
         Execution execution = findExecution(executionId);
         if (execution.isNotSuccess()) {
             fail(getFailureMessage(execution));
@@ -1,9 +1,12 @@
 package org.jumpmind.metl.core.runtime.flow;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 import org.jumpmind.metl.core.model.FlowName;
 import org.jumpmind.metl.core.runtime.StandaloneTestFlowRunner;
+import org.jumpmind.metl.core.runtime.component.DataDiff;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
@@ -16,19 +19,33 @@ public class DataDiffFlowTest {
 
     FlowName flow;
 
-    public DataDiffFlowTest(FlowName flow) {
+    String strategy;
+
+    public DataDiffFlowTest(FlowName flow, String strategy) {
         this.flow = flow;
+        this.strategy = strategy;
     }
 
     @Test
     public void testFlow() throws Exception {
-        standaloneFlowRunner.testFlow(flow);
+        standaloneFlowRunner.testFlow(flow, "DataDiff", DataDiff.DIFF_STRATEGY, strategy);
     }
 
-    @Parameters(name = "{0}")
+    /*
+     * The flows assert on the output of the database strategy so every
+     * flow is run with each strategy
+     */
+    @Parameters(name = "{0} {1}")
     public static Collection<Object[]> getFlows() throws Exception {
         standaloneFlowRunner = new StandaloneTestFlowRunner("/datadiff-flow-test-config.sql");
-        return standaloneFlowRunner.getFlowAsTestParams();
+        List<Object[]> params = new ArrayList<>();
+        for (Object[] flow : standaloneFlowRunner.getFlowAsTestParams()) {
+            for (String strategy : new String[] { DataDiff.STRATEGY_DATABASE, DataDiff.STRATEGY_HASH_JOIN,
+                    DataDiff.STRATEGY_SORT_MERGE }) {
+                params.add(new Object[] { flow[0], strategy });
+            }
+        }
+        return params;
     }
 
 }
@@ -69,7 +69,6 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Controller;
-import org.springframework.util.AntPathMatcher;
 import org.springframework.util.MimeTypeUtils;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.PathVariable;
@@ -120,8 +119,6 @@ public class ExecutionApi {
     @Autowired
     IHttpRequestMappingRegistry requestRegistry;
 
-    AntPathMatcher patternMatcher = new AntPathMatcher();
-
     @ApiOperation(
             value = "Invoke a flow that is deployed to an agent by name.  This is the way a non-webservice enabled flow is typically called by an external tool")
     @RequestMapping(value = "/agents/{agentName}/deployments/{deploymentName}/invoke", method = RequestMethod.GET)
@@ -313,10 +310,11 @@ public class ExecutionApi {
         String requestType = request.getMethod();
         String restOfTheUrl = ((String) request.getAttribute(HandlerMapping.PATH_WITHIN_HANDLER_MAPPING_ATTRIBUTE)).substring(WS.length());
         log.info(String.format("Attempting to find a service uri match for %s with request type %s", restOfTheUrl, requestType));
-        HttpRequestMapping mapping = requestRegistry.findBestMatch(HttpMethod.valueOf(requestType), restOfTheUrl);
+        Map<String, String> uriVariables = new LinkedHashMap<String, String>();
+        HttpRequestMapping mapping = requestRegistry.findBestMatch(HttpMethod.valueOf(requestType), restOfTheUrl, uriVariables);
         if (mapping != null) {
             Map<String, String> params = toMap(request);
-            params.putAll(patternMatcher.extractUriTemplateVariables(mapping.getPath(), restOfTheUrl));
+            params.putAll(uriVariables);
             if (isNotBlank(payload)) {
                 params.put(REQUEST_VALUE_PARAMETER, payload.toString());
             }
@@ -327,7 +325,8 @@ public class ExecutionApi {
             }
             AgentDeployment deployment = mapping.getDeployment();
             AgentRuntime agentRuntime = agentManager.getAgentRuntime(deployment.getAgentId());
-            FlowRuntime flowRuntime = agentRuntime.createFlowRuntime(whoAreYou(request), deployment, params);
+            FlowRuntime flowRuntime = agentRuntime.createFlowRuntime(whoAreYou(request), deployment, params, mapping.getMinPoolSize(),
+                    mapping.getMaxPoolSize());
             IHasSecurity security = flowRuntime.getHasSecurity();
             if (enforceSecurity(security, request, response)) {
                 String executionId = flowRuntime.getExecutionId();
@@ -177,6 +177,17 @@ public class EditAgentPanel extends VerticalLayout implements IUiPanel, IBackgro
         editAgentLayout.addComponent(showInExploreViewField);
         editAgentLayout.setComponentAlignment(showInExploreViewField, Alignment.BOTTOM_LEFT);
 
+        CheckBox useVirtualThreadsField = new CheckBox("Virtual Threads?", Boolean.valueOf(agent.isUseVirtualThreads()));
+        useVirtualThreadsField.setDescription("Run flow steps on virtual threads.  Requires Java 21 or later");
+        useVirtualThreadsField.setImmediate(true);
+        useVirtualThreadsField.addValueChangeListener(event -> {
+            agent.setUseVirtualThreads(useVirtualThreadsField.getValue());
+            EditAgentPanel.this.context.getConfigurationService().save((AbstractObject) agent);
+            EditAgentPanel.this.context.getAgentManager().refresh(agent);
+        });
+        editAgentLayout.addComponent(useVirtualThreadsField);
+        editAgentLayout.setComponentAlignment(useVirtualThreadsField, Alignment.BOTTOM_LEFT);
+
         CheckBox allowTestFlowsField = new CheckBox("Allow Tests?", Boolean.valueOf(agent.isAllowTestFlows()));
         allowTestFlowsField.setDescription("Allow test flows to be deployed to this agent");
         allowTestFlowsField.setImmediate(true);
@@ -591,7 +591,7 @@ public class EditModelPanel extends VerticalLayout implements IUiPanel {
             ModelEntity e = new ModelEntity();
             e.setName("New Entity");
             e.setModelId(model.getId());
-            model.getModelEntities().add(e);
+            model.addModelEntity(e);
             context.getConfigurationService().save(e);
             addModelEntity(e);
             selectOnly(e);
@@ -665,7 +665,7 @@ public class EditModelPanel extends VerticalLayout implements IUiPanel {
                             if (itemId instanceof ModelEntity) {
                                 context.getConfigurationService().delete((ModelEntity) itemId);
                                 treeTable.removeItem(itemId);
-                                model.getModelEntities().remove(itemId);
+                                model.removeModelEntity((ModelEntity) itemId);
                             }
                         }
 
@@ -698,7 +698,7 @@ public class EditModelPanel extends VerticalLayout implements IUiPanel {
                     context.getConfigurationService().save(e);
                     existingModelEntities.put(e.getName().toUpperCase(), e);
                     add(e);
-                    model.getModelEntities().add(e);
+                    model.addModelEntity(e);
                 } else {
                     for (ModelAttribute a : e.getModelAttributes()) {
                         if (modelEntity.getModelAttributeByName(a.getName()) == null) {
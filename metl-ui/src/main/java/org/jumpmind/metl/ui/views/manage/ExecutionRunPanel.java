@@ -299,6 +299,14 @@ public class ExecutionRunPanel extends VerticalLayout implements IUiPanel, IBack
                 .setWidth(140);
         stepTable.addColumn("queueDurationString", String.class).setHeaderCaption("Wait Duration")
                 .setWidth(140);
+        stepTable.addColumn("handleP50Micros", Long.class).setHeaderCaption("Run p50 (us)")
+                .setWidth(120);
+        stepTable.addColumn("handleP99Micros", Long.class).setHeaderCaption("Run p99 (us)")
+                .setWidth(120);
+        stepTable.addColumn("queueWaitP99Micros", Long.class).setHeaderCaption("Queue p99 (us)")
+                .setWidth(120);
+        stepTable.addColumn("sendWaitP99Micros", Long.class).setHeaderCaption("Wait p99 (us)")
+                .setWidth(120);
         stepTable.setContainerDataSource(stepContainer);
         stepTable.addSelectionListener(event -> {
             String stepId = (String) stepTable.getSelectedRow();
@@ -743,6 +751,10 @@ public class ExecutionRunPanel extends VerticalLayout implements IUiPanel, IBack
                     item.getItemProperty("startTime").setValue(step.getStartTime());
                     item.getItemProperty("handleDuration").setValue(step.getHandleDuration());
                     item.getItemProperty("queueDuration").setValue(step.getQueueDuration());
+                    item.getItemProperty("handleP50Micros").setValue(step.getHandleP50Micros());
+                    item.getItemProperty("handleP99Micros").setValue(step.getHandleP99Micros());
+                    item.getItemProperty("queueWaitP99Micros").setValue(step.getQueueWaitP99Micros());
+                    item.getItemProperty("sendWaitP99Micros").setValue(step.getSendWaitP99Micros());
 
                 }
             }